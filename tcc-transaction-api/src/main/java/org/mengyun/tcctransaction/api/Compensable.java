@@ -64,6 +64,20 @@ public @interface Compensable {
      */
     boolean asyncCancel() default false;
 
+    /**
+     * 是否并行调用所有参与者的confirm，开启后confirm耗时接近最慢的参与者而不是所有参与者之和
+     *
+     * @return
+     */
+    boolean parallelConfirm() default false;
+
+    /**
+     * 是否并行调用所有参与者的cancel
+     *
+     * @return
+     */
+    boolean parallelCancel() default false;
+
     class NullableTransactionContextEditor implements TransactionContextEditor {
 
         @Override
@@ -0,0 +1,87 @@
+package org.mengyun.tcctransaction.api;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 默认的ID生成方式，按时间有序，类似Snowflake/ULID：
+ * <pre>
+ * | 48位毫秒时间戳 | 16位节点ID | 24位线程槽位 | 40位线程内序号 |
+ * </pre>
+ * 每个线程第一次生成时分配一个槽位，序号从随机值开始只在本线程内递增，生成时不加锁也没有共享的写操作。
+ * 同一节点上不同线程的槽位不同，同一线程的序号不重复，时钟回拨也不会产生重复的ID。
+ * <p>
+ * 节点ID默认随机，多个节点部署时可以通过setNodeId指定不同的值。
+ * ID按时间递增，写入数据库时唯一索引UX_TX_BQ的插入位置集中在索引末尾
+ */
+public class TimeBasedXidGenerator implements XidGenerator {
+
+    private static final int NODE_ID_BITS = 16;
+
+    private static final int SLOT_BITS = 24;
+
+    private static final int SEQUENCE_BITS = 40;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    private final AtomicInteger slots = new AtomicInteger();
+
+    private final ThreadLocal<ThreadState> threadStates = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState(slots.getAndIncrement() & SLOT_MASK, ThreadLocalRandom.current().nextLong());
+        }
+    };
+
+    private volatile int nodeId = ThreadLocalRandom.current().nextInt(1 << NODE_ID_BITS);
+
+    public TimeBasedXidGenerator() {
+    }
+
+    public TimeBasedXidGenerator(int nodeId) {
+        setNodeId(nodeId);
+    }
+
+    /**
+     * 节点ID，取值0~65535
+     *
+     * @param nodeId
+     */
+    public void setNodeId(int nodeId) {
+
+        if (nodeId < 0 || nodeId >= 1 << NODE_ID_BITS) {
+            throw new IllegalArgumentException("nodeId must be between 0 and 65535, but was " + nodeId);
+        }
+
+        this.nodeId = nodeId;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public byte[] generate() {
+
+        ThreadState state = threadStates.get();
+
+        long mostSigBits = System.currentTimeMillis() << NODE_ID_BITS | nodeId;
+        long leastSigBits = (long) state.slot << SEQUENCE_BITS | (state.sequence++ & SEQUENCE_MASK);
+
+        return UuidUtils.toByteArray(mostSigBits, leastSigBits);
+    }
+
+    private static class ThreadState {
+
+        final int slot;
+
+        long sequence;
+
+        ThreadState(int slot, long sequence) {
+            this.slot = slot;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -5,7 +5,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * ģID״̬
+ * 事务上下文，包含事务的ID与状态
  * <p>
  * Created by changmingxie on 10/30/15.
  */
@@ -14,17 +14,17 @@ public class TransactionContext implements Serializable {
     private static final long serialVersionUID = -8199390103169700387L;
 
     /**
-     * ID
+     * 事务ID
      */
     private TransactionXid xid;
 
     /**
-     * ״̬TRYING, CONFIRMING, CANCELING
+     * 事务状态：TRYING, CONFIRMING, CANCELING
      */
     private int status;
 
     /**
-     * չϢ
+     * 扩展信息
      */
     private Map<String, String> attachments = new ConcurrentHashMap<String, String>();
 
@@ -42,7 +42,7 @@ public class TransactionContext implements Serializable {
     }
 
     public TransactionXid getXid() {
-        return xid.clone();
+        return xid;
     }
 
     public void setAttachments(Map<String, String> attachments) {
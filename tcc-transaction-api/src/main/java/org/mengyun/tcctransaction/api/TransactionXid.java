@@ -10,6 +10,10 @@ import java.util.UUID;
 /**
  * 事务ID，包括全局ID与分支ID
  * <p>
+ * 创建后不应再修改，Transaction和TransactionContext直接返回同一个实例而不再复制。
+ * getGlobalTransactionId和getBranchQualifier返回内部数组本身，调用方不能修改其内容。
+ * hashCode和toString的结果在第一次调用后缓存，作为缓存key、Redis key和日志时不重复计算
+ * <p>
  * Created by changmingxie on 10/26/15.
  */
 public class TransactionXid implements Xid, Serializable {
@@ -26,31 +30,84 @@ public class TransactionXid implements Xid, Serializable {
      */
     private byte[] branchQualifier;
 
-    private static byte[] CUSTOMIZED_TRANSACTION_ID = "UniqueIdentity".getBytes();
+    private static final byte[] CUSTOMIZED_TRANSACTION_ID = "UniqueIdentity".getBytes();
+
+    private static volatile XidGenerator xidGenerator = new TimeBasedXidGenerator();
+
+    /**
+     * 缓存的hashCode，0表示未计算，不参与序列化
+     */
+    private transient int hash;
+
+    /**
+     * 缓存的toString结果，不参与序列化
+     */
+    private transient String string;
 
     public TransactionXid() {
-        globalTransactionId = uuidToByteArray(UUID.randomUUID());
-        branchQualifier = uuidToByteArray(UUID.randomUUID());
+        globalTransactionId = xidGenerator.generate();
+        branchQualifier = xidGenerator.generate();
+    }
+
+    /**
+     * 由两个128位ID的高低64位直接构造，不经过UUID和ByteBuffer
+     *
+     * @param globalMostSigBits
+     * @param globalLeastSigBits
+     * @param branchMostSigBits
+     * @param branchLeastSigBits
+     */
+    public TransactionXid(long globalMostSigBits, long globalLeastSigBits, long branchMostSigBits, long branchLeastSigBits) {
+        this.globalTransactionId = UuidUtils.toByteArray(globalMostSigBits, globalLeastSigBits);
+        this.branchQualifier = UuidUtils.toByteArray(branchMostSigBits, branchLeastSigBits);
+    }
+
+    /**
+     * 替换全局的ID生成方式，默认为TimeBasedXidGenerator，只影响之后新建的事务
+     *
+     * @param xidGenerator
+     */
+    public static void setXidGenerator(XidGenerator xidGenerator) {
+        TransactionXid.xidGenerator = xidGenerator;
+    }
+
+    public static XidGenerator getXidGenerator() {
+        return xidGenerator;
     }
 
+    /**
+     * 只供反序列化框架在构造时使用，之后修改会使已缓存的事务和索引失效
+     *
+     * @param globalTransactionId
+     */
+    @Deprecated
     public void setGlobalTransactionId(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
+        resetCache();
     }
 
+    /**
+     * 只供反序列化框架在构造时使用，之后修改会使已缓存的事务和索引失效
+     *
+     * @param branchQualifier
+     */
+    @Deprecated
     public void setBranchQualifier(byte[] branchQualifier) {
         this.branchQualifier = branchQualifier;
+        resetCache();
     }
 
     public TransactionXid(Object uniqueIdentity) {
 
         if (uniqueIdentity == null) {
 
-            globalTransactionId = uuidToByteArray(UUID.randomUUID());
-            branchQualifier = uuidToByteArray(UUID.randomUUID());
+            globalTransactionId = xidGenerator.generate();
+            branchQualifier = xidGenerator.generate();
 
         } else {
 
-            this.globalTransactionId = CUSTOMIZED_TRANSACTION_ID;
+            // 每个实例持有自己的副本，getter返回内部数组，不能共享
+            this.globalTransactionId = CUSTOMIZED_TRANSACTION_ID.clone();
 
             this.branchQualifier = uniqueIdentity.toString().getBytes();
         }
@@ -58,7 +115,7 @@ public class TransactionXid implements Xid, Serializable {
 
     public TransactionXid(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
-        this.branchQualifier = uuidToByteArray(UUID.randomUUID());
+        this.branchQualifier = xidGenerator.generate();
     }
 
     public TransactionXid(byte[] globalTransactionId, byte[] branchQualifier) {
@@ -84,7 +141,19 @@ public class TransactionXid implements Xid, Serializable {
     @Override
     public String toString() {
 
-        StringBuilder stringBuilder = new StringBuilder();
+        String result = string;
+
+        if (result == null) {
+            result = buildString();
+            string = result;
+        }
+
+        return result;
+    }
+
+    private String buildString() {
+
+        StringBuilder stringBuilder = new StringBuilder(73);
         if (Arrays.equals(CUSTOMIZED_TRANSACTION_ID, globalTransactionId)) {
 
             stringBuilder.append(new String(globalTransactionId));
@@ -118,11 +187,18 @@ public class TransactionXid implements Xid, Serializable {
     }
 
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + this.getFormatId();
-        result = prime * result + Arrays.hashCode(branchQualifier);
-        result = prime * result + Arrays.hashCode(globalTransactionId);
+
+        int result = hash;
+
+        if (result == 0) {
+            final int prime = 31;
+            result = 1;
+            result = prime * result + this.getFormatId();
+            result = prime * result + Arrays.hashCode(branchQualifier);
+            result = prime * result + Arrays.hashCode(globalTransactionId);
+            hash = result;
+        }
+
         return result;
     }
 
@@ -135,7 +211,9 @@ public class TransactionXid implements Xid, Serializable {
             return false;
         }
         TransactionXid other = (TransactionXid) obj;
-        if (this.getFormatId() != other.getFormatId()) {
+        if (this.hashCode() != other.hashCode()) {
+            return false;
+        } else if (this.getFormatId() != other.getFormatId()) {
             return false;
         } else if (!Arrays.equals(branchQualifier, other.branchQualifier)) {
             return false;
@@ -145,11 +223,9 @@ public class TransactionXid implements Xid, Serializable {
         return true;
     }
 
-    private static byte[] uuidToByteArray(UUID uuid) {
-        ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
-        bb.putLong(uuid.getMostSignificantBits());
-        bb.putLong(uuid.getLeastSignificantBits());
-        return bb.array();
+    private void resetCache() {
+        hash = 0;
+        string = null;
     }
 
     private static UUID byteArrayToUUID(byte[] bytes) {
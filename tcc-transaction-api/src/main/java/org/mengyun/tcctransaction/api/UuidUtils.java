@@ -9,10 +9,28 @@ import java.util.UUID;
 public class UuidUtils {
 
     public static byte[] uuidToByteArray(UUID uuid) {
-        ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
-        bb.putLong(uuid.getMostSignificantBits());
-        bb.putLong(uuid.getLeastSignificantBits());
-        return bb.array();
+        return toByteArray(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * 128位ID按大端序转为16字节
+     *
+     * @param mostSigBits
+     * @param leastSigBits
+     * @return
+     */
+    public static byte[] toByteArray(long mostSigBits, long leastSigBits) {
+
+        byte[] bytes = new byte[16];
+
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) mostSigBits;
+            bytes[i + 8] = (byte) leastSigBits;
+            mostSigBits >>>= 8;
+            leastSigBits >>>= 8;
+        }
+
+        return bytes;
     }
 
     public static UUID byteArrayToUUID(byte[] bytes) {
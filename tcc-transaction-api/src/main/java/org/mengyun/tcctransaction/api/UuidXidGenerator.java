@@ -0,0 +1,15 @@
+package org.mengyun.tcctransaction.api;
+
+import java.util.UUID;
+
+/**
+ * 使用UUID.randomUUID生成ID，即原来的行为。
+ * 高并发时共用的SecureRandom会产生竞争，熵不足的环境中还可能阻塞
+ */
+public class UuidXidGenerator implements XidGenerator {
+
+    @Override
+    public byte[] generate() {
+        return UuidUtils.uuidToByteArray(UUID.randomUUID());
+    }
+}
@@ -0,0 +1,16 @@
+package org.mengyun.tcctransaction.api;
+
+/**
+ * 生成TransactionXid中的全局事务ID与分支标识，通过TransactionXid.setXidGenerator替换。
+ * <p>
+ * 实现必须线程安全，生成的ID在所有节点之间不能重复
+ */
+public interface XidGenerator {
+
+    /**
+     * 生成一个新的16字节ID
+     *
+     * @return
+     */
+    byte[] generate();
+}
@@ -0,0 +1,25 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 基准测试入口，在JMH命令行参数的基础上默认开启GC profiler，输出每次操作的内存分配量(gc.alloc.rate.norm)。
+ * <p>
+ * java -jar tcc-transaction-benchmark/target/benchmarks.jar [JMH参数，如 Serializer -t 8]
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
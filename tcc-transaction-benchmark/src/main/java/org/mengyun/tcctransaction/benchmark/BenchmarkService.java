@@ -0,0 +1,109 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基准测试中的TCC服务及测试数据，try、confirm、cancel都不做业务操作，只衡量框架本身的开销
+ */
+public class BenchmarkService {
+
+    static final Class[] PARAMETER_TYPES = new Class[]{TransactionContext.class, List.class};
+
+    @Compensable(confirmMethod = "confirmPlaceOrder", cancelMethod = "cancelPlaceOrder")
+    public int tryPlaceOrder(TransactionContext transactionContext, List<OrderLine> orderLines) {
+        return orderLines.size();
+    }
+
+    public void confirmPlaceOrder(TransactionContext transactionContext, List<OrderLine> orderLines) {
+    }
+
+    public void cancelPlaceOrder(TransactionContext transactionContext, List<OrderLine> orderLines) {
+    }
+
+    static List<OrderLine> orderLines(int count) {
+
+        List<OrderLine> orderLines = new ArrayList<OrderLine>(count);
+
+        for (int i = 0; i < count; i++) {
+            orderLines.add(new OrderLine(1000L + i, "product-" + i, 2, new BigDecimal("99.90")));
+        }
+
+        return orderLines;
+    }
+
+    static Participant participant(Transaction transaction, List<OrderLine> orderLines) {
+
+        TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+        Object[] args = new Object[]{null, orderLines};
+
+        return new Participant(xid,
+                new InvocationContext(BenchmarkService.class, "confirmPlaceOrder", PARAMETER_TYPES, args),
+                new InvocationContext(BenchmarkService.class, "cancelPlaceOrder", PARAMETER_TYPES, args),
+                Compensable.DefaultTransactionContextEditor.class);
+    }
+
+    /**
+     * 与下单场景相近的事务：participantCount个参与者，每个参与者的参数中带有orderLineCount个订单行
+     */
+    static Transaction transaction(int participantCount, int orderLineCount) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        List<OrderLine> orderLines = orderLines(orderLineCount);
+
+        for (int i = 0; i < participantCount; i++) {
+            transaction.enlistParticipant(participant(transaction, orderLines));
+        }
+
+        return transaction;
+    }
+
+    public static class OrderLine implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private long productId;
+
+        private String productName;
+
+        private int quantity;
+
+        private BigDecimal unitPrice;
+
+        public OrderLine() {
+        }
+
+        public OrderLine(long productId, String productName, int quantity, BigDecimal unitPrice) {
+            this.productId = productId;
+            this.productName = productName;
+            this.quantity = quantity;
+            this.unitPrice = unitPrice;
+        }
+
+        public long getProductId() {
+            return productId;
+        }
+
+        public String getProductName() {
+            return productName;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public BigDecimal getUnitPrice() {
+            return unitPrice;
+        }
+    }
+}
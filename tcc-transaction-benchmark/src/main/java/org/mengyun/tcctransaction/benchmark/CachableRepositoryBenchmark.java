@@ -0,0 +1,70 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CachableTransactionRepository.findByXid的缓存命中和未命中路径。
+ * 命中时直接返回缓存中的事务，未命中时查询存储，存储中也不存在
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class CachableRepositoryBenchmark {
+
+    /**
+     * 不超过缓存的最大容量1000，保证全部命中
+     */
+    private static final int TRANSACTION_COUNT = 512;
+
+    private InMemoryTransactionRepository repository;
+
+    private TransactionXid[] cachedXids;
+
+    private TransactionXid[] absentXids;
+
+    @Setup
+    public void setUp() {
+
+        repository = new InMemoryTransactionRepository();
+        cachedXids = new TransactionXid[TRANSACTION_COUNT];
+        absentXids = new TransactionXid[TRANSACTION_COUNT];
+
+        for (int i = 0; i < TRANSACTION_COUNT; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            cachedXids[i] = (TransactionXid) transaction.getXid();
+            absentXids[i] = new TransactionXid();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int index;
+
+        int next() {
+            index = (index + 1) & (TRANSACTION_COUNT - 1);
+            return index;
+        }
+    }
+
+    @Benchmark
+    public Transaction cacheHit(Cursor cursor) {
+        return repository.findByXid(cachedXids[cursor.next()]);
+    }
+
+    @Benchmark
+    public Transaction cacheMiss(Cursor cursor) {
+        return repository.findByXid(absentXids[cursor.next()]);
+    }
+}
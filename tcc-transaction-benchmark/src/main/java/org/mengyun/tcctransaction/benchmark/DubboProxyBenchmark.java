@@ -0,0 +1,253 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.AsyncRpcResult;
+import org.apache.dubbo.rpc.Filter;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.proxy.jdk.JdkProxyFactory;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.dubbo.filter.TccConsumerFilter;
+import org.mengyun.tcctransaction.dubbo.proxy.javassist.TccJavassistProxyFactory;
+import org.mengyun.tcctransaction.dubbo.proxy.jdk.TccJdkProxyFactory;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorAspect;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorInterceptor;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.mengyun.tcctransaction.support.BeanFactory;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dubbo消费端调用接口上@Compensable方法的三种方式：
+ * TccJdkProxyFactory的代理在InvocationHandler中直接调用资源协调拦截器，
+ * TccJavassistProxyFactory生成的代理类方法上带有@Compensable，由Spring AOP调用资源协调拦截器，这里按切面的方式构造切点，
+ * TccConsumerFilter使用Dubbo自身的代理，在Filter中调用资源协调拦截器。*PlainMethod为同一接口上非TCC方法的调用开销。
+ * 远程调用由返回固定结果的Invoker代替，inTransaction为true时每次调用都在新的根事务中进行，包含参与者登记的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class DubboProxyBenchmark {
+
+    /**
+     * TccInvokerInvocationHandler通过FactoryBuilder获取资源协调切面，同一个JVM中只注册一次
+     */
+    private static final ResourceCoordinatorAspect RESOURCE_COORDINATOR_ASPECT = new ResourceCoordinatorAspect() {
+        @Override
+        public int getOrder() {
+            return 0;
+        }
+    };
+
+    static {
+        FactoryBuilder.registerBeanFactory(new BeanFactory() {
+            @Override
+            public <T> T getBean(Class<T> clazz) {
+                return clazz.cast(RESOURCE_COORDINATOR_ASPECT);
+            }
+
+            @Override
+            public <T> boolean isFactoryOf(Class<T> clazz) {
+                return clazz == ResourceCoordinatorAspect.class;
+            }
+        });
+    }
+
+    @Param({"false", "true"})
+    public boolean inTransaction;
+
+    private TransactionManager transactionManager;
+
+    private InMemoryTransactionRepository transactionRepository;
+
+    private ResourceCoordinatorInterceptor resourceCoordinatorInterceptor;
+
+    private OrderService jdkProxy;
+
+    private OrderService javassistProxy;
+
+    private Method javassistMethod;
+
+    private OrderService filterProxy;
+
+    private List<BenchmarkService.OrderLine> orderLines;
+
+    public interface OrderService {
+
+        @Compensable
+        int placeOrder(List<BenchmarkService.OrderLine> orderLines);
+
+        int countOrderLines(List<BenchmarkService.OrderLine> orderLines);
+    }
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+
+        transactionRepository = new InMemoryTransactionRepository();
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(transactionRepository);
+
+        resourceCoordinatorInterceptor = new ResourceCoordinatorInterceptor();
+        resourceCoordinatorInterceptor.setTransactionManager(transactionManager);
+
+        RESOURCE_COORDINATOR_ASPECT.setResourceCoordinatorInterceptor(resourceCoordinatorInterceptor);
+
+        Invoker<OrderService> invoker = new OrderServiceInvoker();
+        jdkProxy = new TccJdkProxyFactory().getProxy(invoker, new Class<?>[]{OrderService.class});
+        javassistProxy = new TccJavassistProxyFactory().getProxy(invoker, new Class<?>[]{OrderService.class});
+        javassistMethod = javassistProxy.getClass().getMethod("placeOrder", List.class);
+        filterProxy = new JdkProxyFactory().getProxy(new ConsumerFilterInvoker(invoker, new TccConsumerFilter()), new Class<?>[]{OrderService.class});
+
+        orderLines = BenchmarkService.orderLines(5);
+    }
+
+    @Benchmark
+    public Object jdkProxy() throws Throwable {
+
+        Transaction transaction = beginIfNecessary();
+
+        try {
+            return jdkProxy.placeOrder(orderLines);
+        } finally {
+            completeIfNecessary(transaction);
+        }
+    }
+
+    @Benchmark
+    public Object javassistProxy() throws Throwable {
+
+        Transaction transaction = beginIfNecessary();
+
+        try {
+            ProceedingJoinPoint pjp = JoinPoints.of(javassistProxy, javassistMethod, new Object[]{orderLines}, new JoinPoints.Proceeding() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object proceed(Object[] args) {
+                    return javassistProxy.placeOrder((List<BenchmarkService.OrderLine>) args[0]);
+                }
+            });
+            return resourceCoordinatorInterceptor.interceptTransactionContextMethod(pjp);
+        } finally {
+            completeIfNecessary(transaction);
+        }
+    }
+
+    @Benchmark
+    public Object consumerFilter() {
+
+        Transaction transaction = beginIfNecessary();
+
+        try {
+            return filterProxy.placeOrder(orderLines);
+        } finally {
+            completeIfNecessary(transaction);
+        }
+    }
+
+    @Benchmark
+    public Object jdkProxyPlainMethod() {
+        return jdkProxy.countOrderLines(orderLines);
+    }
+
+    @Benchmark
+    public Object consumerFilterPlainMethod() {
+        return filterProxy.countOrderLines(orderLines);
+    }
+
+    private Transaction beginIfNecessary() {
+        return inTransaction ? transactionManager.begin() : null;
+    }
+
+    private void completeIfNecessary(Transaction transaction) {
+        if (transaction != null) {
+            transactionRepository.delete(transaction);
+            transactionManager.cleanAfterCompletion(transaction);
+            // 与Dubbo的ConsumerContextFilter一样，调用结束后清理attachment
+            RpcContext.getContext().clearAttachments();
+        }
+    }
+
+    /**
+     * 与Dubbo的Filter链一样，调用时先经过Filter
+     */
+    private static class ConsumerFilterInvoker implements Invoker<OrderService> {
+
+        private final Invoker<OrderService> invoker;
+
+        private final Filter filter;
+
+        ConsumerFilterInvoker(Invoker<OrderService> invoker, Filter filter) {
+            this.invoker = invoker;
+            this.filter = filter;
+        }
+
+        @Override
+        public Class<OrderService> getInterface() {
+            return invoker.getInterface();
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) {
+            return filter.invoke(invoker, invocation);
+        }
+
+        @Override
+        public URL getUrl() {
+            return invoker.getUrl();
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return invoker.isAvailable();
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    /**
+     * 代替远程调用，直接返回订单行数
+     */
+    private static class OrderServiceInvoker implements Invoker<OrderService> {
+
+        private final URL url = URL.valueOf("dubbo://127.0.0.1:20880/" + OrderService.class.getName());
+
+        @Override
+        public Class<OrderService> getInterface() {
+            return OrderService.class;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) {
+            return AsyncRpcResult.newDefaultAsyncResult(((List<?>) invocation.getArguments()[0]).size(), invocation);
+        }
+
+        @Override
+        public URL getUrl() {
+            return url;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拦截器和Terminator每次调用都会执行的FactoryBuilder.factoryOf(...).getInstance()。
+ * mapLookup为原先基于ConcurrentHashMap的查找方式(containsKey + get)，作为对比的基线
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class FactoryBuilderBenchmark {
+
+    private ConcurrentHashMap<Class, FactoryBuilder.SingeltonFactory> classFactoryMap = new ConcurrentHashMap<Class, FactoryBuilder.SingeltonFactory>();
+
+    @Setup
+    public void setUp() {
+        FactoryBuilder.factoryOf(Compensable.DefaultTransactionContextEditor.class).getInstance();
+        FactoryBuilder.factoryOf(BenchmarkService.class).getInstance();
+    }
+
+    @Benchmark
+    public TransactionContextEditor factoryOf() {
+        FactoryBuilder.factoryOf(BenchmarkService.class).getInstance();
+        return FactoryBuilder.factoryOf(Compensable.DefaultTransactionContextEditor.class).getInstance();
+    }
+
+    @Benchmark
+    public Object mapLookup() {
+        mapFactoryOf(BenchmarkService.class).getInstance();
+        return mapFactoryOf(Compensable.DefaultTransactionContextEditor.class).getInstance();
+    }
+
+    private <T> FactoryBuilder.SingeltonFactory<T> mapFactoryOf(Class<T> clazz) {
+
+        if (!classFactoryMap.containsKey(clazz)) {
+            classFactoryMap.putIfAbsent(clazz, new FactoryBuilder.SingeltonFactory<T>(clazz));
+        }
+
+        return classFactoryMap.get(clazz);
+    }
+}
@@ -0,0 +1,81 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.interceptor.CompensableTransactionInterceptor;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorInterceptor;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一次@Compensable根方法调用经过CompensableTransactionInterceptor和ResourceCoordinatorInterceptor的开销，
+ * 与切面的顺序相同：事务拦截器在外，资源协调拦截器在内。directCall为不经过拦截器的基线
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    private BenchmarkService target;
+
+    private Method tryMethod;
+
+    private List<BenchmarkService.OrderLine> orderLines;
+
+    private CompensableTransactionInterceptor compensableTransactionInterceptor;
+
+    private ResourceCoordinatorInterceptor resourceCoordinatorInterceptor;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(new InMemoryTransactionRepository());
+
+        compensableTransactionInterceptor = new CompensableTransactionInterceptor();
+        compensableTransactionInterceptor.setTransactionManager(transactionManager);
+
+        resourceCoordinatorInterceptor = new ResourceCoordinatorInterceptor();
+        resourceCoordinatorInterceptor.setTransactionManager(transactionManager);
+
+        target = new BenchmarkService();
+        tryMethod = BenchmarkService.class.getMethod("tryPlaceOrder", BenchmarkService.PARAMETER_TYPES);
+        orderLines = BenchmarkService.orderLines(5);
+    }
+
+    @Benchmark
+    public Object directCall() {
+        return target.tryPlaceOrder(null, orderLines);
+    }
+
+    @Benchmark
+    public Object interceptedRootCall() throws Throwable {
+
+        final Object[] args = new Object[]{null, orderLines};
+
+        final ProceedingJoinPoint innerJoinPoint = JoinPoints.of(target, tryMethod, args, new JoinPoints.Proceeding() {
+            @Override
+            public Object proceed(Object[] proceedArgs) {
+                return target.tryPlaceOrder((TransactionContext) proceedArgs[0], (List<BenchmarkService.OrderLine>) proceedArgs[1]);
+            }
+        });
+
+        ProceedingJoinPoint outerJoinPoint = JoinPoints.of(target, tryMethod, args, new JoinPoints.Proceeding() {
+            @Override
+            public Object proceed(Object[] proceedArgs) throws Throwable {
+                return resourceCoordinatorInterceptor.interceptTransactionContextMethod(innerJoinPoint);
+            }
+        });
+
+        return compensableTransactionInterceptor.interceptCompensableMethod(outerJoinPoint);
+    }
+}
@@ -0,0 +1,260 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JdbcTransactionRepository在内嵌H2(文件模式，MySQL兼容)上的增删改查、乐观锁冲突和恢复分页扫描，
+ * 表中预先写入rows条已超时的事务。与线上配置一样设置了domain，恢复扫描才能使用IDX_DOMAIN_UPDATE_TIME索引。同时输出吞吐量和SampleTime的延迟分位数(p99等)。
+ * <p>
+ * 预写100万行需要几十秒，只跑小表时可以加 -p rows=10000
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class JdbcRepositoryBenchmark {
+
+    private static final String DOMAIN = "TCC-BENCHMARK";
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private File databaseDirectory;
+
+    private JdbcConnectionPool dataSource;
+
+    private ObjectSerializer serializer = new KryoPoolSerializer();
+
+    private long seed;
+
+    private long firstUpdateTime;
+
+    private Transaction hotTransaction;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+
+        databaseDirectory = File.createTempFile("tcc-h2-", "");
+        databaseDirectory.delete();
+        databaseDirectory.mkdirs();
+
+        dataSource = JdbcConnectionPool.create("jdbc:h2:file:" + databaseDirectory.getAbsolutePath() + "/tcc;MODE=MySQL", "sa", "");
+        dataSource.setMaxConnections(64);
+
+        execute("RUNSCRIPT FROM 'classpath:/db-h2.sql'");
+
+        seed = System.nanoTime();
+        firstUpdateTime = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+
+        load();
+
+        hotTransaction = new Transaction(TransactionType.ROOT);
+        newRepository().create(hotTransaction);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+
+        execute("SHUTDOWN");
+        dataSource.dispose();
+
+        File[] files = databaseDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        databaseDirectory.delete();
+    }
+
+    /**
+     * 每个线程一个仓库实例和一个自己的事务，更新时没有冲突
+     */
+    @State(Scope.Thread)
+    public static class Node {
+
+        private StoreRepository repository;
+
+        private Transaction ownTransaction;
+
+        private Transaction hotTransaction;
+
+        @Setup(Level.Trial)
+        public void setUp(JdbcRepositoryBenchmark benchmark) {
+
+            repository = benchmark.newRepository();
+
+            ownTransaction = new Transaction(TransactionType.ROOT);
+            repository.create(ownTransaction);
+
+            hotTransaction = repository.load(benchmark.hotTransaction.getXid());
+        }
+    }
+
+    @Benchmark
+    public int createDelete(Node node) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        node.repository.create(transaction);
+        return node.repository.delete(transaction);
+    }
+
+    @Benchmark
+    public int update(Node node) {
+
+        node.ownTransaction.changeStatus(TransactionStatus.CONFIRMING);
+        return node.repository.update(node.ownTransaction);
+    }
+
+    /**
+     * 按xid查询预写的行，绕过仓库的本地缓存
+     */
+    @Benchmark
+    public Transaction find(Node node) {
+        return node.repository.load(xid(ThreadLocalRandom.current().nextInt(rows)));
+    }
+
+    /**
+     * 所有线程更新同一个事务，冲突时重新读取最新版本，衡量乐观锁冲突路径的开销
+     */
+    @Benchmark
+    public boolean conflictingUpdate(Node node) {
+
+        node.hotTransaction.changeStatus(TransactionStatus.CONFIRMING);
+
+        try {
+            node.repository.update(node.hotTransaction);
+            return true;
+        } catch (OptimisticLockException e) {
+            node.hotTransaction = node.repository.load(hotTransaction.getXid());
+            return false;
+        }
+    }
+
+    /**
+     * 从随机位置开始读取一页超时事务，与恢复任务的keyset分页相同
+     */
+    @Benchmark
+    public Page<Transaction> recoveryScanPage(Node node) {
+
+        int index = ThreadLocalRandom.current().nextInt(rows);
+        String offset = updateTime(index) + ":" + (index + 1);
+
+        return node.repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2)), offset, PAGE_SIZE);
+    }
+
+    private StoreRepository newRepository() {
+        StoreRepository repository = new StoreRepository();
+        repository.setDataSource(dataSource);
+        repository.setDomain(DOMAIN);
+        repository.setSerializer(serializer);
+        return repository;
+    }
+
+    /**
+     * 直接批量插入预写的行，TRANSACTION_ID与行号一一对应(从1开始)，便于构造分页的offset
+     */
+    private void load() throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            connection.setAutoCommit(false);
+
+            PreparedStatement stmt = connection.prepareStatement("INSERT INTO TCC_TRANSACTION" +
+                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION,DOMAIN) VALUES (?,?,?,?,?,?,?,?,?,?)");
+
+            for (int i = 0; i < rows; i++) {
+
+                TransactionXid xid = xid(i);
+                Timestamp updateTime = new Timestamp(updateTime(i));
+
+                Transaction transaction = new Transaction(xid, TransactionType.ROOT, updateTime);
+                transaction.setLastUpdateTime(updateTime);
+
+                stmt.setBytes(1, xid.getGlobalTransactionId());
+                stmt.setBytes(2, xid.getBranchQualifier());
+                stmt.setInt(3, TransactionType.ROOT.getId());
+                stmt.setBytes(4, serializer.serialize(transaction));
+                stmt.setInt(5, TransactionStatus.TRYING.getId());
+                stmt.setInt(6, 0);
+                stmt.setTimestamp(7, updateTime);
+                stmt.setTimestamp(8, updateTime);
+                stmt.setLong(9, 1);
+                stmt.setString(10, DOMAIN);
+                stmt.addBatch();
+
+                if ((i + 1) % LOAD_BATCH_SIZE == 0 || i == rows - 1) {
+                    stmt.executeBatch();
+                    connection.commit();
+                }
+            }
+
+            stmt.close();
+        } finally {
+            connection.setAutoCommit(true);
+            connection.close();
+        }
+    }
+
+    private TransactionXid xid(int index) {
+        return new TransactionXid(
+                ByteBuffer.allocate(16).putLong(seed).putLong(index).array(),
+                ByteBuffer.allocate(16).putLong(~seed).putLong(index).array());
+    }
+
+    /**
+     * 每10行共用一个更新时间
+     */
+    private long updateTime(int index) {
+        return firstUpdateTime + index / 10;
+    }
+
+    private void execute(String sql) throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 直接读取存储，不经过CachableTransactionRepository的本地缓存
+     */
+    static class StoreRepository extends JdbcTransactionRepository {
+
+        Transaction load(Xid xid) {
+            return doFindOne(xid);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * 不经过AspectJ织入直接构造ProceedingJoinPoint，用于单独衡量拦截器的开销。
+ * 与Spring的MethodInvocationProceedingJoinPoint一样，getArgs()每次返回同一个数组
+ */
+final class JoinPoints {
+
+    private JoinPoints() {
+    }
+
+    interface Proceeding {
+        Object proceed(Object[] args) throws Throwable;
+    }
+
+    static ProceedingJoinPoint of(final Object target, final Method method, final Object[] args, final Proceeding proceeding) {
+
+        final MethodSignature signature = (MethodSignature) Proxy.newProxyInstance(JoinPoints.class.getClassLoader(),
+                new Class[]{MethodSignature.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method invoked, Object[] invokedArgs) {
+                        String name = invoked.getName();
+
+                        if ("getMethod".equals(name)) {
+                            return method;
+                        } else if ("getName".equals(name)) {
+                            return method.getName();
+                        } else if ("getParameterTypes".equals(name)) {
+                            return method.getParameterTypes();
+                        } else if ("getDeclaringType".equals(name)) {
+                            return method.getDeclaringClass();
+                        } else if ("getReturnType".equals(name)) {
+                            return method.getReturnType();
+                        } else if ("toString".equals(name) || "toShortString".equals(name) || "toLongString".equals(name)) {
+                            return method.toString();
+                        }
+
+                        return null;
+                    }
+                });
+
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(JoinPoints.class.getClassLoader(),
+                new Class[]{ProceedingJoinPoint.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method invoked, Object[] invokedArgs) throws Throwable {
+                        String name = invoked.getName();
+
+                        if ("proceed".equals(name)) {
+                            return proceeding.proceed(invokedArgs == null || invokedArgs.length == 0 ? args : (Object[]) invokedArgs[0]);
+                        } else if ("getArgs".equals(name)) {
+                            return args;
+                        } else if ("getTarget".equals(name) || "getThis".equals(name)) {
+                            return target;
+                        } else if ("getSignature".equals(name)) {
+                            return signature;
+                        } else if ("toString".equals(name)) {
+                            return "execution(" + method + ")";
+                        }
+
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,76 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.serializer.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各ObjectSerializer对同一个下单事务的序列化、反序列化耗时，
+ * 序列化后的大小在setUp中打印
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"kryo", "compact", "jdk", "jackson", "kryo-lz4", "kryo-deflate"})
+    public String serializerName;
+
+    @Param({"1", "4"})
+    public int participantCount;
+
+    private ObjectSerializer<Transaction> serializer;
+
+    private Transaction transaction;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+
+        serializer = createSerializer(serializerName);
+        transaction = BenchmarkService.transaction(participantCount, 10);
+        bytes = serializer.serialize(transaction);
+
+        System.out.println(String.format("%n%s serialized size with %d participants: %d bytes", serializerName, participantCount, bytes.length));
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(transaction);
+    }
+
+    @Benchmark
+    public Transaction deserialize() {
+        return serializer.deserialize(bytes);
+    }
+
+    private static ObjectSerializer<Transaction> createSerializer(String name) {
+
+        if ("kryo".equals(name)) {
+            return new KryoPoolSerializer();
+        } else if ("compact".equals(name)) {
+            return new CompactTransactionSerializer();
+        } else if ("jdk".equals(name)) {
+            return new JdkSerializationSerializer();
+        } else if ("jackson".equals(name)) {
+            return new JacksonJsonSerializer();
+        } else if ("kryo-lz4".equals(name)) {
+            CompressingObjectSerializer<Transaction> serializer = new CompressingObjectSerializer<Transaction>(new KryoPoolSerializer());
+            serializer.setCodec(new Lz4CompressionCodec());
+            return serializer;
+        } else if ("kryo-deflate".equals(name)) {
+            CompressingObjectSerializer<Transaction> serializer = new CompressingObjectSerializer<Transaction>(new KryoPoolSerializer());
+            serializer.setCodec(new DeflateCompressionCodec());
+            return serializer;
+        }
+
+        throw new IllegalArgumentException("unknown serializer: " + name);
+    }
+}
@@ -0,0 +1,53 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Terminator;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 参与者confirm方法通过Terminator调用与直接调用的对比，衡量confirm/cancel分发本身的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TerminatorBenchmark {
+
+    private BenchmarkService service;
+
+    private List<BenchmarkService.OrderLine> orderLines;
+
+    private TransactionContext transactionContext;
+
+    @Setup
+    public void setUp() {
+
+        service = new BenchmarkService();
+        orderLines = BenchmarkService.orderLines(5);
+        transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId());
+    }
+
+    @Benchmark
+    public Object terminatorInvoke() {
+
+        InvocationContext invocationContext = new InvocationContext(BenchmarkService.class, "confirmPlaceOrder",
+                BenchmarkService.PARAMETER_TYPES, new Object[]{null, orderLines});
+
+        return Terminator.invoke(transactionContext, invocationContext, Compensable.DefaultTransactionContextEditor.class);
+    }
+
+    @Benchmark
+    public void directInvoke() {
+        service.confirmPlaceOrder(transactionContext, orderLines);
+    }
+}
@@ -0,0 +1,53 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.dubbo.context.TransactionContextCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dubbo attachment中TransactionContext的编码和解析：TransactionContextCodec的二进制格式与原先的fastjson格式，
+ * 两种格式编码后的长度在setUp中打印
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransactionContextCodecBenchmark {
+
+    @Param({"binary", "json"})
+    public String format;
+
+    private boolean binary;
+
+    private TransactionContext transactionContext;
+
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+
+        binary = "binary".equals(format);
+        transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+        encoded = encode();
+
+        System.out.println(String.format("%n%s encoded length: %d", format, encoded.length()));
+    }
+
+    @Benchmark
+    public String encode() {
+        return binary ? TransactionContextCodec.encode(transactionContext) : JSON.toJSONString(transactionContext);
+    }
+
+    @Benchmark
+    public TransactionContext decode() {
+        return binary ? TransactionContextCodec.decode(encoded) : JSON.parseObject(encoded, TransactionContext.class);
+    }
+}
@@ -0,0 +1,69 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 根事务begin、登记一个本地参与者、commit/rollback的完整流程，存储为InMemoryTransactionRepository，包含事务序列化的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransactionManagerBenchmark {
+
+    @Param({"false", "true"})
+    public boolean coalesceEnlist;
+
+    private TransactionManager transactionManager;
+
+    private List<BenchmarkService.OrderLine> orderLines;
+
+    @Setup
+    public void setUp() {
+
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(new InMemoryTransactionRepository());
+        transactionManager.setCoalesceEnlist(coalesceEnlist);
+
+        orderLines = BenchmarkService.orderLines(5);
+    }
+
+    @Benchmark
+    public Transaction beginCommit() {
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.enlistParticipant(BenchmarkService.participant(transaction, orderLines));
+            transactionManager.commit(false);
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        return transaction;
+    }
+
+    @Benchmark
+    public Transaction beginRollback() {
+
+        Transaction transaction = transactionManager.begin();
+
+        try {
+            transactionManager.enlistParticipant(BenchmarkService.participant(transaction, orderLines));
+            transactionManager.rollback(false);
+        } finally {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+
+        return transaction;
+    }
+}
@@ -0,0 +1,53 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.api.TimeBasedXidGenerator;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.api.UuidXidGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransactionXid的创建、toString和hashCode，缓存key、日志和存储都会频繁调用。
+ * 创建分别使用默认的时间有序生成器和UUID.randomUUID
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class TransactionXidBenchmark {
+
+    @Param({"time", "uuid"})
+    public String generator;
+
+    private TransactionXid xid;
+
+    @Setup
+    public void setUp() {
+        TransactionXid.setXidGenerator("uuid".equals(generator) ? new UuidXidGenerator() : new TimeBasedXidGenerator());
+        xid = new TransactionXid();
+    }
+
+    @Benchmark
+    public TransactionXid createRoot() {
+        return new TransactionXid();
+    }
+
+    @Benchmark
+    public TransactionXid createBranch() {
+        return new TransactionXid(xid.getGlobalTransactionId());
+    }
+
+    @Benchmark
+    public String toStringXid() {
+        return xid.toString();
+    }
+
+    @Benchmark
+    public int hashCodeXid() {
+        return xid.hashCode();
+    }
+}
@@ -0,0 +1,46 @@
+package org.mengyun.tcctransaction;
+
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * <p>
+ * 非阻塞的事务日志存储，写操作在调用线程完成序列化后即返回，I/O在存储自己的线程中完成。<br/>
+ * 返回的future以与同步方法相同的异常结束，如{@link ConcurrentTransactionException}、{@link OptimisticLockException}
+ * </p>
+ */
+public interface AsyncTransactionRepository extends TransactionRepository {
+
+    /**
+     * 异步新建一个TCC事务
+     *
+     * @param transaction
+     * @return
+     */
+    CompletableFuture<Integer> createAsync(Transaction transaction);
+
+    /**
+     * 异步更新TCC事务，future结束前不要再修改该事务
+     *
+     * @param transaction
+     * @return
+     */
+    CompletableFuture<Integer> updateAsync(Transaction transaction);
+
+    /**
+     * 异步删除TCC事务
+     *
+     * @param transaction
+     * @return
+     */
+    CompletableFuture<Integer> deleteAsync(Transaction transaction);
+
+    /**
+     * 异步根据事务ID查询事务
+     *
+     * @param xid
+     * @return
+     */
+    CompletableFuture<Transaction> findByXidAsync(TransactionXid xid);
+}
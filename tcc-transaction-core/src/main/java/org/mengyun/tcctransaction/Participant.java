@@ -4,7 +4,10 @@ import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
@@ -36,6 +39,12 @@ public class Participant implements Serializable {
      */
     Class<? extends TransactionContextEditor> transactionContextEditorClass;
 
+    /**
+     * 参与者的状态，confirm/cancel成功后记录，随事务一起持久化。
+     * 加入该字段之前写入的记录中没有状态，读取时按TRYING处理，见{@link org.mengyun.tcctransaction.serializer.KryoPoolSerializer}
+     */
+    private ParticipantStatus status = ParticipantStatus.TRYING;
+
     public Participant() {
 
     }
@@ -62,6 +71,7 @@ public class Participant implements Serializable {
      */
     public void rollback() {
         Terminator.invoke(new TransactionContext(xid, TransactionStatus.CANCELLING.getId()), cancelInvocationContext, transactionContextEditorClass);
+        status = ParticipantStatus.CANCELLED;
     }
 
     /**
@@ -69,6 +79,7 @@ public class Participant implements Serializable {
      */
     public void commit() {
         Terminator.invoke(new TransactionContext(xid, TransactionStatus.CONFIRMING.getId()), confirmInvocationContext, transactionContextEditorClass);
+        status = ParticipantStatus.CONFIRMED;
     }
 
     public TransactionXid getXid() {
@@ -83,4 +94,26 @@ public class Participant implements Serializable {
         return cancelInvocationContext;
     }
 
+    public ParticipantStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ParticipantStatus status) {
+        this.status = status;
+    }
+
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
+    }
+
+    /**
+     * JDK反序列化旧记录时没有status字段，不会执行字段初始化
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (status == null) {
+            status = ParticipantStatus.TRYING;
+        }
+    }
+
 }
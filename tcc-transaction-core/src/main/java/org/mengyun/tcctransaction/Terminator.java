@@ -3,15 +3,36 @@ package org.mengyun.tcctransaction;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
 import org.mengyun.tcctransaction.utils.StringUtils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by changmingxie on 10/30/15.
  */
 public final class Terminator {
 
+    private static final Object[] EMPTY_ARGS = new Object[0];
+
+    /**
+     * 已解析的confirm和cancel方法挂在目标类上，按(方法名, 参数类型)缓存，不会阻止目标类的类加载器被回收
+     */
+    private static final ClassValue<ConcurrentMap<InvokerKey, Invoker>> INVOKERS = new ClassValue<ConcurrentMap<InvokerKey, Invoker>>() {
+        @Override
+        protected ConcurrentMap<InvokerKey, Invoker> computeValue(Class<?> targetClass) {
+            return new ConcurrentHashMap<InvokerKey, Invoker>();
+        }
+    };
+
     public Terminator() {
 
     }
@@ -29,14 +50,108 @@ public final class Terminator {
             try {
                 // 目标对象先从Spring ApplicationContext中获取，如果不存在则通过反射获取目标对象的实例
                 Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
-                Method method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
+                Invoker invoker = getInvoker(target.getClass(), invocationContext.getMethodName(), invocationContext.getParameterTypes());
+                Object[] args = invocationContext.getArgs() != null ? invocationContext.getArgs() : EMPTY_ARGS;
+
                 // 为待调用的方法TransactionContext参数设置参数值
-                FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance().set(transactionContext, target, method, invocationContext.getArgs());
-                return method.invoke(target, invocationContext.getArgs());
+                if (CompensableMethodUtils.isParameterTransactionContextEditor(transactionContextEditorClass)) {
+                    if (invoker.transactionContextParamPosition >= 0) {
+                        args[invoker.transactionContextParamPosition] = transactionContext;
+                    }
+                } else {
+                    FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance().set(transactionContext, target, invoker.method, args);
+                }
+
+                return invoker.invoke(target, args);
             } catch (Exception e) {
                 throw new SystemException(e);
             }
         }
         return null;
     }
+
+    private static Invoker getInvoker(Class<?> targetClass, String methodName, Class<?>[] parameterTypes) throws NoSuchMethodException, IllegalAccessException {
+
+        ConcurrentMap<InvokerKey, Invoker> invokers = INVOKERS.get(targetClass);
+        InvokerKey key = new InvokerKey(methodName, parameterTypes);
+        Invoker invoker = invokers.get(key);
+
+        if (invoker == null) {
+            invoker = new Invoker(targetClass.getMethod(methodName, parameterTypes));
+            Invoker existing = invokers.putIfAbsent(key, invoker);
+            if (existing != null) {
+                invoker = existing;
+            }
+        }
+
+        return invoker;
+    }
+
+    /**
+     * 解析一次的方法，调用时使用适配为(Object, Object[])Object的MethodHandle，避免每次Method.invoke的参数检查
+     */
+    private static class Invoker {
+
+        private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+        private final Method method;
+
+        private final MethodHandle handle;
+
+        private final int transactionContextParamPosition;
+
+        Invoker(Method method) throws IllegalAccessException {
+            ReflectionUtils.makeAccessible(method);
+            this.method = method;
+            this.handle = MethodHandles.lookup().unreflect(method)
+                    .asSpreader(Object[].class, method.getParameterTypes().length)
+                    .asType(GENERIC_TYPE);
+            this.transactionContextParamPosition = CompensableMethodUtils.getTransactionContextParamPosition(method.getParameterTypes());
+        }
+
+        /**
+         * 目标方法抛出的异常与Method.invoke一样包装为InvocationTargetException
+         */
+        Object invoke(Object target, Object[] args) throws InvocationTargetException {
+            try {
+                return (Object) handle.invokeExact(target, args);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+
+    private static class InvokerKey {
+
+        private final String methodName;
+
+        private final Class<?>[] parameterTypes;
+
+        private final int hash;
+
+        InvokerKey(String methodName, Class<?>[] parameterTypes) {
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+            this.hash = 31 * methodName.hashCode() + Arrays.hashCode(parameterTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof InvokerKey)) {
+                return false;
+            }
+            InvokerKey that = (InvokerKey) o;
+            return hash == that.hash
+                    && methodName.equals(that.methodName)
+                    && Arrays.equals(parameterTypes, that.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
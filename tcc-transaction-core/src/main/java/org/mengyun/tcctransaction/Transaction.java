@@ -4,6 +4,7 @@ package org.mengyun.tcctransaction;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
 
 import javax.transaction.xa.Xid;
@@ -13,6 +14,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * TCC事务Model
@@ -62,6 +67,11 @@ public class Transaction implements Serializable {
      */
     private Map<String, Object> attachments = new ConcurrentHashMap<String, Object>();
 
+    /**
+     * 最近一次落库时各参与者的状态，不参与序列化，为null时下次写入需全量序列化
+     */
+    private transient volatile ParticipantStatus[] persistedParticipantStatuses;
+
     public Transaction() {
 
     }
@@ -100,6 +110,20 @@ public class Transaction implements Serializable {
         this.transactionType = transactionType;
     }
 
+    /**
+     * 从存储中恢复事务时使用，其余字段通过setter恢复
+     *
+     * @param xid
+     * @param transactionType
+     * @param createTime
+     */
+    public Transaction(TransactionXid xid, TransactionType transactionType, Date createTime) {
+        this.xid = xid;
+        this.status = TransactionStatus.TRYING;
+        this.transactionType = transactionType;
+        this.createTime = createTime;
+    }
+
     /**
      * 为事务添加参与者
      *
@@ -111,7 +135,7 @@ public class Transaction implements Serializable {
 
 
     public Xid getXid() {
-        return xid.clone();
+        return xid;
     }
 
     public TransactionStatus getStatus() {
@@ -132,20 +156,115 @@ public class Transaction implements Serializable {
     }
 
     /**
-     * 提交当前事务，依次调用所有的参与者发起事务的提交
+     * 提交当前事务，依次调用还未confirm成功的参与者发起事务的提交
      */
     public void commit() {
         for (Participant participant : participants) {
-            participant.commit();
+            if (participant.getStatus() != ParticipantStatus.CONFIRMED) {
+                participant.commit();
+            }
         }
     }
 
     /**
-     * 回滚当前事务，依次调用所有的参与者发起事务的回滚
+     * 回滚当前事务，依次调用还未cancel成功的参与者发起事务的回滚
      */
     public void rollback() {
         for (Participant participant : participants) {
-            participant.rollback();
+            if (participant.getStatus() != ParticipantStatus.CANCELLED) {
+                participant.rollback();
+            }
+        }
+    }
+
+    /**
+     * 提交当前事务，所有参与者的confirm并行执行，等待全部完成后，有参与者失败时抛出第一个异常，
+     * 已成功的参与者状态记录为CONFIRMED
+     *
+     * @param executorService
+     */
+    public void commit(ExecutorService executorService) {
+
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(participants.size());
+
+        for (final Participant participant : participants) {
+            if (participant.getStatus() != ParticipantStatus.CONFIRMED) {
+                tasks.add(new FutureTask<Void>(new Runnable() {
+                    @Override
+                    public void run() {
+                        participant.commit();
+                    }
+                }, null));
+            }
+        }
+
+        terminateInParallel(tasks, executorService);
+    }
+
+    /**
+     * 回滚当前事务，所有参与者的cancel并行执行，等待全部完成后，有参与者失败时抛出第一个异常，
+     * 已成功的参与者状态记录为CANCELLED
+     *
+     * @param executorService
+     */
+    public void rollback(ExecutorService executorService) {
+
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(participants.size());
+
+        for (final Participant participant : participants) {
+            if (participant.getStatus() != ParticipantStatus.CANCELLED) {
+                tasks.add(new FutureTask<Void>(new Runnable() {
+                    @Override
+                    public void run() {
+                        participant.rollback();
+                    }
+                }, null));
+            }
+        }
+
+        terminateInParallel(tasks, executorService);
+    }
+
+    /**
+     * 第一个参与者之外的任务提交到线程池，当前线程执行第一个任务后依次等待其余任务；
+     * 还未被线程池执行的任务由当前线程直接执行，避免线程池耗尽时互相等待
+     */
+    private void terminateInParallel(List<FutureTask<Void>> tasks, ExecutorService executorService) {
+
+        for (int i = 1; i < tasks.size(); i++) {
+            try {
+                executorService.execute(tasks.get(i));
+            } catch (RejectedExecutionException e) {
+                // run by the current thread below
+            }
+        }
+
+        Throwable failure = null;
+
+        for (FutureTask<Void> task : tasks) {
+
+            task.run();
+
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = failure == null ? e : failure;
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new SystemException(failure);
         }
     }
 
@@ -165,6 +284,49 @@ public class Transaction implements Serializable {
         return attachments;
     }
 
+    /**
+     * 自最近一次落库后新增的参与者，存储据此只写入变化的部分
+     *
+     * @return 返回null表示需要全量写入：尚未落库，或已落库的参与者状态发生了变化
+     */
+    public List<Participant> unpersistedParticipants() {
+
+        ParticipantStatus[] persisted = persistedParticipantStatuses;
+
+        if (persisted == null || persisted.length > participants.size()) {
+            return null;
+        }
+
+        for (int i = 0; i < persisted.length; i++) {
+            if (participants.get(i).getStatus() != persisted[i]) {
+                return null;
+            }
+        }
+
+        return new ArrayList<Participant>(participants.subList(persisted.length, participants.size()));
+    }
+
+    /**
+     * 写入存储或从存储加载后调用，记录当前参与者及其状态已落库
+     */
+    public void markPersisted() {
+
+        ParticipantStatus[] persisted = new ParticipantStatus[participants.size()];
+
+        for (int i = 0; i < persisted.length; i++) {
+            persisted[i] = participants.get(i).getStatus();
+        }
+
+        persistedParticipantStatuses = persisted;
+    }
+
+    /**
+     * 写入失败时调用，下次写入全量序列化
+     */
+    public void clearPersisted() {
+        persistedParticipantStatuses = null;
+    }
+
     public long getVersion() {
         return version;
     }
@@ -5,8 +5,13 @@ import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
 
+import java.util.Collections;
 import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -20,8 +25,22 @@ public class TransactionManager {
 
     private static final ThreadLocal<Deque<Transaction>> CURRENT = new ThreadLocal<Deque<Transaction>>();
 
+    /**
+     * 当前线程中尚未完成的参与者日志写入
+     */
+    private static final ThreadLocal<CompletableFuture<Integer>> PENDING_WRITE = new ThreadLocal<CompletableFuture<Integer>>();
+
+    /**
+     * 当前线程中推迟创建、尚未写入存储的根事务
+     */
+    private static final ThreadLocal<Set<Transaction>> UNFLUSHED = new ThreadLocal<Set<Transaction>>();
+
     private ExecutorService executorService;
 
+    private boolean asyncEnlist = false;
+
+    private boolean coalesceEnlist = false;
+
     public void setTransactionRepository(TransactionRepository transactionRepository) {
         this.transactionRepository = transactionRepository;
     }
@@ -30,6 +49,35 @@ public class TransactionManager {
         this.executorService = executorService;
     }
 
+    /**
+     * 开启后，存储实现了{@link AsyncTransactionRepository}时，登记参与者的日志写入与try调用重叠执行，
+     * try调用返回后再等待写入完成。
+     * <p>
+     * 代价是参与者的try调用(包括远程调用)可能在参与者日志落库之前就已发出：
+     * 写入失败时异常在try返回后抛出，根事务按内存中的参与者回滚，该参与者仍会被cancel；
+     * 但若本节点在写入完成前宕机，存储中的事务没有这个参与者，恢复任务不会对它执行confirm/cancel，
+     * 已执行try的分支事务停留在TRYING状态，需要人工处理。
+     * 默认关闭，只在能接受这一风险时开启，否则每个参与者都在其try调用发出前落库
+     * </p>
+     *
+     * @param asyncEnlist
+     */
+    public void setAsyncEnlist(boolean asyncEnlist) {
+        this.asyncEnlist = asyncEnlist;
+    }
+
+    /**
+     * 开启后根事务的创建推迟到登记第一个参与者(即根方法自身)时，与该参与者一并写入一条记录，
+     * 省去一次写入；若根事务没有参与者，则在提交或回滚时直接以CONFIRMING/CANCELLING状态创建。
+     * 根方法的try在这条记录落库后才执行，每个参与者在其try执行或发出前仍然已经落库，
+     * 宕机后恢复任务照常按TRYING状态的根事务回滚
+     *
+     * @param coalesceEnlist
+     */
+    public void setCoalesceEnlist(boolean coalesceEnlist) {
+        this.coalesceEnlist = coalesceEnlist;
+    }
+
     public TransactionManager() {
 
 
@@ -43,7 +91,7 @@ public class TransactionManager {
      */
     public Transaction begin(Object uniqueIdentify) {
         Transaction transaction = new Transaction(uniqueIdentify, TransactionType.ROOT);
-        transactionRepository.create(transaction);
+        createRootTransaction(transaction);
         registerTransaction(transaction);
         return transaction;
     }
@@ -55,7 +103,7 @@ public class TransactionManager {
      */
     public Transaction begin() {
         Transaction transaction = new Transaction(TransactionType.ROOT);
-        transactionRepository.create(transaction);
+        createRootTransaction(transaction);
         registerTransaction(transaction);
         return transaction;
     }
@@ -98,10 +146,21 @@ public class TransactionManager {
      * @param asyncCommit
      */
     public void commit(boolean asyncCommit) {
+        commit(asyncCommit, false);
+    }
+
+    /**
+     * 提交事务
+     *
+     * @param asyncCommit
+     * @param parallelCommit 是否在线程池中并行调用所有参与者的confirm
+     */
+    public void commit(boolean asyncCommit, final boolean parallelCommit) {
+        awaitPendingWrite();
         final Transaction transaction = getCurrentTransaction();
         // 将事务状态更改为CONFIRMING，表示事务提交中
         transaction.changeStatus(TransactionStatus.CONFIRMING);
-        transactionRepository.update(transaction);
+        save(transaction);
         // 异步提交则通过开启线程异步处理
         if (asyncCommit) {
             try {
@@ -109,7 +168,7 @@ public class TransactionManager {
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        commitTransaction(transaction);
+                        commitTransaction(transaction, parallelCommit);
                     }
                 });
                 logger.debug("async submit cost time:" + (System.currentTimeMillis() - statTime));
@@ -118,7 +177,7 @@ public class TransactionManager {
                 throw new ConfirmingException(commitException);
             }
         } else {
-            commitTransaction(transaction);
+            commitTransaction(transaction, parallelCommit);
         }
     }
 
@@ -128,15 +187,26 @@ public class TransactionManager {
      * @param asyncRollback
      */
     public void rollback(boolean asyncRollback) {
+        rollback(asyncRollback, false);
+    }
+
+    /**
+     * 回滚事务
+     *
+     * @param asyncRollback
+     * @param parallelRollback 是否在线程池中并行调用所有参与者的cancel
+     */
+    public void rollback(boolean asyncRollback, final boolean parallelRollback) {
+        awaitPendingWrite();
         final Transaction transaction = getCurrentTransaction();
         transaction.changeStatus(TransactionStatus.CANCELLING);
-        transactionRepository.update(transaction);
+        save(transaction);
         if (asyncRollback) {
             try {
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
-                        rollbackTransaction(transaction);
+                        rollbackTransaction(transaction, parallelRollback);
                     }
                 });
             } catch (Throwable rollbackException) {
@@ -144,31 +214,55 @@ public class TransactionManager {
                 throw new CancellingException(rollbackException);
             }
         } else {
-            rollbackTransaction(transaction);
+            rollbackTransaction(transaction, parallelRollback);
         }
     }
 
 
-    private void commitTransaction(Transaction transaction) {
+    private void commitTransaction(Transaction transaction, boolean parallelCommit) {
         try {
-            transaction.commit();
+            if (parallelCommit && executorService != null) {
+                transaction.commit(executorService);
+            } else {
+                transaction.commit();
+            }
             transactionRepository.delete(transaction);
         } catch (Throwable commitException) {
             logger.warn("compensable transaction confirm failed, recovery job will try to confirm later.", commitException);
+            saveParticipantStatus(transaction);
             throw new ConfirmingException(commitException);
         }
     }
 
-    private void rollbackTransaction(Transaction transaction) {
+    private void rollbackTransaction(Transaction transaction, boolean parallelRollback) {
         try {
-            transaction.rollback();
+            if (parallelRollback && executorService != null) {
+                transaction.rollback(executorService);
+            } else {
+                transaction.rollback();
+            }
             transactionRepository.delete(transaction);
         } catch (Throwable rollbackException) {
             logger.warn("compensable transaction rollback failed, recovery job will try to rollback later.", rollbackException);
+            saveParticipantStatus(transaction);
             throw new CancellingException(rollbackException);
         }
     }
 
+    /**
+     * 部分参与者失败时，保存事务以记录已完成的参与者，事务仍处于CONFIRMING/CANCELLING状态等待恢复，
+     * 恢复时只会调用未完成的参与者
+     *
+     * @param transaction
+     */
+    private void saveParticipantStatus(Transaction transaction) {
+        try {
+            transactionRepository.update(transaction);
+        } catch (Throwable updateException) {
+            logger.warn("save participant status failed, recovery job will terminate all participants.", updateException);
+        }
+    }
+
     public Transaction getCurrentTransaction() {
         if (isTransactionActive()) {
             return CURRENT.get().peek();
@@ -193,6 +287,7 @@ public class TransactionManager {
         if (isTransactionActive() && transaction != null) {
             Transaction currentTransaction = getCurrentTransaction();
             if (currentTransaction == transaction) {
+                removeUnflushed(transaction);
                 CURRENT.get().pop();
                 if (CURRENT.get().size() == 0) {
                     CURRENT.remove();
@@ -204,8 +299,101 @@ public class TransactionManager {
     }
 
     public void enlistParticipant(Participant participant) {
+        awaitPendingWrite();
         Transaction transaction = this.getCurrentTransaction();
         transaction.enlistParticipant(participant);
-        transactionRepository.update(transaction);
+
+        // 推迟创建的根事务在登记第一个参与者时连同该参与者一起创建
+        if (!removeUnflushed(transaction)) {
+            createUnflushed(transaction);
+        } else if (asyncEnlist && transactionRepository instanceof AsyncTransactionRepository) {
+            PENDING_WRITE.set(((AsyncTransactionRepository) transactionRepository).updateAsync(transaction));
+        } else {
+            transactionRepository.update(transaction);
+        }
+    }
+
+    private void createRootTransaction(Transaction transaction) {
+        if (coalesceEnlist) {
+            getUnflushed().add(transaction);
+        } else {
+            transactionRepository.create(transaction);
+        }
+    }
+
+    /**
+     * 写入事务，事务的创建被推迟时执行创建
+     *
+     * @param transaction
+     */
+    private void save(Transaction transaction) {
+        if (removeUnflushed(transaction)) {
+            transactionRepository.update(transaction);
+        } else {
+            createUnflushed(transaction);
+        }
+    }
+
+    /**
+     * 同步创建推迟的事务，失败时仍标记为未创建，回滚时会再次尝试创建
+     *
+     * @param transaction
+     */
+    private void createUnflushed(Transaction transaction) {
+        try {
+            transactionRepository.create(transaction);
+        } catch (RuntimeException e) {
+            getUnflushed().add(transaction);
+            throw e;
+        }
+    }
+
+    /**
+     * @param transaction
+     * @return 事务是否已在存储中创建
+     */
+    private boolean removeUnflushed(Transaction transaction) {
+        Set<Transaction> unflushed = UNFLUSHED.get();
+
+        if (unflushed == null) {
+            return true;
+        }
+
+        boolean created = !unflushed.remove(transaction);
+
+        if (unflushed.isEmpty()) {
+            UNFLUSHED.remove();
+        }
+
+        return created;
+    }
+
+    private Set<Transaction> getUnflushed() {
+        if (UNFLUSHED.get() == null) {
+            UNFLUSHED.set(Collections.newSetFromMap(new IdentityHashMap<Transaction, Boolean>()));
+        }
+        return UNFLUSHED.get();
+    }
+
+    /**
+     * 等待当前线程中异步登记参与者的日志写入完成，写入失败时抛出与同步写入相同的异常
+     */
+    public void awaitPendingWrite() {
+        CompletableFuture<Integer> pendingWrite = PENDING_WRITE.get();
+
+        if (pendingWrite == null) {
+            return;
+        }
+
+        PENDING_WRITE.remove();
+
+        try {
+            pendingWrite.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SystemException(e.getCause());
+        }
     }
 }
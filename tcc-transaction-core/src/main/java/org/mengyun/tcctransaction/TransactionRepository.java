@@ -1,6 +1,7 @@
 package org.mengyun.tcctransaction;
 
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.Page;
 
 import java.util.Date;
 import java.util.List;
@@ -58,4 +59,17 @@ public interface TransactionRepository {
      * @return
      */
     List<Transaction> findAllUnmodifiedSince(Date date);
+
+    /**
+     * 分页查询异常的事务，避免一次性加载全部异常事务。首页offset传null，之后传入上一页返回的{@link Page#getNextOffset()}。
+     * 默认不分页，全部结果作为一页返回，已有的自定义实现无需修改
+     *
+     * @param date
+     * @param offset
+     * @param pageSize
+     * @return
+     */
+    default Page<Transaction> findAllUnmodifiedSince(Date date, String offset, int pageSize) {
+        return new Page<Transaction>(findAllUnmodifiedSince(date), null);
+    }
 }
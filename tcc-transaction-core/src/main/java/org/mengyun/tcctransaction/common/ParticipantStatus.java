@@ -0,0 +1,34 @@
+package org.mengyun.tcctransaction.common;
+
+/**
+ * 事务参与者的状态：TRYING表示还未完成confirm/cancel
+ */
+public enum ParticipantStatus {
+
+    TRYING(1),
+    CONFIRMED(2),
+    CANCELLED(3);
+
+    int id;
+
+    ParticipantStatus(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static ParticipantStatus valueOf(int id) {
+        switch (id) {
+            case 1:
+                return TRYING;
+            case 2:
+                return CONFIRMED;
+            case 3:
+                return CANCELLED;
+            default:
+                return null;
+        }
+    }
+}
@@ -1,15 +1,11 @@
 package org.mengyun.tcctransaction.interceptor;
 
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.reflect.MethodSignature;
 import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.api.TransactionContext;
-import org.mengyun.tcctransaction.api.UniqueIdentity;
 import org.mengyun.tcctransaction.common.MethodRole;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 
 /**
@@ -23,6 +19,11 @@ public class CompensableMethodContext {
      */
     ProceedingJoinPoint pjp = null;
 
+    /**
+     * 缓存的方法反射信息
+     */
+    CompensableMethodMetadata metadata = null;
+
     /**
      * 方法
      */
@@ -42,11 +43,12 @@ public class CompensableMethodContext {
 
     public CompensableMethodContext(ProceedingJoinPoint pjp) {
         this.pjp = pjp;
-        this.method = getCompensableMethod();
-        this.compensable = method.getAnnotation(Compensable.class);
-        this.propagation = compensable.propagation();
+        this.metadata = CompensableMethodMetadata.of(pjp);
+        this.method = metadata.getMethod();
+        this.compensable = metadata.getAnnotation();
+        this.propagation = metadata.getPropagation();
         // 从方法调用的参数中获取TransactionContext参数的值
-        this.transactionContext = FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs());
+        this.transactionContext = metadata.getTransactionContext(pjp.getTarget(), pjp.getArgs());
 
     }
 
@@ -66,36 +68,12 @@ public class CompensableMethodContext {
         return method;
     }
 
-    public Object getUniqueIdentity() {
-        Annotation[][] annotations = this.getMethod().getParameterAnnotations();
-
-        for (int i = 0; i < annotations.length; i++) {
-            for (Annotation annotation : annotations[i]) {
-                if (annotation.annotationType().equals(UniqueIdentity.class)) {
-
-                    Object[] params = pjp.getArgs();
-                    Object unqiueIdentity = params[i];
-
-                    return unqiueIdentity;
-                }
-            }
-        }
-
-        return null;
+    public CompensableMethodMetadata getMetadata() {
+        return metadata;
     }
 
-
-    private Method getCompensableMethod() {
-        Method method = ((MethodSignature) (pjp.getSignature())).getMethod();
-
-        if (method.getAnnotation(Compensable.class) == null) {
-            try {
-                method = pjp.getTarget().getClass().getMethod(method.getName(), method.getParameterTypes());
-            } catch (NoSuchMethodException e) {
-                return null;
-            }
-        }
-        return method;
+    public Object getUniqueIdentity() {
+        return metadata.getUniqueIdentity(pjp.getArgs());
     }
 
     /**
@@ -0,0 +1,255 @@
+package org.mengyun.tcctransaction.interceptor;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * {@link Compensable}方法的反射信息，按(切点方法, 目标类)解析一次后缓存，拦截器每次调用只需查表：
+ * 实际标注@Compensable的方法、注解、参数类型、TransactionContext和@UniqueIdentity参数的位置、
+ * 参与者记录的声明类型以及注解上的delayCancelExceptions
+ */
+public class CompensableMethodMetadata {
+
+    private static final ConcurrentMap<Method, ConcurrentMap<Class<?>, CompensableMethodMetadata>> CACHE = new ConcurrentHashMap<Method, ConcurrentMap<Class<?>, CompensableMethodMetadata>>();
+
+    private static final Function<Method, ConcurrentMap<Class<?>, CompensableMethodMetadata>> NEW_TARGET_MAP = new Function<Method, ConcurrentMap<Class<?>, CompensableMethodMetadata>>() {
+        @Override
+        public ConcurrentMap<Class<?>, CompensableMethodMetadata> apply(Method method) {
+            return new ConcurrentHashMap<Class<?>, CompensableMethodMetadata>(4);
+        }
+    };
+
+    private final Method method;
+
+    private final Compensable compensable;
+
+    private final Propagation propagation;
+
+    private final String confirmMethod;
+
+    private final String cancelMethod;
+
+    private final Class<?>[] parameterTypes;
+
+    private final Class<? extends TransactionContextEditor> transactionContextEditorClass;
+
+    /**
+     * 按参数位置读写TransactionContext的编辑器，可以直接使用transactionContextParamPosition
+     */
+    private final boolean parameterTransactionContextEditor;
+
+    private final int transactionContextParamPosition;
+
+    private final int uniqueIdentityParamPosition;
+
+    private final Class<?> declaringType;
+
+    private final List<Class<? extends Exception>> delayCancelExceptions;
+
+    private CompensableMethodMetadata(Method method, Class<?> targetClass) {
+        this(method, targetClass, method.getAnnotation(Compensable.class));
+    }
+
+    private CompensableMethodMetadata(Method method, Class<?> targetClass, Compensable compensable) {
+        this(method, ReflectionUtils.getDeclaringType(targetClass, method.getName(), method.getParameterTypes()),
+                compensable, compensable.confirmMethod(), compensable.cancelMethod(),
+                compensable.transactionContextEditor(), compensable.propagation());
+    }
+
+    private CompensableMethodMetadata(Method method, Class<?> declaringType, Compensable compensable,
+                                      String confirmMethod, String cancelMethod,
+                                      Class<? extends TransactionContextEditor> transactionContextEditorClass, Propagation propagation) {
+
+        this.method = method;
+        this.compensable = compensable;
+        this.propagation = propagation;
+        this.confirmMethod = confirmMethod;
+        this.cancelMethod = cancelMethod;
+        this.parameterTypes = method.getParameterTypes();
+        this.transactionContextEditorClass = transactionContextEditorClass;
+        this.parameterTransactionContextEditor = CompensableMethodUtils.isParameterTransactionContextEditor(transactionContextEditorClass);
+        this.transactionContextParamPosition = CompensableMethodUtils.getTransactionContextParamPosition(parameterTypes);
+        this.uniqueIdentityParamPosition = findUniqueIdentityParamPosition(method);
+        this.declaringType = declaringType;
+        this.delayCancelExceptions = Collections.unmodifiableList(Arrays.asList(compensable.delayCancelExceptions()));
+    }
+
+    /**
+     * 获取切点对应的方法信息，找不到@Compensable标注的方法时抛出异常
+     *
+     * @param pjp
+     * @return
+     */
+    public static CompensableMethodMetadata of(ProceedingJoinPoint pjp) {
+
+        final Method signatureMethod = ((MethodSignature) pjp.getSignature()).getMethod();
+        final Class<?> targetClass = pjp.getTarget() != null ? pjp.getTarget().getClass() : signatureMethod.getDeclaringClass();
+
+        ConcurrentMap<Class<?>, CompensableMethodMetadata> targetMetadata = CACHE.get(signatureMethod);
+
+        if (targetMetadata == null) {
+            targetMetadata = CACHE.computeIfAbsent(signatureMethod, NEW_TARGET_MAP);
+        }
+
+        CompensableMethodMetadata metadata = targetMetadata.get(targetClass);
+
+        if (metadata == null) {
+            metadata = targetMetadata.computeIfAbsent(targetClass, new Function<Class<?>, CompensableMethodMetadata>() {
+                @Override
+                public CompensableMethodMetadata apply(Class<?> targetClass) {
+
+                    Method method = findCompensableMethod(signatureMethod, targetClass);
+
+                    if (method == null) {
+                        throw new RuntimeException(String.format("join point not found method, point is : %s", signatureMethod.getName()));
+                    }
+
+                    return new CompensableMethodMetadata(method, targetClass);
+                }
+            });
+        }
+
+        return metadata;
+    }
+
+    /**
+     * 按指定的confirm、cancel方法、TransactionContext编辑器和传播特性构建方法信息，不修改方法上的注解。
+     * 用于远程调用代理等需要覆盖注解取值的场景，由调用方自行缓存。参与者记录的类型为声明该方法的类
+     *
+     * @param method
+     * @param confirmMethod
+     * @param cancelMethod
+     * @param transactionContextEditorClass
+     * @param propagation
+     * @return
+     */
+    public static CompensableMethodMetadata of(Method method, String confirmMethod, String cancelMethod,
+                                               Class<? extends TransactionContextEditor> transactionContextEditorClass, Propagation propagation) {
+        return new CompensableMethodMetadata(method, method.getDeclaringClass(), method.getAnnotation(Compensable.class),
+                confirmMethod, cancelMethod, transactionContextEditorClass, propagation);
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Compensable getAnnotation() {
+        return compensable;
+    }
+
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    public String getConfirmMethod() {
+        return confirmMethod;
+    }
+
+    public String getCancelMethod() {
+        return cancelMethod;
+    }
+
+    /**
+     * 参数类型，调用方不能修改返回的数组
+     *
+     * @return
+     */
+    public Class<?>[] getParameterTypes() {
+        return parameterTypes;
+    }
+
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
+    }
+
+    public TransactionContextEditor getTransactionContextEditor() {
+        return FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance();
+    }
+
+    public int getTransactionContextParamPosition() {
+        return transactionContextParamPosition;
+    }
+
+    public int getUniqueIdentityParamPosition() {
+        return uniqueIdentityParamPosition;
+    }
+
+    /**
+     * 参与者InvocationContext中记录的类型，优先取声明该方法的接口
+     *
+     * @return
+     */
+    public Class<?> getDeclaringType() {
+        return declaringType;
+    }
+
+    public List<Class<? extends Exception>> getDelayCancelExceptions() {
+        return delayCancelExceptions;
+    }
+
+    /**
+     * 读取调用参数中的TransactionContext，按参数位置读写的编辑器直接取对应位置的参数
+     *
+     * @param target
+     * @param args
+     * @return
+     */
+    public TransactionContext getTransactionContext(Object target, Object[] args) {
+
+        if (parameterTransactionContextEditor) {
+            return transactionContextParamPosition >= 0 ? (TransactionContext) args[transactionContextParamPosition] : null;
+        }
+
+        return getTransactionContextEditor().get(target, method, args);
+    }
+
+    public Object getUniqueIdentity(Object[] args) {
+        return uniqueIdentityParamPosition >= 0 ? args[uniqueIdentityParamPosition] : null;
+    }
+
+    private static Method findCompensableMethod(Method method, Class<?> targetClass) {
+
+        if (method.getAnnotation(Compensable.class) != null) {
+            return method;
+        }
+
+        try {
+            Method targetMethod = targetClass.getMethod(method.getName(), method.getParameterTypes());
+            return targetMethod.getAnnotation(Compensable.class) != null ? targetMethod : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int findUniqueIdentityParamPosition(Method method) {
+
+        Annotation[][] annotations = method.getParameterAnnotations();
+
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation.annotationType().equals(UniqueIdentity.class)) {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+}
@@ -13,9 +13,9 @@ import org.mengyun.tcctransaction.utils.ReflectionUtils;
 import org.mengyun.tcctransaction.utils.TransactionUtils;
 
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * 可补偿事务拦截器，处理实际的TCC事务，优先级高于{@link ResourceCoordinatorInterceptor}。
@@ -30,7 +30,7 @@ public class CompensableTransactionInterceptor {
 
     private TransactionManager transactionManager;
 
-    private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
+    private Set<Class<? extends Exception>> delayCancelExceptions = new CopyOnWriteArraySet<Class<? extends Exception>>();
 
     public void setTransactionManager(TransactionManager transactionManager) {
         this.transactionManager = transactionManager;
@@ -82,9 +82,8 @@ public class CompensableTransactionInterceptor {
         Transaction transaction = null;
         boolean asyncConfirm = compensableMethodContext.getAnnotation().asyncConfirm();
         boolean asyncCancel = compensableMethodContext.getAnnotation().asyncCancel();
-        Set<Class<? extends Exception>> allDelayCancelExceptions = new HashSet<Class<? extends Exception>>();
-        allDelayCancelExceptions.addAll(this.delayCancelExceptions);
-        allDelayCancelExceptions.addAll(Arrays.asList(compensableMethodContext.getAnnotation().delayCancelExceptions()));
+        boolean parallelConfirm = compensableMethodContext.getAnnotation().parallelConfirm();
+        boolean parallelCancel = compensableMethodContext.getAnnotation().parallelCancel();
 
         try {
             // 开启新的事务
@@ -94,15 +93,15 @@ public class CompensableTransactionInterceptor {
                 returnValue = compensableMethodContext.proceed();
             } catch (Throwable tryingException) {
                 // 支持指定异常不会滚事务，等待job进行重试恢复，如SocketTimeOutException等
-                if (!isDelayCancelException(tryingException, allDelayCancelExceptions)) {
+                if (!isDelayCancelException(tryingException, compensableMethodContext.getMetadata().getDelayCancelExceptions())) {
                     logger.warn(String.format("compensable transaction trying failed. transaction content:%s", JSON.toJSONString(transaction)), tryingException);
                     // 回滚事务
-                    transactionManager.rollback(asyncCancel);
+                    transactionManager.rollback(asyncCancel, parallelCancel);
                 }
                 throw tryingException;
             }
             // 提交事务
-            transactionManager.commit(asyncConfirm);
+            transactionManager.commit(asyncConfirm, parallelConfirm);
         } finally {
             transactionManager.cleanAfterCompletion(transaction);
         }
@@ -120,6 +119,8 @@ public class CompensableTransactionInterceptor {
         Transaction transaction = null;
         boolean asyncConfirm = compensableMethodContext.getAnnotation().asyncConfirm();
         boolean asyncCancel = compensableMethodContext.getAnnotation().asyncCancel();
+        boolean parallelConfirm = compensableMethodContext.getAnnotation().parallelConfirm();
+        boolean parallelCancel = compensableMethodContext.getAnnotation().parallelCancel();
 
         try {
             switch (TransactionStatus.valueOf(compensableMethodContext.getTransactionContext().getStatus())) {
@@ -131,7 +132,7 @@ public class CompensableTransactionInterceptor {
                     try {
                         // 如果是事务提交，此时需要检查事务是否存在
                         transaction = transactionManager.propagationExistBegin(compensableMethodContext.getTransactionContext());
-                        transactionManager.commit(asyncConfirm);
+                        transactionManager.commit(asyncConfirm, parallelConfirm);
                     } catch (NoExistedTransactionException excepton) {
                         //the transaction has been commit,ignore it.
                     }
@@ -140,7 +141,7 @@ public class CompensableTransactionInterceptor {
                     try {
                         // 如果是事务回滚，此时需要检查事务是否存在
                         transaction = transactionManager.propagationExistBegin(compensableMethodContext.getTransactionContext());
-                        transactionManager.rollback(asyncCancel);
+                        transactionManager.rollback(asyncCancel, parallelCancel);
                     } catch (NoExistedTransactionException exception) {
                         //the transaction has been rollback,ignore it.
                     }
@@ -154,17 +155,32 @@ public class CompensableTransactionInterceptor {
         return ReflectionUtils.getNullValue(method.getReturnType());
     }
 
-    private boolean isDelayCancelException(Throwable throwable, Set<Class<? extends Exception>> delayCancelExceptions) {
+    /**
+     * 依次检查全局配置和方法注解上的delayCancelExceptions，不再每次合并成新的集合
+     *
+     * @param throwable
+     * @param methodDelayCancelExceptions
+     * @return
+     */
+    private boolean isDelayCancelException(Throwable throwable, Collection<Class<? extends Exception>> methodDelayCancelExceptions) {
+
+        if (this.delayCancelExceptions.isEmpty() && methodDelayCancelExceptions.isEmpty()) {
+            return false;
+        }
 
-        if (delayCancelExceptions != null) {
-            for (Class delayCancelException : delayCancelExceptions) {
+        Throwable rootCause = ExceptionUtils.getRootCause(throwable);
 
-                Throwable rootCause = ExceptionUtils.getRootCause(throwable);
+        return isDelayCancelException(throwable, rootCause, this.delayCancelExceptions)
+                || isDelayCancelException(throwable, rootCause, methodDelayCancelExceptions);
+    }
 
-                if (delayCancelException.isAssignableFrom(throwable.getClass())
-                        || (rootCause != null && delayCancelException.isAssignableFrom(rootCause.getClass()))) {
-                    return true;
-                }
+    private static boolean isDelayCancelException(Throwable throwable, Throwable rootCause, Collection<Class<? extends Exception>> delayCancelExceptions) {
+
+        for (Class delayCancelException : delayCancelExceptions) {
+
+            if (delayCancelException.isAssignableFrom(throwable.getClass())
+                    || (rootCause != null && delayCancelException.isAssignableFrom(rootCause.getClass()))) {
+                return true;
             }
         }
 
@@ -25,6 +25,18 @@ public abstract class ResourceCoordinatorAspect {
         return resourceCoordinatorInterceptor.interceptTransactionContextMethod(pjp);
     }
 
+    /**
+     * 不经过AOP织入的调用入口，使用预先构建的方法信息
+     *
+     * @param pjp
+     * @param metadata
+     * @return
+     * @throws Throwable
+     */
+    public Object interceptTransactionContextMethod(ProceedingJoinPoint pjp, CompensableMethodMetadata metadata) throws Throwable {
+        return resourceCoordinatorInterceptor.interceptTransactionContextMethod(pjp, metadata);
+    }
+
     public void setResourceCoordinatorInterceptor(ResourceCoordinatorInterceptor resourceCoordinatorInterceptor) {
         this.resourceCoordinatorInterceptor = resourceCoordinatorInterceptor;
     }
@@ -6,15 +6,9 @@ import org.mengyun.tcctransaction.InvocationContext;
 import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
-import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
-import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
-import org.mengyun.tcctransaction.utils.ReflectionUtils;
-
-import java.lang.reflect.Method;
 
 /**
  * 资源协调者拦截器，该拦截器主要处理的是Try阶段时，将@Compensable标注的方法加入到当前事务的参与者列表中
@@ -31,13 +25,25 @@ public class ResourceCoordinatorInterceptor {
     }
 
     public Object interceptTransactionContextMethod(ProceedingJoinPoint pjp) throws Throwable {
+        return interceptTransactionContextMethod(pjp, null);
+    }
+
+    /**
+     * 使用调用方预先构建的方法信息，metadata为null时按切点查找
+     *
+     * @param pjp
+     * @param metadata
+     * @return
+     * @throws Throwable
+     */
+    public Object interceptTransactionContextMethod(ProceedingJoinPoint pjp, CompensableMethodMetadata metadata) throws Throwable {
         Transaction transaction = transactionManager.getCurrentTransaction();
         if (transaction != null) {
             switch (transaction.getStatus()) {
                 case TRYING:
                     // 如果当前事务处于Trying状态，此时需要将当前方法加入到事务的参与者中，包括事务的入口方法
-                    enlistParticipant(pjp);
-                    break;
+                    enlistParticipant(pjp, metadata != null ? metadata : CompensableMethodMetadata.of(pjp));
+                    return proceedAndAwaitEnlist(pjp);
                 case CONFIRMING:
                 case CANCELLING:
                     break;
@@ -47,47 +53,68 @@ public class ResourceCoordinatorInterceptor {
         return pjp.proceed(pjp.getArgs());
     }
 
+    /**
+     * 执行try方法，参与者日志异步写入时在try方法返回后等待写入完成。
+     * 此时try调用可能先于参与者日志落库发出，宕机时该参与者不会被恢复，见{@link TransactionManager#setAsyncEnlist(boolean)}
+     *
+     * @param pjp
+     * @return
+     * @throws Throwable
+     */
+    private Object proceedAndAwaitEnlist(ProceedingJoinPoint pjp) throws Throwable {
+        Object result;
+
+        try {
+            result = pjp.proceed(pjp.getArgs());
+        } catch (Throwable tryException) {
+            try {
+                transactionManager.awaitPendingWrite();
+            } catch (Throwable writeException) {
+                tryException.addSuppressed(writeException);
+            }
+            throw tryException;
+        }
+
+        transactionManager.awaitPendingWrite();
+        return result;
+    }
+
     /**
      * 添加事务参与者到事务中
      *
      * @param pjp
+     * @param metadata
      * @throws IllegalAccessException
      * @throws InstantiationException
      */
-    private void enlistParticipant(ProceedingJoinPoint pjp) throws IllegalAccessException, InstantiationException {
-        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
-        if (method == null) {
-            throw new RuntimeException(String.format("join point not found method, point is : %s", pjp.getSignature().getName()));
-        }
-        Compensable compensable = method.getAnnotation(Compensable.class);
-
-        String confirmMethodName = compensable.confirmMethod();
-        String cancelMethodName = compensable.cancelMethod();
+    private void enlistParticipant(ProceedingJoinPoint pjp, CompensableMethodMetadata metadata) throws IllegalAccessException, InstantiationException {
+        String confirmMethodName = metadata.getConfirmMethod();
+        String cancelMethodName = metadata.getCancelMethod();
 
         Transaction transaction = transactionManager.getCurrentTransaction();
         TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
 
         // 如果调用方法时TransactionContext为null，此时会自动创建一个TransactionContext，并设置到方法执行参数中
-        if (FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs()) == null) {
-            FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), ((MethodSignature) pjp.getSignature()).getMethod(), pjp.getArgs());
+        if (metadata.getTransactionContext(pjp.getTarget(), pjp.getArgs()) == null) {
+            metadata.getTransactionContextEditor().set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), ((MethodSignature) pjp.getSignature()).getMethod(), pjp.getArgs());
         }
 
-        Class targetClass = ReflectionUtils.getDeclaringType(pjp.getTarget().getClass(), method.getName(), method.getParameterTypes());
+        Class targetClass = metadata.getDeclaringType();
 
         InvocationContext confirmInvocation = new InvocationContext(targetClass,
                 confirmMethodName,
-                method.getParameterTypes(), pjp.getArgs());
+                metadata.getParameterTypes(), pjp.getArgs());
 
         InvocationContext cancelInvocation = new InvocationContext(targetClass,
                 cancelMethodName,
-                method.getParameterTypes(), pjp.getArgs());
+                metadata.getParameterTypes(), pjp.getArgs());
 
         Participant participant =
                 new Participant(
                         xid,
                         confirmInvocation,
                         cancelInvocation,
-                        compensable.transactionContextEditor());
+                        metadata.getTransactionContextEditorClass());
 
         transactionManager.enlistParticipant(participant);
 
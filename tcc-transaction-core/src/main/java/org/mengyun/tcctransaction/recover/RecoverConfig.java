@@ -41,4 +41,31 @@ public interface RecoverConfig {
     int getAsyncTerminateThreadMaxPoolSize();
 
     int getAsyncTerminateThreadWorkQueueSize();
+
+    /**
+     * 恢复时每页加载的异常事务数量，默认200
+     *
+     * @return
+     */
+    default int getRecoverPageSize() {
+        return 200;
+    }
+
+    /**
+     * 并行恢复的线程数，小于等于1时在调度线程中逐个恢复。默认为1，与并行恢复之前的行为一致，已有的自定义实现无需修改
+     *
+     * @return
+     */
+    default int getRecoverThreadPoolSize() {
+        return 1;
+    }
+
+    /**
+     * 恢复时对每个参与者目标类每秒最多发起的confirm/cancel次数，小于等于0表示不限流，默认不限流
+     *
+     * @return
+     */
+    default double getRecoverRateLimitPerTarget() {
+        return 0;
+    }
 }
@@ -0,0 +1,98 @@
+package org.mengyun.tcctransaction.recover;
+
+/**
+ * 事务恢复进度的快照
+ */
+public class RecoverProgress {
+
+    /**
+     * 本轮恢复是否仍在进行
+     */
+    private final boolean running;
+
+    /**
+     * 本轮恢复的开始时间
+     */
+    private final long startTime;
+
+    /**
+     * 上一轮恢复的结束时间
+     */
+    private final long lastFinishTime;
+
+    /**
+     * 本轮已加载的异常事务数
+     */
+    private final long loadedCount;
+
+    /**
+     * 本轮恢复成功的事务数
+     */
+    private final long recoveredCount;
+
+    /**
+     * 本轮恢复失败的事务数
+     */
+    private final long failedCount;
+
+    /**
+     * 本轮跳过的事务数，包括超过最大重试次数和还未到恢复时间的分支事务
+     */
+    private final long skippedCount;
+
+    /**
+     * 已提交到线程池但还未执行完成的事务数
+     */
+    private final long inFlightCount;
+
+    public RecoverProgress(boolean running, long startTime, long lastFinishTime, long loadedCount, long recoveredCount,
+                           long failedCount, long skippedCount, long inFlightCount) {
+        this.running = running;
+        this.startTime = startTime;
+        this.lastFinishTime = lastFinishTime;
+        this.loadedCount = loadedCount;
+        this.recoveredCount = recoveredCount;
+        this.failedCount = failedCount;
+        this.skippedCount = skippedCount;
+        this.inFlightCount = inFlightCount;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getLastFinishTime() {
+        return lastFinishTime;
+    }
+
+    public long getLoadedCount() {
+        return loadedCount;
+    }
+
+    public long getRecoveredCount() {
+        return recoveredCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public long getInFlightCount() {
+        return inFlightCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("running:%s, loaded:%d, recovered:%d, failed:%d, skipped:%d, inFlight:%d, elapsed:%dms",
+                running, loadedCount, recoveredCount, failedCount, skippedCount, inFlightCount,
+                (running ? System.currentTimeMillis() : lastFinishTime) - startTime);
+    }
+}
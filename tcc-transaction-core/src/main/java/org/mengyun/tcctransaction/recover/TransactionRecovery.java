@@ -1,18 +1,24 @@
 package org.mengyun.tcctransaction.recover;
 
 import com.alibaba.fastjson.JSON;
+import com.google.common.util.concurrent.RateLimiter;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.InvocationContext;
 import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.Page;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.mengyun.tcctransaction.utils.StringUtils;
 
-import java.util.Calendar;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by changmingxie on 11/10/15.
@@ -24,57 +30,270 @@ public class TransactionRecovery {
     private TransactionConfigurator transactionConfigurator;
 
     /**
-     * 由quartz job调度起来
+     * 恢复线程池，互不相关的事务并行执行confirm/cancel
+     */
+    private volatile ExecutorService recoverExecutor;
+
+    /**
+     * 按参与者的目标类限流，避免大量积压的事务同时冲击下游服务
+     */
+    private final ConcurrentMap<Class, RateLimiter> rateLimiters = new ConcurrentHashMap<Class, RateLimiter>();
+
+    private volatile boolean running;
+
+    private volatile long startTime;
+
+    private volatile long lastFinishTime;
+
+    private final AtomicLong loadedCount = new AtomicLong();
+
+    private final AtomicLong recoveredCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    private final AtomicLong inFlightCount = new AtomicLong();
+
+    /**
+     * 由quartz job调度起来，异常事务逐页加载并恢复，内存中同时只保留一页
      */
     public void startRecover() {
-        List<Transaction> transactions = loadErrorTransactions();
-        recoverErrorTransactions(transactions);
-    }
 
-    private List<Transaction> loadErrorTransactions() {
         long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
-        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
         RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
-        return transactionRepository.findAllUnmodifiedSince(new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000));
+        Date unmodifiedSince = new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000);
+
+        resetProgress();
+
+        try {
+            String offset = null;
+
+            do {
+                Page<Transaction> page = loadErrorTransactions(unmodifiedSince, offset, recoverConfig.getRecoverPageSize());
+                loadedCount.addAndGet(page.getData().size());
+                recoverErrorTransactions(page.getData());
+                offset = page.getNextOffset();
+            } while (offset != null);
+        } finally {
+            running = false;
+            lastFinishTime = System.currentTimeMillis();
+
+            if (loadedCount.get() > 0) {
+                logger.info("transaction recovery finished, " + getProgress());
+            }
+        }
+    }
+
+    /**
+     * 当前或最近一轮恢复的进度
+     *
+     * @return
+     */
+    public RecoverProgress getProgress() {
+        return new RecoverProgress(running, startTime, lastFinishTime, loadedCount.get(), recoveredCount.get(),
+                failedCount.get(), skippedCount.get(), inFlightCount.get());
+    }
+
+    private Page<Transaction> loadErrorTransactions(Date unmodifiedSince, String offset, int pageSize) {
+        TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
+        return transactionRepository.findAllUnmodifiedSince(unmodifiedSince, offset, pageSize);
     }
 
+    /**
+     * 一页内的事务并行恢复，等待整页完成后再加载下一页
+     */
     private void recoverErrorTransactions(List<Transaction> transactions) {
-        for (Transaction transaction : transactions) {
-            if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
-                logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
-                continue;
+
+        ExecutorService executor = getRecoverExecutor();
+
+        if (executor == null) {
+            for (Transaction transaction : transactions) {
+                recoverErrorTransaction(transaction);
+            }
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(transactions.size());
+
+        for (final Transaction transaction : transactions) {
+
+            inFlightCount.incrementAndGet();
+
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        recoverErrorTransaction(transaction);
+                    } finally {
+                        inFlightCount.decrementAndGet();
+                    }
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                logger.error("recover transaction failed unexpectedly.", e.getCause());
+            }
+        }
+    }
+
+    private void recoverErrorTransaction(Transaction transaction) {
+
+        if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+            skippedCount.incrementAndGet();
+            logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
+            return;
+        }
+        if (transaction.getTransactionType().equals(TransactionType.BRANCH)
+                && (transaction.getCreateTime().getTime() +
+                transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
+                        transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
+                > System.currentTimeMillis())) {
+            skippedCount.incrementAndGet();
+            return;
+        }
+
+        try {
+            transaction.addRetriedCount();
+            if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
+                transaction.changeStatus(TransactionStatus.CONFIRMING);
+                transactionConfigurator.getTransactionRepository().update(transaction);
+                acquirePermits(transaction, true);
+                transaction.commit();
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+            } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
+                    || transaction.getTransactionType().equals(TransactionType.ROOT)) {
+                transaction.changeStatus(TransactionStatus.CANCELLING);
+                transactionConfigurator.getTransactionRepository().update(transaction);
+                acquirePermits(transaction, false);
+                transaction.rollback();
+                transactionConfigurator.getTransactionRepository().delete(transaction);
+            }
+            recoveredCount.incrementAndGet();
+        } catch (Throwable throwable) {
+            failedCount.incrementAndGet();
+            saveParticipantStatus(transaction);
+            if (throwable instanceof OptimisticLockException
+                    || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
+                logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            } else {
+                logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            }
+        }
+    }
+
+    /**
+     * 保存已完成的参与者状态，下次恢复时跳过这些参与者
+     */
+    private void saveParticipantStatus(Transaction transaction) {
+
+        boolean terminated = false;
+
+        for (Participant participant : transaction.getParticipants()) {
+            if (participant.getStatus() != ParticipantStatus.TRYING) {
+                terminated = true;
+                break;
             }
-            if (transaction.getTransactionType().equals(TransactionType.BRANCH)
-                    && (transaction.getCreateTime().getTime() +
-                    transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
-                            transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
-                    > System.currentTimeMillis())) {
+        }
+
+        if (!terminated) {
+            return;
+        }
+
+        try {
+            transactionConfigurator.getTransactionRepository().update(transaction);
+        } catch (Throwable updateException) {
+            logger.warn(String.format("save participant status failed while recover. txid:%s", transaction.getXid()), updateException);
+        }
+    }
+
+    /**
+     * 本次会被调用的参与者的目标类各获取一个许可，已完成confirm/cancel的参与者会被跳过，不占用许可。未配置限流时直接返回
+     */
+    private void acquirePermits(Transaction transaction, boolean commit) {
+
+        double permitsPerSecond = transactionConfigurator.getRecoverConfig().getRecoverRateLimitPerTarget();
+
+        if (permitsPerSecond <= 0) {
+            return;
+        }
+
+        Set<Class> targetClasses = new HashSet<Class>();
+
+        for (Participant participant : transaction.getParticipants()) {
+
+            if (participant.getStatus() == (commit ? ParticipantStatus.CONFIRMED : ParticipantStatus.CANCELLED)) {
                 continue;
             }
 
-            try {
-                transaction.addRetriedCount();
-                if (transaction.getStatus().equals(TransactionStatus.CONFIRMING)) {
-                    transaction.changeStatus(TransactionStatus.CONFIRMING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.commit();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
-                } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
-                        || transaction.getTransactionType().equals(TransactionType.ROOT)) {
-                    transaction.changeStatus(TransactionStatus.CANCELLING);
-                    transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.rollback();
-                    transactionConfigurator.getTransactionRepository().delete(transaction);
+            InvocationContext invocationContext = commit ? participant.getConfirmInvocationContext() : participant.getCancelInvocationContext();
+
+            if (invocationContext != null && StringUtils.isNotEmpty(invocationContext.getMethodName())) {
+                targetClasses.add(invocationContext.getTargetClass());
+            }
+        }
+
+        for (Class targetClass : targetClasses) {
+            RateLimiter rateLimiter = rateLimiters.get(targetClass);
+
+            if (rateLimiter == null) {
+                RateLimiter newRateLimiter = RateLimiter.create(permitsPerSecond);
+                rateLimiter = rateLimiters.putIfAbsent(targetClass, newRateLimiter);
+                if (rateLimiter == null) {
+                    rateLimiter = newRateLimiter;
                 }
-            } catch (Throwable throwable) {
-                if (throwable instanceof OptimisticLockException
-                        || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
-                    logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
-                } else {
-                    logger.error(String.format("recover failed, txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
+            }
+
+            rateLimiter.acquire();
+        }
+    }
+
+    private ExecutorService getRecoverExecutor() {
+
+        int poolSize = transactionConfigurator.getRecoverConfig().getRecoverThreadPoolSize();
+
+        if (poolSize <= 1) {
+            return null;
+        }
+
+        if (recoverExecutor == null) {
+            synchronized (this) {
+                if (recoverExecutor == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                        private final AtomicLong threadIndex = new AtomicLong();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "tcc-recover-" + threadIndex.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    recoverExecutor = executor;
                 }
             }
         }
+
+        return recoverExecutor;
+    }
+
+    private void resetProgress() {
+        loadedCount.set(0);
+        recoveredCount.set(0);
+        failedCount.set(0);
+        skippedCount.set(0);
+        startTime = System.currentTimeMillis();
+        running = true;
     }
 
     public void setTransactionConfigurator(TransactionConfigurator transactionConfigurator) {
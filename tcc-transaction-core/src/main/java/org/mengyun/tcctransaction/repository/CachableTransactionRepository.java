@@ -3,26 +3,37 @@ package org.mengyun.tcctransaction.repository;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import org.mengyun.tcctransaction.AsyncTransactionRepository;
 import org.mengyun.tcctransaction.ConcurrentTransactionException;
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.Transaction;
-import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionXid;
 
 import javax.transaction.xa.Xid;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Created by changmingxie on 10/30/15.
  */
-public abstract class CachableTransactionRepository implements TransactionRepository {
+public abstract class CachableTransactionRepository implements AsyncTransactionRepository {
 
     private int expireDuration = 120;
 
     private Cache<Xid, Transaction> transactionXidCompensableTransactionCache;
 
+    private int asyncPoolSize = 16;
+
+    /**
+     * 异步方法使用的I/O线程池
+     */
+    private volatile ExecutorService asyncExecutor;
+
     @Override
     public int create(Transaction transaction) {
         int result = doCreate(transaction);
@@ -95,6 +106,105 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return transactions;
     }
 
+    @Override
+    public Page<Transaction> findAllUnmodifiedSince(Date date, String offset, int pageSize) {
+
+        Page<Transaction> page = doFindAllUnmodifiedSince(date, offset, pageSize);
+
+        for (Transaction transaction : page.getData()) {
+            putToCache(transaction);
+        }
+
+        return page;
+    }
+
+    @Override
+    public CompletableFuture<Integer> createAsync(final Transaction transaction) {
+
+        return invokeAsync(new Callable<CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> call() {
+                return doCreateAsync(transaction);
+            }
+        }).thenApply(new Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer result) {
+                if (result > 0) {
+                    putToCache(transaction);
+                    return result;
+                }
+                throw new ConcurrentTransactionException("transaction xid duplicated. xid:" + transaction.getXid().toString());
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> updateAsync(final Transaction transaction) {
+
+        return invokeAsync(new Callable<CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> call() {
+                return doUpdateAsync(transaction);
+            }
+        }).handle(new BiFunction<Integer, Throwable, Integer>() {
+            @Override
+            public Integer apply(Integer result, Throwable throwable) {
+                if (throwable == null && result > 0) {
+                    putToCache(transaction);
+                    return result;
+                }
+
+                removeFromCache(transaction);
+
+                if (throwable == null) {
+                    throw new OptimisticLockException();
+                }
+                throw throwable instanceof CompletionException ? (CompletionException) throwable : new CompletionException(throwable);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> deleteAsync(final Transaction transaction) {
+
+        return invokeAsync(new Callable<CompletableFuture<Integer>>() {
+            @Override
+            public CompletableFuture<Integer> call() {
+                return doDeleteAsync(transaction);
+            }
+        }).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer result, Throwable throwable) {
+                removeFromCache(transaction);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Transaction> findByXidAsync(final TransactionXid transactionXid) {
+
+        Transaction transaction = findFromCache(transactionXid);
+
+        if (transaction != null) {
+            return CompletableFuture.completedFuture(transaction);
+        }
+
+        return invokeAsync(new Callable<CompletableFuture<Transaction>>() {
+            @Override
+            public CompletableFuture<Transaction> call() {
+                return doFindOneAsync(transactionXid);
+            }
+        }).thenApply(new Function<Transaction, Transaction>() {
+            @Override
+            public Transaction apply(Transaction transaction) {
+                if (transaction != null) {
+                    putToCache(transaction);
+                }
+                return transaction;
+            }
+        });
+    }
+
     public CachableTransactionRepository() {
         transactionXidCompensableTransactionCache = CacheBuilder.newBuilder().expireAfterAccess(expireDuration, TimeUnit.SECONDS).maximumSize(1000).build();
     }
@@ -115,6 +225,93 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         this.expireDuration = durationInSeconds;
     }
 
+    public void setAsyncPoolSize(int asyncPoolSize) {
+        this.asyncPoolSize = asyncPoolSize;
+    }
+
+    public void setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * 异步方法使用的I/O线程池，未设置时按asyncPoolSize懒加载创建
+     *
+     * @return
+     */
+    protected ExecutorService getAsyncExecutor() {
+
+        if (asyncExecutor == null) {
+            synchronized (this) {
+                if (asyncExecutor == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncPoolSize, asyncPoolSize, 60L, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                        private final AtomicLong threadIndex = new AtomicLong();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "tcc-repository-io-" + threadIndex.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+
+        return asyncExecutor;
+    }
+
+    /**
+     * 在I/O线程池中执行
+     *
+     * @param callable
+     * @param <T>
+     * @return
+     */
+    protected <T> CompletableFuture<T> supplyAsync(final Callable<T> callable) {
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        try {
+            getAsyncExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(callable.call());
+                    } catch (Throwable throwable) {
+                        future.completeExceptionally(throwable);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new TransactionIOException(e));
+        }
+
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> invokeAsync(Callable<CompletableFuture<T>> callable) {
+        try {
+            return callable.call();
+        } catch (Throwable throwable) {
+            CompletableFuture<T> future = new CompletableFuture<T>();
+            future.completeExceptionally(throwable);
+            return future;
+        }
+    }
+
+    private static <T> CompletableFuture<T> completeNow(final Callable<T> callable) {
+        return invokeAsync(new Callable<CompletableFuture<T>>() {
+            @Override
+            public CompletableFuture<T> call() throws Exception {
+                return CompletableFuture.completedFuture(callable.call());
+            }
+        });
+    }
+
     protected abstract int doCreate(Transaction transaction);
 
     protected abstract int doUpdate(Transaction transaction);
@@ -124,4 +321,59 @@ public abstract class CachableTransactionRepository implements TransactionReposi
     protected abstract Transaction doFindOne(Xid xid);
 
     protected abstract List<Transaction> doFindAllUnmodifiedSince(Date date);
+
+    /**
+     * 默认在调用线程同步执行，支持非阻塞I/O的存储应覆盖doXxxAsync方法。
+     * 覆盖时需在调用线程完成序列化，避免与业务线程并发读写事务对象
+     *
+     * @param transaction
+     * @return
+     */
+    protected CompletableFuture<Integer> doCreateAsync(final Transaction transaction) {
+        return completeNow(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return doCreate(transaction);
+            }
+        });
+    }
+
+    protected CompletableFuture<Integer> doUpdateAsync(final Transaction transaction) {
+        return completeNow(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return doUpdate(transaction);
+            }
+        });
+    }
+
+    protected CompletableFuture<Integer> doDeleteAsync(final Transaction transaction) {
+        return completeNow(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return doDelete(transaction);
+            }
+        });
+    }
+
+    protected CompletableFuture<Transaction> doFindOneAsync(final Xid xid) {
+        return completeNow(new Callable<Transaction>() {
+            @Override
+            public Transaction call() {
+                return doFindOne(xid);
+            }
+        });
+    }
+
+    /**
+     * 默认不分页，一次返回全部异常事务，具体的存储实现应覆盖该方法
+     *
+     * @param date
+     * @param offset
+     * @param pageSize
+     * @return
+     */
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String offset, int pageSize) {
+        return new Page<Transaction>(doFindAllUnmodifiedSince(date), null);
+    }
 }
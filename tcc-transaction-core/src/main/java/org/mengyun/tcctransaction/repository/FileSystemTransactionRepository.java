@@ -1,6 +1,7 @@
 package org.mengyun.tcctransaction.repository;
 
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.helper.MappedSegmentStore;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
@@ -10,6 +11,7 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -25,6 +27,35 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
 
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    /**
+     * 是否使用内存映射的日志段存储，开启后事务记录追加写入预分配的日志段文件，并在堆外维护xid索引
+     */
+    private boolean mappedStorage = false;
+
+    /**
+     * 内存映射模式下单个日志段文件的大小
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * 内存映射模式下xid索引的初始容量
+     */
+    private int indexCapacity = 64 * 1024;
+
+    private volatile MappedSegmentStore mappedSegmentStore;
+
+    public void setMappedStorage(boolean mappedStorage) {
+        this.mappedStorage = mappedStorage;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setIndexCapacity(int indexCapacity) {
+        this.indexCapacity = indexCapacity;
+    }
+
     public void setSerializer(ObjectSerializer serializer) {
         this.serializer = serializer;
     }
@@ -35,12 +66,22 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
 
     @Override
     protected int doCreate(Transaction transaction) {
+
+        if (mappedStorage) {
+            return getMappedSegmentStore().create(transaction.getXid(), transaction.getStatus().getId(),
+                    transaction.getLastUpdateTime().getTime(), transaction.getVersion(), serializer.serialize(transaction));
+        }
+
         return createFile(transaction);
     }
 
     @Override
     protected int doUpdate(Transaction transaction) {
 
+        if (mappedStorage) {
+            return updateMappedRecord(transaction);
+        }
+
         transaction.updateVersion();
         transaction.updateTime();
 
@@ -51,6 +92,10 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     @Override
     protected int doDelete(Transaction transaction) {
 
+        if (mappedStorage) {
+            return getMappedSegmentStore().delete(transaction.getXid());
+        }
+
         String fullFileName = getFullFileName(transaction.getXid());
         File file = new File(fullFileName);
         if (file.exists()) {
@@ -62,6 +107,11 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     @Override
     protected Transaction doFindOne(Xid xid) {
 
+        if (mappedStorage) {
+            byte[] content = getMappedSegmentStore().findOne(xid);
+            return content == null ? null : (Transaction) serializer.deserialize(content);
+        }
+
         String fullFileName = getFullFileName(xid);
         File file = new File(fullFileName);
 
@@ -75,6 +125,14 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     @Override
     protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
 
+        if (mappedStorage) {
+            List<Transaction> transactions = new ArrayList<Transaction>();
+            for (byte[] content : getMappedSegmentStore().findAllUnmodifiedSince(date.getTime())) {
+                transactions.add((Transaction) serializer.deserialize(content));
+            }
+            return transactions;
+        }
+
         List<Transaction> allTransactions = doFindAll();
 
         List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
@@ -89,6 +147,57 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
     }
 
 
+    /**
+     * 文件模式下按文件名排序分页，offset为上一页最后一个文件名；内存映射模式下offset为索引槽位
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String offset, int pageSize) {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        if (mappedStorage) {
+
+            List<byte[]> contents = new ArrayList<byte[]>();
+            int nextSlot = getMappedSegmentStore().findUnmodifiedSince(date.getTime(), offset == null ? 0 : Integer.parseInt(offset), pageSize, contents);
+
+            for (byte[] content : contents) {
+                transactions.add((Transaction) serializer.deserialize(content));
+            }
+
+            return new Page<Transaction>(transactions, nextSlot < 0 ? null : String.valueOf(nextSlot));
+        }
+
+        String[] fileNames = new File(rootPath).list();
+
+        if (fileNames == null) {
+            return new Page<Transaction>(transactions, null);
+        }
+
+        Arrays.sort(fileNames);
+
+        int start = 0;
+
+        if (offset != null) {
+            int index = Arrays.binarySearch(fileNames, offset);
+            start = index >= 0 ? index + 1 : -index - 1;
+        }
+
+        int end = Math.min(fileNames.length, start + pageSize);
+
+        for (int i = start; i < end; i++) {
+            File file = new File(rootPath, fileNames[i]);
+
+            if (file.exists()) {
+                Transaction transaction = readTransaction(file);
+                if (transaction != null && transaction.getLastUpdateTime().compareTo(date) < 0) {
+                    transactions.add(transaction);
+                }
+            }
+        }
+
+        return new Page<Transaction>(transactions, end < fileNames.length ? fileNames[end - 1] : null);
+    }
+
     protected List<Transaction> doFindAll() {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -103,6 +212,50 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         return transactions;
     }
 
+    private int updateMappedRecord(Transaction transaction) {
+
+        Date lastUpdateTime = transaction.getLastUpdateTime();
+        long currentVersion = transaction.getVersion();
+
+        transaction.updateVersion();
+        transaction.updateTime();
+
+        int result = 0;
+
+        try {
+            result = getMappedSegmentStore().update(transaction.getXid(), currentVersion, transaction.getStatus().getId(),
+                    transaction.getLastUpdateTime().getTime(), transaction.getVersion(), serializer.serialize(transaction));
+            return result;
+        } finally {
+            if (result <= 0) {
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(currentVersion);
+            }
+        }
+    }
+
+    /**
+     * 内存映射模式下解除日志段映射，文件模式下无需关闭
+     */
+    public void close() {
+        synchronized (this) {
+            if (mappedSegmentStore != null) {
+                mappedSegmentStore.close();
+            }
+        }
+    }
+
+    private MappedSegmentStore getMappedSegmentStore() {
+        if (mappedSegmentStore == null) {
+            synchronized (this) {
+                if (mappedSegmentStore == null) {
+                    mappedSegmentStore = new MappedSegmentStore(rootPath, segmentSize, indexCapacity);
+                }
+            }
+        }
+        return mappedSegmentStore;
+    }
+
     private String getFullFileName(Xid xid) {
         return String.format("%s/%s", rootPath, xid);
     }
@@ -203,6 +356,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
                 channel.write(buffer);
             }
 
+            channel.truncate(content.length);
             channel.force(true);
 
         } catch (Exception e) {
@@ -0,0 +1,406 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import javax.transaction.xa.Xid;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * 内存中的事务存储，不依赖任何外部服务，适用于单元测试、基准测试和压测环境。
+ * <p>
+ * 事务以序列化后的内容保存，读取得到的是独立的副本，与其它存储一样按版本号做乐观锁，重复创建返回0。
+ * 另外按最后更新时间维护有序索引，恢复时的findAllUnmodifiedSince不需要扫描全部事务。
+ * <p>
+ * 设置snapshotPath后定期将全部事务写入快照文件，启动时从快照恢复，适用于单节点。
+ * 快照之间的写入在进程崩溃时会丢失，需要每次写入都持久化时请使用其它存储
+ */
+public class InMemoryTransactionRepository extends CachableTransactionRepository {
+
+    private static final Logger logger = Logger.getLogger(InMemoryTransactionRepository.class.getSimpleName());
+
+    private static final int SNAPSHOT_MAGIC = 0x54434D53;
+
+    private final ConcurrentMap<Xid, Record> records = new ConcurrentHashMap<Xid, Record>();
+
+    /**
+     * 按最后更新时间排序的索引，时间相同时按写入顺序
+     */
+    private final ConcurrentSkipListSet<IndexEntry> updateTimeIndex = new ConcurrentSkipListSet<IndexEntry>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ObjectSerializer serializer = new KryoPoolSerializer();
+
+    private String snapshotPath;
+
+    private int snapshotIntervalInSeconds = 5;
+
+    private volatile boolean initialized;
+
+    private volatile ScheduledExecutorService snapshotExecutor;
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * 快照文件路径，为空时不写快照
+     *
+     * @param snapshotPath
+     */
+    public void setSnapshotPath(String snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    public void setSnapshotIntervalInSeconds(int snapshotIntervalInSeconds) {
+        this.snapshotIntervalInSeconds = snapshotIntervalInSeconds;
+    }
+
+    @Override
+    protected int doCreate(final Transaction transaction) {
+
+        initIfNecessary();
+
+        final byte[] content = serializer.serialize(transaction);
+        final boolean[] created = new boolean[1];
+
+        records.compute(transaction.getXid(), new BiFunction<Xid, Record, Record>() {
+            @Override
+            public Record apply(Xid xid, Record existing) {
+
+                if (existing != null) {
+                    return existing;
+                }
+
+                created[0] = true;
+                return index(null, new Record(xid, transaction.getVersion(), transaction.getLastUpdateTime().getTime(), content, sequence.incrementAndGet()));
+            }
+        });
+
+        return created[0] ? 1 : 0;
+    }
+
+    @Override
+    protected int doUpdate(final Transaction transaction) {
+
+        initIfNecessary();
+
+        Date lastUpdateTime = transaction.getLastUpdateTime();
+        final long currentVersion = transaction.getVersion();
+
+        transaction.updateTime();
+        transaction.updateVersion();
+
+        final boolean[] updated = new boolean[1];
+
+        try {
+            final byte[] content = serializer.serialize(transaction);
+
+            records.computeIfPresent(transaction.getXid(), new BiFunction<Xid, Record, Record>() {
+                @Override
+                public Record apply(Xid xid, Record existing) {
+
+                    if (existing.version != currentVersion) {
+                        return existing;
+                    }
+
+                    updated[0] = true;
+                    return index(existing, new Record(xid, transaction.getVersion(), transaction.getLastUpdateTime().getTime(), content, sequence.incrementAndGet()));
+                }
+            });
+
+            return updated[0] ? 1 : 0;
+        } finally {
+            if (!updated[0]) {
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(currentVersion);
+            }
+        }
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+
+        initIfNecessary();
+
+        Record removed = records.remove(transaction.getXid());
+
+        if (removed == null) {
+            return 0;
+        }
+
+        updateTimeIndex.remove(removed.indexEntry);
+        return 1;
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+
+        initIfNecessary();
+
+        Record record = records.get(xid);
+        return record == null ? null : (Transaction) serializer.deserialize(record.content);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+
+        initIfNecessary();
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (IndexEntry entry : updateTimeIndex.headSet(new IndexEntry(date.getTime(), Long.MIN_VALUE, null))) {
+            Transaction transaction = doFindOne(entry.xid);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+
+        return transactions;
+    }
+
+    /**
+     * 按索引顺序分页，offset为上一页最后一条记录的"更新时间:写入序号"
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String offset, int pageSize) {
+
+        initIfNecessary();
+
+        NavigableSet<IndexEntry> candidates = updateTimeIndex.headSet(new IndexEntry(date.getTime(), Long.MIN_VALUE, null), false);
+
+        if (offset != null) {
+            int separator = offset.indexOf(':');
+            IndexEntry from = new IndexEntry(Long.parseLong(offset.substring(0, separator)), Long.parseLong(offset.substring(separator + 1)), null);
+            candidates = candidates.tailSet(from, false);
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>(Math.min(pageSize, 64));
+        IndexEntry last = null;
+        boolean hasMore = false;
+
+        for (IndexEntry entry : candidates) {
+
+            if (transactions.size() >= pageSize) {
+                hasMore = true;
+                break;
+            }
+
+            Transaction transaction = doFindOne(entry.xid);
+            last = entry;
+
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+
+        return new Page<Transaction>(transactions, hasMore ? last.time + ":" + last.sequence : null);
+    }
+
+    /**
+     * 立即写入一次快照，未设置snapshotPath时不做任何操作
+     */
+    public synchronized void snapshot() {
+
+        if (snapshotPath == null) {
+            return;
+        }
+
+        File file = new File(snapshotPath).getAbsoluteFile();
+        file.getParentFile().mkdirs();
+
+        try {
+            // 先写入同目录下的临时文件再原子替换，写入过程中崩溃不会破坏已有的快照
+            File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 64 * 1024));
+
+                output.writeInt(SNAPSHOT_MAGIC);
+
+                for (Map.Entry<Xid, Record> entry : records.entrySet()) {
+                    Record record = entry.getValue();
+                    output.writeBoolean(true);
+                    writeBytes(output, entry.getKey().getGlobalTransactionId());
+                    writeBytes(output, entry.getKey().getBranchQualifier());
+                    output.writeLong(record.version);
+                    output.writeLong(record.indexEntry.time);
+                    writeBytes(output, record.content);
+                }
+
+                output.writeBoolean(false);
+                output.flush();
+                fileOutputStream.getFD().sync();
+            } finally {
+                fileOutputStream.close();
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    private Record index(Record existing, Record record) {
+
+        if (existing != null) {
+            updateTimeIndex.remove(existing.indexEntry);
+        }
+
+        updateTimeIndex.add(record.indexEntry);
+        return record;
+    }
+
+    private void initIfNecessary() {
+
+        if (initialized) {
+            return;
+        }
+
+        synchronized (this) {
+            if (initialized) {
+                return;
+            }
+
+            if (snapshotPath != null) {
+                loadSnapshot();
+                startSnapshotTask();
+            }
+
+            initialized = true;
+        }
+    }
+
+    private void loadSnapshot() {
+
+        File file = new File(snapshotPath);
+
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream input = null;
+
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+
+            if (input.readInt() != SNAPSHOT_MAGIC) {
+                throw new TransactionIOException("invalid transaction snapshot file: " + snapshotPath);
+            }
+
+            while (input.readBoolean()) {
+                TransactionXid xid = new TransactionXid(readBytes(input), readBytes(input));
+                long version = input.readLong();
+                long lastUpdateTime = input.readLong();
+                byte[] content = readBytes(input);
+
+                Record record = new Record(xid, version, lastUpdateTime, content, sequence.incrementAndGet());
+                records.put(xid, record);
+                updateTimeIndex.add(record.indexEntry);
+            }
+
+            logger.info(String.format("loaded %d transactions from snapshot %s", records.size(), snapshotPath));
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    throw new TransactionIOException(e);
+                }
+            }
+        }
+    }
+
+    private void startSnapshotTask() {
+
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "tcc-memory-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshot();
+                } catch (Throwable e) {
+                    logger.error("write transaction snapshot failed.", e);
+                }
+            }
+        }, snapshotIntervalInSeconds, snapshotIntervalInSeconds, TimeUnit.SECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                snapshotExecutor.shutdown();
+                snapshot();
+            }
+        }, "tcc-memory-snapshot-shutdown"));
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static class Record {
+
+        final long version;
+
+        final byte[] content;
+
+        final IndexEntry indexEntry;
+
+        Record(Xid xid, long version, long lastUpdateTime, byte[] content, long sequence) {
+            this.version = version;
+            this.content = content;
+            this.indexEntry = new IndexEntry(lastUpdateTime, sequence, xid);
+        }
+    }
+
+    private static class IndexEntry implements Comparable<IndexEntry> {
+
+        final long time;
+
+        final long sequence;
+
+        final Xid xid;
+
+        IndexEntry(long time, long sequence, Xid xid) {
+            this.time = time;
+            this.sequence = sequence;
+            this.xid = xid;
+        }
+
+        @Override
+        public int compareTo(IndexEntry other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.mengyun.tcctransaction.repository;
 
 
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
@@ -11,9 +13,15 @@ import org.mengyun.tcctransaction.utils.StringUtils;
 import javax.sql.DataSource;
 import javax.transaction.xa.Xid;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 /**
  * 关系型数据库存储TCC事务日志
@@ -21,6 +29,25 @@ import java.util.List;
  * Created by changmingxie on 10/30/15.
  */
 public class JdbcTransactionRepository extends CachableTransactionRepository {
+
+    static final Logger logger = Logger.getLogger(JdbcTransactionRepository.class.getSimpleName());
+
+    private static final int OPERATION_CREATE = 1;
+
+    private static final int OPERATION_UPDATE = 2;
+
+    private static final int OPERATION_DELETE = 3;
+
+    /**
+     * 参与者没有变化时只更新状态、重试次数等列，不写CONTENT
+     */
+    private static final int OPERATION_UPDATE_STATUS = 4;
+
+    /**
+     * 结束标记，只由close放入
+     */
+    private static final int OPERATION_CLOSE = 5;
+
     /**
      * 事务所属应用
      */
@@ -41,12 +68,50 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
      */
     private ObjectSerializer serializer = new KryoPoolSerializer();
 
+    /**
+     * 是否开启批量写入，开启后业务线程的新建、更新、删除进入有界队列，由写线程合并为JDBC批量执行
+     */
+    private boolean batchEnabled = false;
+
+    /**
+     * 单个JDBC事务中最多合并的操作数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 批量写线程数，每个写线程有自己的队列，同一个xid的操作总是进入同一个写线程，按提交顺序执行
+     */
+    private int batchWriterThreads = 2;
+
+    /**
+     * 批量写入队列的总容量，平均分给各写线程，队列满时业务线程阻塞等待
+     */
+    private int batchQueueSize = 4096;
+
+    /**
+     * 批量写入时业务线程入队与等待执行结果的超时时间，单位毫秒。超时后抛出TransactionIOException，此时该操作可能仍会被执行
+     */
+    private long batchTimeout = 30 * 1000L;
+
+    private volatile List<BatchWriter> batchWriters;
+
+    private volatile boolean closed;
+
+    private volatile String insertSql;
+
+    private volatile String updateStatusSql;
+
+    private volatile String updateSql;
+
+    private volatile String deleteSql;
+
     public String getDomain() {
         return domain;
     }
 
     public void setDomain(String domain) {
         this.domain = domain;
+        resetSql();
     }
 
     public String getTbSuffix() {
@@ -55,6 +120,7 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     public void setTbSuffix(String tbSuffix) {
         this.tbSuffix = tbSuffix;
+        resetSql();
     }
 
     public void setSerializer(ObjectSerializer serializer) {
@@ -69,6 +135,75 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return dataSource;
     }
 
+    public void setBatchEnabled(boolean batchEnabled) {
+        this.batchEnabled = batchEnabled;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchWriterThreads(int batchWriterThreads) {
+        this.batchWriterThreads = batchWriterThreads;
+    }
+
+    public void setBatchQueueSize(int batchQueueSize) {
+        this.batchQueueSize = batchQueueSize;
+    }
+
+    public void setBatchTimeout(long batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
+    /**
+     * 停止批量写线程。不中断线程，放入结束标记后写线程执行完队列中已有的操作再退出，之后的写入直接失败
+     */
+    public void close() {
+
+        List<BatchWriter> writers;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writers = batchWriters;
+        }
+
+        if (writers == null) {
+            return;
+        }
+
+        boolean interrupted = false;
+
+        for (BatchWriter writer : writers) {
+            while (writer.thread.isAlive()) {
+                try {
+                    if (writer.queue.offer(JdbcOperation.close(), 100, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        for (BatchWriter writer : writers) {
+            while (true) {
+                try {
+                    writer.thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * 添加新事务
      *
@@ -76,32 +211,32 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
      * @return
      */
     protected int doCreate(Transaction transaction) {
+
+        // 事务对象序列化后存储至库中
+        JdbcOperation operation = new JdbcOperation(OPERATION_CREATE, transaction, serializer.serialize(transaction), transaction.getVersion());
+        transaction.markPersisted();
+
+        int result = 0;
+
+        try {
+            result = batchEnabled ? submit(operation) : executeCreate(operation);
+            return result;
+        } finally {
+            if (result <= 0) {
+                transaction.clearPersisted();
+            }
+        }
+    }
+
+    private int executeCreate(JdbcOperation operation) {
         Connection connection = null;
         PreparedStatement stmt = null;
 
         try {
             connection = this.getConnection();
-            StringBuilder builder = new StringBuilder();
-            builder.append("INSERT INTO " + getTableName() +
-                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
 
-            stmt = connection.prepareStatement(builder.toString());
-
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
-            stmt.setInt(3, transaction.getTransactionType().getId());
-            // 事务对象序列化后存储至库中
-            stmt.setBytes(4, serializer.serialize(transaction));
-            stmt.setInt(5, transaction.getStatus().getId());
-            stmt.setInt(6, transaction.getRetriedCount());
-            stmt.setTimestamp(7, new java.sql.Timestamp(transaction.getCreateTime().getTime()));
-            stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTime().getTime()));
-            stmt.setLong(9, transaction.getVersion());
-
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(10, domain);
-            }
+            stmt = connection.prepareStatement(getInsertSql());
+            bindCreate(stmt, operation);
 
             stmt.executeUpdate();
             return 1;
@@ -126,8 +261,6 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
      * @return
      */
     protected int doUpdate(Transaction transaction) {
-        Connection connection = null;
-        PreparedStatement stmt = null;
 
         java.util.Date lastUpdateTime = transaction.getLastUpdateTime();
         long currentVersion = transaction.getVersion();
@@ -135,37 +268,60 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         transaction.updateTime();
         transaction.updateVersion();
 
+        int result = 0;
+
         try {
-            connection = this.getConnection();
+            JdbcOperation operation = newUpdateOperation(transaction, currentVersion);
+            result = batchEnabled ? submit(operation) : executeUpdate(operation);
+            return result;
+        } catch (Throwable e) {
+            throw e instanceof TransactionIOException ? (TransactionIOException) e : new TransactionIOException(e);
+        } finally {
+            if (result <= 0) {
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(currentVersion);
+                transaction.clearPersisted();
+            }
+        }
+    }
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("UPDATE " + getTableName() + " SET " +
-                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+    /**
+     * 自上次落库后参与者没有变化时，只更新状态等列，不再序列化整个事务
+     *
+     * @param transaction
+     * @param currentVersion
+     * @return
+     */
+    private JdbcOperation newUpdateOperation(Transaction transaction, long currentVersion) {
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+        List<Participant> unpersistedParticipants = transaction.unpersistedParticipants();
 
-            stmt = connection.prepareStatement(builder.toString());
+        JdbcOperation operation = unpersistedParticipants != null && unpersistedParticipants.isEmpty()
+                ? new JdbcOperation(OPERATION_UPDATE_STATUS, transaction, null, currentVersion)
+                : new JdbcOperation(OPERATION_UPDATE, transaction, serializer.serialize(transaction), currentVersion);
 
-            stmt.setBytes(1, serializer.serialize(transaction));
-            stmt.setInt(2, transaction.getStatus().getId());
-            stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTime().getTime()));
+        transaction.markPersisted();
+        return operation;
+    }
 
-            stmt.setInt(4, transaction.getRetriedCount());
-            stmt.setBytes(5, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(6, transaction.getXid().getBranchQualifier());
-            stmt.setLong(7, currentVersion);
+    private int executeUpdate(JdbcOperation operation) {
+        Connection connection = null;
+        PreparedStatement stmt = null;
 
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(8, domain);
-            }
+        try {
+            connection = this.getConnection();
 
-            int result = stmt.executeUpdate();
+            if (operation.type == OPERATION_UPDATE_STATUS) {
+                stmt = connection.prepareStatement(getUpdateStatusSql());
+                bindUpdateStatus(stmt, operation);
+            } else {
+                stmt = connection.prepareStatement(getUpdateSql());
+                bindUpdate(stmt, operation);
+            }
 
-            return result;
+            return stmt.executeUpdate();
 
-        } catch (Throwable e) {
-            transaction.setLastUpdateTime(lastUpdateTime);
-            transaction.setVersion(currentVersion);
+        } catch (SQLException e) {
             throw new TransactionIOException(e);
         } finally {
             closeStatement(stmt);
@@ -180,34 +336,571 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
      * @return
      */
     protected int doDelete(Transaction transaction) {
+
+        JdbcOperation operation = new JdbcOperation(OPERATION_DELETE, transaction, null, transaction.getVersion());
+
+        if (batchEnabled) {
+            return submit(operation);
+        }
+
+        return executeDelete(operation);
+    }
+
+    private int executeDelete(JdbcOperation operation) {
         Connection connection = null;
         PreparedStatement stmt = null;
 
         try {
             connection = this.getConnection();
 
+            stmt = connection.prepareStatement(getDeleteSql());
+            bindDelete(stmt, operation);
+
+            return stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * 在调用线程完成序列化，开启批量写时放入批量写队列，否则在I/O线程池中执行
+     *
+     * @param transaction
+     * @return
+     */
+    @Override
+    protected CompletableFuture<Integer> doCreateAsync(final Transaction transaction) {
+
+        final JdbcOperation operation = new JdbcOperation(OPERATION_CREATE, transaction, serializer.serialize(transaction), transaction.getVersion());
+        transaction.markPersisted();
+
+        CompletableFuture<Integer> future = batchEnabled ? submitAsync(operation) : supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executeCreate(operation);
+            }
+        });
+
+        return future.whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer result, Throwable throwable) {
+                if (throwable != null || result <= 0) {
+                    transaction.clearPersisted();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Integer> doUpdateAsync(final Transaction transaction) {
+
+        final java.util.Date lastUpdateTime = transaction.getLastUpdateTime();
+        final long currentVersion = transaction.getVersion();
+
+        transaction.updateTime();
+        transaction.updateVersion();
+
+        CompletableFuture<Integer> future;
+
+        try {
+            final JdbcOperation operation = newUpdateOperation(transaction, currentVersion);
+
+            if (batchEnabled) {
+                future = submitAsync(operation);
+            } else {
+                future = supplyAsync(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return executeUpdate(operation);
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            transaction.setLastUpdateTime(lastUpdateTime);
+            transaction.setVersion(currentVersion);
+            transaction.clearPersisted();
+            throw e instanceof TransactionIOException ? (TransactionIOException) e : new TransactionIOException(e);
+        }
+
+        return future.whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer result, Throwable throwable) {
+                if (throwable != null || result <= 0) {
+                    transaction.setLastUpdateTime(lastUpdateTime);
+                    transaction.setVersion(currentVersion);
+                    transaction.clearPersisted();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Integer> doDeleteAsync(Transaction transaction) {
+
+        final JdbcOperation operation = new JdbcOperation(OPERATION_DELETE, transaction, null, transaction.getVersion());
+
+        if (batchEnabled) {
+            return submitAsync(operation);
+        }
+
+        return supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executeDelete(operation);
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Transaction> doFindOneAsync(final Xid xid) {
+        return supplyAsync(new Callable<Transaction>() {
+            @Override
+            public Transaction call() {
+                return doFindOne(xid);
+            }
+        });
+    }
+
+    private void bindCreate(PreparedStatement stmt, JdbcOperation operation) throws SQLException {
+
+        stmt.setBytes(1, operation.xid.getGlobalTransactionId());
+        stmt.setBytes(2, operation.xid.getBranchQualifier());
+        stmt.setInt(3, operation.transactionType);
+        stmt.setBytes(4, operation.content);
+        stmt.setInt(5, operation.status);
+        stmt.setInt(6, operation.retriedCount);
+        stmt.setTimestamp(7, new java.sql.Timestamp(operation.createTime));
+        stmt.setTimestamp(8, new java.sql.Timestamp(operation.lastUpdateTime));
+        stmt.setLong(9, operation.version);
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(10, domain);
+        }
+    }
+
+    private void bindUpdate(PreparedStatement stmt, JdbcOperation operation) throws SQLException {
+
+        stmt.setBytes(1, operation.content);
+        stmt.setInt(2, operation.status);
+        stmt.setTimestamp(3, new Timestamp(operation.lastUpdateTime));
+
+        stmt.setInt(4, operation.retriedCount);
+        stmt.setBytes(5, operation.xid.getGlobalTransactionId());
+        stmt.setBytes(6, operation.xid.getBranchQualifier());
+        stmt.setLong(7, operation.expectedVersion);
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(8, domain);
+        }
+    }
+
+    private void bindUpdateStatus(PreparedStatement stmt, JdbcOperation operation) throws SQLException {
+
+        stmt.setInt(1, operation.status);
+        stmt.setTimestamp(2, new Timestamp(operation.lastUpdateTime));
+
+        stmt.setInt(3, operation.retriedCount);
+        stmt.setBytes(4, operation.xid.getGlobalTransactionId());
+        stmt.setBytes(5, operation.xid.getBranchQualifier());
+        stmt.setLong(6, operation.expectedVersion);
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(7, domain);
+        }
+    }
+
+    private void bindDelete(PreparedStatement stmt, JdbcOperation operation) throws SQLException {
+
+        stmt.setBytes(1, operation.xid.getGlobalTransactionId());
+        stmt.setBytes(2, operation.xid.getBranchQualifier());
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(3, domain);
+        }
+    }
+
+    private String getInsertSql() {
+        if (insertSql == null) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("INSERT INTO " + getTableName() +
+                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
+            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
+            insertSql = builder.toString();
+        }
+        return insertSql;
+    }
+
+    private String getUpdateSql() {
+        if (updateSql == null) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("UPDATE " + getTableName() + " SET " +
+                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            updateSql = builder.toString();
+        }
+        return updateSql;
+    }
+
+    private String getUpdateStatusSql() {
+        if (updateStatusSql == null) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("UPDATE " + getTableName() + " SET " +
+                    "STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            updateStatusSql = builder.toString();
+        }
+        return updateStatusSql;
+    }
+
+    private String getDeleteSql() {
+        if (deleteSql == null) {
             StringBuilder builder = new StringBuilder();
             builder.append("DELETE FROM " + getTableName() +
                     " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            deleteSql = builder.toString();
+        }
+        return deleteSql;
+    }
+
+    private void resetSql() {
+        insertSql = null;
+        updateSql = null;
+        updateStatusSql = null;
+        deleteSql = null;
+    }
+
+    /**
+     * 提交到批量写入队列，并在batchTimeout内等待该行自己的执行结果
+     *
+     * @param operation
+     * @return
+     */
+    private int submit(JdbcOperation operation) {
+
+        try {
+            return submitAsync(operation).get(batchTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionIOException(e);
+        } catch (TimeoutException e) {
+            throw new TransactionIOException("jdbc batch write timeout after " + batchTimeout + "ms, xid:" + operation.xid);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TransactionIOException) {
+                throw (TransactionIOException) e.getCause();
+            }
+            throw new TransactionIOException(e.getCause());
+        }
+    }
+
+    /**
+     * 放入批量写队列即返回，队列满时最多阻塞等待batchTimeout。已关闭或写线程已退出时直接失败
+     *
+     * @param operation
+     * @return
+     */
+    private CompletableFuture<Integer> submitAsync(JdbcOperation operation) {
+
+        if (closed) {
+            operation.future.completeExceptionally(new TransactionIOException("jdbc transaction repository is closed"));
+            return operation.future;
+        }
+
+        BatchWriter writer = getBatchWriter(operation.xid);
+
+        try {
+            if (!writer.thread.isAlive()) {
+                operation.future.completeExceptionally(new TransactionIOException("jdbc batch writer " + writer.thread.getName() + " is not running"));
+            } else if (!writer.queue.offer(operation, batchTimeout, TimeUnit.MILLISECONDS)) {
+                operation.future.completeExceptionally(new TransactionIOException("jdbc batch queue is full after waiting " + batchTimeout + "ms"));
+            } else if ((closed || !writer.thread.isAlive()) && writer.queue.remove(operation)) {
+                // 与close并发时，写线程可能已经退出，还在队列中的操作直接失败
+                operation.future.completeExceptionally(new TransactionIOException("jdbc transaction repository is closed"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            operation.future.completeExceptionally(new TransactionIOException(e));
+        }
+
+        return operation.future;
+    }
+
+    /**
+     * 按xid选择写线程，同一个xid的新建、更新、删除由同一个写线程按顺序执行
+     *
+     * @param xid
+     * @return
+     */
+    private BatchWriter getBatchWriter(Xid xid) {
+
+        List<BatchWriter> writers = batchWriters;
+
+        if (writers == null) {
+            synchronized (this) {
+                writers = batchWriters;
+
+                if (writers == null) {
+
+                    int writerThreads = Math.max(1, batchWriterThreads);
+                    writers = new ArrayList<BatchWriter>(writerThreads);
+
+                    for (int i = 0; i < writerThreads; i++) {
+                        final BlockingQueue<JdbcOperation> queue = new ArrayBlockingQueue<JdbcOperation>(Math.max(1, batchQueueSize / writerThreads));
+
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                batchWriteLoop(queue);
+                            }
+                        }, "tcc-jdbc-batch-writer-" + i);
+                        thread.setDaemon(true);
+
+                        writers.add(new BatchWriter(queue, thread));
+                    }
+
+                    // close之后不再启动写线程，提交的操作由isAlive检查直接失败
+                    if (!closed) {
+                        for (BatchWriter writer : writers) {
+                            writer.thread.start();
+                        }
+                    }
+
+                    batchWriters = writers;
+                }
+            }
+        }
+
+        return writers.get((xid.hashCode() & Integer.MAX_VALUE) % writers.size());
+    }
+
+    /**
+     * 收到结束标记后继续执行完队列中剩余的操作，队列为空时退出。退出时仍未执行的操作直接失败，避免业务线程一直等待
+     */
+    private void batchWriteLoop(BlockingQueue<JdbcOperation> queue) {
+
+        List<JdbcOperation> pending = new ArrayList<JdbcOperation>();
+        boolean stopping = false;
+
+        try {
+            while (!stopping || !pending.isEmpty() || !queue.isEmpty()) {
+                List<JdbcOperation> batch = new ArrayList<JdbcOperation>();
+
+                try {
+                    if (pending.isEmpty() && !stopping) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, batchSize - 1);
+                    } else {
+                        batch.addAll(pending);
+                        pending.clear();
+                        queue.drainTo(batch, Math.max(0, batchSize - batch.size()));
+                    }
+
+                    // 同一个xid在一个批次中只保留一个操作，保证每行的结果可以单独判定；同一个xid只会进入这个写线程，顺延到下一批即可保持顺序
+                    Set<Xid> xids = new HashSet<Xid>();
+                    Iterator<JdbcOperation> iterator = batch.iterator();
+
+                    while (iterator.hasNext()) {
+                        JdbcOperation operation = iterator.next();
+                        if (operation.type == OPERATION_CLOSE) {
+                            stopping = true;
+                            iterator.remove();
+                        } else if (!xids.add(operation.xid)) {
+                            pending.add(operation);
+                            iterator.remove();
+                        }
+                    }
+
+                    if (!batch.isEmpty()) {
+                        executeBatch(batch);
+                    }
+
+                } catch (InterruptedException e) {
+                    // 只会在take时被中断，此时批次为空；写线程只由结束标记停止
+                    logger.warn("jdbc batch writer interrupted unexpectedly.");
+                } catch (Throwable e) {
+                    logger.error("jdbc batch write failed.", e);
+                    for (JdbcOperation operation : batch) {
+                        operation.future.completeExceptionally(e instanceof TransactionIOException ? e : new TransactionIOException(e));
+                    }
+                }
+            }
+        } finally {
+            List<JdbcOperation> remaining = new ArrayList<JdbcOperation>(pending);
+            queue.drainTo(remaining);
+
+            for (JdbcOperation operation : remaining) {
+                operation.future.completeExceptionally(new TransactionIOException("jdbc batch writer stopped"));
+            }
+        }
+    }
+
+    /**
+     * 在一个JDBC事务中批量执行，BatchUpdateException时回滚并逐条执行，以得到每一行准确的结果
+     *
+     * @param batch
+     * @throws SQLException
+     */
+    private void executeBatch(List<JdbcOperation> batch) throws SQLException {
+
+        List<JdbcOperation> creates = new ArrayList<JdbcOperation>();
+        List<JdbcOperation> updates = new ArrayList<JdbcOperation>();
+        List<JdbcOperation> statusUpdates = new ArrayList<JdbcOperation>();
+        List<JdbcOperation> deletes = new ArrayList<JdbcOperation>();
+
+        for (JdbcOperation operation : batch) {
+            if (operation.type == OPERATION_CREATE) {
+                creates.add(operation);
+            } else if (operation.type == OPERATION_UPDATE) {
+                updates.add(operation);
+            } else if (operation.type == OPERATION_UPDATE_STATUS) {
+                statusUpdates.add(operation);
+            } else {
+                deletes.add(operation);
+            }
+        }
+
+        Connection connection = null;
+        boolean autoCommit = true;
+        boolean fallback = false;
+        int[] createResults;
+        int[] updateResults;
+        int[] statusUpdateResults;
+        int[] deleteResults;
+
+        try {
+            connection = this.getConnection();
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+
+            try {
+                createResults = executeBatch(connection, getInsertSql(), creates);
+                updateResults = executeBatch(connection, getUpdateSql(), updates);
+                statusUpdateResults = executeBatch(connection, getUpdateStatusSql(), statusUpdates);
+                deleteResults = executeBatch(connection, getDeleteSql(), deletes);
+                connection.commit();
+            } catch (BatchUpdateException e) {
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+                fallback = true;
+                return;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+
+            connection.setAutoCommit(autoCommit);
+
+            for (int i = 0; i < creates.size(); i++) {
+                creates.get(i).future.complete(1);
+            }
+
+            completeUpdates(connection, updates, updateResults);
+            completeUpdates(connection, statusUpdates, statusUpdateResults);
+
+            for (int i = 0; i < deletes.size(); i++) {
+                JdbcOperation operation = deletes.get(i);
+                int result = deleteResults[i];
+                if (result == Statement.SUCCESS_NO_INFO) {
+                    result = findVersion(connection, operation.xid) == null ? 1 : 0;
+                }
+                operation.future.complete(result);
+            }
+        } finally {
+            this.releaseConnection(connection);
+
+            if (fallback) {
+                executeIndividually(batch);
+            }
+        }
+    }
+
+    private void completeUpdates(Connection connection, List<JdbcOperation> updates, int[] updateResults) throws SQLException {
+
+        for (int i = 0; i < updates.size(); i++) {
+            JdbcOperation operation = updates.get(i);
+            int result = updateResults[i];
+            if (result == Statement.SUCCESS_NO_INFO) {
+                Long version = findVersion(connection, operation.xid);
+                result = version != null && version == operation.expectedVersion + 1 ? 1 : 0;
+            }
+            operation.future.complete(result);
+        }
+    }
+
+    private int[] executeBatch(Connection connection, String sql, List<JdbcOperation> operations) throws SQLException {
+
+        if (operations.isEmpty()) {
+            return new int[0];
+        }
 
+        PreparedStatement stmt = null;
+
+        try {
+            stmt = connection.prepareStatement(sql);
+
+            for (JdbcOperation operation : operations) {
+                if (operation.type == OPERATION_CREATE) {
+                    bindCreate(stmt, operation);
+                } else if (operation.type == OPERATION_UPDATE) {
+                    bindUpdate(stmt, operation);
+                } else if (operation.type == OPERATION_UPDATE_STATUS) {
+                    bindUpdateStatus(stmt, operation);
+                } else {
+                    bindDelete(stmt, operation);
+                }
+                stmt.addBatch();
+            }
+
+            return stmt.executeBatch();
+        } finally {
+            closeStatement(stmt);
+        }
+    }
+
+    private void executeIndividually(List<JdbcOperation> batch) {
+
+        for (JdbcOperation operation : batch) {
+            try {
+                int result;
+                if (operation.type == OPERATION_CREATE) {
+                    result = executeCreate(operation);
+                } else if (operation.type == OPERATION_UPDATE || operation.type == OPERATION_UPDATE_STATUS) {
+                    result = executeUpdate(operation);
+                } else {
+                    result = executeDelete(operation);
+                }
+                operation.future.complete(result);
+            } catch (Throwable e) {
+                operation.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private Long findVersion(Connection connection, Xid xid) throws SQLException {
+
+        PreparedStatement stmt = null;
+
+        try {
+            StringBuilder builder = new StringBuilder();
+            builder.append("SELECT VERSION FROM " + getTableName() + " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
             builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
 
             stmt = connection.prepareStatement(builder.toString());
-
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+            stmt.setBytes(1, xid.getGlobalTransactionId());
+            stmt.setBytes(2, xid.getBranchQualifier());
 
             if (StringUtils.isNotEmpty(domain)) {
                 stmt.setString(3, domain);
             }
 
-            return stmt.executeUpdate();
-
-        } catch (SQLException e) {
-            throw new TransactionIOException(e);
+            ResultSet resultSet = stmt.executeQuery();
+            return resultSet.next() ? resultSet.getLong(1) : null;
         } finally {
             closeStatement(stmt);
-            this.releaseConnection(connection);
         }
     }
 
@@ -267,6 +960,76 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         return transactions;
     }
 
+    /**
+     * 按(LAST_UPDATE_TIME, TRANSACTION_ID)做keyset分页查询异常事务，offset格式为 最后更新时间毫秒数:TRANSACTION_ID
+     *
+     * @param date
+     * @param offset
+     * @param pageSize
+     * @return
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(java.util.Date date, String offset, int pageSize) {
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        String nextOffset = null;
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            StringBuilder builder = new StringBuilder();
+
+            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION,TRANSACTION_ID");
+            builder.append("  FROM " + getTableName() + " WHERE LAST_UPDATE_TIME < ?");
+            builder.append(" AND IS_DELETE = 0 ");
+            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+            // 单独的LAST_UPDATE_TIME >= ?作为索引范围的下界，OR条件本身无法用于索引范围
+            builder.append(offset != null ? " AND LAST_UPDATE_TIME >= ? AND (LAST_UPDATE_TIME > ? OR (LAST_UPDATE_TIME = ? AND TRANSACTION_ID > ?))" : "");
+            // 排序列与IDX_DOMAIN_UPDATE_TIME的列顺序一致，按索引顺序读取而不需要对范围内的全部记录排序
+            builder.append(StringUtils.isNotEmpty(domain) ? " ORDER BY DOMAIN, IS_DELETE, LAST_UPDATE_TIME, TRANSACTION_ID LIMIT ?" : " ORDER BY LAST_UPDATE_TIME, TRANSACTION_ID LIMIT ?");
+
+            stmt = connection.prepareStatement(builder.toString());
+
+            int i = 0;
+            stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            if (offset != null) {
+                int index = offset.indexOf(':');
+                Timestamp lastUpdateTime = new Timestamp(Long.parseLong(offset.substring(0, index)));
+                stmt.setTimestamp(++i, lastUpdateTime);
+                stmt.setTimestamp(++i, lastUpdateTime);
+                stmt.setTimestamp(++i, lastUpdateTime);
+                stmt.setLong(++i, Long.parseLong(offset.substring(index + 1)));
+            }
+
+            stmt.setInt(++i, pageSize);
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            while (resultSet.next()) {
+                transactions.add(constructTransaction(resultSet));
+
+                if (transactions.size() == pageSize) {
+                    nextOffset = resultSet.getTimestamp(7).getTime() + ":" + resultSet.getLong(10);
+                }
+            }
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+
+        return new Page<Transaction>(transactions, nextOffset);
+    }
+
     protected List<Transaction> doFind(List<Xid> xids) {
 
         List<Transaction> transactions = new ArrayList<Transaction>();
@@ -324,16 +1087,21 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     protected void constructTransactions(ResultSet resultSet, List<Transaction> transactions) throws SQLException {
         while (resultSet.next()) {
-            byte[] transactionBytes = resultSet.getBytes(3);
-            Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
-            transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
-            transaction.setLastUpdateTime(resultSet.getDate(7));
-            transaction.setVersion(resultSet.getLong(9));
-            transaction.resetRetriedCount(resultSet.getInt(8));
-            transactions.add(transaction);
+            transactions.add(constructTransaction(resultSet));
         }
     }
 
+    protected Transaction constructTransaction(ResultSet resultSet) throws SQLException {
+        byte[] transactionBytes = resultSet.getBytes(3);
+        Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+        transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
+        transaction.setLastUpdateTime(new java.util.Date(resultSet.getTimestamp(7).getTime()));
+        transaction.setVersion(resultSet.getLong(9));
+        transaction.resetRetriedCount(resultSet.getInt(8));
+        transaction.markPersisted();
+        return transaction;
+    }
+
 
     protected Connection getConnection() {
         try {
@@ -371,4 +1139,78 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
     private String getTableName() {
         return StringUtils.isNotEmpty(tbSuffix) ? "TCC_TRANSACTION" + tbSuffix : "TCC_TRANSACTION";
     }
+
+    /**
+     * 批量写入线程及其队列
+     */
+    private static class BatchWriter {
+
+        private final BlockingQueue<JdbcOperation> queue;
+
+        private final Thread thread;
+
+        private BatchWriter(BlockingQueue<JdbcOperation> queue, Thread thread) {
+            this.queue = queue;
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * 一次待执行的写操作，参数在业务线程中准备好，写线程只负责绑定与执行。
+     * 状态、更新时间、重试次数和版本号在构造时复制，写线程执行时事务对象可能已经被业务线程继续修改
+     */
+    private static class JdbcOperation {
+
+        private final int type;
+
+        private final Xid xid;
+
+        private final byte[] content;
+
+        private final long expectedVersion;
+
+        private final int transactionType;
+
+        private final int status;
+
+        private final int retriedCount;
+
+        private final long createTime;
+
+        private final long lastUpdateTime;
+
+        private final long version;
+
+        private final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+        private JdbcOperation(int type, Transaction transaction, byte[] content, long expectedVersion) {
+            this.type = type;
+            this.xid = transaction.getXid();
+            this.content = content;
+            this.expectedVersion = expectedVersion;
+            this.transactionType = transaction.getTransactionType().getId();
+            this.status = transaction.getStatus().getId();
+            this.retriedCount = transaction.getRetriedCount();
+            this.createTime = transaction.getCreateTime().getTime();
+            this.lastUpdateTime = transaction.getLastUpdateTime().getTime();
+            this.version = transaction.getVersion();
+        }
+
+        private JdbcOperation(int type) {
+            this.type = type;
+            this.xid = null;
+            this.content = null;
+            this.expectedVersion = 0L;
+            this.transactionType = 0;
+            this.status = 0;
+            this.retriedCount = 0;
+            this.createTime = 0L;
+            this.lastUpdateTime = 0L;
+            this.version = 0L;
+        }
+
+        private static JdbcOperation close() {
+            return new JdbcOperation(OPERATION_CLOSE);
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package org.mengyun.tcctransaction.repository;
+
+import java.util.List;
+
+/**
+ * 分页查询的结果，nextOffset为下一页的起始位置，为null时表示已经没有更多数据
+ */
+public class Page<T> {
+
+    private final List<T> data;
+
+    private final String nextOffset;
+
+    public Page(List<T> data, String nextOffset) {
+        this.data = data;
+        this.nextOffset = nextOffset;
+    }
+
+    public List<T> getData() {
+        return data;
+    }
+
+    public String getNextOffset() {
+        return nextOffset;
+    }
+
+    public boolean hasNext() {
+        return nextOffset != null;
+    }
+}
@@ -1,6 +1,8 @@
 package org.mengyun.tcctransaction.repository;
 
+import org.apache.commons.lang3.time.DateUtils;
 import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
@@ -11,7 +13,11 @@ import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import redis.clients.jedis.*;
 
 import javax.transaction.xa.Xid;
+import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * Created by changming.xie on 2/24/16.
@@ -35,6 +41,11 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
     private boolean isForbiddenKeys = false;
 
+    /**
+     * 是否在每次写入时同时写入JSON视图，默认关闭，tcc-transaction-server在展示时自行生成
+     */
+    private boolean contentViewEnabled = false;
+
     public void setKeyPrefix(String keyPrefix) {
         this.keyPrefix = keyPrefix;
     }
@@ -79,68 +90,225 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         isForbiddenKeys = forbiddenKeys;
     }
 
+    public void setContentViewEnabled(boolean contentViewEnabled) {
+        this.contentViewEnabled = contentViewEnabled;
+    }
+
     @Override
     protected int doCreate(final Transaction transaction) {
 
-
         try {
-            Long statusCode = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+            int result = executeCreate(transaction.getXid(), serializeParams(transaction));
 
-                @Override
-                public Long doInJedis(Jedis jedis) {
+            if (result <= 0) {
+                transaction.clearPersisted();
+            }
 
+            return result;
+        } catch (Exception e) {
+            transaction.clearPersisted();
+            throw new TransactionIOException(e);
+        }
+    }
 
-                    List<byte[]> params = new ArrayList<byte[]>();
+    @Override
+    protected int doUpdate(final Transaction transaction) {
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
-                        params.add(entry.getKey());
-                        params.add(entry.getValue());
-                    }
+        try {
+            transaction.updateTime();
+            transaction.updateVersion();
 
-                    Object result = jedis.eval("if redis.call('exists', KEYS[1]) == 0 then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;".getBytes(),
-                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+            int result = executeUpdate(transaction.getXid(), transaction.getVersion() - 1, serializeUpdateParams(transaction));
 
-                    return (Long) result;
-                }
-            });
-            return statusCode.intValue();
+            if (result <= 0) {
+                transaction.clearPersisted();
+            }
 
+            return result;
         } catch (Exception e) {
+            transaction.clearPersisted();
             throw new TransactionIOException(e);
         }
     }
 
+    /**
+     * Jedis没有异步客户端，在调用线程完成序列化后交给I/O线程池执行
+     *
+     * @param transaction
+     * @return
+     */
     @Override
-    protected int doUpdate(final Transaction transaction) {
+    protected CompletableFuture<Integer> doCreateAsync(final Transaction transaction) {
 
-        try {
+        final List<byte[]> params = serializeParams(transaction);
 
-            Long statusCode = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
-                @Override
-                public Long doInJedis(Jedis jedis) {
+        return supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    return executeCreate(transaction.getXid(), params);
+                } catch (Exception e) {
+                    throw new TransactionIOException(e);
+                }
+            }
+        }).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer result, Throwable throwable) {
+                if (throwable != null || result <= 0) {
+                    transaction.clearPersisted();
+                }
+            }
+        });
+    }
 
-                    transaction.updateTime();
-                    transaction.updateVersion();
+    @Override
+    protected CompletableFuture<Integer> doUpdateAsync(final Transaction transaction) {
 
-                    List<byte[]> params = new ArrayList<byte[]>();
+        final Date lastUpdateTime = transaction.getLastUpdateTime();
+        final long currentVersion = transaction.getVersion();
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
-                        params.add(entry.getKey());
-                        params.add(entry.getValue());
-                    }
+        transaction.updateTime();
+        transaction.updateVersion();
 
-                    Object result = jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
-                                    transaction.getVersion() - 1).getBytes(),
-                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+        final List<byte[]> params;
 
-                    return (Long) result;
+        try {
+            params = serializeUpdateParams(transaction);
+        } catch (RuntimeException e) {
+            transaction.setLastUpdateTime(lastUpdateTime);
+            transaction.setVersion(currentVersion);
+            transaction.clearPersisted();
+            throw e;
+        }
+
+        return supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                try {
+                    return executeUpdate(transaction.getXid(), currentVersion, params);
+                } catch (Exception e) {
+                    throw new TransactionIOException(e);
                 }
-            });
+            }
+        }).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer result, Throwable throwable) {
+                if (throwable != null || result <= 0) {
+                    transaction.setLastUpdateTime(lastUpdateTime);
+                    transaction.setVersion(currentVersion);
+                    transaction.clearPersisted();
+                }
+            }
+        });
+    }
 
-            return statusCode.intValue();
-        } catch (Exception e) {
-            throw new TransactionIOException(e);
+    @Override
+    protected CompletableFuture<Integer> doDeleteAsync(final Transaction transaction) {
+        return supplyAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return doDelete(transaction);
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Transaction> doFindOneAsync(final Xid xid) {
+        return supplyAsync(new Callable<Transaction>() {
+            @Override
+            public Transaction call() {
+                return doFindOne(xid);
+            }
+        });
+    }
+
+    private List<byte[]> serializeParams(Transaction transaction) {
+
+        Map<byte[], byte[]> fields = ExpandTransactionSerializer.serialize(serializer, transaction);
+        putContentView(fields, transaction);
+
+        List<byte[]> params = toParams(fields);
+        transaction.markPersisted();
+        return params;
+    }
+
+    /**
+     * 自上次落库后已有参与者的状态没有变化时只写入变化的字段，新增的参与者追加为单独的字段，
+     * 否则全量写入，并由脚本清除之前追加的参与者字段
+     *
+     * @param transaction
+     * @return
+     */
+    private List<byte[]> serializeUpdateParams(Transaction transaction) {
+
+        List<Participant> unpersistedParticipants = transaction.unpersistedParticipants();
+
+        if (unpersistedParticipants == null) {
+            return serializeParams(transaction);
+        }
+
+        Map<byte[], byte[]> fields = ExpandTransactionSerializer.serializeDelta(transaction, unpersistedParticipants);
+        putContentView(fields, transaction);
+
+        List<byte[]> params = toParams(fields);
+        transaction.markPersisted();
+        return params;
+    }
+
+    private void putContentView(Map<byte[], byte[]> fields, Transaction transaction) {
+        if (contentViewEnabled) {
+            fields.put(ExpandTransactionSerializer.CONTENT_VIEW_FIELD.getBytes(), ExpandTransactionSerializer.serializeContentView(transaction));
+        }
+    }
+
+    private List<byte[]> toParams(Map<byte[], byte[]> fields) {
+
+        List<byte[]> params = new ArrayList<byte[]>();
+
+        for (Map.Entry<byte[], byte[]> entry : fields.entrySet()) {
+            params.add(entry.getKey());
+            params.add(entry.getValue());
         }
+
+        return params;
+    }
+
+    private int executeCreate(final Xid xid, final List<byte[]> params) {
+
+        Long statusCode = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+
+            @Override
+            public Long doInJedis(Jedis jedis) {
+
+                Object result = jedis.eval("if redis.call('exists', KEYS[1]) == 0 then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;".getBytes(),
+                        Arrays.asList(RedisHelper.getRedisKey(keyPrefix, xid)), params);
+
+                return (Long) result;
+            }
+        });
+
+        return statusCode.intValue();
+    }
+
+    private int executeUpdate(final Xid xid, final long expectedVersion, final List<byte[]> params) {
+
+        Long statusCode = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
+            @Override
+            public Long doInJedis(Jedis jedis) {
+
+                Object result = jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then " +
+                                        "for i = 1, #ARGV, 2 do if ARGV[i] == 'CONTENT' then " +
+                                        "for _, field in ipairs(redis.call('hkeys', KEYS[1])) do " +
+                                        "if string.sub(field, 1, %d) == '%s' then redis.call('hdel', KEYS[1], field); end; end; end; end; " +
+                                        "redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
+                                expectedVersion, ExpandTransactionSerializer.PARTICIPANT_FIELD_PREFIX.length(), ExpandTransactionSerializer.PARTICIPANT_FIELD_PREFIX).getBytes(),
+                        Arrays.asList(RedisHelper.getRedisKey(keyPrefix, xid)), params);
+
+                return (Long) result;
+            }
+        });
+
+        return statusCode.intValue();
     }
 
     @Override
@@ -199,6 +367,82 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         return allUnmodifiedSince;
     }
 
+    /**
+     * 每页执行一次SCAN，offset即SCAN的游标。先批量读取LAST_UPDATE_TIME过滤，只加载满足条件的事务。
+     * 由于SCAN的COUNT只是提示值，单页返回的数量可能少于或多于pageSize，也可能为空但仍有下一页
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(final Date date, final String offset, final int pageSize) {
+
+        if (!isSupportScan) {
+            return super.doFindAllUnmodifiedSince(date, offset, pageSize);
+        }
+
+        try {
+            return RedisHelper.execute(jedisPool, new JedisCallback<Page<Transaction>>() {
+                @Override
+                public Page<Transaction> doInJedis(Jedis jedis) {
+
+                    ScanResult<String> scanResult = jedis.scan(offset == null ? RedisHelper.SCAN_INIT_CURSOR : offset,
+                            RedisHelper.buildDefaultScanParams(keyPrefix + "*", pageSize));
+
+                    String cursor = scanResult.getStringCursor();
+                    String nextOffset = cursor.equals(RedisHelper.SCAN_INIT_CURSOR) ? null : cursor;
+
+                    List<byte[]> keys = new ArrayList<byte[]>();
+
+                    for (String key : scanResult.getResult()) {
+                        keys.add(key.getBytes());
+                    }
+
+                    Pipeline pipeline = jedis.pipelined();
+
+                    for (byte[] key : keys) {
+                        pipeline.hget(key, "LAST_UPDATE_TIME".getBytes());
+                    }
+
+                    List<Object> lastUpdateTimes = pipeline.syncAndReturnAll();
+                    List<byte[]> unmodifiedKeys = new ArrayList<byte[]>();
+
+                    for (int i = 0; i < keys.size(); i++) {
+                        byte[] lastUpdateTime = (byte[]) lastUpdateTimes.get(i);
+
+                        try {
+                            if (lastUpdateTime != null
+                                    && DateUtils.parseDate(new String(lastUpdateTime), "yyyy-MM-dd HH:mm:ss").compareTo(date) < 0) {
+                                unmodifiedKeys.add(keys.get(i));
+                            }
+                        } catch (ParseException e) {
+                            logger.warn("unrecognized LAST_UPDATE_TIME of key:" + new String(keys.get(i)));
+                        }
+                    }
+
+                    List<Transaction> transactions = new ArrayList<Transaction>();
+
+                    if (unmodifiedKeys.isEmpty()) {
+                        return new Page<Transaction>(transactions, nextOffset);
+                    }
+
+                    pipeline = jedis.pipelined();
+
+                    for (byte[] key : unmodifiedKeys) {
+                        pipeline.hgetAll(key);
+                    }
+
+                    for (Object data : pipeline.syncAndReturnAll()) {
+                        if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
+                            transactions.add(ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data));
+                        }
+                    }
+
+                    return new Page<Transaction>(transactions, nextOffset);
+                }
+            });
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     //    @Override
     protected List<Transaction> doFindAll() {
 
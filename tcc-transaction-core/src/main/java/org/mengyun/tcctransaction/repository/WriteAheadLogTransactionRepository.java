@@ -0,0 +1,1085 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.utils.FileUtils;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * 基于追加写日志的事务日志存储，适用于单节点。
+ * <p>
+ * 所有的新建、更新、删除都以记录的形式追加到当前的日志段(segment)文件中，由单个写线程批量写入，
+ * 多个业务线程并发提交的记录只需要一次fsync(group commit)。内存中维护xid到记录位置的索引，
+ * 旧的日志段由后台线程压缩：存活记录被搬迁到最新的日志段，没有存活记录的日志段按从旧到新的顺序删除。
+ * <p>
+ * 记录格式：length(4) + crc32(4) + type(1) + version(8) + lastUpdateTime(8) + gtidLength(2) + gtid + bqLength(2) + bq + content
+ */
+public class WriteAheadLogTransactionRepository extends CachableTransactionRepository {
+
+    static final Logger logger = Logger.getLogger(WriteAheadLogTransactionRepository.class.getSimpleName());
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte TYPE_PUT = 1;
+
+    private static final byte TYPE_DELETE = 2;
+
+    private static final int RECORD_PREFIX_LENGTH = 8;
+
+    private static final int RECORD_FIXED_BODY_LENGTH = 1 + 8 + 8 + 2 + 2;
+
+    private String rootPath = "/tcc-wal";
+
+    /**
+     * 单个日志段文件的大小上限，超过后切换到新的日志段
+     */
+    private long segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * 单次group commit最多合并的记录数
+     */
+    private int maxBatchSize = 512;
+
+    /**
+     * 压缩任务的执行间隔，单位秒
+     */
+    private int compactInterval = 30;
+
+    /**
+     * 日志段存活记录占比低于该值时，搬迁其存活记录以便回收
+     */
+    private double compactLiveRatio = 0.5d;
+
+    private ObjectSerializer serializer = new KryoPoolSerializer();
+
+    private volatile boolean initialized;
+
+    private volatile boolean closed;
+
+    private final ConcurrentHashMap<TransactionXid, LogPosition> index = new ConcurrentHashMap<TransactionXid, LogPosition>();
+
+    /**
+     * 所有未删除的日志段，按id从旧到新排列，只由写线程和压缩线程在持有segmentLock时修改
+     */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+
+    private final Object segmentLock = new Object();
+
+    private final BlockingQueue<WriteRequest> writeQueue = new LinkedBlockingQueue<WriteRequest>();
+
+    private final AtomicLong fsyncCount = new AtomicLong();
+
+    private volatile Segment activeSegment;
+
+    private Thread writerThread;
+
+    private ScheduledExecutorService compactExecutor;
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setCompactInterval(int compactInterval) {
+        this.compactInterval = compactInterval;
+    }
+
+    public void setCompactLiveRatio(double compactLiveRatio) {
+        this.compactLiveRatio = compactLiveRatio;
+    }
+
+    /**
+     * 已执行的fsync次数，可用于观察group commit的合并效果
+     *
+     * @return
+     */
+    public long getFsyncCount() {
+        return fsyncCount.get();
+    }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+
+        TransactionXid xid = toTransactionXid(transaction.getXid());
+
+        WriteRequest request = WriteRequest.put(WriteRequest.CREATE, xid, 0L, transaction.getVersion(),
+                transaction.getLastUpdateTime().getTime(), serializer.serialize(transaction));
+
+        return submit(request);
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+
+        Date lastUpdateTime = transaction.getLastUpdateTime();
+        long currentVersion = transaction.getVersion();
+
+        transaction.updateVersion();
+        transaction.updateTime();
+
+        int result = 0;
+
+        try {
+            WriteRequest request = WriteRequest.put(WriteRequest.UPDATE, toTransactionXid(transaction.getXid()), currentVersion,
+                    transaction.getVersion(), transaction.getLastUpdateTime().getTime(), serializer.serialize(transaction));
+
+            result = submit(request);
+            return result;
+        } finally {
+            if (result <= 0) {
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(currentVersion);
+            }
+        }
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+        return submit(WriteRequest.delete(toTransactionXid(transaction.getXid())));
+    }
+
+    @Override
+    protected CompletableFuture<Integer> doCreateAsync(Transaction transaction) {
+
+        TransactionXid xid = toTransactionXid(transaction.getXid());
+
+        return submitAsync(WriteRequest.put(WriteRequest.CREATE, xid, 0L, transaction.getVersion(),
+                transaction.getLastUpdateTime().getTime(), serializer.serialize(transaction)));
+    }
+
+    @Override
+    protected CompletableFuture<Integer> doUpdateAsync(final Transaction transaction) {
+
+        final Date lastUpdateTime = transaction.getLastUpdateTime();
+        final long currentVersion = transaction.getVersion();
+
+        transaction.updateVersion();
+        transaction.updateTime();
+
+        CompletableFuture<Integer> future;
+
+        try {
+            future = submitAsync(WriteRequest.put(WriteRequest.UPDATE, toTransactionXid(transaction.getXid()), currentVersion,
+                    transaction.getVersion(), transaction.getLastUpdateTime().getTime(), serializer.serialize(transaction)));
+        } catch (RuntimeException e) {
+            transaction.setLastUpdateTime(lastUpdateTime);
+            transaction.setVersion(currentVersion);
+            throw e;
+        }
+
+        return future.whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer result, Throwable throwable) {
+                if (throwable != null || result <= 0) {
+                    transaction.setLastUpdateTime(lastUpdateTime);
+                    transaction.setVersion(currentVersion);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Integer> doDeleteAsync(Transaction transaction) {
+        return submitAsync(WriteRequest.delete(toTransactionXid(transaction.getXid())));
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+
+        ensureOpened();
+
+        TransactionXid transactionXid = toTransactionXid(xid);
+
+        for (int i = 0; i < 3; i++) {
+            LogPosition position = index.get(transactionXid);
+
+            if (position == null) {
+                return null;
+            }
+
+            try {
+                return (Transaction) serializer.deserialize(readContent(position));
+            } catch (ClosedByInterruptException e) {
+                position.segment.reopenReadChannel();
+                throw new TransactionIOException(e);
+            } catch (ClosedChannelException e) {
+                // the segment has been compacted, the record must have been relocated
+            } catch (IOException e) {
+                throw new TransactionIOException(e);
+            }
+        }
+
+        throw new TransactionIOException("cannot read transaction while its segment keeps being compacted, xid:" + xid);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+
+        ensureOpened();
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : index.entrySet()) {
+            if (entry.getValue().lastUpdateTime < date.getTime()) {
+                Transaction transaction = doFindOne(entry.getKey());
+                if (transaction != null) {
+                    transactions.add(transaction);
+                }
+            }
+        }
+
+        return transactions;
+    }
+
+    /**
+     * 按(最后更新时间, xid)的顺序分页，只在索引上用大小为pageSize的堆选出当前页，因此每页只加载pageSize条事务
+     */
+    @Override
+    protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String offset, int pageSize) {
+
+        ensureOpened();
+
+        PageKey from = offset == null ? null : PageKey.parse(offset);
+        PriorityQueue<PageKey> candidates = new PriorityQueue<PageKey>(pageSize, Collections.<PageKey>reverseOrder());
+        boolean hasMore = false;
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : index.entrySet()) {
+
+            if (entry.getValue().lastUpdateTime >= date.getTime()) {
+                continue;
+            }
+
+            PageKey key = new PageKey(entry.getValue().lastUpdateTime, entry.getKey());
+
+            if (from != null && key.compareTo(from) <= 0) {
+                continue;
+            }
+
+            if (candidates.size() < pageSize) {
+                candidates.add(key);
+            } else {
+                hasMore = true;
+                if (key.compareTo(candidates.peek()) < 0) {
+                    candidates.poll();
+                    candidates.add(key);
+                }
+            }
+        }
+
+        List<PageKey> keys = new ArrayList<PageKey>(candidates);
+        Collections.sort(keys);
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (PageKey key : keys) {
+            Transaction transaction = doFindOne(key.xid);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+
+        return new Page<Transaction>(transactions, hasMore ? keys.get(keys.size() - 1).toString() : null);
+    }
+
+    /**
+     * 停止压缩线程与写线程，并关闭所有日志段文件。
+     * 不中断线程：中断正在读写FileChannel的线程会导致channel被关闭(ClosedByInterruptException)。
+     * 先等待压缩线程结束，再放入结束标记，写线程写完队列中已有的记录后退出
+     */
+    public void close() {
+
+        synchronized (this) {
+            if (!initialized || closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        boolean interrupted = false;
+
+        // 压缩线程在日志段之间检查closed后退出，搬迁中的记录仍由写线程写入
+        compactExecutor.shutdown();
+
+        while (true) {
+            try {
+                compactExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        writeQueue.add(WriteRequest.close());
+
+        while (true) {
+            try {
+                writerThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (segmentLock) {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        }
+    }
+
+    private int submit(WriteRequest request) {
+
+        try {
+            return submitAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionIOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TransactionIOException) {
+                throw (TransactionIOException) e.getCause();
+            }
+            throw new TransactionIOException(e.getCause());
+        }
+    }
+
+    /**
+     * 放入写队列即返回，写线程fsync后完成future
+     *
+     * @param request
+     * @return
+     */
+    private CompletableFuture<Integer> submitAsync(WriteRequest request) {
+
+        ensureOpened();
+
+        if (closed) {
+            throw new TransactionIOException("transaction log repository is closed");
+        }
+
+        writeQueue.add(request);
+
+        // 与close并发时，写线程可能已经退出，还在队列中的请求直接失败
+        if (closed && writeQueue.remove(request)) {
+            throw new TransactionIOException("transaction log repository is closed");
+        }
+
+        return request.future;
+    }
+
+    private void ensureOpened() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    open();
+                    initialized = true;
+                }
+            }
+        }
+    }
+
+    private void open() {
+
+        File root = new File(rootPath);
+
+        if (!root.exists() && !root.mkdirs()) {
+            throw new TransactionIOException("cannot create root path, the path to create is:" + rootPath);
+        } else if (!root.isDirectory()) {
+            throw new TransactionIOException("rootPath is not directory");
+        }
+
+        File[] files = root.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        List<Long> segmentIds = new ArrayList<Long>();
+
+        for (File file : files) {
+            segmentIds.add(Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length())));
+        }
+
+        Collections.sort(segmentIds);
+
+        try {
+            for (int i = 0; i < segmentIds.size(); i++) {
+                Segment segment = new Segment(segmentIds.get(i), segmentFile(segmentIds.get(i)));
+                segments.put(segment.id, segment);
+                replay(segment, i == segmentIds.size() - 1);
+            }
+
+            activeSegment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+
+            if (activeSegment == null || activeSegment.size >= segmentSize) {
+                roll();
+            }
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        }
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "tcc-wal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        compactExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "tcc-wal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        compactExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Throwable e) {
+                    logger.warn("compact transaction log segments failed.", e);
+                }
+            }
+        }, compactInterval, compactInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 重放日志段重建索引，最后一个日志段尾部不完整的记录会被截断
+     */
+    private void replay(Segment segment, boolean isLast) throws IOException {
+
+        long position = 0;
+        long fileSize = segment.channel.size();
+        ByteBuffer prefix = ByteBuffer.allocate(RECORD_PREFIX_LENGTH);
+
+        while (position + RECORD_PREFIX_LENGTH <= fileSize) {
+
+            prefix.clear();
+            readFully(segment.channel, prefix, position);
+            prefix.flip();
+
+            int bodyLength = prefix.getInt();
+            int crc = prefix.getInt();
+
+            if (bodyLength < RECORD_FIXED_BODY_LENGTH || position + RECORD_PREFIX_LENGTH + bodyLength > fileSize) {
+                break;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(segment.channel, body, position + RECORD_PREFIX_LENGTH);
+
+            if (crc32(body.array(), 0, bodyLength) != crc) {
+                break;
+            }
+
+            body.flip();
+            byte type = body.get();
+            long version = body.getLong();
+            long lastUpdateTime = body.getLong();
+            TransactionXid xid = readXid(body);
+
+            LogPosition previous;
+
+            if (type == TYPE_PUT) {
+                segment.recordCount++;
+                segment.liveCount++;
+                previous = index.put(xid, new LogPosition(segment, position, RECORD_PREFIX_LENGTH + bodyLength, RECORD_PREFIX_LENGTH + body.position(), version, lastUpdateTime));
+            } else {
+                previous = index.remove(xid);
+            }
+
+            if (previous != null) {
+                previous.segment.liveCount--;
+            }
+
+            position += RECORD_PREFIX_LENGTH + bodyLength;
+        }
+
+        if (position < fileSize) {
+            if (isLast) {
+                logger.warn(String.format("truncate incomplete transaction log, segment:%s, from %d to %d", segment.file.getName(), fileSize, position));
+                segment.channel.truncate(position);
+            } else {
+                logger.error(String.format("corrupted transaction log found in the middle of segment:%s at %d", segment.file.getName(), position));
+            }
+        }
+
+        segment.size = position;
+    }
+
+    /**
+     * 收到结束标记后继续写完队列中剩余的记录，队列为空时退出
+     */
+    private void writeLoop() {
+
+        List<WriteRequest> batch = new ArrayList<WriteRequest>();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        boolean stopping = false;
+
+        while (!stopping || !writeQueue.isEmpty()) {
+
+            try {
+                if (!stopping) {
+                    batch.add(writeQueue.take());
+                }
+
+                writeQueue.drainTo(batch, maxBatchSize - batch.size());
+
+                Iterator<WriteRequest> iterator = batch.iterator();
+
+                while (iterator.hasNext()) {
+                    if (iterator.next().operation == WriteRequest.CLOSE) {
+                        stopping = true;
+                        iterator.remove();
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    buffer = groupCommit(batch, buffer);
+                }
+
+            } catch (InterruptedException e) {
+                logger.warn("transaction log writer interrupted unexpectedly.");
+            } catch (Throwable e) {
+                logger.error("transaction log group commit failed.", e);
+                for (WriteRequest request : batch) {
+                    request.future.completeExceptionally(e instanceof TransactionIOException ? e : new TransactionIOException(e));
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 校验并写入一批记录，全部写入后只执行一次fsync，随后再发布到索引并唤醒等待的业务线程。
+     * 批次中途切换日志段时，已写入旧日志段的部分先fsync、发布并完成，之后的失败只截断并回滚新日志段中的部分，
+     * 避免已告知失败的记录在重启重放时复活
+     */
+    private ByteBuffer groupCommit(List<WriteRequest> batch, ByteBuffer buffer) throws IOException {
+
+        Map<TransactionXid, LogPosition> staged = new HashMap<TransactionXid, LogPosition>();
+        int[] results = new int[batch.size()];
+        int committed = 0;
+
+        synchronized (segmentLock) {
+
+            Segment segment = activeSegment;
+            long batchStart = segment.size;
+            buffer.clear();
+
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+
+                    WriteRequest request = batch.get(i);
+                    LogPosition current = staged.containsKey(request.xid) ? staged.get(request.xid) : index.get(request.xid);
+
+                    if (!request.isApplicable(current)) {
+                        results[i] = 0;
+                        continue;
+                    }
+
+                    int recordLength = RECORD_PREFIX_LENGTH + RECORD_FIXED_BODY_LENGTH
+                            + request.xid.getGlobalTransactionId().length + request.xid.getBranchQualifier().length
+                            + (request.content == null ? 0 : request.content.length);
+
+                    if (segment.size + buffer.position() > 0 && segment.size + buffer.position() + recordLength > segmentSize) {
+                        if (buffer.position() > 0) {
+                            flush(segment, buffer);
+                            segment.channel.force(false);
+                            fsyncCount.incrementAndGet();
+                        }
+
+                        publish(staged);
+                        staged.clear();
+                        complete(batch, results, committed, i);
+                        committed = i;
+
+                        segment = roll();
+                        batchStart = 0;
+                    }
+
+                    if (buffer.remaining() < recordLength) {
+                        buffer = grow(buffer, recordLength);
+                    }
+
+                    long offset = segment.size + buffer.position();
+                    int contentOffset = appendRecord(buffer, request);
+
+                    staged.put(request.xid, request.type == TYPE_DELETE ? null :
+                            new LogPosition(segment, offset, recordLength, contentOffset, request.version, request.lastUpdateTime));
+
+                    results[i] = 1;
+                }
+
+                if (buffer.position() > 0) {
+                    flush(segment, buffer);
+                    segment.channel.force(false);
+                    fsyncCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                try {
+                    segment.channel.truncate(batchStart);
+                    segment.size = batchStart;
+                } catch (IOException truncateException) {
+                    logger.error("truncate transaction log after write failure failed.", truncateException);
+                }
+                throw e;
+            }
+
+            publish(staged);
+        }
+
+        complete(batch, results, committed, batch.size());
+
+        return buffer;
+    }
+
+    /**
+     * 将已fsync的记录发布到索引，只由写线程在持有segmentLock时调用
+     */
+    private void publish(Map<TransactionXid, LogPosition> staged) {
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : staged.entrySet()) {
+
+            LogPosition position = entry.getValue();
+            LogPosition previous;
+
+            if (position == null) {
+                previous = index.remove(entry.getKey());
+            } else {
+                position.segment.recordCount++;
+                position.segment.liveCount++;
+                previous = index.put(entry.getKey(), position);
+            }
+
+            if (previous != null) {
+                previous.segment.liveCount--;
+            }
+        }
+    }
+
+    private static void complete(List<WriteRequest> batch, int[] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            batch.get(i).future.complete(results[i]);
+        }
+    }
+
+    private int appendRecord(ByteBuffer buffer, WriteRequest request) {
+
+        int start = buffer.position();
+        byte[] gtid = request.xid.getGlobalTransactionId();
+        byte[] bq = request.xid.getBranchQualifier();
+
+        buffer.position(start + RECORD_PREFIX_LENGTH);
+        buffer.put(request.type);
+        buffer.putLong(request.version);
+        buffer.putLong(request.lastUpdateTime);
+        buffer.putShort((short) gtid.length);
+        buffer.put(gtid);
+        buffer.putShort((short) bq.length);
+        buffer.put(bq);
+
+        int contentOffset = buffer.position() - start;
+
+        if (request.content != null) {
+            buffer.put(request.content);
+        }
+
+        int end = buffer.position();
+        int bodyLength = end - start - RECORD_PREFIX_LENGTH;
+
+        buffer.putInt(start, bodyLength);
+        buffer.putInt(start + 4, crc32(buffer.array(), start + RECORD_PREFIX_LENGTH, bodyLength));
+
+        return contentOffset;
+    }
+
+    private void flush(Segment segment, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.size += segment.channel.write(buffer, segment.size);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 新日志段的目录项刷盘后才写入记录，否则宕机后已确认持久的记录可能随未落盘的文件一起丢失
+     */
+    private Segment roll() throws IOException {
+        synchronized (segmentLock) {
+            long id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            Segment segment = new Segment(id, segmentFile(id));
+
+            try {
+                FileUtils.forceDirectory(new File(rootPath));
+            } catch (IOException e) {
+                segment.close();
+                throw e;
+            }
+
+            segments.put(id, segment);
+            activeSegment = segment;
+            return segment;
+        }
+    }
+
+    /**
+     * 搬迁旧日志段中的存活记录，并从最旧的日志段开始删除已经没有存活记录的日志段。
+     * 只删除最旧的日志段可以保证删除记录(tombstone)不会早于其覆盖的记录被回收。
+     */
+    private void compact() throws IOException {
+
+        for (Segment segment : segments.values()) {
+
+            if (segment == activeSegment || closed) {
+                break;
+            }
+
+            if (segment.liveCount > 0 && segment.liveCount < segment.recordCount * compactLiveRatio) {
+                relocate(segment);
+            }
+
+            synchronized (segmentLock) {
+                if (segment.liveCount > 0 || segment != segments.firstEntry().getValue()) {
+                    break;
+                }
+
+                segments.remove(segment.id);
+                segment.close();
+
+                if (!segment.file.delete()) {
+                    logger.warn("cannot delete compacted transaction log segment:" + segment.file.getAbsolutePath());
+                } else {
+                    FileUtils.forceDirectory(new File(rootPath));
+                }
+            }
+        }
+    }
+
+    private void relocate(Segment segment) throws IOException {
+
+        List<WriteRequest> requests = new ArrayList<WriteRequest>();
+
+        for (Map.Entry<TransactionXid, LogPosition> entry : index.entrySet()) {
+
+            LogPosition position = entry.getValue();
+
+            if (position.segment == segment) {
+                requests.add(WriteRequest.relocate(entry.getKey(), position, readContent(position)));
+            }
+        }
+
+        writeQueue.addAll(requests);
+
+        for (WriteRequest request : requests) {
+            try {
+                request.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new TransactionIOException(e.getCause());
+            }
+        }
+    }
+
+    private byte[] readContent(LogPosition position) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(position.length - position.contentOffset);
+        readFully(position.segment.readChannel, content, position.offset + position.contentOffset);
+        return content.array();
+    }
+
+    private File segmentFile(long id) {
+        return new File(rootPath, String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("unexpected end of transaction log");
+            }
+        }
+    }
+
+    private static TransactionXid readXid(ByteBuffer body) {
+        byte[] gtid = new byte[body.getShort()];
+        body.get(gtid);
+        byte[] bq = new byte[body.getShort()];
+        body.get(bq);
+        return new TransactionXid(gtid, bq);
+    }
+
+    private static TransactionXid toTransactionXid(Xid xid) {
+        if (xid instanceof TransactionXid) {
+            return (TransactionXid) xid;
+        }
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier());
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int required) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + required));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    private static int crc32(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    static class PageKey implements Comparable<PageKey> {
+
+        final long lastUpdateTime;
+
+        final TransactionXid xid;
+
+        PageKey(long lastUpdateTime, TransactionXid xid) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.xid = xid;
+        }
+
+        static PageKey parse(String offset) {
+            String[] parts = offset.split(":");
+            return new PageKey(Long.parseLong(parts[0]), new TransactionXid(fromHex(parts[1]), fromHex(parts[2])));
+        }
+
+        @Override
+        public int compareTo(PageKey other) {
+
+            if (lastUpdateTime != other.lastUpdateTime) {
+                return lastUpdateTime < other.lastUpdateTime ? -1 : 1;
+            }
+
+            int result = compareBytes(xid.getGlobalTransactionId(), other.xid.getGlobalTransactionId());
+            return result != 0 ? result : compareBytes(xid.getBranchQualifier(), other.xid.getBranchQualifier());
+        }
+
+        @Override
+        public String toString() {
+            return lastUpdateTime + ":" + toHex(xid.getGlobalTransactionId()) + ":" + toHex(xid.getBranchQualifier());
+        }
+
+        private static int compareBytes(byte[] left, byte[] right) {
+            for (int i = 0; i < Math.min(left.length, right.length); i++) {
+                int result = (left[i] & 0xff) - (right[i] & 0xff);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return left.length - right.length;
+        }
+
+        private static String toHex(byte[] bytes) {
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        }
+
+        private static byte[] fromHex(String hex) {
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            return bytes;
+        }
+    }
+
+    static class Segment {
+
+        final long id;
+
+        final File file;
+
+        final FileChannel channel;
+
+        /**
+         * 读取使用独立的channel，避免业务线程被中断时关闭写入使用的channel
+         */
+        volatile FileChannel readChannel;
+
+        volatile long size;
+
+        volatile int recordCount;
+
+        volatile int liveCount;
+
+        private boolean closed;
+
+        Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.readChannel = new RandomAccessFile(file, "r").getChannel();
+            this.size = channel.size();
+        }
+
+        synchronized void reopenReadChannel() {
+            if (!closed && !readChannel.isOpen()) {
+                try {
+                    readChannel = new RandomAccessFile(file, "r").getChannel();
+                } catch (IOException e) {
+                    throw new TransactionIOException(e);
+                }
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            try {
+                readChannel.close();
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("close transaction log segment failed:" + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    static class LogPosition {
+
+        final Segment segment;
+
+        final long offset;
+
+        final int length;
+
+        final int contentOffset;
+
+        final long version;
+
+        final long lastUpdateTime;
+
+        LogPosition(Segment segment, long offset, int length, int contentOffset, long version, long lastUpdateTime) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.contentOffset = contentOffset;
+            this.version = version;
+            this.lastUpdateTime = lastUpdateTime;
+        }
+    }
+
+    static class WriteRequest {
+
+        static final int CREATE = 1;
+
+        static final int UPDATE = 2;
+
+        static final int DELETE = 3;
+
+        static final int RELOCATE = 4;
+
+        /**
+         * 结束标记，只由close放入
+         */
+        static final int CLOSE = 5;
+
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+        int operation;
+
+        byte type;
+
+        TransactionXid xid;
+
+        long expectedVersion;
+
+        long version;
+
+        long lastUpdateTime;
+
+        byte[] content;
+
+        LogPosition relocateFrom;
+
+        static WriteRequest put(int operation, TransactionXid xid, long expectedVersion, long version, long lastUpdateTime, byte[] content) {
+            WriteRequest request = new WriteRequest();
+            request.operation = operation;
+            request.type = TYPE_PUT;
+            request.xid = xid;
+            request.expectedVersion = expectedVersion;
+            request.version = version;
+            request.lastUpdateTime = lastUpdateTime;
+            request.content = content;
+            return request;
+        }
+
+        static WriteRequest delete(TransactionXid xid) {
+            WriteRequest request = new WriteRequest();
+            request.operation = DELETE;
+            request.type = TYPE_DELETE;
+            request.xid = xid;
+            return request;
+        }
+
+        static WriteRequest close() {
+            WriteRequest request = new WriteRequest();
+            request.operation = CLOSE;
+            return request;
+        }
+
+        static WriteRequest relocate(TransactionXid xid, LogPosition from, byte[] content) {
+            WriteRequest request = put(RELOCATE, xid, from.version, from.version, from.lastUpdateTime, content);
+            request.relocateFrom = from;
+            return request;
+        }
+
+        /**
+         * 在写线程中按提交顺序校验，保证与数据库存储一致的重复创建与乐观锁语义
+         */
+        boolean isApplicable(LogPosition current) {
+            switch (operation) {
+                case CREATE:
+                    return current == null;
+                case UPDATE:
+                    return current != null && current.version == expectedVersion;
+                case DELETE:
+                    return current != null;
+                default:
+                    return current == relocateFrom;
+            }
+        }
+    }
+}
@@ -3,14 +3,17 @@ package org.mengyun.tcctransaction.repository.helper;
 import com.alibaba.fastjson.JSON;
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DateUtils;
+import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.ByteUtils;
 
 import java.text.ParseException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,6 +21,21 @@ import java.util.Map;
  */
 public class ExpandTransactionSerializer {
 
+    /**
+     * 增量追加的参与者字段前缀，后接参与者在事务中的下标
+     */
+    public static final String PARTICIPANT_FIELD_PREFIX = "PARTICIPANT:";
+
+    /**
+     * 可读的JSON视图字段，只在开启时写入，供tcc-transaction-server展示
+     */
+    public static final String CONTENT_VIEW_FIELD = "CONTENT_VIEW";
+
+    /**
+     * 增量追加的参与者不经过事务序列化器，直接以Kryo序列化参与者本身，与配置的事务序列化器无关
+     */
+    private static final KryoPoolSerializer PARTICIPANT_SERIALIZER = new KryoPoolSerializer(0);
+
     public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction) {
 
         Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
@@ -31,7 +49,42 @@ public class ExpandTransactionSerializer {
         map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
         map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
         map.put("CONTENT".getBytes(), serializer.serialize(transaction));
-        map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
+        return map;
+    }
+
+    /**
+     * 生成事务的JSON视图
+     *
+     * @param transaction
+     * @return
+     */
+    public static byte[] serializeContentView(Transaction transaction) {
+        return JSON.toJSONString(transaction).getBytes();
+    }
+
+    /**
+     * 增量写入：只包含状态、重试次数、更新时间、版本，以及自上次落库后新增的参与者。
+     * 每个新增参与者单独序列化为一个字段，读取时合并回CONTENT
+     *
+     * @param transaction
+     * @param unpersistedParticipants
+     * @return
+     */
+    public static Map<byte[], byte[]> serializeDelta(Transaction transaction, List<Participant> unpersistedParticipants) {
+
+        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+
+        map.put("STATUS".getBytes(), ByteUtils.intToBytes(transaction.getStatus().getId()));
+        map.put("RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(transaction.getRetriedCount()));
+        map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
+        map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
+
+        int index = transaction.getParticipants().size() - unpersistedParticipants.size();
+
+        for (Participant participant : unpersistedParticipants) {
+            map.put((PARTICIPANT_FIELD_PREFIX + index++).getBytes(), PARTICIPANT_SERIALIZER.serializeObject(participant));
+        }
+
         return map;
     }
 
@@ -55,6 +108,16 @@ public class ExpandTransactionSerializer {
         }
 
         transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
+
+        for (int index = transaction.getParticipants().size(); ; index++) {
+            byte[] participantContent = propertyMap.get(PARTICIPANT_FIELD_PREFIX + index);
+            if (participantContent == null) {
+                break;
+            }
+            transaction.enlistParticipant((Participant) PARTICIPANT_SERIALIZER.deserializeObject(participantContent));
+        }
+
+        transaction.markPersisted();
         return transaction;
     }
 }
@@ -0,0 +1,755 @@
+package org.mengyun.tcctransaction.repository.helper;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.utils.FileUtils;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射日志段的事务日志存储。
+ * <p>
+ * 事务记录追加写入预分配并映射到内存的日志段文件，更新时写入新记录并将旧记录原地标记为失效。
+ * 堆外维护一个开放寻址的xid索引，保存记录位置、事务状态、版本与最后更新时间，
+ * 因此按xid查询只需要一次映射内存读取，按时间查询只扫描索引。
+ * <p>
+ * 记录格式：length(4) + crc32(4) + state(1) + gtidLength(2) + gtid + bqLength(2) + bq + status(4) + lastUpdateTime(8) + version(8) + content，
+ * crc32覆盖state之后的全部字节，state会被原地修改，不参与校验。每次追加只force一次，宕机时未完整落盘的记录由crc32识别。
+ * <p>
+ * 索引项格式：hash(8) + segmentId(4) + offset(4) + length(4) + status(4) + lastUpdateTime(8) + version(8) + state(4) + 保留(4)
+ */
+public class MappedSegmentStore {
+
+    static final Logger logger = Logger.getLogger(MappedSegmentStore.class.getSimpleName());
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private static final byte RECORD_LIVE = 1;
+
+    private static final byte RECORD_DEAD = 0;
+
+    private static final int RECORD_STATE_OFFSET = 8;
+
+    private static final int RECORD_XID_OFFSET = 9;
+
+    private static final int RECORD_HEADER_LENGTH = 4 + 4 + 1 + 2 + 2 + 4 + 8 + 8;
+
+    private static final int ENTRY_SIZE = 48;
+
+    private static final int ENTRY_EMPTY = 0;
+
+    private static final int ENTRY_USED = 1;
+
+    private static final int ENTRY_DELETED = 2;
+
+    private final String rootPath;
+
+    private final int segmentSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<Integer, Segment> segments = new HashMap<Integer, Segment>();
+
+    private Segment activeSegment;
+
+    private boolean closed;
+
+    private ByteBuffer index;
+
+    private int indexCapacity;
+
+    private int indexSize;
+
+    private int indexDeleted;
+
+    public MappedSegmentStore(String rootPath, int segmentSize, int initialIndexCapacity) {
+        this.rootPath = rootPath;
+        this.segmentSize = segmentSize;
+        this.indexCapacity = Integer.highestOneBit(Math.max(16, initialIndexCapacity - 1) << 1);
+        this.index = ByteBuffer.allocateDirect(indexCapacity * ENTRY_SIZE);
+        open();
+    }
+
+    /**
+     * 新建记录，xid已存在时返回0
+     */
+    public int create(Xid xid, int status, long lastUpdateTime, long version, byte[] content) {
+
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            if (find(xid) >= 0) {
+                return 0;
+            }
+
+            Segment segment = append(xid, status, lastUpdateTime, version, content);
+            putEntry(hash(xid), segment.id, segment.lastOffset, segment.lastLength, status, lastUpdateTime, version);
+            return 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 更新记录，当前版本与expectedVersion不一致时返回0
+     */
+    public int update(Xid xid, long expectedVersion, int status, long lastUpdateTime, long version, byte[] content) {
+
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            int slot = find(xid);
+
+            if (slot < 0 || index.getLong(slot * ENTRY_SIZE + 32) != expectedVersion) {
+                return 0;
+            }
+
+            Segment previous = segments.get(index.getInt(slot * ENTRY_SIZE + 8));
+            int previousOffset = index.getInt(slot * ENTRY_SIZE + 12);
+
+            Segment segment = append(xid, status, lastUpdateTime, version, content);
+            writeEntry(slot, hash(xid), segment.id, segment.lastOffset, segment.lastLength, status, lastUpdateTime, version);
+
+            // 旧记录与新记录在同一日志段时，失效标记随后续对该日志段的force落盘，宕机丢失时加载阶段按版本号保留新记录；
+            // 旧记录在已封存的日志段时不会再有写入，需要立即force，否则新记录被删除后旧记录会在重新加载时复活
+            if (!markDead(previous, previousOffset) && previous != segment) {
+                previous.buffer.force();
+            }
+            return 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int delete(Xid xid) {
+
+        lock.writeLock().lock();
+
+        try {
+            checkOpen();
+
+            int slot = find(xid);
+
+            if (slot < 0) {
+                return 0;
+            }
+
+            Segment segment = segments.get(index.getInt(slot * ENTRY_SIZE + 8));
+            int offset = index.getInt(slot * ENTRY_SIZE + 12);
+
+            index.putInt(slot * ENTRY_SIZE + 40, ENTRY_DELETED);
+            indexSize--;
+            indexDeleted++;
+
+            // 删除只有失效标记这一处持久化，需要立即落盘；日志段因此被回收时文件已删除，无需再force
+            if (!markDead(segment, offset)) {
+                segment.buffer.force();
+            }
+            return 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public byte[] findOne(Xid xid) {
+
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            int slot = find(xid);
+            return slot < 0 ? null : readContent(slot);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 只扫描索引，返回最后更新时间早于指定时间的记录内容
+     */
+    public List<byte[]> findAllUnmodifiedSince(long time) {
+
+        List<byte[]> contents = new ArrayList<byte[]>();
+
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            for (int slot = 0; slot < indexCapacity; slot++) {
+                int base = slot * ENTRY_SIZE;
+                if (index.getInt(base + 40) == ENTRY_USED && index.getLong(base + 24) < time) {
+                    contents.add(readContent(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return contents;
+    }
+
+    /**
+     * 从fromSlot开始扫描索引，最多收集limit条最后更新时间早于指定时间的记录内容。
+     * 返回下一次扫描的起始槽位，扫描完毕时返回-1。两次调用之间如果索引扩容，可能会遗漏或重复部分记录
+     */
+    public int findUnmodifiedSince(long time, int fromSlot, int limit, List<byte[]> contents) {
+
+        lock.readLock().lock();
+
+        try {
+            checkOpen();
+
+            int found = 0;
+
+            for (int slot = fromSlot; slot < indexCapacity; slot++) {
+                int base = slot * ENTRY_SIZE;
+                if (index.getInt(base + 40) == ENTRY_USED && index.getLong(base + 24) < time) {
+                    contents.add(readContent(slot));
+                    if (++found == limit) {
+                        return slot + 1 < indexCapacity ? slot + 1 : -1;
+                    }
+                }
+            }
+
+            return -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 将未落盘的失效标记写入文件并解除所有日志段的映射，关闭后不能再使用
+     */
+    public void close() {
+
+        lock.writeLock().lock();
+
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            activeSegment = null;
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new TransactionIOException("mapped segment store is closed");
+        }
+    }
+
+    private void open() {
+
+        File root = new File(rootPath);
+
+        if (!root.exists() && !root.mkdirs()) {
+            throw new TransactionIOException("cannot create root path, the path to create is:" + rootPath);
+        } else if (!root.isDirectory()) {
+            throw new TransactionIOException("rootPath is not directory");
+        }
+
+        File[] files = root.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+
+        List<Integer> segmentIds = new ArrayList<Integer>();
+
+        for (File file : files) {
+            segmentIds.add(Integer.parseInt(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length())));
+        }
+
+        Collections.sort(segmentIds);
+
+        try {
+            for (int i = 0; i < segmentIds.size(); i++) {
+                File file = segmentFile(segmentIds.get(i));
+                Segment segment = new Segment(segmentIds.get(i), file, (int) file.length());
+                segments.put(segment.id, segment);
+                activeSegment = segment;
+                load(segment, i == segmentIds.size() - 1);
+            }
+
+            for (Integer segmentId : segmentIds) {
+                if (segments.containsKey(segmentId)) {
+                    reclaimIfEmpty(segments.get(segmentId));
+                }
+            }
+
+            if (activeSegment == null || !segments.containsKey(activeSegment.id)) {
+                roll(segmentSize);
+            }
+        } catch (IOException e) {
+            close();
+            throw new TransactionIOException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 扫描日志段重建索引，遇到长度为0的位置即认为到达写入位置。
+     * 最后一个日志段尾部校验失败的记录是宕机时未写完的记录，清零后从该位置继续写入；
+     * 之前的日志段已经写满封存，出现校验失败说明文件损坏，拒绝加载，避免静默丢失其后的事务
+     */
+    private void load(Segment segment, boolean isLast) {
+
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+
+        while (position + RECORD_HEADER_LENGTH <= segment.capacity) {
+
+            int length = buffer.getInt(position);
+
+            if (length == 0) {
+                break;
+            }
+
+            if (length < RECORD_HEADER_LENGTH || position + length > segment.capacity
+                    || buffer.getInt(position + 4) != crc32(buffer, position + RECORD_XID_OFFSET, length - RECORD_XID_OFFSET)) {
+
+                if (!isLast) {
+                    throw new TransactionIOException(String.format("corrupted record in segment:%s at offset %d, length:%d",
+                            segment.file.getAbsolutePath(), position, length));
+                }
+
+                logger.warn(String.format("discard incomplete record in segment:%s at offset %d", segment.file.getName(), position));
+
+                int end = length < RECORD_HEADER_LENGTH || position + length > segment.capacity ? position + RECORD_HEADER_LENGTH : position + length;
+                for (int i = position; i < end; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                segment.buffer.force();
+                break;
+            }
+
+            if (buffer.get(position + RECORD_STATE_OFFSET) == RECORD_LIVE) {
+
+                segment.liveCount++;
+
+                int cursor = position + RECORD_XID_OFFSET;
+                byte[] gtid = new byte[buffer.getShort(cursor)];
+                readBytes(buffer, cursor + 2, gtid);
+                cursor += 2 + gtid.length;
+                byte[] bq = new byte[buffer.getShort(cursor)];
+                readBytes(buffer, cursor + 2, bq);
+                cursor += 2 + bq.length;
+
+                int status = buffer.getInt(cursor);
+                long lastUpdateTime = buffer.getLong(cursor + 4);
+                long version = buffer.getLong(cursor + 12);
+
+                SimpleXid xid = new SimpleXid(gtid, bq);
+                int slot = find(xid);
+
+                if (slot < 0) {
+                    putEntry(hash(xid), segment.id, position, length, status, lastUpdateTime, version);
+                } else if (index.getLong(slot * ENTRY_SIZE + 32) < version) {
+                    // crashed between writing the new record and marking the old one dead
+                    markDead(segments.get(index.getInt(slot * ENTRY_SIZE + 8)), index.getInt(slot * ENTRY_SIZE + 12));
+                    writeEntry(slot, hash(xid), segment.id, position, length, status, lastUpdateTime, version);
+                } else {
+                    markDead(segment, position);
+                }
+            }
+
+            position += length;
+        }
+
+        segment.writePosition = position;
+    }
+
+    private Segment append(Xid xid, int status, long lastUpdateTime, long version, byte[] content) {
+
+        byte[] gtid = xid.getGlobalTransactionId();
+        byte[] bq = xid.getBranchQualifier();
+        int length = RECORD_HEADER_LENGTH + gtid.length + bq.length + content.length;
+
+        Segment segment = activeSegment;
+
+        if (segment.writePosition + length > segment.capacity) {
+            Segment sealed = segment;
+            segment = roll(Math.max(segmentSize, length));
+            reclaimIfEmpty(sealed);
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.writePosition;
+
+        buffer.put(position + RECORD_STATE_OFFSET, RECORD_LIVE);
+        int cursor = position + RECORD_XID_OFFSET;
+        buffer.putShort(cursor, (short) gtid.length);
+        writeBytes(buffer, cursor + 2, gtid);
+        cursor += 2 + gtid.length;
+        buffer.putShort(cursor, (short) bq.length);
+        writeBytes(buffer, cursor + 2, bq);
+        cursor += 2 + bq.length;
+        buffer.putInt(cursor, status);
+        buffer.putLong(cursor + 4, lastUpdateTime);
+        buffer.putLong(cursor + 12, version);
+        writeBytes(buffer, cursor + 20, content);
+
+        buffer.putInt(position + 4, crc32(buffer, position + RECORD_XID_OFFSET, length - RECORD_XID_OFFSET));
+        buffer.putInt(position, length);
+
+        // 每次追加只force一次，长度与crc32一起写入，部分落盘的记录在加载时校验失败
+        buffer.force();
+
+        segment.writePosition = position + length;
+        segment.lastOffset = position;
+        segment.lastLength = length;
+        segment.liveCount++;
+
+        return segment;
+    }
+
+    /**
+     * 原地标记记录失效，不force。返回该日志段是否因此被回收
+     */
+    private boolean markDead(Segment segment, int offset) {
+
+        segment.buffer.put(offset + RECORD_STATE_OFFSET, RECORD_DEAD);
+        segment.liveCount--;
+
+        return segment != activeSegment && reclaimIfEmpty(segment);
+    }
+
+    private boolean reclaimIfEmpty(Segment segment) {
+
+        if (segment.liveCount > 0 || segment == activeSegment) {
+            return false;
+        }
+
+        segments.remove(segment.id);
+        segment.unmap();
+
+        if (!segment.file.delete()) {
+            logger.warn("cannot delete reclaimed segment:" + segment.file.getAbsolutePath());
+        } else {
+            try {
+                FileUtils.forceDirectory(new File(rootPath));
+            } catch (IOException e) {
+                throw new TransactionIOException(e);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 新日志段的目录项刷盘后才写入记录，避免已确认的写入随未落盘的文件一起丢失
+     */
+    private Segment roll(int capacity) {
+
+        int id = activeSegment == null ? 1 : activeSegment.id + 1;
+
+        try {
+            Segment segment = new Segment(id, segmentFile(id), capacity);
+
+            try {
+                FileUtils.forceDirectory(new File(rootPath));
+            } catch (IOException e) {
+                segment.unmap();
+                throw e;
+            }
+
+            segments.put(id, segment);
+            activeSegment = segment;
+            return segment;
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    private byte[] readContent(int slot) {
+
+        int base = slot * ENTRY_SIZE;
+        Segment segment = segments.get(index.getInt(base + 8));
+        int offset = index.getInt(base + 12);
+        int length = index.getInt(base + 16);
+
+        ByteBuffer buffer = segment.buffer;
+        int cursor = offset + RECORD_XID_OFFSET;
+        cursor += 2 + buffer.getShort(cursor);
+        cursor += 2 + buffer.getShort(cursor);
+        cursor += 20;
+
+        byte[] content = new byte[offset + length - cursor];
+        readBytes(buffer, cursor, content);
+        return content;
+    }
+
+    /**
+     * 查找xid所在的索引槽位，不存在时返回-1。64位hash相同时比对记录中的xid以排除冲突
+     */
+    private int find(Xid xid) {
+
+        long hash = hash(xid);
+        int mask = indexCapacity - 1;
+
+        for (int slot = (int) (hash ^ (hash >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+
+            int base = slot * ENTRY_SIZE;
+            int state = index.getInt(base + 40);
+
+            if (state == ENTRY_EMPTY) {
+                return -1;
+            }
+
+            if (state == ENTRY_USED && index.getLong(base) == hash
+                    && matches(segments.get(index.getInt(base + 8)), index.getInt(base + 12), xid)) {
+                return slot;
+            }
+        }
+    }
+
+    private void putEntry(long hash, int segmentId, int offset, int length, int status, long lastUpdateTime, long version) {
+
+        if ((indexSize + indexDeleted + 1) * 4 > indexCapacity * 3) {
+            rehash(indexSize * 2 > indexCapacity ? indexCapacity * 2 : indexCapacity);
+        }
+
+        int mask = indexCapacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+        while (index.getInt(slot * ENTRY_SIZE + 40) == ENTRY_USED) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (index.getInt(slot * ENTRY_SIZE + 40) == ENTRY_DELETED) {
+            indexDeleted--;
+        }
+
+        writeEntry(slot, hash, segmentId, offset, length, status, lastUpdateTime, version);
+        indexSize++;
+    }
+
+    private void writeEntry(int slot, long hash, int segmentId, int offset, int length, int status, long lastUpdateTime, long version) {
+        int base = slot * ENTRY_SIZE;
+        index.putLong(base, hash);
+        index.putInt(base + 8, segmentId);
+        index.putInt(base + 12, offset);
+        index.putInt(base + 16, length);
+        index.putInt(base + 20, status);
+        index.putLong(base + 24, lastUpdateTime);
+        index.putLong(base + 32, version);
+        index.putInt(base + 40, ENTRY_USED);
+    }
+
+    private void rehash(int newCapacity) {
+
+        ByteBuffer oldIndex = index;
+        int oldCapacity = indexCapacity;
+
+        index = ByteBuffer.allocateDirect(newCapacity * ENTRY_SIZE);
+        indexCapacity = newCapacity;
+        indexSize = 0;
+        indexDeleted = 0;
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int base = slot * ENTRY_SIZE;
+            if (oldIndex.getInt(base + 40) == ENTRY_USED) {
+                putEntry(oldIndex.getLong(base), oldIndex.getInt(base + 8), oldIndex.getInt(base + 12), oldIndex.getInt(base + 16),
+                        oldIndex.getInt(base + 20), oldIndex.getLong(base + 24), oldIndex.getLong(base + 32));
+            }
+        }
+    }
+
+    private boolean matches(Segment segment, int offset, Xid xid) {
+
+        ByteBuffer buffer = segment.buffer;
+        int cursor = offset + RECORD_XID_OFFSET;
+
+        if (!equalsBytes(buffer, cursor, xid.getGlobalTransactionId())) {
+            return false;
+        }
+
+        cursor += 2 + buffer.getShort(cursor);
+        return equalsBytes(buffer, cursor, xid.getBranchQualifier());
+    }
+
+    private static boolean equalsBytes(ByteBuffer buffer, int cursor, byte[] bytes) {
+
+        if (buffer.getShort(cursor) != bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(cursor + 2 + i) != bytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long hash(Xid xid) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (byte b : xid.getGlobalTransactionId()) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+
+        hash = (hash ^ 0xff) * 0x100000001b3L;
+
+        for (byte b : xid.getBranchQualifier()) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static int crc32(ByteBuffer buffer, int position, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.limit(position + length);
+        CRC32 crc32 = new CRC32();
+        crc32.update(view);
+        return (int) crc32.getValue();
+    }
+
+    private static void readBytes(ByteBuffer buffer, int position, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+    }
+
+    private static void writeBytes(ByteBuffer buffer, int position, byte[] bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.put(bytes);
+    }
+
+    private File segmentFile(int id) {
+        return new File(rootPath, String.format("%010d%s", id, SEGMENT_SUFFIX));
+    }
+
+    static class Segment {
+
+        final int id;
+
+        final File file;
+
+        final int capacity;
+
+        final MappedByteBuffer buffer;
+
+        int writePosition;
+
+        int liveCount;
+
+        int lastOffset;
+
+        int lastLength;
+
+        Segment(int id, File file, int capacity) throws IOException {
+
+            this.id = id;
+            this.file = file;
+            this.capacity = capacity;
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                raf.setLength(capacity);
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } finally {
+                raf.close();
+            }
+        }
+
+        void close() {
+            buffer.force();
+            unmap();
+        }
+
+        /**
+         * 立即解除映射，不等待GC回收buffer。调用方需保证之后不再访问该日志段
+         */
+        void unmap() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+                try {
+                    // JDK9及以上
+                    Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                    theUnsafe.setAccessible(true);
+                    invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                } catch (NoSuchMethodException e) {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (Exception e) {
+                // 无法主动解除时，映射在buffer被回收时释放
+                logger.warn("cannot unmap segment:" + file.getAbsolutePath(), e);
+            }
+        }
+    }
+
+    static class SimpleXid implements Xid {
+
+        private final byte[] globalTransactionId;
+
+        private final byte[] branchQualifier;
+
+        SimpleXid(byte[] globalTransactionId, byte[] branchQualifier) {
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+        }
+
+        @Override
+        public int getFormatId() {
+            return 1;
+        }
+
+        @Override
+        public byte[] getGlobalTransactionId() {
+            return globalTransactionId;
+        }
+
+        @Override
+        public byte[] getBranchQualifier() {
+            return branchQualifier;
+        }
+    }
+}
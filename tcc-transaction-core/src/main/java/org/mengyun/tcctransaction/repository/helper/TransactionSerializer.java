@@ -1,36 +1,122 @@
 package org.mengyun.tcctransaction.repository.helper;
 
+import org.apache.commons.lang3.SerializationUtils;
+import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Created by changming.xie on 9/15/16.
+ * <p/>
+ * 记录格式：魔数、格式版本、定长的头部字段、全局事务ID、分支ID，之后直到结尾都是事务内容。
+ * 事务内容只序列化一次，头部字段不经过序列化器。
+ * 没有魔数的记录按旧格式（头部字段和内容一起放入Map再次序列化）读取
  */
 public class TransactionSerializer {
 
+    private static final byte MAGIC_HIGH = 'T';
+
+    private static final byte MAGIC_LOW = 'E';
+
+    private static final byte FORMAT_VERSION = 1;
+
+    /**
+     * 魔数2字节、版本1字节，状态、类型、重试次数各4字节，创建时间、更新时间、版本号各8字节，全局事务ID和分支ID的长度各2字节
+     */
+    private static final int FIXED_HEADER_LENGTH = 2 + 1 + 4 * 3 + 8 * 3 + 2 * 2;
+
     public static byte[] serialize(ObjectSerializer serializer, Transaction transaction) {
-        Map<String, Object> map = new HashMap<String, Object>();
-
-        map.put("GLOBAL_TX_ID", transaction.getXid().getGlobalTransactionId());
-        map.put("BRANCH_QUALIFIER", transaction.getXid().getBranchQualifier());
-        map.put("STATUS", transaction.getStatus().getId());
-        map.put("TRANSACTION_TYPE", transaction.getTransactionType().getId());
-        map.put("RETRIED_COUNT", transaction.getRetriedCount());
-        map.put("CREATE_TIME", transaction.getCreateTime());
-        map.put("LAST_UPDATE_TIME", transaction.getLastUpdateTime());
-        map.put("VERSION", transaction.getVersion());
-        map.put("CONTENT", serializer.serialize(transaction));
-
-        return serializer.serialize(map);
+
+        byte[] globalTransactionId = transaction.getXid().getGlobalTransactionId();
+        byte[] branchQualifier = transaction.getXid().getBranchQualifier();
+        byte[] content = serializer.serialize(transaction);
+
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_HEADER_LENGTH + globalTransactionId.length + branchQualifier.length + content.length);
+
+        buffer.put(MAGIC_HIGH);
+        buffer.put(MAGIC_LOW);
+        buffer.put(FORMAT_VERSION);
+        buffer.putInt(transaction.getStatus().getId());
+        buffer.putInt(transaction.getTransactionType().getId());
+        buffer.putInt(transaction.getRetriedCount());
+        buffer.putLong(transaction.getCreateTime().getTime());
+        buffer.putLong(transaction.getLastUpdateTime().getTime());
+        buffer.putLong(transaction.getVersion());
+        buffer.putShort((short) globalTransactionId.length);
+        buffer.put(globalTransactionId);
+        buffer.putShort((short) branchQualifier.length);
+        buffer.put(branchQualifier);
+        buffer.put(content);
+
+        return buffer.array();
     }
 
     public static Transaction deserialize(ObjectSerializer serializer, byte[] value) {
 
-        Map<String, Object> map = (Map<String, Object>) serializer.deserialize(value);
+        if (!isEnvelope(value)) {
+            return deserializeLegacy(serializer, value);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value);
+        buffer.position(2);
+
+        byte formatVersion = buffer.get();
+
+        if (formatVersion != FORMAT_VERSION) {
+            throw new SystemException("unsupported transaction record format version: " + formatVersion);
+        }
+
+        buffer.getInt();
+        buffer.getInt();
+        int retriedCount = buffer.getInt();
+        buffer.getLong();
+        long lastUpdateTime = buffer.getLong();
+        long version = buffer.getLong();
+        skipBytes(buffer);
+        skipBytes(buffer);
+
+        byte[] content = Arrays.copyOfRange(value, buffer.position(), value.length);
+
+        Transaction transaction = (Transaction) serializer.deserialize(content);
+        transaction.resetRetriedCount(retriedCount);
+        transaction.setLastUpdateTime(new Date(lastUpdateTime));
+        transaction.setVersion(version);
+        return transaction;
+    }
+
+    private static void skipBytes(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        buffer.position(buffer.position() + length);
+    }
+
+    private static boolean isJdkSerialized(byte[] value) {
+        return value.length >= 2 && value[0] == (byte) 0xAC && value[1] == (byte) 0xED;
+    }
+
+    private static boolean isEnvelope(byte[] value) {
+        return value.length >= FIXED_HEADER_LENGTH && value[0] == MAGIC_HIGH && value[1] == MAGIC_LOW;
+    }
+
+    /**
+     * 旧格式的外层是Map，KryoPoolSerializer和JdkSerializationSerializer只返回Transaction，需要按对象读取
+     */
+    private static Transaction deserializeLegacy(ObjectSerializer serializer, byte[] value) {
+
+        Map<String, Object> map;
+
+        if (serializer instanceof KryoPoolSerializer) {
+            map = (Map<String, Object>) ((KryoPoolSerializer) serializer).deserializeObject(value);
+        } else if (isJdkSerialized(value)) {
+            map = (Map<String, Object>) SerializationUtils.deserialize(value);
+        } else {
+            map = (Map<String, Object>) serializer.deserialize(value);
+        }
 
         byte[] content = (byte[]) map.get("CONTENT");
         Transaction transaction = (Transaction) serializer.deserialize(content);
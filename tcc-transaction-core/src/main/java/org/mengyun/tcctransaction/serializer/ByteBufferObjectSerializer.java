@@ -0,0 +1,28 @@
+package org.mengyun.tcctransaction.serializer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 可以直接写入、读取调用方提供的ByteBuffer的序列化器，写入文件或网络时不必再经过中间的byte数组。
+ * 两组方法的二进制格式相同，可以互相读取
+ */
+public interface ByteBufferObjectSerializer<T> extends ObjectSerializer<T> {
+
+    /**
+     * 从target的当前位置开始写入，写入后position后移
+     *
+     * @param t      object to serialize
+     * @param target buffer to write into
+     * @return 写入的字节数
+     * @throws java.nio.BufferOverflowException 剩余空间不足，此时target的position不变
+     */
+    int serialize(T t, ByteBuffer target);
+
+    /**
+     * 从source的当前位置读取一个对象，读取后position移动到该对象之后
+     *
+     * @param source buffer to read from
+     * @return the equivalent object instance
+     */
+    T deserialize(ByteBuffer source);
+}
@@ -0,0 +1,471 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按固定格式写入事务、参与者和调用上下文的已知字段，数值使用变长编码，类名在单条记录内只写一次，
+ * 只有业务参数和扩展信息交给Kryo序列化。
+ * <p>
+ * 记录以魔数和格式版本开头，魔数不匹配时交给fallbackSerializer反序列化，可以读取切换前写入的记录
+ */
+public class CompactTransactionSerializer implements ByteBufferObjectSerializer<Transaction> {
+
+    private static final byte MAGIC_0 = 'T';
+
+    private static final byte MAGIC_1 = 'X';
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Map<String, Class> PRIMITIVE_CLASSES = new HashMap<String, Class>();
+
+    static {
+        for (Class primitiveClass : new Class[]{boolean.class, byte.class, char.class, short.class, int.class,
+                long.class, float.class, double.class, void.class}) {
+            PRIMITIVE_CLASSES.put(primitiveClass.getName(), primitiveClass);
+        }
+    }
+
+    private final KryoHolderPool pool = new KryoHolderPool(KryoPoolSerializer.factory);
+
+    private final ConcurrentHashMap<String, Class> classCache = new ConcurrentHashMap<String, Class>();
+
+    private ObjectSerializer<Transaction> fallbackSerializer = new KryoPoolSerializer(0);
+
+    public void setFallbackSerializer(ObjectSerializer<Transaction> fallbackSerializer) {
+        this.fallbackSerializer = fallbackSerializer;
+    }
+
+    @Override
+    public byte[] serialize(final Transaction transaction) {
+
+        return pool.run(new KryoHolderPool.Callback<byte[]>() {
+            public byte[] execute(KryoHolderPool.KryoHolder holder) {
+                writeRecord(holder.kryo, holder.output, transaction);
+                return holder.output.toBytes();
+            }
+        });
+    }
+
+    @Override
+    public int serialize(final Transaction transaction, final ByteBuffer target) {
+
+        return pool.run(new KryoHolderPool.Callback<Integer>() {
+            public Integer execute(KryoHolderPool.KryoHolder holder) {
+                Output output = holder.output;
+                writeRecord(holder.kryo, output, transaction);
+
+                int length = output.position();
+
+                if (length > target.remaining()) {
+                    throw new BufferOverflowException();
+                }
+
+                target.put(output.getBuffer(), 0, length);
+                return length;
+            }
+        });
+    }
+
+    @Override
+    public Transaction deserialize(final byte[] bytes) {
+
+        if (bytes == null) {
+            return null;
+        }
+
+        if (bytes.length < 2 || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+            return fallbackSerializer.deserialize(bytes);
+        }
+
+        return pool.run(new KryoHolderPool.Callback<Transaction>() {
+            public Transaction execute(KryoHolderPool.KryoHolder holder) {
+                Input input = holder.input;
+                input.setBuffer(bytes);
+                return readRecord(holder.kryo, input);
+            }
+        });
+    }
+
+    @Override
+    public Transaction deserialize(final ByteBuffer source) {
+
+        int position = source.position();
+
+        if (source.remaining() < 2 || source.get(position) != MAGIC_0 || source.get(position + 1) != MAGIC_1) {
+
+            if (fallbackSerializer instanceof ByteBufferObjectSerializer) {
+                return ((ByteBufferObjectSerializer<Transaction>) fallbackSerializer).deserialize(source);
+            }
+
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            return fallbackSerializer.deserialize(bytes);
+        }
+
+        return pool.run(new KryoHolderPool.Callback<Transaction>() {
+            public Transaction execute(KryoHolderPool.KryoHolder holder) {
+                Input input = holder.input;
+                int remaining = source.remaining();
+                int offset;
+
+                if (source.hasArray()) {
+                    offset = source.arrayOffset() + source.position();
+                    input.setBuffer(source.array(), offset, remaining);
+                } else {
+                    offset = 0;
+                    source.duplicate().get(holder.scratch(remaining), 0, remaining);
+                    input.setBuffer(holder.scratch(remaining), 0, remaining);
+                }
+
+                Transaction transaction = readRecord(holder.kryo, input);
+                source.position(source.position() + input.position() - offset);
+                return transaction;
+            }
+        });
+    }
+
+    @Override
+    public Transaction clone(Transaction object) {
+        return deserialize(serialize(object));
+    }
+
+    private void writeRecord(Kryo kryo, Output output, Transaction transaction) {
+        output.writeByte(MAGIC_0);
+        output.writeByte(MAGIC_1);
+        output.writeVarInt(FORMAT_VERSION, true);
+
+        writeTransaction(kryo, output, transaction);
+    }
+
+    private Transaction readRecord(Kryo kryo, Input input) {
+        input.skip(2);
+
+        int formatVersion = input.readVarInt(true);
+
+        if (formatVersion > FORMAT_VERSION) {
+            throw new SystemException(String.format("unsupported transaction format version:%d", formatVersion));
+        }
+
+        return readTransaction(kryo, input);
+    }
+
+    /**
+     * 固定格式要求xid、状态、类型和时间都存在，缺少时直接报错，不写出无法读取的记录
+     */
+    private void writeTransaction(Kryo kryo, Output output, Transaction transaction) {
+
+        if (transaction.getXid() == null || transaction.getStatus() == null || transaction.getTransactionType() == null
+                || transaction.getCreateTime() == null || transaction.getLastUpdateTime() == null) {
+            throw new SystemException("compact serializer requires xid, status, transaction type, create time and last update time of the transaction");
+        }
+
+        TransactionXid xid = (TransactionXid) transaction.getXid();
+
+        writeBytes(output, xid.getGlobalTransactionId());
+        writeBytes(output, xid.getBranchQualifier());
+        output.writeVarInt(transaction.getStatus().getId(), true);
+        output.writeVarInt(transaction.getTransactionType().getId(), true);
+        output.writeVarInt(transaction.getRetriedCount(), true);
+        output.writeVarLong(transaction.getCreateTime().getTime(), true);
+        output.writeVarLong(transaction.getLastUpdateTime().getTime(), true);
+        output.writeVarLong(transaction.getVersion(), true);
+
+        List<String> classNames = new ArrayList<String>();
+        List<Participant> participants = transaction.getParticipants();
+
+        output.writeVarInt(participants.size(), true);
+
+        for (Participant participant : participants) {
+            writeParticipant(kryo, output, participant, xid.getGlobalTransactionId(), classNames);
+        }
+
+        Map<String, Object> attachments = transaction.getAttachments();
+
+        output.writeVarInt(attachments.size(), true);
+
+        for (Map.Entry<String, Object> entry : attachments.entrySet()) {
+            output.writeString(entry.getKey());
+            kryo.writeClassAndObject(output, entry.getValue());
+        }
+    }
+
+    private Transaction readTransaction(Kryo kryo, Input input) {
+
+        TransactionXid xid = new TransactionXid(readBytes(input), readBytes(input));
+        TransactionStatus status = TransactionStatus.valueOf(input.readVarInt(true));
+        TransactionType transactionType = TransactionType.valueOf(input.readVarInt(true));
+        int retriedCount = input.readVarInt(true);
+        Date createTime = new Date(input.readVarLong(true));
+        Date lastUpdateTime = new Date(input.readVarLong(true));
+        long version = input.readVarLong(true);
+
+        Transaction transaction = new Transaction(xid, transactionType, createTime);
+        transaction.changeStatus(status);
+        transaction.resetRetriedCount(retriedCount);
+        transaction.setLastUpdateTime(lastUpdateTime);
+        transaction.setVersion(version);
+
+        List<Class> classes = new ArrayList<Class>();
+        int participantCount = input.readVarInt(true);
+
+        for (int i = 0; i < participantCount; i++) {
+            transaction.enlistParticipant(readParticipant(kryo, input, xid.getGlobalTransactionId(), classes));
+        }
+
+        int attachmentCount = input.readVarInt(true);
+
+        for (int i = 0; i < attachmentCount; i++) {
+            String key = input.readString();
+            Object value = kryo.readClassAndObject(input);
+            if (value != null) {
+                transaction.getAttachments().put(key, value);
+            }
+        }
+
+        return transaction;
+    }
+
+    /**
+     * 参与者的全局事务ID通常与所属事务相同，此时不再重复写入
+     */
+    private void writeParticipant(Kryo kryo, Output output, Participant participant, byte[] globalTransactionId, List<String> classNames) {
+
+        TransactionXid xid = participant.getXid();
+
+        if (xid == null) {
+            output.writeVarInt(0, true);
+        } else if (Arrays.equals(xid.getGlobalTransactionId(), globalTransactionId)) {
+            output.writeVarInt(1, true);
+            writeBytes(output, xid.getBranchQualifier());
+        } else {
+            output.writeVarInt(2, true);
+            writeBytes(output, xid.getGlobalTransactionId());
+            writeBytes(output, xid.getBranchQualifier());
+        }
+
+        output.writeVarInt(participant.getStatus().getId(), true);
+        writeClass(output, participant.getTransactionContextEditorClass(), classNames);
+
+        InvocationContext confirmInvocationContext = participant.getConfirmInvocationContext();
+        InvocationContext cancelInvocationContext = participant.getCancelInvocationContext();
+
+        writeInvocationContext(kryo, output, confirmInvocationContext, null, classNames);
+        writeInvocationContext(kryo, output, cancelInvocationContext,
+                confirmInvocationContext == null ? null : confirmInvocationContext.getArgs(), classNames);
+    }
+
+    private Participant readParticipant(Kryo kryo, Input input, byte[] globalTransactionId, List<Class> classes) {
+
+        TransactionXid xid;
+
+        switch (input.readVarInt(true)) {
+            case 0:
+                xid = null;
+                break;
+            case 1:
+                xid = new TransactionXid(globalTransactionId, readBytes(input));
+                break;
+            default:
+                xid = new TransactionXid(readBytes(input), readBytes(input));
+        }
+
+        ParticipantStatus status = ParticipantStatus.valueOf(input.readVarInt(true));
+        Class<? extends TransactionContextEditor> transactionContextEditorClass = readClass(input, classes);
+
+        InvocationContext confirmInvocationContext = readInvocationContext(kryo, input, null, classes);
+        InvocationContext cancelInvocationContext = readInvocationContext(kryo, input,
+                confirmInvocationContext == null ? null : confirmInvocationContext.getArgs(), classes);
+
+        Participant participant = new Participant(xid, confirmInvocationContext, cancelInvocationContext, transactionContextEditorClass);
+        participant.setStatus(status);
+        return participant;
+    }
+
+    /**
+     * confirm和cancel通常共用同一个参数数组，第二次出现时只写入标记
+     */
+    private void writeInvocationContext(Kryo kryo, Output output, InvocationContext invocationContext, Object[] sharedArgs, List<String> classNames) {
+
+        if (invocationContext == null) {
+            output.writeBoolean(false);
+            return;
+        }
+
+        output.writeBoolean(true);
+        writeClass(output, invocationContext.getTargetClass(), classNames);
+        output.writeString(invocationContext.getMethodName());
+
+        Class[] parameterTypes = invocationContext.getParameterTypes();
+
+        if (parameterTypes == null) {
+            output.writeVarInt(0, true);
+        } else {
+            output.writeVarInt(parameterTypes.length + 1, true);
+            for (Class parameterType : parameterTypes) {
+                writeClass(output, parameterType, classNames);
+            }
+        }
+
+        Object[] args = invocationContext.getArgs();
+
+        if (args != null && args == sharedArgs) {
+            output.writeBoolean(true);
+        } else {
+            output.writeBoolean(false);
+            writeArgs(kryo, output, args, classNames);
+        }
+    }
+
+    private InvocationContext readInvocationContext(Kryo kryo, Input input, Object[] sharedArgs, List<Class> classes) {
+
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        Class targetClass = readClass(input, classes);
+        String methodName = input.readString();
+
+        int parameterTypeCount = input.readVarInt(true);
+        Class[] parameterTypes = null;
+
+        if (parameterTypeCount > 0) {
+            parameterTypes = new Class[parameterTypeCount - 1];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = readClass(input, classes);
+            }
+        }
+
+        Object[] args = input.readBoolean() ? sharedArgs : readArgs(kryo, input, classes);
+
+        return new InvocationContext(targetClass, methodName, parameterTypes, args);
+    }
+
+    /**
+     * 参数的类型同样写入类名字典，参数值交给Kryo
+     */
+    private void writeArgs(Kryo kryo, Output output, Object[] args, List<String> classNames) {
+
+        if (args == null) {
+            output.writeVarInt(0, true);
+            return;
+        }
+
+        output.writeVarInt(args.length + 1, true);
+
+        for (Object arg : args) {
+            if (arg == null) {
+                writeClass(output, null, classNames);
+            } else {
+                writeClass(output, arg.getClass(), classNames);
+                kryo.writeObject(output, arg);
+            }
+        }
+    }
+
+    private Object[] readArgs(Kryo kryo, Input input, List<Class> classes) {
+
+        int length = input.readVarInt(true);
+
+        if (length == 0) {
+            return null;
+        }
+
+        Object[] args = new Object[length - 1];
+
+        for (int i = 0; i < args.length; i++) {
+            Class argClass = readClass(input, classes);
+            if (argClass != null) {
+                args[i] = kryo.readObject(input, argClass);
+            }
+        }
+
+        return args;
+    }
+
+    /**
+     * 0表示null，已写过的类写入其下标+1，新出现的类写入下一个下标并紧跟类名
+     */
+    private void writeClass(Output output, Class clazz, List<String> classNames) {
+
+        if (clazz == null) {
+            output.writeVarInt(0, true);
+            return;
+        }
+
+        String className = clazz.getName();
+        int index = classNames.indexOf(className);
+
+        if (index >= 0) {
+            output.writeVarInt(index + 1, true);
+        } else {
+            classNames.add(className);
+            output.writeVarInt(classNames.size(), true);
+            output.writeString(className);
+        }
+    }
+
+    private Class readClass(Input input, List<Class> classes) {
+
+        int reference = input.readVarInt(true);
+
+        if (reference == 0) {
+            return null;
+        }
+
+        if (reference <= classes.size()) {
+            return classes.get(reference - 1);
+        }
+
+        Class clazz = loadClass(input.readString());
+        classes.add(clazz);
+        return clazz;
+    }
+
+    private Class loadClass(String className) {
+
+        Class clazz = classCache.get(className);
+
+        if (clazz != null) {
+            return clazz;
+        }
+
+        clazz = PRIMITIVE_CLASSES.get(className);
+
+        if (clazz == null) {
+            try {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                clazz = Class.forName(className, false, classLoader != null ? classLoader : CompactTransactionSerializer.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new SystemException(String.format("deserialize transaction failed, class not found:%s", className), e);
+            }
+        }
+
+        classCache.putIfAbsent(className, clazz);
+        return clazz;
+    }
+
+    private static void writeBytes(Output output, byte[] bytes) {
+        output.writeVarInt(bytes.length, true);
+        output.writeBytes(bytes);
+    }
+
+    private static byte[] readBytes(Input input) {
+        return input.readBytes(input.readVarInt(true));
+    }
+}
@@ -0,0 +1,120 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.SystemException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 包装任意序列化器，序列化结果达到阈值时压缩后再写入存储。
+ * <p>
+ * 压缩后的记录以魔数、算法id和压缩前长度开头，没有魔数的记录直接交给被包装的序列化器，
+ * 开启压缩前写入的记录、未达到阈值或压缩后没有变小的记录都按原样读取
+ */
+public class CompressingObjectSerializer<T> implements ObjectSerializer<T> {
+
+    private static final byte MAGIC_0 = (byte) 0xC7;
+
+    private static final byte MAGIC_1 = 'Z';
+
+    /**
+     * 魔数2字节、算法id 1字节、压缩前长度4字节
+     */
+    private static final int HEADER_LENGTH = 2 + 1 + 4;
+
+    private final ObjectSerializer<T> delegate;
+
+    private final Map<Byte, CompressionCodec> codecs = new ConcurrentHashMap<Byte, CompressionCodec>();
+
+    private CompressionCodec codec;
+
+    /**
+     * 序列化结果小于该字节数时不压缩
+     */
+    private int threshold = 512;
+
+    public CompressingObjectSerializer(ObjectSerializer<T> delegate) {
+        this.delegate = delegate;
+
+        addCodec(new DeflateCompressionCodec());
+        setCodec(new Lz4CompressionCodec());
+    }
+
+    /**
+     * 写入使用的压缩算法，同时注册用于读取
+     *
+     * @param codec
+     */
+    public void setCodec(CompressionCodec codec) {
+        addCodec(codec);
+        this.codec = codec;
+    }
+
+    /**
+     * 注册只用于读取的压缩算法，切换算法后仍可读取以前写入的记录
+     *
+     * @param codec
+     */
+    public void addCodec(CompressionCodec codec) {
+        if (codec.getId() == 0) {
+            throw new IllegalArgumentException("codec id 0 is reserved.");
+        }
+        codecs.put(codec.getId(), codec);
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public byte[] serialize(T t) {
+
+        byte[] bytes = delegate.serialize(t);
+
+        if (bytes == null || bytes.length < threshold) {
+            return bytes;
+        }
+
+        byte[] compressed = codec.compress(bytes, 0, bytes.length);
+
+        if (compressed.length + HEADER_LENGTH >= bytes.length) {
+            return bytes;
+        }
+
+        byte[] result = new byte[HEADER_LENGTH + compressed.length];
+        result[0] = MAGIC_0;
+        result[1] = MAGIC_1;
+        result[2] = codec.getId();
+        result[3] = (byte) (bytes.length >>> 24);
+        result[4] = (byte) (bytes.length >>> 16);
+        result[5] = (byte) (bytes.length >>> 8);
+        result[6] = (byte) bytes.length;
+        System.arraycopy(compressed, 0, result, HEADER_LENGTH, compressed.length);
+
+        return result;
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+
+        if (bytes == null || bytes.length < HEADER_LENGTH || bytes[0] != MAGIC_0 || bytes[1] != MAGIC_1) {
+            return delegate.deserialize(bytes);
+        }
+
+        CompressionCodec recordCodec = codecs.get(bytes[2]);
+
+        if (recordCodec == null) {
+            throw new SystemException(String.format("unknown compression codec id:%d", bytes[2]));
+        }
+
+        int originalLength = ((bytes[3] & 0xFF) << 24) | ((bytes[4] & 0xFF) << 16)
+                | ((bytes[5] & 0xFF) << 8) | (bytes[6] & 0xFF);
+
+        return delegate.deserialize(recordCodec.decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, originalLength));
+    }
+
+    @Override
+    public T clone(T object) {
+        return delegate.clone(object);
+    }
+}
@@ -0,0 +1,34 @@
+package org.mengyun.tcctransaction.serializer;
+
+/**
+ * CompressingObjectSerializer使用的压缩算法，id写入记录头部，读取时据此选择解压算法，
+ * 已经写入存储的id不能再修改
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return 算法标识，0保留给未压缩的记录
+     */
+    byte getId();
+
+    /**
+     * 压缩source中从offset开始的length个字节
+     *
+     * @param source
+     * @param offset
+     * @param length
+     * @return 压缩后的数据
+     */
+    byte[] compress(byte[] source, int offset, int length);
+
+    /**
+     * 解压source中从offset开始的length个字节
+     *
+     * @param source
+     * @param offset
+     * @param length
+     * @param originalLength 压缩前的长度
+     * @return 解压后的数据，长度为originalLength
+     */
+    byte[] decompress(byte[] source, int offset, int length, int originalLength);
+}
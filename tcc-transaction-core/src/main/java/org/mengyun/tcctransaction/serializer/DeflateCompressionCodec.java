@@ -0,0 +1,113 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.SystemException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于JDK Deflater的压缩算法，不依赖第三方库。Deflater、Inflater占用本地内存，复用以避免每次创建
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+
+    public static final byte ID = 1;
+
+    private static final int MAX_POOLED = 64;
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    private int level = Deflater.BEST_SPEED;
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] source, int offset, int length) {
+
+        Deflater deflater = deflaters.poll();
+
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+
+        try {
+            deflater.setInput(source, offset, length);
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(length / 2 + 16);
+            byte[] buffer = new byte[Math.min(Math.max(length, 64), 8192)];
+
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                output.write(buffer, 0, count);
+            }
+
+            return output.toByteArray();
+        } finally {
+            release(deflaters, deflater);
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] source, int offset, int length, int originalLength) {
+
+        Inflater inflater = inflaters.poll();
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        try {
+            inflater.setInput(source, offset, length);
+
+            byte[] result = new byte[originalLength];
+            int position = 0;
+
+            while (position < originalLength) {
+                int count = inflater.inflate(result, position, originalLength - position);
+
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SystemException(String.format("decompress failed, expected %d bytes but got %d", originalLength, position));
+                }
+
+                position += count;
+            }
+
+            return result;
+        } catch (DataFormatException e) {
+            throw new SystemException("decompress failed.", e);
+        } finally {
+            release(inflaters, inflater);
+        }
+    }
+
+    private static void release(Queue<Deflater> queue, Deflater deflater) {
+        if (queue.size() < MAX_POOLED) {
+            deflater.reset();
+            queue.offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    private static void release(Queue<Inflater> queue, Inflater inflater) {
+        if (queue.size() < MAX_POOLED) {
+            inflater.reset();
+            queue.offer(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+}
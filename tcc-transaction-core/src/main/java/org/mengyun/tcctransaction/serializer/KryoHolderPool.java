@@ -0,0 +1,102 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+
+import java.lang.ref.SoftReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Kryo实例与其输出、输入缓冲区一起借出和归还，序列化时不再为每次调用分配新的流和缓冲区。
+ * 与KryoPool的softReferences一样，空闲的实例只以软引用保存
+ */
+class KryoHolderPool {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * 归还时输出缓冲区超过该大小则丢弃，避免个别大事务长期占用内存
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Queue<SoftReference<KryoHolder>> queue = new ConcurrentLinkedQueue<SoftReference<KryoHolder>>();
+
+    private final KryoFactory factory;
+
+    KryoHolderPool(KryoFactory factory) {
+        this.factory = factory;
+    }
+
+    <T> T run(Callback<T> callback) {
+        KryoHolder holder = borrow();
+        try {
+            return callback.execute(holder);
+        } finally {
+            release(holder);
+        }
+    }
+
+    KryoHolder borrow() {
+        SoftReference<KryoHolder> reference;
+
+        while ((reference = queue.poll()) != null) {
+            KryoHolder holder = reference.get();
+            if (holder != null) {
+                return holder;
+            }
+        }
+
+        return new KryoHolder(factory.create());
+    }
+
+    void release(KryoHolder holder) {
+
+        if (holder.output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+            holder.output.setBuffer(new byte[INITIAL_BUFFER_SIZE], -1);
+        } else {
+            holder.output.clear();
+        }
+
+        holder.input.setBuffer(EMPTY);
+
+        if (holder.scratch != null && holder.scratch.length > MAX_RETAINED_BUFFER_SIZE) {
+            holder.scratch = null;
+        }
+
+        queue.offer(new SoftReference<KryoHolder>(holder));
+    }
+
+    interface Callback<T> {
+        T execute(KryoHolder holder);
+    }
+
+    static class KryoHolder {
+
+        final Kryo kryo;
+
+        final Output output = new Output(INITIAL_BUFFER_SIZE, -1);
+
+        final Input input = new Input();
+
+        /**
+         * 从没有底层数组的ByteBuffer读取时使用的复制缓冲区
+         */
+        private byte[] scratch;
+
+        KryoHolder(Kryo kryo) {
+            this.kryo = kryo;
+        }
+
+        byte[] scratch(int size) {
+            if (scratch == null || scratch.length < size) {
+                scratch = new byte[Math.max(size, INITIAL_BUFFER_SIZE)];
+            }
+            return scratch;
+        }
+    }
+}
@@ -3,19 +3,41 @@ package org.mengyun.tcctransaction.serializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.kryo.pool.KryoCallback;
 import com.esotericsoftware.kryo.pool.KryoFactory;
-import com.esotericsoftware.kryo.pool.KryoPool;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.objenesis.instantiator.ObjectInstantiator;
 import org.objenesis.strategy.StdInstantiatorStrategy;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by changming.xie on 9/18/17.
+ * <p/>
+ * 记录以魔数和格式版本开头，参与者的状态写在参与者其余字段之后。
+ * 没有魔数的记录是加入参与者状态之前写入的，按原来的字段布局读取，参与者状态为TRYING
  */
-public class KryoPoolSerializer implements ObjectSerializer<Transaction> {
+public class KryoPoolSerializer implements ByteBufferObjectSerializer<Transaction> {
+
+    private static final byte MAGIC_0 = 'T';
+
+    private static final byte MAGIC_1 = 'K';
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 3;
+
+    /**
+     * 读取旧格式记录时放入Kryo上下文
+     */
+    private static final String LEGACY_FORMAT = "tcc.legacyFormat";
 
 
     static KryoFactory factory = new KryoFactory() {
@@ -26,13 +48,71 @@ public class KryoPoolSerializer implements ObjectSerializer<Transaction> {
             //Fix the NPE bug when deserializing Collections.
             ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
                     .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+            kryo.addDefaultSerializer(TransactionXid.class, new TransactionXidSerializer(kryo));
+            kryo.addDefaultSerializer(Participant.class, new ParticipantSerializer(kryo));
 
             return kryo;
         }
     };
 
 
-    KryoPool pool = new KryoPool.Builder(factory).softReferences().build();
+    /**
+     * 与默认的FieldSerializer写出相同的内容，只是创建实例时不调用TransactionXid的无参构造函数，
+     * 避免每次反序列化都生成两个随后被覆盖的随机UUID
+     */
+    static class TransactionXidSerializer extends FieldSerializer<TransactionXid> {
+
+        private static final ObjectInstantiator<TransactionXid> instantiator = new StdInstantiatorStrategy().newInstantiatorOf(TransactionXid.class);
+
+        TransactionXidSerializer(Kryo kryo) {
+            super(kryo, TransactionXid.class);
+        }
+
+        @Override
+        protected TransactionXid create(Kryo kryo, Input input, Class<TransactionXid> type) {
+            return instantiator.newInstance();
+        }
+    }
+
+    /**
+     * 其余字段与加入参与者状态之前的FieldSerializer布局相同，状态以变长整数追加在最后，旧格式记录中没有状态
+     */
+    static class ParticipantSerializer extends FieldSerializer<Participant> {
+
+        ParticipantSerializer(Kryo kryo) {
+            super(kryo, Participant.class);
+            removeField("status");
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Participant participant) {
+            super.write(kryo, output, participant);
+            output.writeVarInt(participant.getStatus().getId(), true);
+        }
+
+        @Override
+        public Participant read(Kryo kryo, Input input, Class<Participant> type) {
+
+            Participant participant = super.read(kryo, input, type);
+
+            if (kryo.getContext().containsKey(LEGACY_FORMAT)) {
+                participant.setStatus(ParticipantStatus.TRYING);
+            } else {
+                participant.setStatus(ParticipantStatus.valueOf(input.readVarInt(true)));
+            }
+
+            return participant;
+        }
+
+        @Override
+        public Participant copy(Kryo kryo, Participant original) {
+            Participant copy = super.copy(kryo, original);
+            copy.setStatus(original.getStatus());
+            return copy;
+        }
+    }
+
+    final KryoHolderPool pool = new KryoHolderPool(factory);
 
     private int initPoolSize = 300;
 
@@ -47,46 +127,152 @@ public class KryoPoolSerializer implements ObjectSerializer<Transaction> {
 
     private void init() {
 
+        List<KryoHolderPool.KryoHolder> holders = new ArrayList<KryoHolderPool.KryoHolder>(initPoolSize);
+
         for (int i = 0; i < initPoolSize; i++) {
-            Kryo kryo = pool.borrow();
-            pool.release(kryo);
+            holders.add(pool.borrow());
+        }
+
+        for (KryoHolderPool.KryoHolder holder : holders) {
+            pool.release(holder);
         }
     }
 
     @Override
     public byte[] serialize(final Transaction object) {
+        return serializeObject(object);
+    }
 
-        return pool.run(new KryoCallback<byte[]>() {
-            public byte[] execute(Kryo kryo) {
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                Output output = new Output(byteArrayOutputStream);
+    /**
+     * 以相同的头部和Kryo配置序列化任意类型的对象，与{@link #deserializeObject(byte[])}对应
+     *
+     * @param object
+     * @return
+     */
+    public byte[] serializeObject(final Object object) {
 
-                kryo.writeClassAndObject(output, object);
-                output.flush();
+        return pool.run(new KryoHolderPool.Callback<byte[]>() {
+            public byte[] execute(KryoHolderPool.KryoHolder holder) {
+                Output output = holder.output;
+                writeHeader(output);
+                holder.kryo.writeClassAndObject(output, object);
+                return output.toBytes();
+            }
+        });
+    }
+
+    /**
+     * 序列化到借出的复用缓冲区后一次性复制到target
+     */
+    @Override
+    public int serialize(final Transaction object, final ByteBuffer target) {
+
+        return pool.run(new KryoHolderPool.Callback<Integer>() {
+            public Integer execute(KryoHolderPool.KryoHolder holder) {
+                Output output = holder.output;
+                writeHeader(output);
+                holder.kryo.writeClassAndObject(output, object);
+
+                int length = output.position();
+
+                if (length > target.remaining()) {
+                    throw new BufferOverflowException();
+                }
 
-                return byteArrayOutputStream.toByteArray();
+                target.put(output.getBuffer(), 0, length);
+                return length;
             }
         });
     }
 
     @Override
-    public Transaction deserialize(final byte[] bytes) {
+    public Transaction deserialize(byte[] bytes) {
+        return (Transaction) deserializeObject(bytes);
+    }
 
-        return pool.run(new KryoCallback<Transaction>() {
-            public Transaction execute(Kryo kryo) {
-                ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-                Input input = new Input(byteArrayInputStream);
+    /**
+     * 读取任意类型的对象，用于读取以前以Map包装事务写入的文件记录和单独写入的参与者
+     *
+     * @param bytes
+     * @return
+     */
+    public Object deserializeObject(final byte[] bytes) {
 
-                return (Transaction) kryo.readClassAndObject(input);
+        return pool.run(new KryoHolderPool.Callback<Object>() {
+            public Object execute(KryoHolderPool.KryoHolder holder) {
+                Input input = holder.input;
+                input.setBuffer(bytes);
+                return read(holder.kryo, input);
             }
         });
     }
 
+    /**
+     * 有底层数组时直接读取，否则复制到借出的复用缓冲区
+     */
+    @Override
+    public Transaction deserialize(final ByteBuffer source) {
+
+        return pool.run(new KryoHolderPool.Callback<Transaction>() {
+            public Transaction execute(KryoHolderPool.KryoHolder holder) {
+                Input input = holder.input;
+                int remaining = source.remaining();
+                int offset;
+
+                if (source.hasArray()) {
+                    offset = source.arrayOffset() + source.position();
+                    input.setBuffer(source.array(), offset, remaining);
+                } else {
+                    offset = 0;
+                    source.duplicate().get(holder.scratch(remaining), 0, remaining);
+                    input.setBuffer(holder.scratch(remaining), 0, remaining);
+                }
+
+                Transaction transaction = (Transaction) read(holder.kryo, input);
+                source.position(source.position() + input.position() - offset);
+                return transaction;
+            }
+        });
+    }
+
+    private static void writeHeader(Output output) {
+        output.writeByte(MAGIC_0);
+        output.writeByte(MAGIC_1);
+        output.writeByte(FORMAT_VERSION);
+    }
+
+    /**
+     * 有魔数时跳过头部按当前格式读取，否则按旧格式读取
+     */
+    private static Object read(Kryo kryo, Input input) {
+
+        byte[] buffer = input.getBuffer();
+        int position = input.position();
+
+        if (input.limit() - position < HEADER_LENGTH || buffer[position] != MAGIC_0 || buffer[position + 1] != MAGIC_1) {
+            kryo.getContext().put(LEGACY_FORMAT, Boolean.TRUE);
+            try {
+                return kryo.readClassAndObject(input);
+            } finally {
+                kryo.getContext().remove(LEGACY_FORMAT);
+            }
+        }
+
+        byte formatVersion = buffer[position + 2];
+
+        if (formatVersion != FORMAT_VERSION) {
+            throw new SystemException("unsupported kryo transaction format version: " + formatVersion);
+        }
+
+        input.setPosition(position + HEADER_LENGTH);
+        return kryo.readClassAndObject(input);
+    }
+
     @Override
     public Transaction clone(final Transaction object) {
-        return pool.run(new KryoCallback<Transaction>() {
-            public Transaction execute(Kryo kryo) {
-                return kryo.copy(object);
+        return pool.run(new KryoHolderPool.Callback<Transaction>() {
+            public Transaction execute(KryoHolderPool.KryoHolder holder) {
+                return holder.kryo.copy(object);
             }
         });
     }
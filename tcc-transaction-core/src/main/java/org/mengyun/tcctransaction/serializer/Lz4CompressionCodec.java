@@ -0,0 +1,221 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.SystemException;
+
+import java.util.Arrays;
+
+/**
+ * LZ4块格式的纯Java实现，不依赖第三方库。只做单遍哈希匹配，压缩率低于Deflate，但压缩、解压都快得多，
+ * 适合参与者多、重复类名和参数多的事务记录
+ */
+public class Lz4CompressionCodec implements CompressionCodec {
+
+    public static final byte ID = 2;
+
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * 最后一个匹配必须在结尾前12个字节之前开始
+     */
+    private static final int MF_LIMIT = 12;
+
+    /**
+     * 最后5个字节总是作为字面量写入
+     */
+    private static final int LAST_LITERALS = 5;
+
+    private static final int MAX_DISTANCE = 65535;
+
+    private static final int HASH_LOG = 12;
+
+    private static final int RUN_MASK = 15;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] source, int offset, int length) {
+
+        byte[] dest = new byte[length + length / 255 + 16];
+        int destPosition = 0;
+
+        int end = offset + length;
+        int anchor = offset;
+
+        if (length > MF_LIMIT) {
+
+            int[] hashTable = new int[1 << HASH_LOG];
+            Arrays.fill(hashTable, -1);
+
+            int matchStartLimit = end - MF_LIMIT;
+            int matchEndLimit = end - LAST_LITERALS;
+            int position = offset;
+
+            while (position < matchStartLimit) {
+
+                int sequence = readInt(source, position);
+                int hash = hash(sequence);
+                int reference = hashTable[hash];
+                hashTable[hash] = position;
+
+                if (reference < 0 || position - reference > MAX_DISTANCE || readInt(source, reference) != sequence) {
+                    position++;
+                    continue;
+                }
+
+                while (position > anchor && reference > offset && source[position - 1] == source[reference - 1]) {
+                    position--;
+                    reference--;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < matchEndLimit && source[position + matchLength] == source[reference + matchLength]) {
+                    matchLength++;
+                }
+
+                destPosition = writeSequence(source, anchor, position - anchor, position - reference, matchLength, dest, destPosition);
+
+                position += matchLength;
+                anchor = position;
+
+                if (position < matchStartLimit) {
+                    hashTable[hash(readInt(source, position - 2))] = position - 2;
+                }
+            }
+        }
+
+        destPosition = writeLastLiterals(source, anchor, end - anchor, dest, destPosition);
+
+        return Arrays.copyOf(dest, destPosition);
+    }
+
+    @Override
+    public byte[] decompress(byte[] source, int offset, int length, int originalLength) {
+
+        byte[] dest = new byte[originalLength];
+        int destPosition = 0;
+        int position = offset;
+        int end = offset + length;
+
+        try {
+            while (position < end) {
+
+                int token = source[position++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int value;
+                    do {
+                        value = source[position++] & 0xFF;
+                        literalLength += value;
+                    } while (value == 255);
+                }
+
+                System.arraycopy(source, position, dest, destPosition, literalLength);
+                position += literalLength;
+                destPosition += literalLength;
+
+                if (position >= end) {
+                    break;
+                }
+
+                int distance = (source[position] & 0xFF) | ((source[position + 1] & 0xFF) << 8);
+                position += 2;
+
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int value;
+                    do {
+                        value = source[position++] & 0xFF;
+                        matchLength += value;
+                    } while (value == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int reference = destPosition - distance;
+
+                if (distance == 0 || reference < 0 || destPosition + matchLength > originalLength) {
+                    throw new SystemException("decompress failed, malformed lz4 block.");
+                }
+
+                for (int i = 0; i < matchLength; i++) {
+                    dest[destPosition++] = dest[reference++];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new SystemException("decompress failed, malformed lz4 block.", e);
+        }
+
+        if (destPosition != originalLength) {
+            throw new SystemException(String.format("decompress failed, expected %d bytes but got %d", originalLength, destPosition));
+        }
+
+        return dest;
+    }
+
+    private static int writeSequence(byte[] source, int literalOffset, int literalLength, int distance, int matchLength, byte[] dest, int destPosition) {
+
+        int tokenPosition = destPosition++;
+        int token;
+
+        if (literalLength >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            destPosition = writeLength(literalLength - RUN_MASK, dest, destPosition);
+        } else {
+            token = literalLength << 4;
+        }
+
+        System.arraycopy(source, literalOffset, dest, destPosition, literalLength);
+        destPosition += literalLength;
+
+        dest[destPosition++] = (byte) distance;
+        dest[destPosition++] = (byte) (distance >>> 8);
+
+        int extraLength = matchLength - MIN_MATCH;
+
+        if (extraLength >= RUN_MASK) {
+            token |= RUN_MASK;
+            destPosition = writeLength(extraLength - RUN_MASK, dest, destPosition);
+        } else {
+            token |= extraLength;
+        }
+
+        dest[tokenPosition] = (byte) token;
+        return destPosition;
+    }
+
+    private static int writeLastLiterals(byte[] source, int literalOffset, int literalLength, byte[] dest, int destPosition) {
+
+        if (literalLength >= RUN_MASK) {
+            dest[destPosition++] = (byte) (RUN_MASK << 4);
+            destPosition = writeLength(literalLength - RUN_MASK, dest, destPosition);
+        } else {
+            dest[destPosition++] = (byte) (literalLength << 4);
+        }
+
+        System.arraycopy(source, literalOffset, dest, destPosition, literalLength);
+        return destPosition + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] dest, int destPosition) {
+
+        while (length >= 255) {
+            dest[destPosition++] = (byte) 255;
+            length -= 255;
+        }
+
+        dest[destPosition++] = (byte) length;
+        return destPosition;
+    }
+
+    private static int readInt(byte[] source, int position) {
+        return (source[position] & 0xFF) | ((source[position + 1] & 0xFF) << 8)
+                | ((source[position + 2] & 0xFF) << 16) | ((source[position + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
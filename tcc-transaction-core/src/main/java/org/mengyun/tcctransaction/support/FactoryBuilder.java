@@ -1,8 +1,7 @@
 package org.mengyun.tcctransaction.support;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created by changming.xie on 2/23/17.
@@ -12,27 +11,41 @@ public final class FactoryBuilder {
     private FactoryBuilder() {
     }
 
-    private static List<BeanFactory> beanFactories = new ArrayList<BeanFactory>();
-    private static ConcurrentHashMap<Class, SingeltonFactory> classFactoryMap = new ConcurrentHashMap<Class, SingeltonFactory>();
+    private static List<BeanFactory> beanFactories = new CopyOnWriteArrayList<BeanFactory>();
+
+    /**
+     * 每个类解析一次的SingeltonFactory，直接挂在Class上，查找时没有哈希表和锁。
+     * 注册新的BeanFactory后整体替换，之后的查找按新的BeanFactory列表重新解析
+     */
+    private static volatile ClassValue<SingeltonFactory> classFactories = newClassFactories();
 
     public static <T> SingeltonFactory<T> factoryOf(Class<T> clazz) {
-        if (!classFactoryMap.containsKey(clazz)) {
-            for (BeanFactory beanFactory : beanFactories) {
-                if (beanFactory.isFactoryOf(clazz)) {
-                    classFactoryMap.putIfAbsent(clazz, new SingeltonFactory<T>(clazz, beanFactory.getBean(clazz)));
-                }
+        return classFactories.get(clazz);
+    }
+
+    public static void registerBeanFactory(BeanFactory beanFactory) {
+        beanFactories.add(beanFactory);
+        classFactories = newClassFactories();
+    }
+
+    private static ClassValue<SingeltonFactory> newClassFactories() {
+        return new ClassValue<SingeltonFactory>() {
+            @Override
+            protected SingeltonFactory computeValue(Class<?> clazz) {
+                return resolve(clazz);
             }
+        };
+    }
 
-            if (!classFactoryMap.containsKey(clazz)) {
-                classFactoryMap.putIfAbsent(clazz, new SingeltonFactory<T>(clazz));
+    private static <T> SingeltonFactory<T> resolve(Class<T> clazz) {
+
+        for (BeanFactory beanFactory : beanFactories) {
+            if (beanFactory.isFactoryOf(clazz)) {
+                return new SingeltonFactory<T>(clazz, beanFactory.getBean(clazz));
             }
         }
 
-        return classFactoryMap.get(clazz);
-    }
-
-    public static void registerBeanFactory(BeanFactory beanFactory) {
-        beanFactories.add(beanFactory);
+        return new SingeltonFactory<T>(clazz);
     }
 
     public static class SingeltonFactory<T> {
@@ -53,7 +66,8 @@ public final class FactoryBuilder {
         public T getInstance() {
 
             if (instance == null) {
-                synchronized (SingeltonFactory.class) {
+                // 每个类各自加锁，不同类的延迟创建互不阻塞
+                synchronized (this) {
                     if (instance == null) {
                         try {
                             ClassLoader loader = Thread.currentThread().getContextClassLoader();
@@ -5,7 +5,9 @@ import org.aspectj.lang.reflect.MethodSignature;
 import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.common.MethodRole;
+import org.mengyun.tcctransaction.context.MethodTransactionContextEditor;
 
 import java.lang.reflect.Method;
 
@@ -51,4 +53,15 @@ public class CompensableMethodUtils {
         }
         return position;
     }
+
+    /**
+     * 是否为按参数位置读写TransactionContext的编辑器，这类编辑器可以直接按参数位置赋值
+     *
+     * @param transactionContextEditorClass
+     * @return
+     */
+    public static boolean isParameterTransactionContextEditor(Class<? extends TransactionContextEditor> transactionContextEditorClass) {
+        return Compensable.DefaultTransactionContextEditor.class.equals(transactionContextEditorClass)
+                || MethodTransactionContextEditor.class.equals(transactionContextEditorClass);
+    }
 }
@@ -0,0 +1,40 @@
+package org.mengyun.tcctransaction.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文件存储共用的文件系统操作
+ */
+public final class FileUtils {
+
+    private FileUtils() {
+
+    }
+
+    /**
+     * 将目录项(文件的创建和删除)刷到磁盘，文件自身的force不保证目录项持久。
+     * 不能以只读方式打开目录的平台(如Windows)上跳过
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public static void forceDirectory(File directory) throws IOException {
+
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -5,4 +5,15 @@ package org.mengyun.tcctransaction.dubbo.constants;
  */
 public class TransactionContextConstants {
     public static final String TRANSACTION_CONTEXT = "TRANSACTION_CONTEXT";
+
+    /**
+     * RpcContext中缓存的本次调用已解析的TransactionContext，不随调用传递
+     */
+    public static final String DECODED_TRANSACTION_CONTEXT = "TRANSACTION_CONTEXT_DECODED";
+
+    /**
+     * TccConsumerFilter登记参与者后写入Invocation的标记，值与写入的TransactionContext相同，失败重试时据此不再登记。
+     * 服务端的TccProviderFilter会从RpcContext中移除它，不会随嵌套调用隐式传给下游
+     */
+    public static final String ENLISTED_TRANSACTION_CONTEXT = "TRANSACTION_CONTEXT_ENLISTED";
 }
@@ -13,13 +13,38 @@ import java.lang.reflect.Method;
  * Created by changming.xie on 1/19/17.
  */
 public class DubboTransactionContextEditor implements TransactionContextEditor {
+
+    /**
+     * 是否使用TransactionContextCodec的二进制格式传递TransactionContext，默认使用JSON格式，与旧版本相同。
+     * 读取时两种格式都支持，但旧版本的服务提供方只能解析JSON，因此升级时先升级所有服务提供方，
+     * 再在服务消费方注册开启该选项的DubboTransactionContextEditor bean
+     */
+    private boolean binaryEncoding = false;
+
+    public void setBinaryEncoding(boolean binaryEncoding) {
+        this.binaryEncoding = binaryEncoding;
+    }
+
+    /**
+     * 返回的TransactionContext按attachment的值缓存，同一次调用中多次读取得到同一个实例，调用方不能修改它，
+     * 需要修改时先复制一份
+     */
     @Override
     public TransactionContext get(Object target, Method method, Object[] args) {
 
         String context = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
 
         if (StringUtils.isNotEmpty(context)) {
-            return JSON.parseObject(context, TransactionContext.class);
+
+            // 一次调用中会多次读取，按attachment的值缓存解析结果，RpcContext在调用结束时清理
+            DecodedTransactionContext decoded = (DecodedTransactionContext) RpcContext.getContext().get(TransactionContextConstants.DECODED_TRANSACTION_CONTEXT);
+
+            if (decoded == null || decoded.encoded != context) {
+                decoded = new DecodedTransactionContext(context, decode(context));
+                RpcContext.getContext().set(TransactionContextConstants.DECODED_TRANSACTION_CONTEXT, decoded);
+            }
+
+            return decoded.transactionContext;
         }
 
         return null;
@@ -28,6 +53,28 @@ public class DubboTransactionContextEditor implements TransactionContextEditor {
     @Override
     public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
 
-        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, JSON.toJSONString(transactionContext));
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT,
+                binaryEncoding ? TransactionContextCodec.encode(transactionContext) : JSON.toJSONString(transactionContext));
+    }
+
+    private static TransactionContext decode(String context) {
+
+        if (context.charAt(0) == '{') {
+            return JSON.parseObject(context, TransactionContext.class);
+        }
+
+        return TransactionContextCodec.decode(context);
+    }
+
+    private static class DecodedTransactionContext {
+
+        private final String encoded;
+
+        private final TransactionContext transactionContext;
+
+        DecodedTransactionContext(String encoded, TransactionContext transactionContext) {
+            this.encoded = encoded;
+            this.transactionContext = transactionContext;
+        }
     }
 }
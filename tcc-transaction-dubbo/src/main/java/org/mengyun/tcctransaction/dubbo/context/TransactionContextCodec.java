@@ -0,0 +1,128 @@
+package org.mengyun.tcctransaction.dubbo.context;
+
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * TransactionContext在Dubbo attachment中的二进制格式，编码为不带填充的base64url字符串：
+ * <pre>
+ * 格式版本(1字节) | 事务状态(1字节) | 全局事务ID长度(2字节) | 全局事务ID | 分支ID长度(2字节) | 分支ID |
+ * 扩展信息个数(2字节) | [键长度(2字节) | 键(UTF-8) | 值长度(2字节) | 值(UTF-8)]...
+ * </pre>
+ * 默认生成的16字节ID、没有扩展信息时编码后为54个字符，约为JSON格式的一半
+ */
+public final class TransactionContextCodec {
+
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private TransactionContextCodec() {
+    }
+
+    public static String encode(TransactionContext transactionContext) {
+
+        TransactionXid xid = transactionContext.getXid();
+        byte[] globalTransactionId = xid.getGlobalTransactionId();
+        byte[] branchQualifier = xid.getBranchQualifier();
+        Map<String, String> attachments = transactionContext.getAttachments();
+
+        byte[][] attachmentBytes = new byte[attachments.size() * 2][];
+        int length = 1 + 1 + 2 + globalTransactionId.length + 2 + branchQualifier.length + 2;
+        int index = 0;
+
+        for (Map.Entry<String, String> entry : attachments.entrySet()) {
+            if (index == attachmentBytes.length) {
+                // 遍历时有新的扩展信息加入，只编码开始时的个数
+                break;
+            }
+            attachmentBytes[index] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            attachmentBytes[index + 1] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            length += 2 + attachmentBytes[index].length + 2 + attachmentBytes[index + 1].length;
+            index += 2;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(FORMAT_VERSION);
+        buffer.put(checkedStatus(transactionContext.getStatus()));
+        putBytes(buffer, globalTransactionId);
+        putBytes(buffer, branchQualifier);
+        buffer.putShort((short) (index / 2));
+
+        for (int i = 0; i < index; i++) {
+            putBytes(buffer, attachmentBytes[i]);
+        }
+
+        return ENCODER.encodeToString(buffer.array());
+    }
+
+    public static TransactionContext decode(String value) {
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(DECODER.decode(value));
+
+            byte version = buffer.get();
+
+            if (version != FORMAT_VERSION) {
+                throw new SystemException("unsupported transaction context format version: " + version);
+            }
+
+            int status = buffer.get() & 0xFF;
+            byte[] globalTransactionId = getBytes(buffer);
+            byte[] branchQualifier = getBytes(buffer);
+
+            TransactionContext transactionContext = new TransactionContext(new TransactionXid(globalTransactionId, branchQualifier), status);
+
+            int attachmentCount = buffer.getShort() & MAX_LENGTH;
+
+            for (int i = 0; i < attachmentCount; i++) {
+                String key = new String(getBytes(buffer), StandardCharsets.UTF_8);
+                String attachment = new String(getBytes(buffer), StandardCharsets.UTF_8);
+                transactionContext.getAttachments().put(key, attachment);
+            }
+
+            return transactionContext;
+
+        } catch (BufferUnderflowException e) {
+            throw new SystemException("truncated transaction context: " + value, e);
+        } catch (IllegalArgumentException e) {
+            throw new SystemException("invalid transaction context: " + value, e);
+        }
+    }
+
+    private static byte checkedStatus(int status) {
+
+        if (status < 0 || status > 0xFF) {
+            throw new SystemException("transaction status out of range: " + status);
+        }
+
+        return (byte) status;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+
+        if (bytes.length > MAX_LENGTH) {
+            throw new SystemException("transaction context field too long: " + bytes.length);
+        }
+
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & MAX_LENGTH];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,86 @@
+package org.mengyun.tcctransaction.dubbo.filter;
+
+import org.apache.dubbo.rpc.Filter;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.RpcException;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.proxy.jdk.MethodProceedingJoinPoint;
+import org.mengyun.tcctransaction.dubbo.utils.DubboCompensableMethodUtils;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodMetadata;
+import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorAspect;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+
+/**
+ * 消费端的TCC Filter，代替TccJavassistProxyFactory、TccJdkProxyFactory，继续使用Dubbo自身的代理。
+ * 只有接口上标注@Compensable的方法才经过资源协调拦截器：Trying阶段登记参与者，TransactionContext通过attachment传递，
+ * 其他方法直接调用。
+ * <p>
+ * 需要显式配置，例如 &lt;dubbo:consumer filter="tccConsumer"/&gt;，不能和TCC的ProxyFactory同时使用，否则参与者会登记两次。
+ * <p>
+ * Filter位于集群调用之下，失败重试(默认retries=2)时会对同一个Invocation再次执行。
+ * 登记参与者后在Invocation上写入标记，已经登记过的Invocation直接带着第一次的TransactionContext发送，
+ * 重试复用同一个参与者和分支ID，不会为同一次调用登记两个分支。这里不能只看Invocation上是否已有TransactionContext：
+ * 服务端嵌套调用时Dubbo会把收到的attachment隐式传给下游，那种情况仍然需要登记参与者
+ */
+public class TccConsumerFilter implements Filter {
+
+    @Override
+    public Result invoke(final Invoker<?> invoker, final Invocation invocation) throws RpcException {
+
+        CompensableMethodMetadata metadata = DubboCompensableMethodUtils.getCompensableMethod(invoker.getInterface(),
+                invocation.getMethodName(), invocation.getParameterTypes());
+
+        if (metadata == null || isEnlisted(invocation)) {
+            return invoker.invoke(invocation);
+        }
+
+        ProceedingJoinPoint pjp = new MethodProceedingJoinPoint(invoker, invoker, metadata.getMethod(), invocation.getArguments()) {
+
+            @Override
+            public Object proceed() {
+                return invokeWithContext(invoker, invocation);
+            }
+
+            @Override
+            public Object proceed(Object[] args) {
+                return invokeWithContext(invoker, invocation);
+            }
+        };
+
+        try {
+            return (Result) FactoryBuilder.factoryOf(ResourceCoordinatorAspect.class).getInstance().interceptTransactionContextMethod(pjp, metadata);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new SystemException(e);
+        }
+    }
+
+    /**
+     * 标记与Invocation上的TransactionContext一致时说明是本Filter登记后的重试
+     */
+    private static boolean isEnlisted(Invocation invocation) {
+        String enlisted = invocation.getAttachment(TransactionContextConstants.ENLISTED_TRANSACTION_CONTEXT);
+        return enlisted != null && enlisted.equals(invocation.getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT));
+    }
+
+    /**
+     * 登记参与者时写入RpcContext的TransactionContext同时写入Invocation并标记该Invocation，重试时不再登记
+     */
+    private static Result invokeWithContext(Invoker<?> invoker, Invocation invocation) {
+
+        String context = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
+
+        if (context != null) {
+            invocation.setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, context);
+            invocation.setAttachment(TransactionContextConstants.ENLISTED_TRANSACTION_CONTEXT, context);
+        }
+
+        return invoker.invoke(invocation);
+    }
+}
@@ -0,0 +1,39 @@
+package org.mengyun.tcctransaction.dubbo.filter;
+
+import org.apache.dubbo.rpc.Filter;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.RpcException;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.utils.DubboCompensableMethodUtils;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+
+/**
+ * 服务端的TCC Filter，与TccConsumerFilter配合使用，例如 &lt;dubbo:provider filter="tccProvider"/&gt;。
+ * 接口上标注@Compensable的方法在进入业务代码前解析一次attachment中的TransactionContext，格式错误时直接返回RpcException，
+ * 解析结果缓存在本次调用的RpcContext中，之后拦截器读取时不再解析。其他方法直接调用。
+ * 消费端的登记标记只对发出它的Invocation有效，进入业务代码前从RpcContext中移除，避免嵌套调用被误认为重试
+ */
+public class TccProviderFilter implements Filter {
+
+    @Override
+    public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
+
+        RpcContext.getContext().removeAttachment(TransactionContextConstants.ENLISTED_TRANSACTION_CONTEXT);
+
+        if (DubboCompensableMethodUtils.getCompensableMethod(invoker.getInterface(),
+                invocation.getMethodName(), invocation.getParameterTypes()) != null) {
+
+            try {
+                FactoryBuilder.factoryOf(DubboTransactionContextEditor.class).getInstance().get(null, null, invocation.getArguments());
+            } catch (RuntimeException e) {
+                throw new RpcException("invalid transaction context of " + invoker.getInterface().getName() + "." + invocation.getMethodName(), e);
+            }
+        }
+
+        return invoker.invoke(invocation);
+    }
+}
@@ -1,17 +1,16 @@
 package org.mengyun.tcctransaction.dubbo.proxy.jdk;
 
-import org.apache.dubbo.common.utils.StringUtils;
 import org.apache.dubbo.rpc.Invoker;
 import org.apache.dubbo.rpc.proxy.InvokerInvocationHandler;
 import org.aspectj.lang.ProceedingJoinPoint;
-import org.mengyun.tcctransaction.api.Compensable;
-import org.mengyun.tcctransaction.api.Propagation;
-import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.utils.DubboCompensableMethodUtils;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodMetadata;
 import org.mengyun.tcctransaction.interceptor.ResourceCoordinatorAspect;
 import org.mengyun.tcctransaction.support.FactoryBuilder;
-import org.mengyun.tcctransaction.utils.ReflectionUtils;
 
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Created by changming.xie on 2/26/17.
@@ -20,34 +19,34 @@ public class TccInvokerInvocationHandler extends InvokerInvocationHandler {
 
     private Object target;
 
+    /**
+     * 创建代理时解析的@Compensable方法，调用时只需查表
+     */
+    private Map<Method, CompensableMethodMetadata> compensableMethods = Collections.emptyMap();
+
     public TccInvokerInvocationHandler(Invoker<?> handler) {
         super(handler);
     }
 
     public <T> TccInvokerInvocationHandler(T target, Invoker<T> invoker) {
+        this(target, invoker, new Class<?>[]{invoker.getInterface()});
+    }
+
+    public <T> TccInvokerInvocationHandler(T target, Invoker<T> invoker, Class<?>[] interfaces) {
         super(invoker);
         this.target = target;
+        this.compensableMethods = DubboCompensableMethodUtils.resolveCompensableMethods(interfaces);
     }
 
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 
-        Compensable compensable = method.getAnnotation(Compensable.class);
-
-        if (compensable != null) {
-
-            if (StringUtils.isEmpty(compensable.confirmMethod())) {
-                ReflectionUtils.changeAnnotationValue(compensable, "confirmMethod", method.getName());
-                ReflectionUtils.changeAnnotationValue(compensable, "cancelMethod", method.getName());
-                ReflectionUtils.changeAnnotationValue(compensable, "transactionContextEditor", DubboTransactionContextEditor.class);
-                ReflectionUtils.changeAnnotationValue(compensable, "propagation", Propagation.SUPPORTS);
-            }
+        CompensableMethodMetadata metadata = compensableMethods.get(method);
 
+        if (metadata != null) {
             ProceedingJoinPoint pjp = new MethodProceedingJoinPoint(proxy, target, method, args);
-            return FactoryBuilder.factoryOf(ResourceCoordinatorAspect.class).getInstance().interceptTransactionContextMethod(pjp);
+            return FactoryBuilder.factoryOf(ResourceCoordinatorAspect.class).getInstance().interceptTransactionContextMethod(pjp, metadata);
         } else {
             return super.invoke(target, method, args);
         }
     }
-
-
 }
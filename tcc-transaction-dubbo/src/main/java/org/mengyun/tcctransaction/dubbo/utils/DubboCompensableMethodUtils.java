@@ -0,0 +1,102 @@
+package org.mengyun.tcctransaction.dubbo.utils;
+
+import org.apache.dubbo.common.utils.StringUtils;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodMetadata;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Dubbo服务接口上@Compensable方法的解析，代理和Filter共用
+ */
+public final class DubboCompensableMethodUtils {
+
+    /**
+     * 按接口缓存的@Compensable方法，以方法名分组，接口中没有@Compensable方法时为空表
+     */
+    private static final ClassValue<Map<String, CompensableMethodMetadata[]>> INTERFACE_METHODS = new ClassValue<Map<String, CompensableMethodMetadata[]>>() {
+        @Override
+        protected Map<String, CompensableMethodMetadata[]> computeValue(Class<?> anInterface) {
+
+            Map<String, CompensableMethodMetadata[]> methods = new HashMap<String, CompensableMethodMetadata[]>();
+
+            for (CompensableMethodMetadata metadata : resolveCompensableMethods(anInterface).values()) {
+                CompensableMethodMetadata[] overloads = methods.get(metadata.getMethod().getName());
+
+                if (overloads == null) {
+                    overloads = new CompensableMethodMetadata[]{metadata};
+                } else {
+                    overloads = Arrays.copyOf(overloads, overloads.length + 1);
+                    overloads[overloads.length - 1] = metadata;
+                }
+
+                methods.put(metadata.getMethod().getName(), overloads);
+            }
+
+            return methods.isEmpty() ? Collections.<String, CompensableMethodMetadata[]>emptyMap() : methods;
+        }
+    };
+
+    private DubboCompensableMethodUtils() {
+    }
+
+    /**
+     * 解析接口上的@Compensable方法。未指定confirmMethod时，confirm和cancel都调用远程的同名方法，
+     * TransactionContext通过Dubbo的attachment传递，传播特性为SUPPORTS，与TccProxy生成的注解一致
+     *
+     * @param interfaces
+     * @return
+     */
+    public static Map<Method, CompensableMethodMetadata> resolveCompensableMethods(Class<?>... interfaces) {
+
+        Map<Method, CompensableMethodMetadata> compensableMethods = new HashMap<Method, CompensableMethodMetadata>();
+
+        for (Class<?> anInterface : interfaces) {
+            for (Method method : anInterface.getMethods()) {
+
+                Compensable compensable = method.getAnnotation(Compensable.class);
+
+                if (compensable == null || compensableMethods.containsKey(method)) {
+                    continue;
+                }
+
+                if (StringUtils.isEmpty(compensable.confirmMethod())) {
+                    compensableMethods.put(method, CompensableMethodMetadata.of(method, method.getName(), method.getName(),
+                            DubboTransactionContextEditor.class, Propagation.SUPPORTS));
+                } else {
+                    compensableMethods.put(method, CompensableMethodMetadata.of(method, compensable.confirmMethod(), compensable.cancelMethod(),
+                            compensable.transactionContextEditor(), compensable.propagation()));
+                }
+            }
+        }
+
+        return compensableMethods;
+    }
+
+    /**
+     * 按方法名和参数类型查找接口上的@Compensable方法，不是@Compensable方法时返回null。
+     * 每个接口只解析一次，非TCC方法的查找只有一次哈希表查询
+     *
+     * @param anInterface
+     * @param methodName
+     * @param parameterTypes
+     * @return
+     */
+    public static CompensableMethodMetadata getCompensableMethod(Class<?> anInterface, String methodName, Class<?>[] parameterTypes) {
+
+        CompensableMethodMetadata[] overloads = INTERFACE_METHODS.get(anInterface).get(methodName);
+
+        if (overloads != null) {
+            for (CompensableMethodMetadata metadata : overloads) {
+                if (Arrays.equals(metadata.getParameterTypes(), parameterTypes)) {
+                    return metadata;
+                }
+            }
+        }
+
+        return null;
+    }
+}
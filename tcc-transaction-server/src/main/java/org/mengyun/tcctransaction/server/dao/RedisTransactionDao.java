@@ -4,8 +4,11 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.server.constants.LuaScriptConstant;
 import org.mengyun.tcctransaction.server.dto.PageDto;
 import org.mengyun.tcctransaction.server.vo.TransactionVo;
@@ -30,6 +33,11 @@ public class RedisTransactionDao implements TransactionDao {
 
     private String domain;
 
+    /**
+     * 记录中没有CONTENT_VIEW时用于反序列化CONTENT生成展示内容，需与业务端的序列化器一致
+     */
+    private ObjectSerializer serializer = new KryoPoolSerializer(0);
+
     @Override
     public String getDomain() {
         return domain;
@@ -51,6 +59,10 @@ public class RedisTransactionDao implements TransactionDao {
         this.keySuffix = keySuffix;
     }
 
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
 
     @Override
     public void confirm(final String globalTxId, final String branchQualifier) {
@@ -268,8 +280,12 @@ public class RedisTransactionDao implements TransactionDao {
                     transactionVo.setLastUpdateTime(DateUtils
                             .parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
                 }
-                if (propertyMap.get("CONTENT_VIEW") != null) {
-                    transactionVo.setContentView(new String(propertyMap.get("CONTENT_VIEW")));
+                byte[] contentView = propertyMap.get(ExpandTransactionSerializer.CONTENT_VIEW_FIELD);
+                if (contentView == null && propertyMap.get("CONTENT") != null) {
+                    contentView = buildContentView(map1);
+                }
+                if (contentView != null) {
+                    transactionVo.setContentView(new String(contentView));
                     transactionVo.parser();
                 }
                 list.add(transactionVo);
@@ -282,6 +298,18 @@ public class RedisTransactionDao implements TransactionDao {
         return list;
     }
 
+    /**
+     * 业务端默认不再写入CONTENT_VIEW，展示时由CONTENT生成，server的classpath上缺少业务类时无法生成
+     */
+    private byte[] buildContentView(Map<byte[], byte[]> map) {
+        try {
+            return ExpandTransactionSerializer.serializeContentView(ExpandTransactionSerializer.deserialize(serializer, map));
+        } catch (Throwable e) {
+            logger.warn("build transaction content view failed, " + e.getMessage());
+            return null;
+        }
+    }
+
     private String getKeyPrefix() {
         return keySuffix + ":";
     }
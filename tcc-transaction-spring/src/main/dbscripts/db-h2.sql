@@ -0,0 +1,18 @@
+CREATE TABLE IF NOT EXISTS TCC_TRANSACTION (
+  TRANSACTION_ID BIGINT NOT NULL AUTO_INCREMENT,
+  DOMAIN VARCHAR(100) DEFAULT NULL,
+  GLOBAL_TX_ID VARBINARY(32) NOT NULL,
+  BRANCH_QUALIFIER VARBINARY(32) NOT NULL,
+  CONTENT VARBINARY(8000) DEFAULT NULL,
+  STATUS INT DEFAULT NULL,
+  TRANSACTION_TYPE INT DEFAULT NULL,
+  RETRIED_COUNT INT DEFAULT NULL,
+  CREATE_TIME TIMESTAMP DEFAULT NULL,
+  LAST_UPDATE_TIME TIMESTAMP DEFAULT NULL,
+  VERSION INT DEFAULT NULL,
+  IS_DELETE TINYINT DEFAULT 0 NOT NULL,
+  PRIMARY KEY (TRANSACTION_ID),
+  CONSTRAINT UX_TX_BQ UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER)
+);
+
+CREATE INDEX IF NOT EXISTS IDX_DOMAIN_UPDATE_TIME ON TCC_TRANSACTION (DOMAIN, IS_DELETE, LAST_UPDATE_TIME, TRANSACTION_ID);
@@ -15,3 +15,4 @@ CREATE TABLE `TCC_TRANSACTION` (
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
@@ -26,6 +26,15 @@ public class DefaultRecoverConfig implements RecoverConfig {
 
     private int asyncTerminateThreadWorkQueueSize = 512;
 
+    private int recoverPageSize = 200;
+
+    /**
+     * 默认逐个恢复，并行恢复需要显式设置线程数
+     */
+    private int recoverThreadPoolSize = 1;
+
+    private double recoverRateLimitPerTarget = 0;
+
     private Set<Class<? extends Exception>> delayCancelExceptions = new HashSet<Class<? extends Exception>>();
 
     public DefaultRecoverConfig() {
@@ -73,6 +82,18 @@ public class DefaultRecoverConfig implements RecoverConfig {
         this.asyncTerminateThreadWorkQueueSize = asyncTerminateThreadWorkQueueSize;
     }
 
+    public void setRecoverPageSize(int recoverPageSize) {
+        this.recoverPageSize = recoverPageSize;
+    }
+
+    public void setRecoverThreadPoolSize(int recoverThreadPoolSize) {
+        this.recoverThreadPoolSize = recoverThreadPoolSize;
+    }
+
+    public void setRecoverRateLimitPerTarget(double recoverRateLimitPerTarget) {
+        this.recoverRateLimitPerTarget = recoverRateLimitPerTarget;
+    }
+
     @Override
     public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayCancelExceptions) {
         this.delayCancelExceptions.addAll(delayCancelExceptions);
@@ -98,4 +119,19 @@ public class DefaultRecoverConfig implements RecoverConfig {
         return this.asyncTerminateThreadWorkQueueSize;
     }
 
+    @Override
+    public int getRecoverPageSize() {
+        return this.recoverPageSize;
+    }
+
+    @Override
+    public int getRecoverThreadPoolSize() {
+        return this.recoverThreadPoolSize;
+    }
+
+    @Override
+    public double getRecoverRateLimitPerTarget() {
+        return this.recoverRateLimitPerTarget;
+    }
+
 }
@@ -2,6 +2,8 @@ package org.mengyun.tcctransaction.spring.support;
 
 import org.mengyun.tcctransaction.TransactionManager;
 import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.api.XidGenerator;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
 import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
 import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
@@ -27,9 +29,15 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
 
     private TransactionManager transactionManager;
 
+    private boolean asyncEnlist = false;
+
+    private boolean coalesceEnlist = false;
+
     public void init() {
         transactionManager = new TransactionManager();
         transactionManager.setTransactionRepository(transactionRepository);
+        transactionManager.setAsyncEnlist(asyncEnlist);
+        transactionManager.setCoalesceEnlist(coalesceEnlist);
 
         if (executorService == null) {
 
@@ -82,6 +90,28 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
         }
     }
 
+    /**
+     * 参与者日志写入与try调用重叠执行，宕机时可能遗漏已发出try的参与者，见{@link TransactionManager#setAsyncEnlist(boolean)}
+     *
+     * @param asyncEnlist
+     */
+    public void setAsyncEnlist(boolean asyncEnlist) {
+        this.asyncEnlist = asyncEnlist;
+    }
+
+    public void setCoalesceEnlist(boolean coalesceEnlist) {
+        this.coalesceEnlist = coalesceEnlist;
+    }
+
+    /**
+     * 替换事务ID的生成方式，例如为TimeBasedXidGenerator指定节点ID，或使用UuidXidGenerator
+     *
+     * @param xidGenerator
+     */
+    public void setXidGenerator(XidGenerator xidGenerator) {
+        TransactionXid.setXidGenerator(xidGenerator);
+    }
+
     @Override
     public TransactionManager getTransactionManager() {
         return transactionManager;
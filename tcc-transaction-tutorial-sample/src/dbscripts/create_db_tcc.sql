@@ -17,6 +17,7 @@ CREATE TABLE `TCC_TRANSACTION_CAP` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION_CAP` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
 
 CREATE TABLE `TCC_TRANSACTION_ORD` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -35,6 +36,7 @@ CREATE TABLE `TCC_TRANSACTION_ORD` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION_ORD` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
 
 CREATE TABLE `TCC_TRANSACTION_RED` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -53,6 +55,7 @@ CREATE TABLE `TCC_TRANSACTION_RED` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE `TCC_TRANSACTION_RED` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_RED` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
 
 CREATE TABLE `TCC_TRANSACTION_UT` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -70,4 +73,5 @@ CREATE TABLE `TCC_TRANSACTION_UT` (
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
-ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
\ No newline at end of file
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_UT` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
\ No newline at end of file
@@ -18,6 +18,9 @@ CREATE TABLE `TCC_TRANSACTION_CAP` (
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_CAP` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
+
 CREATE TABLE `TCC_TRANSACTION_ORD` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
   `DOMAIN` varchar(100) DEFAULT NULL,
@@ -34,6 +37,9 @@ CREATE TABLE `TCC_TRANSACTION_ORD` (
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_ORD` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
+
 CREATE TABLE `TCC_TRANSACTION_RED` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
   `DOMAIN` varchar(100) DEFAULT NULL,
@@ -50,6 +56,9 @@ CREATE TABLE `TCC_TRANSACTION_RED` (
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+ALTER TABLE `TCC_TRANSACTION_RED` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_RED` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
+
 
 CREATE TABLE `TCC_TRANSACTION_UT` (
   `TRANSACTION_ID` int(11) NOT NULL AUTO_INCREMENT,
@@ -65,4 +74,7 @@ CREATE TABLE `TCC_TRANSACTION_UT` (
   `VERSION` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
   UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
-) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+ALTER TABLE `TCC_TRANSACTION_UT` ADD `IS_DELETE` tinyint(1) DEFAULT 0 NOT NULL;
+ALTER TABLE `TCC_TRANSACTION_UT` ADD INDEX `IDX_DOMAIN_UPDATE_TIME` (`DOMAIN`,`IS_DELETE`,`LAST_UPDATE_TIME`,`TRANSACTION_ID`);
\ No newline at end of file
@@ -0,0 +1,160 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.serializer.ByteBufferObjectSerializer;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * KryoPoolSerializer和CompactTransactionSerializer直接读写ByteBuffer，以及复用缓冲区在大小记录之间的切换
+ */
+public class ByteBufferObjectSerializerTest {
+
+    @Test
+    public void testHeapBuffer() {
+        for (ByteBufferObjectSerializer<Transaction> serializer : serializers()) {
+            assertRecordsInSequence(serializer, ByteBuffer.allocate(64 * 1024));
+        }
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        for (ByteBufferObjectSerializer<Transaction> serializer : serializers()) {
+            assertRecordsInSequence(serializer, ByteBuffer.allocateDirect(64 * 1024));
+        }
+    }
+
+    /**
+     * slice得到的buffer的arrayOffset不为0
+     */
+    @Test
+    public void testSlicedBuffer() {
+        for (ByteBufferObjectSerializer<Transaction> serializer : serializers()) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.position(100);
+            assertRecordsInSequence(serializer, buffer.slice());
+        }
+    }
+
+    /**
+     * 两组方法写入的内容相同，可以互相读取
+     */
+    @Test
+    public void testSameFormatAsByteArray() {
+
+        for (ByteBufferObjectSerializer<Transaction> serializer : serializers()) {
+
+            Transaction transaction = newTransaction(3);
+
+            byte[] bytes = serializer.serialize(transaction);
+
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
+            Assert.assertEquals(bytes.length, serializer.serialize(transaction, buffer));
+            Assert.assertArrayEquals(bytes, buffer.array());
+
+            Assert.assertEquals(transaction.getXid(), serializer.deserialize(ByteBuffer.wrap(bytes)).getXid());
+            Assert.assertEquals(transaction.getXid(), serializer.deserialize(buffer.array()).getXid());
+        }
+    }
+
+    /**
+     * 剩余空间不足时抛出BufferOverflowException，position不变
+     */
+    @Test
+    public void testOverflowLeavesPositionUnchanged() {
+
+        for (ByteBufferObjectSerializer<Transaction> serializer : serializers()) {
+
+            Transaction transaction = newTransaction(3);
+            int length = serializer.serialize(transaction).length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(length + 9);
+            buffer.position(10);
+
+            try {
+                serializer.serialize(transaction, buffer);
+                Assert.fail();
+            } catch (BufferOverflowException e) {
+                Assert.assertEquals(10, buffer.position());
+            }
+
+            buffer.position(9);
+            Assert.assertEquals(length, serializer.serialize(transaction, buffer));
+            Assert.assertFalse(buffer.hasRemaining());
+        }
+    }
+
+    /**
+     * 超过保留上限的缓冲区归还时被丢弃，之后的序列化不受影响
+     */
+    @Test
+    public void testLargeRecordThenSmallRecord() {
+
+        for (ByteBufferObjectSerializer<Transaction> serializer : serializers()) {
+
+            Transaction large = newTransaction(1);
+            large.getAttachments().put("payload", new byte[2 * 1024 * 1024]);
+
+            byte[] bytes = serializer.serialize(large);
+            Assert.assertEquals(2 * 1024 * 1024, ((byte[]) serializer.deserialize(bytes).getAttachments().get("payload")).length);
+
+            Transaction small = newTransaction(1);
+            byte[] smallBytes = serializer.serialize(small);
+
+            Assert.assertTrue(smallBytes.length < 4096);
+            Assert.assertEquals(small.getXid(), serializer.deserialize(smallBytes).getXid());
+            Assert.assertArrayEquals(smallBytes, serializer.serialize(small));
+        }
+    }
+
+    /**
+     * 连续写入多条记录后逐条读取，每次读取后position停在下一条记录的开头
+     */
+    private static void assertRecordsInSequence(ByteBufferObjectSerializer<Transaction> serializer, ByteBuffer buffer) {
+
+        Transaction[] transactions = new Transaction[]{newTransaction(1), newTransaction(3), newTransaction(2)};
+        int[] lengths = new int[transactions.length];
+
+        for (int i = 0; i < transactions.length; i++) {
+            int position = buffer.position();
+            lengths[i] = serializer.serialize(transactions[i], buffer);
+            Assert.assertEquals(position + lengths[i], buffer.position());
+        }
+
+        buffer.flip();
+
+        for (int i = 0; i < transactions.length; i++) {
+
+            int position = buffer.position();
+            Transaction found = serializer.deserialize(buffer);
+
+            Assert.assertEquals(position + lengths[i], buffer.position());
+            Assert.assertEquals(transactions[i].getXid(), found.getXid());
+            Assert.assertEquals(transactions[i].getParticipants().size(), found.getParticipants().size());
+            Assert.assertArrayEquals(transactions[i].getParticipants().get(0).getConfirmInvocationContext().getArgs(),
+                    found.getParticipants().get(0).getConfirmInvocationContext().getArgs());
+        }
+
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    private static Transaction newTransaction(int participantCount) {
+
+        String[] keys = new String[participantCount];
+
+        for (int i = 0; i < participantCount; i++) {
+            keys[i] = "key-" + i;
+        }
+
+        return TransactionFixtures.newTransaction(ByteBufferObjectSerializerTest.class, keys);
+    }
+
+    private static ByteBufferObjectSerializer<Transaction>[] serializers() {
+        return new ByteBufferObjectSerializer[]{new KryoPoolSerializer(0), new CompactTransactionSerializer()};
+    }
+}
@@ -0,0 +1,249 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * CompactTransactionSerializer的字段还原、类名字典、共用参数标记，以及切换前写入的记录的读取
+ */
+public class CompactTransactionSerializerTest {
+
+    private final CompactTransactionSerializer serializer = new CompactTransactionSerializer();
+
+    @Test
+    public void testRoundTrip() {
+
+        Transaction transaction = newTransaction();
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.resetRetriedCount(3);
+        transaction.setVersion(5);
+        transaction.setLastUpdateTime(new Date(transaction.getCreateTime().getTime() + 1000));
+        transaction.getAttachments().put("tenant", "t-1");
+        transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+
+        Transaction found = serializer.deserialize(serializer.serialize(transaction));
+
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(TransactionType.ROOT, found.getTransactionType());
+        Assert.assertEquals(3, found.getRetriedCount());
+        Assert.assertEquals(5L, found.getVersion());
+        Assert.assertEquals(transaction.getCreateTime(), found.getCreateTime());
+        Assert.assertEquals(transaction.getLastUpdateTime(), found.getLastUpdateTime());
+        Assert.assertEquals("t-1", found.getAttachments().get("tenant"));
+
+        Assert.assertEquals(3, found.getParticipants().size());
+
+        for (int i = 0; i < 3; i++) {
+
+            Participant expected = transaction.getParticipants().get(i);
+            Participant participant = found.getParticipants().get(i);
+
+            Assert.assertEquals(expected.getXid(), participant.getXid());
+            Assert.assertEquals(expected.getStatus(), participant.getStatus());
+            Assert.assertEquals(expected.getTransactionContextEditorClass(), participant.getTransactionContextEditorClass());
+            assertInvocationContextEquals(expected.getConfirmInvocationContext(), participant.getConfirmInvocationContext());
+            assertInvocationContextEquals(expected.getCancelInvocationContext(), participant.getCancelInvocationContext());
+        }
+    }
+
+    /**
+     * 参与者的全局事务ID与所属事务不同、参与者没有xid和调用上下文时同样能还原
+     */
+    /**
+     * 缺少固定格式必需字段的事务直接报错，而不是在写入中途抛出空指针
+     */
+    @Test(expected = SystemException.class)
+    public void testIncompleteTransactionRejected() {
+        serializer.serialize(new Transaction());
+    }
+
+    @Test
+    public void testUncommonParticipants() {
+
+        Transaction transaction = new Transaction(TransactionType.BRANCH);
+
+        TransactionXid otherXid = new TransactionXid();
+        transaction.enlistParticipant(new Participant(otherXid, null, null, null));
+        transaction.enlistParticipant(new Participant(null, new InvocationContext(Target.class, "confirm", null), null, null));
+
+        Transaction found = serializer.deserialize(serializer.serialize(transaction));
+
+        Assert.assertEquals(otherXid, found.getParticipants().get(0).getXid());
+        Assert.assertNull(found.getParticipants().get(0).getConfirmInvocationContext());
+        Assert.assertNull(found.getParticipants().get(0).getTransactionContextEditorClass());
+
+        Participant participant = found.getParticipants().get(1);
+        Assert.assertNull(participant.getXid());
+        Assert.assertEquals("confirm", participant.getConfirmInvocationContext().getMethodName());
+        Assert.assertNull(participant.getConfirmInvocationContext().getParameterTypes());
+        Assert.assertEquals(0, participant.getConfirmInvocationContext().getArgs().length);
+        Assert.assertNull(participant.getCancelInvocationContext());
+    }
+
+    /**
+     * 同一条记录内的类名只写入一次
+     */
+    @Test
+    public void testClassNamesWrittenOnce() {
+
+        byte[] bytes = serializer.serialize(newTransaction());
+
+        Assert.assertEquals(1, occurrences(bytes, Target.class.getName()));
+        Assert.assertEquals(1, occurrences(bytes, TransactionContext.class.getName()));
+        Assert.assertEquals(1, occurrences(bytes, Compensable.DefaultTransactionContextEditor.class.getName()));
+        Assert.assertEquals(1, occurrences(bytes, BigDecimal.class.getName()));
+    }
+
+    /**
+     * confirm和cancel共用参数数组时只写一次，读取后仍然是同一个数组
+     */
+    @Test
+    public void testSharedArgs() {
+
+        Transaction transaction = newTransaction();
+
+        Object[] cancelArgs = new Object[]{null, "other", new BigDecimal("2.00")};
+        transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(Target.class, "confirm", parameterTypes(), null, "shared", new BigDecimal("1.00")),
+                new InvocationContext(Target.class, "cancel", parameterTypes(), cancelArgs),
+                Compensable.DefaultTransactionContextEditor.class));
+
+        Transaction found = serializer.deserialize(serializer.serialize(transaction));
+
+        Participant shared = found.getParticipants().get(0);
+        Assert.assertSame(shared.getConfirmInvocationContext().getArgs(), shared.getCancelInvocationContext().getArgs());
+
+        Participant separate = found.getParticipants().get(3);
+        Assert.assertNotSame(separate.getConfirmInvocationContext().getArgs(), separate.getCancelInvocationContext().getArgs());
+        Assert.assertEquals("shared", separate.getConfirmInvocationContext().getArgs()[1]);
+        Assert.assertArrayEquals(cancelArgs, separate.getCancelInvocationContext().getArgs());
+
+        // 共用参数数组比分别写入两份更短
+        Transaction unshared = new Transaction(TransactionType.ROOT);
+        for (Participant participant : newTransaction().getParticipants()) {
+            Object[] args = participant.getCancelInvocationContext().getArgs();
+            unshared.enlistParticipant(new Participant(participant.getXid(), participant.getConfirmInvocationContext(),
+                    new InvocationContext(Target.class, "cancel", parameterTypes(), Arrays.copyOf(args, args.length)),
+                    Compensable.DefaultTransactionContextEditor.class));
+        }
+
+        Assert.assertTrue(serializer.serialize(newTransaction()).length < serializer.serialize(unshared).length);
+    }
+
+    /**
+     * 切换前由KryoPoolSerializer写入的记录交给fallbackSerializer读取
+     */
+    @Test
+    public void testLegacyKryoRecord() {
+
+        Transaction transaction = newTransaction();
+
+        Transaction found = serializer.deserialize(new KryoPoolSerializer(0).serialize(transaction));
+
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(3, found.getParticipants().size());
+    }
+
+    @Test
+    public void testCustomFallbackSerializer() {
+
+        JdkSerializationSerializer jdkSerializer = new JdkSerializationSerializer();
+
+        CompactTransactionSerializer compactSerializer = new CompactTransactionSerializer();
+        compactSerializer.setFallbackSerializer(jdkSerializer);
+
+        Transaction transaction = newTransaction();
+
+        Assert.assertEquals(transaction.getXid(), compactSerializer.deserialize(jdkSerializer.serialize(transaction)).getXid());
+        Assert.assertEquals(transaction.getXid(), compactSerializer.deserialize(compactSerializer.serialize(transaction)).getXid());
+    }
+
+    @Test(expected = SystemException.class)
+    public void testNewerFormatVersionRejected() {
+
+        byte[] bytes = serializer.serialize(newTransaction());
+        bytes[2] = 2;
+
+        serializer.deserialize(bytes);
+    }
+
+    @Test
+    public void testClone() {
+
+        Transaction transaction = newTransaction();
+        Transaction copy = serializer.clone(transaction);
+
+        Assert.assertNotSame(transaction, copy);
+        Assert.assertEquals(transaction.getXid(), copy.getXid());
+        Assert.assertNotSame(transaction.getParticipants().get(0), copy.getParticipants().get(0));
+    }
+
+    static Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (int i = 0; i < 3; i++) {
+            // 与ResourceCoordinatorInterceptor一样，confirm和cancel共用同一个参数数组
+            Object[] args = new Object[]{null, "key-" + i, new BigDecimal(i + ".50")};
+            transaction.enlistParticipant(new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                    new InvocationContext(Target.class, "confirm", parameterTypes(), args),
+                    new InvocationContext(Target.class, "cancel", parameterTypes(), args),
+                    Compensable.DefaultTransactionContextEditor.class));
+        }
+
+        return transaction;
+    }
+
+    private static Class[] parameterTypes() {
+        return new Class[]{TransactionContext.class, String.class, BigDecimal.class};
+    }
+
+    private static void assertInvocationContextEquals(InvocationContext expected, InvocationContext actual) {
+        Assert.assertEquals(expected.getTargetClass(), actual.getTargetClass());
+        Assert.assertEquals(expected.getMethodName(), actual.getMethodName());
+        Assert.assertArrayEquals(expected.getParameterTypes(), actual.getParameterTypes());
+        Assert.assertArrayEquals(expected.getArgs(), actual.getArgs());
+    }
+
+    private static int occurrences(byte[] bytes, String text) {
+
+        // Kryo写入ASCII字符串时最后一个字符带有结束标记，只比较前面的部分
+        byte[] pattern = text.substring(0, text.length() - 1).getBytes();
+        int count = 0;
+
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(bytes, i, i + pattern.length))) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public static class Target {
+
+        public void confirm(TransactionContext transactionContext, String key, BigDecimal amount) {
+        }
+
+        public void cancel(TransactionContext transactionContext, String key, BigDecimal amount) {
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.api.UniqueIdentity;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodMetadata;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * CompensableMethodMetadata按切点解析@Compensable方法：重载方法、泛型接口的桥接方法、按目标类区分的缓存，以及自定义的TransactionContext编辑器
+ */
+public class CompensableMethodMetadataTest {
+
+    private MetadataAspect aspect;
+
+    @Before
+    public void setUp() {
+        aspect = new MetadataAspect();
+        CustomTransactionContextEditor.current = null;
+    }
+
+    /**
+     * 重载方法各自解析，confirm/cancel方法和TransactionContext参数位置互不影响
+     */
+    @Test
+    public void testOverloadedMethods() {
+
+        OverloadedService service = proxy(new OverloadedServiceImpl(), OverloadedService.class);
+
+        TransactionContext transactionContext = newTransactionContext();
+
+        service.pay(transactionContext, 1L);
+        CompensableMethodMetadata byId = aspect.metadata;
+
+        service.pay("order-1", transactionContext);
+        CompensableMethodMetadata byOrderNo = aspect.metadata;
+
+        Assert.assertNotSame(byId, byOrderNo);
+
+        Assert.assertEquals("confirmById", byId.getConfirmMethod());
+        Assert.assertArrayEquals(new Class[]{TransactionContext.class, long.class}, byId.getParameterTypes());
+        Assert.assertEquals(0, byId.getTransactionContextParamPosition());
+        Assert.assertEquals(-1, byId.getUniqueIdentityParamPosition());
+
+        Assert.assertEquals("confirmByOrderNo", byOrderNo.getConfirmMethod());
+        Assert.assertEquals(1, byOrderNo.getTransactionContextParamPosition());
+        Assert.assertEquals(0, byOrderNo.getUniqueIdentityParamPosition());
+        Assert.assertEquals("order-1", byOrderNo.getUniqueIdentity(new Object[]{"order-1", transactionContext}));
+
+        Assert.assertEquals(OverloadedService.class, byId.getDeclaringType());
+        Assert.assertSame(transactionContext, byId.getTransactionContext(null, new Object[]{transactionContext, 1L}));
+
+        // 同一个切点方法和目标类只解析一次
+        service.pay(transactionContext, 2L);
+        Assert.assertSame(byId, aspect.metadata);
+    }
+
+    /**
+     * 通过泛型接口调用时切点方法是擦除后的接口方法，解析到实现类上标注@Compensable的方法
+     */
+    @Test
+    public void testBridgeMethod() throws NoSuchMethodException {
+
+        GenericService<String> service = proxy(new StringGenericService(), GenericService.class);
+
+        TransactionContext transactionContext = newTransactionContext();
+        service.pay(transactionContext, "order-1");
+
+        CompensableMethodMetadata metadata = aspect.metadata;
+
+        Assert.assertEquals(GenericService.class.getMethod("pay", TransactionContext.class, Object.class), aspect.signatureMethod);
+        Assert.assertNotNull(metadata.getAnnotation());
+        Assert.assertEquals("confirmPay", metadata.getConfirmMethod());
+        Assert.assertEquals("cancelPay", metadata.getCancelMethod());
+        Assert.assertEquals(0, metadata.getTransactionContextParamPosition());
+        Assert.assertEquals(1, metadata.getUniqueIdentityParamPosition());
+        Assert.assertEquals(GenericService.class, metadata.getDeclaringType());
+
+        // 参与者按记录的参数类型在声明类型上找到confirm方法
+        Method confirmMethod = metadata.getDeclaringType().getMethod(metadata.getConfirmMethod(), metadata.getParameterTypes());
+        Assert.assertEquals(GenericService.class, confirmMethod.getDeclaringClass());
+    }
+
+    /**
+     * 同一个接口方法的不同实现类注解不同，按目标类分别缓存
+     */
+    @Test
+    public void testCachedPerTargetClass() {
+
+        TransactionContext transactionContext = newTransactionContext();
+
+        proxy(new OverloadedServiceImpl(), OverloadedService.class).pay(transactionContext, 1L);
+        CompensableMethodMetadata first = aspect.metadata;
+
+        proxy(new OtherOverloadedServiceImpl(), OverloadedService.class).pay(transactionContext, 1L);
+        CompensableMethodMetadata second = aspect.metadata;
+
+        Assert.assertEquals("confirmById", first.getConfirmMethod());
+        Assert.assertEquals("otherConfirm", second.getConfirmMethod());
+    }
+
+    /**
+     * 自定义编辑器不按参数位置读取，每次都交给编辑器
+     */
+    @Test
+    public void testCustomTransactionContextEditor() {
+
+        CustomEditorService service = proxy(new CustomEditorServiceImpl(), CustomEditorService.class);
+
+        TransactionContext transactionContext = newTransactionContext();
+        CustomTransactionContextEditor.current = transactionContext;
+
+        service.pay(1L);
+
+        CompensableMethodMetadata metadata = aspect.metadata;
+
+        Assert.assertEquals(CustomTransactionContextEditor.class, metadata.getTransactionContextEditorClass());
+        Assert.assertEquals(-1, metadata.getTransactionContextParamPosition());
+        Assert.assertSame(transactionContext, metadata.getTransactionContext(null, new Object[]{1L}));
+
+        CustomTransactionContextEditor.current = null;
+        Assert.assertNull(metadata.getTransactionContext(null, new Object[]{1L}));
+    }
+
+    /**
+     * 继承默认编辑器并覆盖读取方法时，同样交给编辑器
+     */
+    @Test
+    public void testDefaultEditorSubclassNotBypassed() {
+
+        SubclassEditorService service = proxy(new SubclassEditorServiceImpl(), SubclassEditorService.class);
+
+        TransactionContext transactionContext = newTransactionContext();
+        service.pay(transactionContext);
+
+        Assert.assertNull(aspect.metadata.getTransactionContext(null, new Object[]{transactionContext}));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testMethodWithoutCompensable() {
+        proxy(new OverloadedServiceImpl(), OverloadedService.class).query(1L);
+    }
+
+    private <T> T proxy(Object target, Class<T> serviceInterface) {
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addInterface(serviceInterface);
+        factory.addAspect(aspect);
+        return factory.getProxy();
+    }
+
+    private static TransactionContext newTransactionContext() {
+        return new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+    }
+
+    /**
+     * 记录每次调用解析得到的方法信息
+     */
+    @Aspect
+    public static class MetadataAspect {
+
+        private CompensableMethodMetadata metadata;
+
+        private Method signatureMethod;
+
+        @Around("execution(* *(..))")
+        public Object around(ProceedingJoinPoint pjp) throws Throwable {
+            signatureMethod = ((MethodSignature) pjp.getSignature()).getMethod();
+            metadata = CompensableMethodMetadata.of(pjp);
+            return pjp.proceed();
+        }
+    }
+
+    public interface OverloadedService {
+
+        void pay(TransactionContext transactionContext, long orderId);
+
+        void pay(String orderNo, TransactionContext transactionContext);
+
+        void query(long orderId);
+    }
+
+    public static class OverloadedServiceImpl implements OverloadedService {
+
+        @Override
+        @Compensable(confirmMethod = "confirmById", cancelMethod = "cancelById")
+        public void pay(TransactionContext transactionContext, long orderId) {
+        }
+
+        @Override
+        @Compensable(confirmMethod = "confirmByOrderNo", cancelMethod = "cancelByOrderNo")
+        public void pay(@UniqueIdentity String orderNo, TransactionContext transactionContext) {
+        }
+
+        @Override
+        public void query(long orderId) {
+        }
+    }
+
+    public static class OtherOverloadedServiceImpl extends OverloadedServiceImpl {
+
+        @Override
+        @Compensable(confirmMethod = "otherConfirm", cancelMethod = "otherCancel")
+        public void pay(TransactionContext transactionContext, long orderId) {
+        }
+    }
+
+    public interface GenericService<T> {
+
+        void pay(TransactionContext transactionContext, T order);
+
+        void confirmPay(TransactionContext transactionContext, T order);
+
+        void cancelPay(TransactionContext transactionContext, T order);
+    }
+
+    public static class StringGenericService implements GenericService<String> {
+
+        @Override
+        @Compensable(confirmMethod = "confirmPay", cancelMethod = "cancelPay")
+        public void pay(TransactionContext transactionContext, @UniqueIdentity String order) {
+        }
+
+        @Override
+        public void confirmPay(TransactionContext transactionContext, String order) {
+        }
+
+        @Override
+        public void cancelPay(TransactionContext transactionContext, String order) {
+        }
+    }
+
+    public interface CustomEditorService {
+        void pay(long orderId);
+    }
+
+    public static class CustomEditorServiceImpl implements CustomEditorService {
+
+        @Override
+        @Compensable(confirmMethod = "pay", cancelMethod = "pay", transactionContextEditor = CustomTransactionContextEditor.class)
+        public void pay(long orderId) {
+        }
+    }
+
+    public static class CustomTransactionContextEditor implements TransactionContextEditor {
+
+        private static volatile TransactionContext current;
+
+        @Override
+        public TransactionContext get(Object target, Method method, Object[] args) {
+            return current;
+        }
+
+        @Override
+        public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
+            current = transactionContext;
+        }
+    }
+
+    public interface SubclassEditorService {
+        void pay(TransactionContext transactionContext);
+    }
+
+    public static class SubclassEditorServiceImpl implements SubclassEditorService {
+
+        @Override
+        @Compensable(confirmMethod = "pay", cancelMethod = "pay", transactionContextEditor = IgnoringTransactionContextEditor.class)
+        public void pay(TransactionContext transactionContext) {
+        }
+    }
+
+    public static class IgnoringTransactionContextEditor extends Compensable.DefaultTransactionContextEditor {
+
+        @Override
+        public TransactionContext get(Object target, Method method, Object[] args) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * CompressingObjectSerializer的压缩、不压缩的情况和损坏记录的处理
+ */
+public class CompressingObjectSerializerTest {
+
+    private static final byte MAGIC_0 = (byte) 0xC7;
+
+    private static final byte MAGIC_1 = 'Z';
+
+    private static final int HEADER_LENGTH = 7;
+
+    private final KryoPoolSerializer kryoPoolSerializer = new KryoPoolSerializer(0);
+
+    @Test
+    public void testLz4RoundTrip() {
+        assertRoundTrip(new Lz4CompressionCodec());
+    }
+
+    @Test
+    public void testDeflateRoundTrip() {
+        assertRoundTrip(new DeflateCompressionCodec());
+    }
+
+    @Test
+    public void testBelowThresholdNotCompressed() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        byte[] raw = kryoPoolSerializer.serialize(transaction);
+
+        CompressingObjectSerializer<Transaction> serializer = newSerializer(new Lz4CompressionCodec());
+        serializer.setThreshold(raw.length + 1);
+
+        byte[] bytes = serializer.serialize(transaction);
+
+        Assert.assertArrayEquals(raw, bytes);
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(bytes).getXid());
+    }
+
+    /**
+     * 压缩后没有变小时按原样写入
+     */
+    @Test
+    public void testIncompressibleNotCompressed() {
+
+        byte[] random = new byte[4096];
+        new Random(1L).nextBytes(random);
+
+        // 被包装的序列化器原样输出，记录内容完全随机
+        CompressingObjectSerializer<byte[]> serializer = new CompressingObjectSerializer<byte[]>(new ObjectSerializer<byte[]>() {
+            @Override
+            public byte[] serialize(byte[] bytes) {
+                return bytes;
+            }
+
+            @Override
+            public byte[] deserialize(byte[] bytes) {
+                return bytes;
+            }
+
+            @Override
+            public byte[] clone(byte[] object) {
+                return object.clone();
+            }
+        });
+
+        for (CompressionCodec codec : codecs()) {
+            serializer.setCodec(codec);
+            byte[] bytes = serializer.serialize(random);
+            Assert.assertSame(random, bytes);
+            Assert.assertArrayEquals(random, serializer.deserialize(bytes));
+        }
+    }
+
+    /**
+     * 开启压缩前写入的记录和以前的压缩算法写入的记录都能读取
+     */
+    @Test
+    public void testReadsRecordsWrittenBefore() {
+
+        Transaction transaction = newTransaction();
+
+        byte[] uncompressed = kryoPoolSerializer.serialize(transaction);
+        byte[] deflated = newSerializer(new DeflateCompressionCodec()).serialize(transaction);
+
+        CompressingObjectSerializer<Transaction> serializer = newSerializer(new Lz4CompressionCodec());
+
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(uncompressed).getXid());
+        Assert.assertEquals(transaction.getXid(), serializer.deserialize(deflated).getXid());
+    }
+
+    @Test
+    public void testTruncatedInputRejected() {
+        for (CompressionCodec codec : codecs()) {
+            byte[] bytes = newSerializer(codec).serialize(newTransaction());
+            assertRejected(codec, Arrays.copyOf(bytes, HEADER_LENGTH + (bytes.length - HEADER_LENGTH) / 2));
+        }
+    }
+
+    /**
+     * 头部记录的压缩前长度与解压结果不一致
+     */
+    @Test
+    public void testLengthMismatchRejected() {
+        for (CompressionCodec codec : codecs()) {
+            byte[] bytes = newSerializer(codec).serialize(newTransaction());
+            bytes[6] = (byte) (bytes[6] + 1);
+            assertRejected(codec, bytes);
+        }
+    }
+
+    @Test
+    public void testCorruptedDeflateBlockRejected() {
+
+        DeflateCompressionCodec codec = new DeflateCompressionCodec();
+        byte[] bytes = newSerializer(codec).serialize(newTransaction());
+
+        // BFINAL=1, BTYPE=11是保留的块类型
+        bytes[HEADER_LENGTH] = (byte) 0xFF;
+
+        assertRejected(codec, bytes);
+    }
+
+    @Test
+    public void testCorruptedLz4OffsetRejected() {
+
+        // 一个字面量之后的匹配指向输出开始之前
+        byte[] block = new byte[]{(byte) 0x10, 'a', (byte) 0x10, 0x00, (byte) 0x00};
+        byte[] bytes = new byte[HEADER_LENGTH + block.length];
+        bytes[0] = MAGIC_0;
+        bytes[1] = MAGIC_1;
+        bytes[2] = Lz4CompressionCodec.ID;
+        bytes[6] = 5;
+        System.arraycopy(block, 0, bytes, HEADER_LENGTH, block.length);
+
+        assertRejected(new Lz4CompressionCodec(), bytes);
+    }
+
+    @Test(expected = SystemException.class)
+    public void testUnknownCodecRejected() {
+
+        byte[] bytes = newSerializer(new Lz4CompressionCodec()).serialize(newTransaction());
+        bytes[2] = 9;
+
+        newSerializer(new Lz4CompressionCodec()).deserialize(bytes);
+    }
+
+    private void assertRoundTrip(CompressionCodec codec) {
+
+        Transaction transaction = newTransaction();
+        byte[] raw = kryoPoolSerializer.serialize(transaction);
+
+        CompressingObjectSerializer<Transaction> serializer = newSerializer(codec);
+        byte[] bytes = serializer.serialize(transaction);
+
+        Assert.assertTrue(isCompressed(bytes));
+        Assert.assertEquals(codec.getId(), bytes[2]);
+        Assert.assertTrue(bytes.length < raw.length);
+
+        Transaction found = serializer.deserialize(bytes);
+
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(transaction.getParticipants().size(), found.getParticipants().size());
+        Assert.assertEquals(transaction.getParticipants().get(2).getConfirmInvocationContext().getArgs()[1],
+                found.getParticipants().get(2).getConfirmInvocationContext().getArgs()[1]);
+
+        // 解压后的内容与压缩前完全相同
+        Assert.assertArrayEquals(raw, codec.decompress(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, raw.length));
+    }
+
+    private void assertRejected(CompressionCodec codec, byte[] bytes) {
+        try {
+            newSerializer(codec).deserialize(bytes);
+            Assert.fail(codec.getClass().getSimpleName() + " accepted a malformed record");
+        } catch (SystemException e) {
+            // malformed
+        }
+    }
+
+    private CompressingObjectSerializer<Transaction> newSerializer(CompressionCodec codec) {
+        CompressingObjectSerializer<Transaction> serializer = new CompressingObjectSerializer<Transaction>(kryoPoolSerializer);
+        serializer.setCodec(codec);
+        return serializer;
+    }
+
+    private static CompressionCodec[] codecs() {
+        return new CompressionCodec[]{new Lz4CompressionCodec(), new DeflateCompressionCodec()};
+    }
+
+    private static boolean isCompressed(byte[] bytes) {
+        return bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    private static Transaction newTransaction() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        List<String> records = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            records.add("account-record-" + i);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction, CompressingObjectSerializerTest.class,
+                    new Class[]{TransactionContext.class, List.class}, new Object[]{null, records}));
+        }
+
+        return transaction;
+    }
+}
@@ -0,0 +1,225 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.AppResponse;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.RpcException;
+import org.apache.dubbo.rpc.RpcInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.context.TransactionContextCodec;
+import org.mengyun.tcctransaction.dubbo.filter.TccConsumerFilter;
+import org.mengyun.tcctransaction.dubbo.filter.TccProviderFilter;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TccConsumerFilter失败重试时复用第一次登记的参与者，TccProviderFilter提前解析TransactionContext
+ */
+public class DubboFilterTest extends AbstractTestCase {
+
+    @Autowired
+    private TransactionConfigurator transactionConfigurator;
+
+    private TransactionManager transactionManager;
+
+    private Transaction transaction;
+
+    @Before
+    public void before() {
+        RpcContext.removeContext();
+        transactionManager = transactionConfigurator.getTransactionManager();
+        transaction = transactionManager.begin();
+    }
+
+    @After
+    public void after() {
+        RpcContext.removeContext();
+        if (transactionManager.getCurrentTransaction() == transaction) {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+        transactionConfigurator.getTransactionRepository().delete(transaction);
+    }
+
+    @Test
+    public void testConsumerRetryReusesParticipant() throws Exception {
+
+        RecordingInvoker invoker = new RecordingInvoker();
+        RpcInvocation invocation = new RpcInvocation(RemoteService.class.getMethod("record", long.class), new Object[]{1L});
+
+        TccConsumerFilter filter = new TccConsumerFilter();
+
+        filter.invoke(invoker, invocation);
+        // ConsumerContextFilter在每次调用后清理RpcContext，Failover重试使用同一个Invocation
+        RpcContext.removeContext();
+        filter.invoke(invoker, invocation);
+
+        Assert.assertEquals(1, transaction.getParticipants().size());
+        Assert.assertEquals(2, invoker.contexts.size());
+        Assert.assertNotNull(invoker.contexts.get(0));
+        Assert.assertEquals(invoker.contexts.get(0), invoker.contexts.get(1));
+
+        TransactionContext context = JSON.parseObject(invoker.contexts.get(0), TransactionContext.class);
+        Assert.assertEquals(transaction.getParticipants().get(0).getXid(), context.getXid());
+
+        // 登记标记记在Invocation上
+        Assert.assertEquals(invoker.contexts.get(0), invocation.getAttachment(TransactionContextConstants.ENLISTED_TRANSACTION_CONTEXT));
+    }
+
+    @Test
+    public void testConsumerEnlistsNestedCallWithInheritedContext() throws Exception {
+
+        RecordingInvoker invoker = new RecordingInvoker();
+        RpcInvocation invocation = new RpcInvocation(RemoteService.class.getMethod("record", long.class), new Object[]{1L});
+
+        // 服务端嵌套调用时，收到的TransactionContext会被Dubbo隐式带到下游Invocation上
+        String inherited = TransactionContextCodec.encode(new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId()));
+        invocation.setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, inherited);
+
+        new TccConsumerFilter().invoke(invoker, invocation);
+
+        Assert.assertEquals(1, transaction.getParticipants().size());
+        Assert.assertNotEquals(inherited, invoker.contexts.get(0));
+        Assert.assertEquals(transaction.getParticipants().get(0).getXid(),
+                JSON.parseObject(invoker.contexts.get(0), TransactionContext.class).getXid());
+    }
+
+    @Test
+    public void testConsumerSkipsNonCompensableMethod() throws Exception {
+
+        RecordingInvoker invoker = new RecordingInvoker();
+        RpcInvocation invocation = new RpcInvocation(RemoteService.class.getMethod("query", long.class), new Object[]{1L});
+
+        new TccConsumerFilter().invoke(invoker, invocation);
+
+        Assert.assertEquals(0, transaction.getParticipants().size());
+        Assert.assertNull(invoker.contexts.get(0));
+    }
+
+    @Test
+    public void testProviderDecodesContextOnce() throws Exception {
+
+        TransactionContext expected = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, TransactionContextCodec.encode(expected));
+
+        final List<TransactionContext> seen = new ArrayList<TransactionContext>();
+
+        RecordingInvoker invoker = new RecordingInvoker() {
+            @Override
+            public Result invoke(Invocation invocation) throws RpcException {
+                Assert.assertNotNull(RpcContext.getContext().get(TransactionContextConstants.DECODED_TRANSACTION_CONTEXT));
+                seen.add(new DubboTransactionContextEditor().get(null, null, invocation.getArguments()));
+                return super.invoke(invocation);
+            }
+        };
+
+        new TccProviderFilter().invoke(invoker, new RpcInvocation(RemoteService.class.getMethod("record", long.class), new Object[]{1L}));
+
+        Assert.assertEquals(1, seen.size());
+        Assert.assertEquals(expected.getXid(), seen.get(0).getXid());
+        Assert.assertEquals(expected.getStatus(), seen.get(0).getStatus());
+    }
+
+    /**
+     * 上游的登记标记不会留在服务端的RpcContext中随嵌套调用传给下游
+     */
+    @Test
+    public void testProviderRemovesEnlistedMark() throws Exception {
+
+        String context = TransactionContextCodec.encode(new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId()));
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, context);
+        RpcContext.getContext().setAttachment(TransactionContextConstants.ENLISTED_TRANSACTION_CONTEXT, context);
+
+        final List<String> marks = new ArrayList<String>();
+
+        RecordingInvoker invoker = new RecordingInvoker() {
+            @Override
+            public Result invoke(Invocation invocation) throws RpcException {
+                marks.add(RpcContext.getContext().getAttachment(TransactionContextConstants.ENLISTED_TRANSACTION_CONTEXT));
+                return super.invoke(invocation);
+            }
+        };
+
+        new TccProviderFilter().invoke(invoker, new RpcInvocation(RemoteService.class.getMethod("record", long.class), new Object[]{1L}));
+
+        Assert.assertEquals(1, marks.size());
+        Assert.assertNull(marks.get(0));
+        Assert.assertEquals(context, RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT));
+    }
+
+    @Test
+    public void testProviderRejectsMalformedContext() throws Exception {
+
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, "AQ");
+
+        RecordingInvoker invoker = new RecordingInvoker();
+
+        try {
+            new TccProviderFilter().invoke(invoker, new RpcInvocation(RemoteService.class.getMethod("record", long.class), new Object[]{1L}));
+            Assert.fail();
+        } catch (RpcException e) {
+            Assert.assertTrue(e.getMessage().contains(RemoteService.class.getName() + ".record"));
+        }
+
+        Assert.assertTrue(invoker.contexts.isEmpty());
+
+        // 非@Compensable方法不解析TransactionContext
+        new TccProviderFilter().invoke(invoker, new RpcInvocation(RemoteService.class.getMethod("query", long.class), new Object[]{1L}));
+        Assert.assertEquals(1, invoker.contexts.size());
+    }
+
+    public interface RemoteService {
+
+        @Compensable
+        String record(long id);
+
+        String query(long id);
+    }
+
+    private static class RecordingInvoker implements Invoker<RemoteService> {
+
+        private final List<String> contexts = new ArrayList<String>();
+
+        @Override
+        public Class<RemoteService> getInterface() {
+            return RemoteService.class;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) throws RpcException {
+            contexts.add(invocation.getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT));
+            return new AppResponse("ok");
+        }
+
+        @Override
+        public URL getUrl() {
+            return null;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis存储的增量写入：只写变化的字段，新增参与者追加为单独的字段，读取时合并回事务
+ */
+public class ExpandTransactionSerializerTest {
+
+    private final ObjectSerializer serializer = new KryoPoolSerializer();
+
+    @Test
+    public void testDeltaMergedOnRead() {
+        assertDeltaMergedOnRead(serializer);
+    }
+
+    /**
+     * 新增参与者单独序列化，不依赖事务序列化器，紧凑格式下同样可以增量写入
+     */
+    @Test
+    public void testDeltaWithCompactSerializer() {
+        assertDeltaMergedOnRead(new CompactTransactionSerializer());
+    }
+
+    private void assertDeltaMergedOnRead(ObjectSerializer serializer) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction));
+
+        Map<String, byte[]> stored = new HashMap<String, byte[]>();
+        merge(stored, ExpandTransactionSerializer.serialize(serializer, transaction));
+        transaction.markPersisted();
+
+        Participant second = TransactionFixtures.newParticipant(transaction);
+        transaction.enlistParticipant(second);
+        second.setStatus(ParticipantStatus.CONFIRMED);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.updateVersion();
+
+        List<Participant> unpersisted = transaction.unpersistedParticipants();
+        Assert.assertEquals(1, unpersisted.size());
+        Assert.assertSame(second, unpersisted.get(0));
+
+        Map<byte[], byte[]> delta = ExpandTransactionSerializer.serializeDelta(transaction, unpersisted);
+
+        // 增量中不包含CONTENT，只有状态等字段和新增的参与者
+        Assert.assertFalse(toStringKeys(delta).containsKey("CONTENT"));
+        Assert.assertTrue(toStringKeys(delta).containsKey(ExpandTransactionSerializer.PARTICIPANT_FIELD_PREFIX + 1));
+
+        merge(stored, delta);
+
+        Transaction found = ExpandTransactionSerializer.deserialize(serializer, toByteKeys(stored));
+
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+        Assert.assertEquals(2, found.getParticipants().size());
+        Assert.assertEquals(second.getXid(), found.getParticipants().get(1).getXid());
+        Assert.assertEquals(second.getStatus(), found.getParticipants().get(1).getStatus());
+
+        // 读取后视为已落库，没有新的变化
+        Assert.assertTrue(found.unpersistedParticipants().isEmpty());
+    }
+
+    /**
+     * 尚未落库或已落库参与者的状态变化时需要全量写入
+     */
+    @Test
+    public void testFullWriteRequired() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction));
+
+        Assert.assertNull(transaction.unpersistedParticipants());
+
+        transaction.markPersisted();
+        Assert.assertTrue(transaction.unpersistedParticipants().isEmpty());
+
+        transaction.getParticipants().get(0).commit();
+        Assert.assertNull(transaction.unpersistedParticipants());
+
+        // 写入失败后清除落库标记
+        transaction.markPersisted();
+        transaction.clearPersisted();
+        Assert.assertNull(transaction.unpersistedParticipants());
+    }
+
+    private static void merge(Map<String, byte[]> stored, Map<byte[], byte[]> fields) {
+        stored.putAll(toStringKeys(fields));
+    }
+
+    private static Map<String, byte[]> toStringKeys(Map<byte[], byte[]> fields) {
+        Map<String, byte[]> map = new HashMap<String, byte[]>();
+        for (Map.Entry<byte[], byte[]> entry : fields.entrySet()) {
+            map.put(new String(entry.getKey()), entry.getValue());
+        }
+        return map;
+    }
+
+    private static Map<byte[], byte[]> toByteKeys(Map<String, byte[]> fields) {
+        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+        for (Map.Entry<String, byte[]> entry : fields.entrySet()) {
+            map.put(entry.getKey().getBytes(), entry.getValue());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,123 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.support.BeanFactory;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FactoryBuilder按类缓存的实例工厂，注册BeanFactory后重新解析，以及延迟创建的单例
+ */
+public class FactoryBuilderTest {
+
+    @Test
+    public void testSingletonPerClass() {
+
+        FactoryBuilder.SingeltonFactory<ReflectiveBean> factory = FactoryBuilder.factoryOf(ReflectiveBean.class);
+
+        Assert.assertSame(factory, FactoryBuilder.factoryOf(ReflectiveBean.class));
+        Assert.assertSame(factory.getInstance(), FactoryBuilder.factoryOf(ReflectiveBean.class).getInstance());
+        Assert.assertNotSame(factory, FactoryBuilder.factoryOf(OtherReflectiveBean.class));
+    }
+
+    /**
+     * Spring容器启动前已经查找过的类，注册BeanFactory后按新的BeanFactory重新解析
+     */
+    @Test
+    public void testReResolvedAfterRegisterBeanFactory() {
+
+        ManagedBean reflective = FactoryBuilder.factoryOf(ManagedBean.class).getInstance();
+        ReflectiveBean unmanaged = FactoryBuilder.factoryOf(ReflectiveBean.class).getInstance();
+
+        final ManagedBean managed = new ManagedBean();
+
+        FactoryBuilder.registerBeanFactory(new BeanFactory() {
+            @Override
+            public <T> T getBean(Class<T> clazz) {
+                return clazz.cast(managed);
+            }
+
+            @Override
+            public <T> boolean isFactoryOf(Class<T> clazz) {
+                return clazz == ManagedBean.class;
+            }
+        });
+
+        Assert.assertNotSame(reflective, managed);
+        Assert.assertSame(managed, FactoryBuilder.factoryOf(ManagedBean.class).getInstance());
+
+        // 不由BeanFactory管理的类仍然通过反射创建
+        Assert.assertNotSame(unmanaged, FactoryBuilder.factoryOf(ReflectiveBean.class).getInstance());
+        Assert.assertSame(FactoryBuilder.factoryOf(ReflectiveBean.class).getInstance(), FactoryBuilder.factoryOf(ReflectiveBean.class).getInstance());
+    }
+
+    /**
+     * 并发获取时只创建一个实例
+     */
+    @Test
+    public void testLazyInstanceCreatedOnce() throws Exception {
+
+        final FactoryBuilder.SingeltonFactory<CountingBean> factory = FactoryBuilder.factoryOf(CountingBean.class);
+        final CyclicBarrier barrier = new CyclicBarrier(8);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<CountingBean>> futures = new ArrayList<Future<CountingBean>>();
+
+            for (int i = 0; i < 8; i++) {
+                futures.add(executorService.submit(new Callable<CountingBean>() {
+                    @Override
+                    public CountingBean call() throws Exception {
+                        barrier.await(5, TimeUnit.SECONDS);
+                        return factory.getInstance();
+                    }
+                }));
+            }
+
+            CountingBean instance = futures.get(0).get();
+
+            for (Future<CountingBean> future : futures) {
+                Assert.assertSame(instance, future.get());
+            }
+
+            Assert.assertEquals(1, CountingBean.created.get());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testNotInstantiable() {
+        try {
+            FactoryBuilder.factoryOf(Runnable.class).getInstance();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains(Runnable.class.getName()));
+        }
+    }
+
+    public static class ReflectiveBean {
+    }
+
+    public static class OtherReflectiveBean {
+    }
+
+    public static class ManagedBean {
+    }
+
+    public static class CountingBean {
+
+        private static final AtomicInteger created = new AtomicInteger();
+
+        public CountingBean() throws InterruptedException {
+            created.incrementAndGet();
+            Thread.sleep(50);
+        }
+    }
+}
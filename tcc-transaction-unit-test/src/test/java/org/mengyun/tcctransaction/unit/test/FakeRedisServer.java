@@ -0,0 +1,277 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 只实现仓库用到的命令(SCAN、KEYS、HGET、HKEYS、HGETALL、HMSET、DEL、EVAL)的内存Redis，key按字典序排列，SCAN的游标即下一个key的下标。
+ * EVAL不解释Lua，只按RedisTransactionRepository的创建和更新脚本执行相同的逻辑
+ */
+class FakeRedisServer implements Closeable {
+
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    private final ConcurrentSkipListMap<String, Map<String, byte[]>> data = new ConcurrentSkipListMap<String, Map<String, byte[]>>();
+
+    private final ServerSocket serverSocket;
+
+    FakeRedisServer() throws IOException {
+
+        serverSocket = new ServerSocket(0);
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) {
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            while (true) {
+                List<String> command = readCommand(in);
+
+                if (command == null) {
+                    break;
+                }
+
+                execute(command, out);
+
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // 连接关闭
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private synchronized void execute(List<String> command, OutputStream out) throws IOException {
+
+        String name = command.get(0).toUpperCase();
+
+        if (name.equals("SCAN")) {
+            scan(command, out);
+        } else if (name.equals("KEYS")) {
+            String pattern = command.get(1);
+            String prefix = pattern.endsWith("*") ? pattern.substring(0, pattern.length() - 1) : pattern;
+            List<String> matched = new ArrayList<String>();
+            for (String key : data.keySet()) {
+                if (key.startsWith(prefix)) {
+                    matched.add(key);
+                }
+            }
+            out.write(("*" + matched.size() + "\r\n").getBytes(CHARSET));
+            for (String key : matched) {
+                writeBulk(out, key.getBytes(CHARSET));
+            }
+        } else if (name.equals("HGET")) {
+            Map<String, byte[]> hash = data.get(command.get(1));
+            writeBulk(out, hash == null ? null : hash.get(command.get(2)));
+        } else if (name.equals("HKEYS")) {
+            Map<String, byte[]> hash = data.get(command.get(1));
+            Set<String> fields = hash == null ? Collections.<String>emptySet() : hash.keySet();
+            out.write(("*" + fields.size() + "\r\n").getBytes(CHARSET));
+            for (String field : fields) {
+                writeBulk(out, field.getBytes(CHARSET));
+            }
+        } else if (name.equals("HGETALL")) {
+            Map<String, byte[]> hash = data.get(command.get(1));
+            hash = hash == null ? Collections.<String, byte[]>emptyMap() : hash;
+            out.write(("*" + hash.size() * 2 + "\r\n").getBytes(CHARSET));
+            for (Map.Entry<String, byte[]> entry : hash.entrySet()) {
+                writeBulk(out, entry.getKey().getBytes(CHARSET));
+                writeBulk(out, entry.getValue());
+            }
+        } else if (name.equals("HMSET")) {
+            hmset(command.get(1), command.subList(2, command.size()));
+            out.write("+OK\r\n".getBytes(CHARSET));
+        } else if (name.equals("EVAL")) {
+            out.write((":" + eval(command) + "\r\n").getBytes(CHARSET));
+        } else if (name.equals("DEL")) {
+            out.write((":" + (data.remove(command.get(1)) == null ? 0 : 1) + "\r\n").getBytes(CHARSET));
+        } else {
+            out.write(("-ERR unknown command '" + name + "'\r\n").getBytes(CHARSET));
+        }
+    }
+
+    private void hmset(String key, List<String> fieldsAndValues) {
+
+        Map<String, byte[]> hash = data.get(key);
+
+        if (hash == null) {
+            hash = new LinkedHashMap<String, byte[]>();
+            data.put(key, hash);
+        }
+
+        for (int i = 0; i + 1 < fieldsAndValues.size(); i += 2) {
+            hash.put(fieldsAndValues.get(i), fieldsAndValues.get(i + 1).getBytes(CHARSET));
+        }
+    }
+
+    /**
+     * 创建脚本在key不存在时写入；更新脚本在VERSION与期望值相同时写入，写入CONTENT时先删除增量追加的参与者字段
+     */
+    private int eval(List<String> command) {
+
+        String script = command.get(1);
+        int keyCount = Integer.parseInt(command.get(2));
+        String key = command.get(3);
+        List<String> args = command.subList(3 + keyCount, command.size());
+
+        if (script.contains("'exists'")) {
+            if (data.containsKey(key)) {
+                return 0;
+            }
+            hmset(key, args);
+            return 1;
+        }
+
+        int start = script.indexOf("== '") + 4;
+        String expectedVersion = script.substring(start, script.indexOf('\'', start));
+        Map<String, byte[]> hash = data.get(key);
+
+        if (hash == null || hash.get("VERSION") == null || !new String(hash.get("VERSION"), CHARSET).equals(expectedVersion)) {
+            return 0;
+        }
+
+        for (int i = 0; i < args.size(); i += 2) {
+            if (args.get(i).equals("CONTENT")) {
+                Iterator<String> fields = hash.keySet().iterator();
+                while (fields.hasNext()) {
+                    if (fields.next().startsWith(ExpandTransactionSerializer.PARTICIPANT_FIELD_PREFIX)) {
+                        fields.remove();
+                    }
+                }
+            }
+        }
+
+        hmset(key, args);
+        return 1;
+    }
+
+    private void scan(List<String> command, OutputStream out) throws IOException {
+
+        int cursor = Integer.parseInt(command.get(1));
+        String prefix = "";
+        int count = 10;
+
+        for (int i = 2; i + 1 < command.size(); i += 2) {
+            if (command.get(i).equalsIgnoreCase("MATCH")) {
+                String pattern = command.get(i + 1);
+                prefix = pattern.endsWith("*") ? pattern.substring(0, pattern.length() - 1) : pattern;
+            } else if (command.get(i).equalsIgnoreCase("COUNT")) {
+                count = Integer.parseInt(command.get(i + 1));
+            }
+        }
+
+        List<String> keys = new ArrayList<String>(data.keySet());
+        int end = Math.min(keys.size(), cursor + count);
+        List<String> matched = new ArrayList<String>();
+
+        for (int i = cursor; i < end; i++) {
+            if (keys.get(i).startsWith(prefix)) {
+                matched.add(keys.get(i));
+            }
+        }
+
+        out.write("*2\r\n".getBytes(CHARSET));
+        writeBulk(out, String.valueOf(end < keys.size() ? end : 0).getBytes(CHARSET));
+        out.write(("*" + matched.size() + "\r\n").getBytes(CHARSET));
+        for (String key : matched) {
+            writeBulk(out, key.getBytes(CHARSET));
+        }
+    }
+
+    private static void writeBulk(OutputStream out, byte[] value) throws IOException {
+
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(CHARSET));
+            return;
+        }
+
+        out.write(("$" + value.length + "\r\n").getBytes(CHARSET));
+        out.write(value);
+        out.write("\r\n".getBytes(CHARSET));
+    }
+
+    private static List<String> readCommand(DataInputStream in) throws IOException {
+
+        String line = readLine(in);
+
+        if (line == null) {
+            return null;
+        }
+
+        int size = Integer.parseInt(line.substring(1));
+        List<String> command = new ArrayList<String>(size);
+
+        for (int i = 0; i < size; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            in.readFully(new byte[2]);
+            command.add(new String(bytes, CHARSET));
+        }
+
+        return command;
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+
+        StringBuilder builder = new StringBuilder();
+        int b;
+
+        while ((b = in.read()) != '\r') {
+            if (b < 0) {
+                return null;
+            }
+            builder.append((char) b);
+        }
+
+        in.read();
+        return builder.toString();
+    }
+}
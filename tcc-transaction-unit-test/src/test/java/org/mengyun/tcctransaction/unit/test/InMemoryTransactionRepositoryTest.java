@@ -0,0 +1,320 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.ConcurrentTransactionException;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * InMemoryTransactionRepository的读写副本、重复创建、乐观锁、按更新时间分页，以及快照的写入和恢复
+ */
+public class InMemoryTransactionRepositoryTest {
+
+    private File rootPath;
+
+    private long lastUpdateTime;
+
+    @Before
+    public void setUp() throws IOException {
+        rootPath = File.createTempFile("tcc-memory", "");
+        rootPath.delete();
+        lastUpdateTime = System.currentTimeMillis() - 60 * 60 * 1000L;
+    }
+
+    @After
+    public void tearDown() {
+
+        File[] files = rootPath.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        rootPath.delete();
+    }
+
+    /**
+     * 保存的是序列化后的内容，读取得到独立的副本
+     */
+    @Test
+    public void testFindReturnsCopy() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Transaction transaction = newTransaction();
+        repository.create(transaction);
+
+        transaction.changeStatus(TransactionStatus.CANCELLING);
+
+        Transaction found = findOne(repository, transaction);
+
+        Assert.assertNotSame(transaction, found);
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(TransactionStatus.TRYING, found.getStatus());
+        Assert.assertNotSame(found, findOne(repository, transaction));
+    }
+
+    @Test
+    public void testDuplicateCreate() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Transaction transaction = newTransaction();
+        repository.create(transaction);
+
+        Transaction duplicate = new Transaction((TransactionXid) transaction.getXid(), TransactionType.ROOT, new Date());
+        duplicate.changeStatus(TransactionStatus.CONFIRMING);
+        duplicate.setLastUpdateTime(transaction.getLastUpdateTime());
+
+        try {
+            repository.create(duplicate);
+            Assert.fail();
+        } catch (ConcurrentTransactionException e) {
+            // 已存在的事务不被覆盖
+        }
+
+        Assert.assertEquals(TransactionStatus.TRYING, findOne(repository, transaction).getStatus());
+    }
+
+    /**
+     * 版本号不一致时更新失败，事务的版本号和更新时间恢复为更新前的值
+     */
+    @Test
+    public void testStaleVersionUpdate() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Transaction transaction = newTransaction();
+        repository.create(transaction);
+
+        Transaction first = findOne(repository, transaction);
+        Transaction second = findOne(repository, transaction);
+
+        first.changeStatus(TransactionStatus.CONFIRMING);
+        Assert.assertEquals(1, repository.update(first));
+        Assert.assertEquals(2L, first.getVersion());
+
+        Date lastUpdateTime = second.getLastUpdateTime();
+        second.changeStatus(TransactionStatus.CANCELLING);
+
+        try {
+            repository.update(second);
+            Assert.fail();
+        } catch (OptimisticLockException e) {
+            Assert.assertEquals(1L, second.getVersion());
+            Assert.assertEquals(lastUpdateTime, second.getLastUpdateTime());
+        }
+
+        Transaction found = findOne(repository, transaction);
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+    }
+
+    @Test
+    public void testUpdateAndDeleteMissing() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Transaction transaction = newTransaction();
+
+        try {
+            repository.update(transaction);
+            Assert.fail();
+        } catch (OptimisticLockException e) {
+            // 不存在的事务
+        }
+
+        repository.create(transaction);
+        Assert.assertEquals(1, repository.delete(transaction));
+        Assert.assertEquals(0, repository.delete(transaction));
+        Assert.assertNull(findOne(repository, transaction));
+    }
+
+    /**
+     * 按更新时间顺序分页，更新时间相同时按写入顺序，最近更新的事务不在结果中
+     */
+    @Test
+    public void testPagedScan() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        List<Object> expected = new ArrayList<Object>();
+
+        for (int i = 0; i < 7; i++) {
+            // 第3、4个事务的更新时间相同
+            if (i == 3) {
+                lastUpdateTime--;
+            }
+            Transaction transaction = newTransaction();
+            repository.create(transaction);
+            expected.add(transaction.getXid());
+        }
+
+        Transaction recent = new Transaction(TransactionType.ROOT);
+        repository.create(recent);
+
+        Date unmodifiedSince = new Date(recent.getLastUpdateTime().getTime() - 1000);
+
+        List<Object> found = new ArrayList<Object>();
+        String offset = null;
+        int pages = 0;
+
+        do {
+            Page<Transaction> page = repository.findAllUnmodifiedSince(unmodifiedSince, offset, 2);
+            Assert.assertTrue(page.getData().size() <= 2);
+
+            for (Transaction transaction : page.getData()) {
+                found.add(transaction.getXid());
+                // 恢复时逐个删除已处理的事务，不影响后续分页
+                repository.delete(transaction);
+            }
+
+            offset = page.getNextOffset();
+            pages++;
+        } while (offset != null);
+
+        Assert.assertEquals(expected, found);
+        Assert.assertEquals(4, pages);
+        Assert.assertEquals(Collections.singletonList(recent.getXid()), xids(repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000))));
+    }
+
+    @Test
+    public void testEmptyPage() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+
+        Page<Transaction> page = repository.findAllUnmodifiedSince(new Date(), null, 10);
+
+        Assert.assertTrue(page.getData().isEmpty());
+        Assert.assertNull(page.getNextOffset());
+    }
+
+    /**
+     * 快照保存全部事务的内容、版本号和更新时间，新的存储实例启动时从快照恢复
+     */
+    @Test
+    public void testSnapshotWriteAndLoad() {
+
+        String snapshotPath = new File(rootPath, "transactions.snapshot").getPath();
+
+        InMemoryTransactionRepository repository = newSnapshotRepository(snapshotPath);
+
+        Transaction updated = newTransaction();
+        Transaction deleted = newTransaction();
+        Transaction kept = newTransaction();
+
+        repository.create(updated);
+        repository.create(deleted);
+        repository.create(kept);
+
+        updated.changeStatus(TransactionStatus.CONFIRMING);
+        repository.update(updated);
+        repository.delete(deleted);
+
+        repository.snapshot();
+
+        InMemoryTransactionRepository reloaded = newSnapshotRepository(snapshotPath);
+
+        Transaction found = findOne(reloaded, updated);
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+        Assert.assertNull(findOne(reloaded, deleted));
+        Assert.assertNotNull(findOne(reloaded, kept));
+
+        // 恢复的记录按原来的更新时间建立索引，并且仍然按版本号做乐观锁
+        Assert.assertEquals(Collections.singletonList(kept.getXid()),
+                xids(reloaded.findAllUnmodifiedSince(new Date(kept.getLastUpdateTime().getTime() + 1))));
+
+        Transaction stale = findOne(reloaded, updated);
+        stale.setVersion(1L);
+
+        try {
+            reloaded.update(stale);
+            Assert.fail();
+        } catch (OptimisticLockException e) {
+            // 版本号已经是2
+        }
+    }
+
+    @Test
+    public void testSnapshotWithoutPathIgnored() {
+
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.create(newTransaction());
+        repository.snapshot();
+
+        Assert.assertNull(rootPath.listFiles());
+    }
+
+    @Test(expected = TransactionIOException.class)
+    public void testInvalidSnapshotRejected() throws IOException {
+
+        rootPath.mkdirs();
+        File file = new File(rootPath, "invalid.snapshot");
+
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            output.writeInt(0x12345678);
+        } finally {
+            output.close();
+        }
+
+        newSnapshotRepository(file.getPath()).create(newTransaction());
+    }
+
+    private InMemoryTransactionRepository newSnapshotRepository(String snapshotPath) {
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setSnapshotPath(snapshotPath);
+        // 测试中只手动写入快照
+        repository.setSnapshotIntervalInSeconds(3600);
+        return repository;
+    }
+
+    /**
+     * 早于当前时间、按创建顺序递增的更新时间
+     */
+    private Transaction newTransaction() {
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.setLastUpdateTime(new Date(lastUpdateTime++));
+        return transaction;
+    }
+
+    /**
+     * 绕过缓存读取存储中的内容
+     */
+    private static Transaction findOne(InMemoryTransactionRepository repository, Transaction transaction) {
+
+        for (Transaction found : repository.findAllUnmodifiedSince(new Date(System.currentTimeMillis() + 1000))) {
+            if (found.getXid().equals(transaction.getXid())) {
+                return found;
+            }
+        }
+
+        return null;
+    }
+
+    private static List<Object> xids(List<Transaction> transactions) {
+        List<Object> xids = new ArrayList<Object>();
+        for (Transaction transaction : transactions) {
+            xids.add(transaction.getXid());
+        }
+        return xids;
+    }
+}
@@ -0,0 +1,533 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.ConcurrentTransactionException;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JdbcTransactionRepository在内嵌H2(MySQL兼容模式)上的一致性测试，表结构见tcc-transaction-spring的dbscripts/db-h2.sql。
+ * 每个仓库实例有自己的缓存，多个实例共用同一个数据源模拟多个节点
+ */
+public class JdbcTransactionRepositoryTest {
+
+    private JdbcConnectionPool dataSource;
+
+    private final List<JdbcTransactionRepository> repositories = new ArrayList<JdbcTransactionRepository>();
+
+    @Before
+    public void setUp() throws SQLException {
+
+        dataSource = JdbcConnectionPool.create("jdbc:h2:mem:tcc_" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        dataSource.setMaxConnections(32);
+
+        execute("RUNSCRIPT FROM 'classpath:/db-h2.sql'");
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+
+        for (JdbcTransactionRepository repository : repositories) {
+            repository.close();
+        }
+
+        execute("SHUTDOWN");
+        dataSource.dispose();
+    }
+
+    @Test
+    public void testCreateUpdateDelete() {
+
+        JdbcTransactionRepository repository = newRepository(false);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Transaction found = newRepository(false).findByXid((TransactionXid) transaction.getXid());
+        Assert.assertNotNull(found);
+        Assert.assertEquals(TransactionStatus.TRYING, found.getStatus());
+        Assert.assertEquals(1L, found.getVersion());
+
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        repository.update(transaction);
+
+        found = newRepository(false).findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+
+        Assert.assertEquals(1, repository.delete(transaction));
+        Assert.assertNull(newRepository(false).findByXid((TransactionXid) transaction.getXid()));
+        Assert.assertEquals(0, repository.delete(transaction));
+    }
+
+    @Test(expected = ConcurrentTransactionException.class)
+    public void testDuplicateCreate() {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        newRepository(false).create(transaction);
+
+        newRepository(false).create(transaction);
+    }
+
+    @Test
+    public void testStaleUpdate() {
+
+        JdbcTransactionRepository repository = newRepository(false);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        Transaction stale = newRepository(false).findByXid((TransactionXid) transaction.getXid());
+
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        repository.update(transaction);
+
+        stale.changeStatus(TransactionStatus.CANCELLING);
+
+        try {
+            newRepository(false).update(stale);
+            Assert.fail("stale version should not be written");
+        } catch (OptimisticLockException e) {
+            // 失败时版本号不变
+            Assert.assertEquals(1L, stale.getVersion());
+        }
+
+        Transaction found = newRepository(false).findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+    }
+
+    /**
+     * 多个节点持有同一版本同时更新，只有一个成功
+     */
+    @Test
+    public void testConcurrentUpdate() throws Exception {
+        assertConcurrentUpdate(false);
+    }
+
+    @Test
+    public void testConcurrentUpdateInBatch() throws Exception {
+        assertConcurrentUpdate(true);
+    }
+
+    /**
+     * 批量写开启时多个线程并发创建，每个事务都能拿到自己的结果并且可以查到
+     */
+    @Test
+    public void testConcurrentCreateInBatch() throws Exception {
+
+        final JdbcTransactionRepository repository = newRepository(true);
+        final int threads = 8;
+        final int perThread = 200;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Transaction>>> futures = new ArrayList<Future<List<Transaction>>>();
+
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<List<Transaction>>() {
+                @Override
+                public List<Transaction> call() {
+                    List<Transaction> created = new ArrayList<Transaction>();
+                    for (int j = 0; j < perThread; j++) {
+                        Transaction transaction = new Transaction(TransactionType.ROOT);
+                        repository.create(transaction);
+                        created.add(transaction);
+                    }
+                    return created;
+                }
+            }));
+        }
+
+        JdbcTransactionRepository reader = newRepository(false);
+
+        try {
+            for (Future<List<Transaction>> future : futures) {
+                for (Transaction transaction : future.get()) {
+                    Assert.assertNotNull(reader.findByXid((TransactionXid) transaction.getXid()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 异步批量写时，提交后业务线程继续修改事务，落库的仍是提交时的状态和重试次数
+     */
+    @Test
+    public void testAsyncBatchWriteUsesSubmittedValues() {
+
+        JdbcTransactionRepository repository = newRepository(true);
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int i = 0; i < 500; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            futures.add(repository.createAsync(transaction));
+
+            transaction.changeStatus(TransactionStatus.CONFIRMING);
+            transaction.addRetriedCount();
+            transactions.add(transaction);
+        }
+
+        for (CompletableFuture<Integer> future : futures) {
+            Assert.assertEquals(1, future.join().intValue());
+        }
+
+        JdbcTransactionRepository reader = newRepository(false);
+
+        for (Transaction transaction : transactions) {
+            Transaction found = reader.findByXid((TransactionXid) transaction.getXid());
+            Assert.assertEquals(TransactionStatus.TRYING, found.getStatus());
+            Assert.assertEquals(0, found.getRetriedCount());
+        }
+    }
+
+    /**
+     * 多个写线程时，同一个xid的新建、更新、删除按提交顺序执行
+     */
+    @Test
+    public void testSameXidOrderedAcrossWriters() {
+
+        JdbcTransactionRepository repository = newRepository(true);
+        repository.setBatchWriterThreads(4);
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int i = 0; i < 300; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            futures.add(repository.createAsync(transaction));
+
+            transaction.changeStatus(TransactionStatus.CONFIRMING);
+            futures.add(repository.updateAsync(transaction));
+
+            if (i % 3 == 0) {
+                futures.add(repository.deleteAsync(transaction));
+            }
+
+            transactions.add(transaction);
+        }
+
+        for (CompletableFuture<Integer> future : futures) {
+            Assert.assertEquals(1, future.join().intValue());
+        }
+
+        JdbcTransactionRepository reader = newRepository(false);
+
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction found = reader.findByXid((TransactionXid) transactions.get(i).getXid());
+
+            if (i % 3 == 0) {
+                Assert.assertNull(found);
+            } else {
+                Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+                Assert.assertEquals(2L, found.getVersion());
+            }
+        }
+    }
+
+    /**
+     * 关闭时写完已提交的操作并停止写线程，之后的写入直接失败
+     */
+    @Test
+    public void testCloseDrainsBatchQueue() throws Exception {
+
+        JdbcTransactionRepository repository = newRepository(true);
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int i = 0; i < 500; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            futures.add(repository.createAsync(transaction));
+            transactions.add(transaction);
+        }
+
+        repository.close();
+
+        for (CompletableFuture<Integer> future : futures) {
+            Assert.assertEquals(1, future.get(5, TimeUnit.SECONDS).intValue());
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertFalse(thread.getName(), thread.getName().startsWith("tcc-jdbc-batch-writer-"));
+        }
+
+        try {
+            repository.create(new Transaction(TransactionType.ROOT));
+            Assert.fail();
+        } catch (TransactionIOException e) {
+            // closed
+        }
+
+        JdbcTransactionRepository reader = newRepository(false);
+
+        for (Transaction transaction : transactions) {
+            Assert.assertNotNull(reader.findByXid((TransactionXid) transaction.getXid()));
+        }
+    }
+
+    /**
+     * 写线程阻塞时，业务线程最多等待batchTimeout
+     */
+    @Test
+    public void testBatchTimeout() throws Exception {
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+
+        DataSource blocking = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getConnection")) {
+                            blocked.await();
+                        }
+                        try {
+                            return method.invoke(dataSource, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+
+        JdbcTransactionRepository repository = newRepository(true);
+        repository.setDataSource(blocking);
+        repository.setBatchTimeout(200L);
+
+        long start = System.currentTimeMillis();
+
+        try {
+            repository.create(new Transaction(TransactionType.ROOT));
+            Assert.fail();
+        } catch (TransactionIOException e) {
+            Assert.assertTrue(System.currentTimeMillis() - start < 5000L);
+        } finally {
+            blocked.countDown();
+        }
+    }
+
+    /**
+     * 恢复时按页扫描未更新的事务，结果不重复、不遗漏，并按最后更新时间有序
+     */
+    @Test
+    public void testRecoveryScan() {
+        assertRecoveryScan(null);
+    }
+
+    /**
+     * 设置domain时按IDX_DOMAIN_UPDATE_TIME的顺序分页
+     */
+    @Test
+    public void testRecoveryScanWithDomain() {
+        assertRecoveryScan("TCC-UT");
+    }
+
+    private void assertRecoveryScan(String domain) {
+
+        JdbcTransactionRepository repository = newRepository(false);
+        repository.setDomain(domain);
+
+        long now = System.currentTimeMillis();
+        int expired = 1000;
+        Set<TransactionXid> expected = new HashSet<TransactionXid>();
+
+        for (int i = 0; i < expired + 200; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+
+            if (i < expired) {
+                // 每10个事务共用一个更新时间，验证时间相同时按TRANSACTION_ID翻页
+                transaction.setLastUpdateTime(new Date(now - 3600 * 1000L + (i / 10) * 1000L));
+                expected.add((TransactionXid) transaction.getXid());
+            }
+
+            repository.create(transaction);
+        }
+
+        Date threshold = new Date(now - 60 * 1000L);
+        Set<TransactionXid> scanned = new HashSet<TransactionXid>();
+        long lastUpdateTime = 0;
+        String offset = null;
+        int pages = 0;
+
+        do {
+            JdbcTransactionRepository reader = newRepository(false);
+            reader.setDomain(domain);
+
+            Page<Transaction> page = reader.findAllUnmodifiedSince(threshold, offset, 64);
+
+            for (Transaction transaction : page.getData()) {
+                Assert.assertTrue(scanned.add((TransactionXid) transaction.getXid()));
+                Assert.assertTrue(transaction.getLastUpdateTime().getTime() >= lastUpdateTime);
+                lastUpdateTime = transaction.getLastUpdateTime().getTime();
+            }
+
+            offset = page.getNextOffset();
+            pages++;
+        } while (offset != null);
+
+        Assert.assertEquals(expected, scanned);
+        Assert.assertEquals((expired + 63) / 64, pages);
+        Assert.assertEquals(expired, repository.findAllUnmodifiedSince(threshold).size());
+    }
+
+    /**
+     * 参与者没有变化时只更新状态列，CONTENT保持不变；新增参与者或参与者状态变化时全量写入
+     */
+    @Test
+    public void testStatusOnlyUpdateKeepsContent() throws SQLException {
+
+        JdbcTransactionRepository repository = newRepository(false);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction));
+        repository.create(transaction);
+
+        byte[] created = content(transaction);
+
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        repository.update(transaction);
+
+        Assert.assertArrayEquals(created, content(transaction));
+
+        Transaction found = newRepository(false).findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2L, found.getVersion());
+        Assert.assertEquals(1, found.getParticipants().size());
+
+        transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction));
+        repository.update(transaction);
+
+        byte[] enlisted = content(transaction);
+        Assert.assertFalse(Arrays.equals(created, enlisted));
+        Assert.assertEquals(2, newRepository(false).findByXid((TransactionXid) transaction.getXid()).getParticipants().size());
+
+        transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+        repository.update(transaction);
+
+        Assert.assertFalse(Arrays.equals(enlisted, content(transaction)));
+
+        found = newRepository(false).findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(ParticipantStatus.CONFIRMED, found.getParticipants().get(0).getStatus());
+        Assert.assertEquals(ParticipantStatus.TRYING, found.getParticipants().get(1).getStatus());
+        Assert.assertEquals(4L, found.getVersion());
+    }
+
+    private void assertConcurrentUpdate(boolean batchEnabled) throws Exception {
+
+        final int nodes = 8;
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        newRepository(false).create(transaction);
+
+        final CountDownLatch ready = new CountDownLatch(nodes);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger conflicted = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int i = 0; i < nodes; i++) {
+
+            final JdbcTransactionRepository repository = newRepository(batchEnabled);
+            final Transaction copy = repository.findByXid((TransactionXid) transaction.getXid());
+
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    ready.countDown();
+                    start.await();
+
+                    copy.changeStatus(TransactionStatus.CONFIRMING);
+
+                    try {
+                        repository.update(copy);
+                        succeeded.incrementAndGet();
+                    } catch (OptimisticLockException e) {
+                        conflicted.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        ready.await();
+        start.countDown();
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(1, succeeded.get());
+        Assert.assertEquals(nodes - 1, conflicted.get());
+        Assert.assertEquals(2L, newRepository(false).findByXid((TransactionXid) transaction.getXid()).getVersion());
+    }
+
+    private JdbcTransactionRepository newRepository(boolean batchEnabled) {
+        JdbcTransactionRepository repository = new JdbcTransactionRepository();
+        repository.setDataSource(dataSource);
+        repository.setBatchEnabled(batchEnabled);
+        repositories.add(repository);
+        return repository;
+    }
+
+    private byte[] content(Transaction transaction) throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            PreparedStatement statement = connection.prepareStatement("SELECT CONTENT FROM TCC_TRANSACTION WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
+            statement.setBytes(1, transaction.getXid().getGlobalTransactionId());
+            statement.setBytes(2, transaction.getXid().getBranchQualifier());
+            ResultSet resultSet = statement.executeQuery();
+            Assert.assertTrue(resultSet.next());
+            byte[] content = resultSet.getBytes(1);
+            statement.close();
+            return content;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+
+        Connection connection = dataSource.getConnection();
+
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute(sql);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
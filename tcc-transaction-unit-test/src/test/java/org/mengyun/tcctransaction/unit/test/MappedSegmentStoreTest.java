@@ -0,0 +1,335 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.repository.helper.MappedSegmentStore;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MappedSegmentStore的读写、重新加载、日志段回收与损坏记录的处理
+ */
+public class MappedSegmentStoreTest {
+
+    private File rootPath;
+
+    private final List<MappedSegmentStore> stores = new ArrayList<MappedSegmentStore>();
+
+    @Before
+    public void setUp() throws IOException {
+        rootPath = File.createTempFile("tcc-mapped", "");
+        rootPath.delete();
+    }
+
+    @After
+    public void tearDown() {
+
+        for (MappedSegmentStore store : stores) {
+            store.close();
+        }
+
+        File[] files = rootPath.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        rootPath.delete();
+    }
+
+    @Test
+    public void testCreateUpdateDelete() {
+
+        MappedSegmentStore store = open(64 * 1024);
+        TransactionXid xid = new TransactionXid();
+
+        Assert.assertEquals(1, store.create(xid, 1, 1000L, 1L, content(1, 100)));
+        Assert.assertEquals(0, store.create(xid, 1, 1000L, 1L, content(2, 100)));
+        Assert.assertArrayEquals(content(1, 100), store.findOne(xid));
+
+        Assert.assertEquals(0, store.update(xid, 2L, 2, 2000L, 3L, content(3, 100)));
+        Assert.assertEquals(1, store.update(xid, 1L, 2, 2000L, 2L, content(4, 200)));
+        Assert.assertArrayEquals(content(4, 200), store.findOne(xid));
+
+        Assert.assertEquals(1, store.delete(xid));
+        Assert.assertEquals(0, store.delete(xid));
+        Assert.assertNull(store.findOne(xid));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testReopen() {
+
+        MappedSegmentStore store = open(16 * 1024);
+        List<TransactionXid> xids = new ArrayList<TransactionXid>();
+
+        for (int i = 0; i < 200; i++) {
+            TransactionXid xid = new TransactionXid();
+            store.create(xid, 1, 1000L + i, 1L, content(i, 64 + i));
+            xids.add(xid);
+        }
+
+        for (int i = 0; i < xids.size(); i++) {
+            if (i % 3 == 0) {
+                store.delete(xids.get(i));
+            } else if (i % 3 == 1) {
+                store.update(xids.get(i), 1L, 2, 5000L + i, 2L, content(-i, 32));
+            }
+        }
+
+        store.close();
+
+        MappedSegmentStore reopened = open(16 * 1024);
+        Assert.assertEquals(xids.size() - (xids.size() + 2) / 3, reopened.size());
+
+        int unmodified = 0;
+
+        for (int i = 0; i < xids.size(); i++) {
+            byte[] found = reopened.findOne(xids.get(i));
+            if (i % 3 == 0) {
+                Assert.assertNull(found);
+            } else if (i % 3 == 1) {
+                Assert.assertArrayEquals(content(-i, 32), found);
+            } else {
+                Assert.assertArrayEquals(content(i, 64 + i), found);
+                unmodified++;
+            }
+        }
+
+        Assert.assertEquals(unmodified, reopened.findAllUnmodifiedSince(5000L).size());
+    }
+
+    /**
+     * 日志段中的记录都失效后，日志段文件被删除
+     */
+    @Test
+    public void testReclaimSegment() {
+
+        MappedSegmentStore store = open(4 * 1024);
+        List<TransactionXid> xids = new ArrayList<TransactionXid>();
+
+        for (int i = 0; i < 60; i++) {
+            TransactionXid xid = new TransactionXid();
+            store.create(xid, 1, 1000L, 1L, content(i, 200));
+            xids.add(xid);
+        }
+
+        int before = segmentFiles().length;
+        Assert.assertTrue(before > 2);
+
+        for (TransactionXid xid : xids) {
+            store.delete(xid);
+        }
+
+        // 只剩下当前写入的日志段
+        Assert.assertEquals(1, segmentFiles().length);
+        Assert.assertEquals(0, store.size());
+    }
+
+    /**
+     * 跨日志段更新后删除，不关闭直接以当前文件内容重新加载(模拟宕机)，被删除的事务不会复活
+     */
+    @Test
+    public void testDeleteAfterUpdateAcrossRollSurvivesCrash() throws IOException {
+
+        MappedSegmentStore store = open(4 * 1024);
+
+        TransactionXid xid = new TransactionXid();
+        store.create(xid, 1, 1000L, 1L, content(0, 200));
+
+        for (int i = 1; i < 30; i++) {
+            store.create(new TransactionXid(), 1, 1000L, 1L, content(i, 200));
+        }
+
+        Assert.assertTrue(segmentFiles().length > 1);
+
+        Assert.assertEquals(1, store.update(xid, 1L, 2, 2000L, 2L, content(-1, 200)));
+        Assert.assertEquals(1, store.delete(xid));
+
+        // 旧记录所在的封存日志段中已持久化失效标记
+        File first = segmentFiles()[0];
+        Assert.assertEquals(0, stateOf(first, recordOffsets(first).get(0)));
+
+        File crashed = new File(rootPath.getPath() + "-crashed");
+        crashed.mkdirs();
+
+        try {
+            for (File file : segmentFiles()) {
+                Files.copy(file.toPath(), new File(crashed, file.getName()).toPath());
+            }
+
+            MappedSegmentStore reloaded = new MappedSegmentStore(crashed.getPath(), 4 * 1024, 64);
+
+            try {
+                Assert.assertNull(reloaded.findOne(xid));
+                Assert.assertEquals(29, reloaded.size());
+            } finally {
+                reloaded.close();
+            }
+        } finally {
+            for (File file : crashed.listFiles()) {
+                file.delete();
+            }
+            crashed.delete();
+        }
+    }
+
+    /**
+     * 最后一个日志段尾部的记录未完整落盘，加载时丢弃并从该位置继续写入
+     */
+    @Test
+    public void testTornTailRecordDiscarded() throws IOException {
+
+        MappedSegmentStore store = open(64 * 1024);
+        List<TransactionXid> xids = new ArrayList<TransactionXid>();
+
+        for (int i = 0; i < 10; i++) {
+            TransactionXid xid = new TransactionXid();
+            store.create(xid, 1, 1000L, 1L, content(i, 100));
+            xids.add(xid);
+        }
+
+        store.close();
+
+        File segment = segmentFiles()[0];
+        corrupt(segment, recordOffsets(segment).get(9) + 40);
+
+        MappedSegmentStore reopened = open(64 * 1024);
+
+        for (int i = 0; i < 9; i++) {
+            Assert.assertArrayEquals(content(i, 100), reopened.findOne(xids.get(i)));
+        }
+        Assert.assertNull(reopened.findOne(xids.get(9)));
+
+        TransactionXid xid = new TransactionXid();
+        Assert.assertEquals(1, reopened.create(xid, 1, 1000L, 1L, content(99, 10)));
+        reopened.close();
+
+        MappedSegmentStore again = open(64 * 1024);
+        Assert.assertArrayEquals(content(99, 10), again.findOne(xid));
+        Assert.assertEquals(10, again.size());
+    }
+
+    /**
+     * 已封存的日志段中出现损坏的记录时拒绝加载，而不是跳过其后的记录
+     */
+    @Test
+    public void testCorruptedMiddleSegmentRejected() throws IOException {
+
+        MappedSegmentStore store = open(4 * 1024);
+
+        for (int i = 0; i < 60; i++) {
+            store.create(new TransactionXid(), 1, 1000L, 1L, content(i, 200));
+        }
+
+        store.close();
+
+        File[] files = segmentFiles();
+        Assert.assertTrue(files.length > 2);
+        corrupt(files[0], recordOffsets(files[0]).get(1) + 40);
+
+        try {
+            open(4 * 1024);
+            Assert.fail();
+        } catch (TransactionIOException e) {
+            Assert.assertTrue(e.getMessage().contains(files[0].getName()));
+        }
+    }
+
+    @Test(expected = TransactionIOException.class)
+    public void testClosed() {
+        MappedSegmentStore store = open(4 * 1024);
+        store.close();
+        store.findOne(new TransactionXid());
+    }
+
+    private MappedSegmentStore open(int segmentSize) {
+        MappedSegmentStore store = new MappedSegmentStore(rootPath.getPath(), segmentSize, 64);
+        stores.add(store);
+        return store;
+    }
+
+    private File[] segmentFiles() {
+
+        File[] files = rootPath.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".segment");
+            }
+        });
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static List<Integer> recordOffsets(File segment) throws IOException {
+
+        List<Integer> offsets = new ArrayList<Integer>();
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+
+        try {
+            int position = 0;
+
+            while (position + 4 <= file.length()) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                offsets.add(position);
+                position += length;
+            }
+        } finally {
+            file.close();
+        }
+
+        return offsets;
+    }
+
+    private static int stateOf(File segment, int offset) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+
+        try {
+            file.seek(offset + 8);
+            return file.read();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void corrupt(File segment, long position) throws IOException {
+
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+
+        try {
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static byte[] content(int seed, int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (seed * 31 + i);
+        }
+        return content;
+    }
+}
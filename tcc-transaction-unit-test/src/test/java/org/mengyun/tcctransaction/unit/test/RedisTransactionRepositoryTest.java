@@ -0,0 +1,101 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.RedisTransactionRepository;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Redis存储使用紧凑格式序列化器时的创建、增量更新和全量更新
+ */
+public class RedisTransactionRepositoryTest {
+
+    private static final String KEY_PREFIX = "TCC:UT:";
+
+    private FakeRedisServer server;
+
+    private JedisPool jedisPool;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRedisServer();
+        jedisPool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        jedisPool.destroy();
+        server.close();
+    }
+
+    @Test
+    public void testUpdateWithCompactSerializer() {
+
+        RedisTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction));
+        repository.create(transaction);
+
+        // 新增参与者只追加单独的字段
+        Participant second = TransactionFixtures.newParticipant(transaction);
+        transaction.enlistParticipant(second);
+        repository.update(transaction);
+
+        Assert.assertTrue(fields(transaction).contains(ExpandTransactionSerializer.PARTICIPANT_FIELD_PREFIX + 1));
+
+        Transaction found = newRepository().findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(2, found.getParticipants().size());
+        Assert.assertEquals(second.getXid(), found.getParticipants().get(1).getXid());
+        Assert.assertEquals(transaction.getVersion(), found.getVersion());
+
+        // 已落库参与者的状态变化时全量写入，并清除追加的参与者字段
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+        repository.update(transaction);
+
+        Assert.assertFalse(fields(transaction).contains(ExpandTransactionSerializer.PARTICIPANT_FIELD_PREFIX + 1));
+
+        found = newRepository().findByXid((TransactionXid) transaction.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        Assert.assertEquals(2, found.getParticipants().size());
+        Assert.assertEquals(ParticipantStatus.CONFIRMED, found.getParticipants().get(0).getStatus());
+        Assert.assertEquals(ParticipantStatus.TRYING, found.getParticipants().get(1).getStatus());
+        Assert.assertEquals(transaction.getVersion(), found.getVersion());
+    }
+
+    private RedisTransactionRepository newRepository() {
+        RedisTransactionRepository repository = new RedisTransactionRepository();
+        repository.setKeyPrefix(KEY_PREFIX);
+        repository.setJedisPool(jedisPool);
+        repository.setSerializer(new CompactTransactionSerializer());
+        return repository;
+    }
+
+    private Set<String> fields(Transaction transaction) {
+
+        Jedis jedis = jedisPool.getResource();
+
+        try {
+            return jedis.hkeys(new String(RedisHelper.getRedisKey(KEY_PREFIX, transaction.getXid())));
+        } finally {
+            jedis.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.apache.dubbo.common.URL;
+import org.apache.dubbo.rpc.AppResponse;
+import org.apache.dubbo.rpc.Invocation;
+import org.apache.dubbo.rpc.Invoker;
+import org.apache.dubbo.rpc.Result;
+import org.apache.dubbo.rpc.RpcContext;
+import org.apache.dubbo.rpc.RpcException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.proxy.jdk.TccInvokerInvocationHandler;
+import org.mengyun.tcctransaction.dubbo.proxy.jdk.TccJdkProxyFactory;
+import org.mengyun.tcctransaction.interceptor.CompensableMethodMetadata;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TccJdkProxyFactory生成的代理：@Compensable方法在Trying阶段登记参与者，未指定confirmMethod时使用与TccProxy相同的默认值，
+ * 并且不修改接口上的注解
+ */
+public class TccInvokerInvocationHandlerTest extends AbstractTestCase {
+
+    @Autowired
+    private TransactionConfigurator transactionConfigurator;
+
+    private TransactionManager transactionManager;
+
+    private Transaction transaction;
+
+    private RecordingInvoker invoker;
+
+    private RemoteService proxy;
+
+    @Before
+    public void before() {
+        RpcContext.removeContext();
+        transactionManager = transactionConfigurator.getTransactionManager();
+        transaction = transactionManager.begin();
+        invoker = new RecordingInvoker();
+        proxy = new TccJdkProxyFactory().getProxy(invoker, new Class<?>[]{RemoteService.class});
+    }
+
+    @After
+    public void after() {
+        RpcContext.removeContext();
+        if (transactionManager.getCurrentTransaction() == transaction) {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+        transactionConfigurator.getTransactionRepository().delete(transaction);
+    }
+
+    /**
+     * 未指定confirmMethod：confirm和cancel调用远程的同名方法，TransactionContext通过attachment传递，传播特性为SUPPORTS
+     */
+    @Test
+    public void testDefaultsWithoutConfirmMethod() throws Exception {
+
+        Assert.assertEquals("ok", proxy.record(1L));
+
+        Assert.assertEquals(1, transaction.getParticipants().size());
+        Participant participant = transaction.getParticipants().get(0);
+
+        assertInvocation(participant.getConfirmInvocationContext(), "record");
+        assertInvocation(participant.getCancelInvocationContext(), "record");
+        Assert.assertEquals(DubboTransactionContextEditor.class, participant.getTransactionContextEditorClass());
+
+        Assert.assertEquals(1, invoker.contexts.size());
+        Assert.assertEquals(participant.getXid(), new DubboTransactionContextEditor().get(null, null, null).getXid());
+
+        Method record = RemoteService.class.getMethod("record", long.class);
+        Assert.assertEquals(Propagation.SUPPORTS, metadataOf(record).getPropagation());
+    }
+
+    @Test
+    public void testExplicitAnnotation() throws Exception {
+
+        Assert.assertEquals("ok", proxy.transfer(null, 1L));
+
+        Assert.assertEquals(1, transaction.getParticipants().size());
+        Participant participant = transaction.getParticipants().get(0);
+
+        assertInvocation(participant.getConfirmInvocationContext(), "confirmTransfer");
+        assertInvocation(participant.getCancelInvocationContext(), "cancelTransfer");
+        Assert.assertEquals(Compensable.DefaultTransactionContextEditor.class, participant.getTransactionContextEditorClass());
+
+        // TransactionContext作为参数传递，不写入attachment
+        Assert.assertNull(invoker.contexts.get(0));
+        Assert.assertEquals(participant.getXid(), ((TransactionContext) participant.getConfirmInvocationContext().getArgs()[0]).getXid());
+
+        Method transfer = RemoteService.class.getMethod("transfer", TransactionContext.class, long.class);
+        Assert.assertEquals(Propagation.REQUIRED, metadataOf(transfer).getPropagation());
+    }
+
+    /**
+     * 默认值只记录在方法信息中，接口上的注解保持原样
+     */
+    @Test
+    public void testAnnotationNotMutated() throws Exception {
+
+        proxy.record(1L);
+
+        Compensable compensable = RemoteService.class.getMethod("record", long.class).getAnnotation(Compensable.class);
+
+        Assert.assertEquals("", compensable.confirmMethod());
+        Assert.assertEquals("", compensable.cancelMethod());
+        Assert.assertEquals(Compensable.DefaultTransactionContextEditor.class, compensable.transactionContextEditor());
+        Assert.assertEquals(Propagation.REQUIRED, compensable.propagation());
+    }
+
+    @Test
+    public void testNonCompensableMethodNotEnlisted() {
+
+        Assert.assertEquals("ok", proxy.query(1L));
+
+        Assert.assertEquals(0, transaction.getParticipants().size());
+        Assert.assertNull(invoker.contexts.get(0));
+    }
+
+    private static void assertInvocation(InvocationContext invocationContext, String methodName) {
+        Assert.assertEquals(RemoteService.class, invocationContext.getTargetClass());
+        Assert.assertEquals(methodName, invocationContext.getMethodName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompensableMethodMetadata metadataOf(Method method) throws Exception {
+
+        Field field = TccInvokerInvocationHandler.class.getDeclaredField("compensableMethods");
+        field.setAccessible(true);
+
+        return ((Map<Method, CompensableMethodMetadata>) field.get(Proxy.getInvocationHandler(proxy))).get(method);
+    }
+
+    public interface RemoteService {
+
+        @Compensable
+        String record(long id);
+
+        @Compensable(confirmMethod = "confirmTransfer", cancelMethod = "cancelTransfer")
+        String transfer(TransactionContext context, long id);
+
+        String query(long id);
+    }
+
+    /**
+     * 记录每次远程调用时RpcContext中的TransactionContext，Dubbo在AbstractInvoker中把它带到Invocation上
+     */
+    private static class RecordingInvoker implements Invoker<RemoteService> {
+
+        private final List<String> contexts = new ArrayList<String>();
+
+        @Override
+        public Class<RemoteService> getInterface() {
+            return RemoteService.class;
+        }
+
+        @Override
+        public Result invoke(Invocation invocation) throws RpcException {
+            contexts.add(RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT));
+            return new AppResponse("ok");
+        }
+
+        @Override
+        public URL getUrl() {
+            return null;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Terminator;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.context.MethodTransactionContextEditor;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Terminator调用confirm/cancel方法：TransactionContext参数的设置、重载和桥接方法的解析，以及异常的包装
+ */
+public class TerminatorTest {
+
+    private TransactionContext transactionContext;
+
+    @Before
+    public void setUp() {
+        transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId());
+        Target.calls.clear();
+        CustomTransactionContextEditor.current = null;
+    }
+
+    @Test
+    public void testDefaultEditorSetsContextParameter() {
+
+        Object result = Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "confirm", new Class[]{String.class, TransactionContext.class}, "a", null),
+                Compensable.DefaultTransactionContextEditor.class);
+
+        Assert.assertEquals("confirm:a", result);
+        Assert.assertEquals(Collections.<Object>singletonList(transactionContext), Target.calls);
+    }
+
+    @Test
+    public void testMethodTransactionContextEditor() {
+
+        Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "confirm", new Class[]{String.class, TransactionContext.class}, "a", null),
+                MethodTransactionContextEditor.class);
+
+        Assert.assertEquals(Collections.<Object>singletonList(transactionContext), Target.calls);
+    }
+
+    /**
+     * 重载的confirm方法按参数类型区分
+     */
+    @Test
+    public void testOverloadedMethods() {
+
+        Assert.assertEquals("confirm:a", Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "confirm", new Class[]{String.class, TransactionContext.class}, "a", null),
+                Compensable.DefaultTransactionContextEditor.class));
+
+        Assert.assertEquals("confirm:7", Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "confirm", new Class[]{TransactionContext.class, long.class}, null, 7L),
+                Compensable.DefaultTransactionContextEditor.class));
+
+        Assert.assertEquals(2, Target.calls.size());
+    }
+
+    /**
+     * 参与者按擦除后的参数类型记录时调用到桥接方法，最终执行实现类的方法
+     */
+    @Test
+    public void testBridgeMethod() {
+
+        Object result = Terminator.invoke(transactionContext,
+                new InvocationContext(StringGenericTarget.class, "confirm", new Class[]{TransactionContext.class, Object.class}, null, "a"),
+                Compensable.DefaultTransactionContextEditor.class);
+
+        Assert.assertEquals("generic:a", result);
+    }
+
+    /**
+     * 自定义编辑器的set方法收到解析得到的方法和调用参数
+     */
+    @Test
+    public void testCustomEditor() {
+
+        Object result = Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "confirmWithoutContext", new Class[]{String.class}, "a"),
+                CustomTransactionContextEditor.class);
+
+        Assert.assertEquals("custom:a", result);
+        Assert.assertSame(transactionContext, CustomTransactionContextEditor.current);
+        Assert.assertEquals("confirmWithoutContext", CustomTransactionContextEditor.method.getName());
+    }
+
+    /**
+     * 继承默认编辑器的自定义编辑器不按参数位置直接赋值
+     */
+    @Test
+    public void testDefaultEditorSubclassCalled() {
+
+        Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "confirm", new Class[]{String.class, TransactionContext.class}, "a", null),
+                IgnoringTransactionContextEditor.class);
+
+        Assert.assertEquals(Collections.<Object>singletonList(null), Target.calls);
+    }
+
+    @Test
+    public void testEmptyMethodNameSkipped() {
+
+        Assert.assertNull(Terminator.invoke(transactionContext,
+                new InvocationContext(Target.class, "", new Class[0]),
+                Compensable.DefaultTransactionContextEditor.class));
+
+        Assert.assertTrue(Target.calls.isEmpty());
+    }
+
+    /**
+     * 与Method.invoke一样，目标方法抛出的异常包装为InvocationTargetException后再包装为SystemException
+     */
+    @Test
+    public void testTargetExceptionWrapped() {
+
+        for (String methodName : new String[]{"failChecked", "failUnchecked", "failError"}) {
+            try {
+                Terminator.invoke(transactionContext,
+                        new InvocationContext(Target.class, methodName, new Class[]{TransactionContext.class}, (Object) null),
+                        Compensable.DefaultTransactionContextEditor.class);
+                Assert.fail();
+            } catch (SystemException e) {
+                Assert.assertTrue(e.getCause() instanceof InvocationTargetException);
+                Assert.assertEquals(methodName, ((InvocationTargetException) e.getCause()).getTargetException().getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testMissingMethod() {
+        try {
+            Terminator.invoke(transactionContext,
+                    new InvocationContext(Target.class, "missing", new Class[]{TransactionContext.class}, (Object) null),
+                    Compensable.DefaultTransactionContextEditor.class);
+            Assert.fail();
+        } catch (SystemException e) {
+            Assert.assertTrue(e.getCause() instanceof NoSuchMethodException);
+        }
+    }
+
+    public static class Target {
+
+        private static final List<Object> calls = Collections.synchronizedList(new ArrayList<Object>());
+
+        public String confirm(String key, TransactionContext transactionContext) {
+            calls.add(transactionContext);
+            return "confirm:" + key;
+        }
+
+        public String confirm(TransactionContext transactionContext, long id) {
+            calls.add(transactionContext);
+            return "confirm:" + id;
+        }
+
+        public String confirmWithoutContext(String key) {
+            return "custom:" + key;
+        }
+
+        public void failChecked(TransactionContext transactionContext) throws IOException {
+            throw new IOException("failChecked");
+        }
+
+        public void failUnchecked(TransactionContext transactionContext) {
+            throw new IllegalStateException("failUnchecked");
+        }
+
+        public void failError(TransactionContext transactionContext) {
+            throw new AssertionError("failError");
+        }
+    }
+
+    public interface GenericTarget<T> {
+        String confirm(TransactionContext transactionContext, T order);
+    }
+
+    public static class StringGenericTarget implements GenericTarget<String> {
+
+        @Override
+        public String confirm(TransactionContext transactionContext, String order) {
+            return "generic:" + order;
+        }
+    }
+
+    public static class CustomTransactionContextEditor implements TransactionContextEditor {
+
+        private static volatile TransactionContext current;
+
+        private static volatile Method method;
+
+        @Override
+        public TransactionContext get(Object target, Method method, Object[] args) {
+            return current;
+        }
+
+        @Override
+        public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
+            current = transactionContext;
+            CustomTransactionContextEditor.method = method;
+        }
+    }
+
+    public static class IgnoringTransactionContextEditor extends Compensable.DefaultTransactionContextEditor {
+
+        @Override
+        public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.alibaba.fastjson.JSON;
+import org.apache.dubbo.rpc.RpcContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.context.TransactionContextCodec;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * TransactionContext在Dubbo attachment中的二进制编码，以及DubboTransactionContextEditor对JSON旧格式的兼容
+ */
+public class TransactionContextCodecTest {
+
+    @Before
+    public void setUp() {
+        RpcContext.removeContext();
+    }
+
+    @After
+    public void tearDown() {
+        RpcContext.removeContext();
+    }
+
+    @Test
+    public void testRoundTrip() {
+
+        TransactionContext context = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+
+        String encoded = TransactionContextCodec.encode(context);
+
+        Assert.assertEquals(54, encoded.length());
+
+        TransactionContext decoded = TransactionContextCodec.decode(encoded);
+
+        Assert.assertEquals(context.getXid(), decoded.getXid());
+        Assert.assertEquals(context.getStatus(), decoded.getStatus());
+        Assert.assertTrue(decoded.getAttachments().isEmpty());
+    }
+
+    @Test
+    public void testAttachments() {
+
+        TransactionContext context = new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId());
+        context.getAttachments().put("tenant", "t-1");
+        context.getAttachments().put("备注", "中文值");
+        context.getAttachments().put("empty", "");
+
+        TransactionContext decoded = TransactionContextCodec.decode(TransactionContextCodec.encode(context));
+
+        Assert.assertEquals(TransactionStatus.CONFIRMING.getId(), decoded.getStatus());
+        Assert.assertEquals(context.getAttachments(), decoded.getAttachments());
+    }
+
+    /**
+     * 自定义XidGenerator生成的ID长度不固定
+     */
+    @Test
+    public void testVariableLengthIds() {
+
+        byte[] globalTransactionId = new byte[40];
+        Arrays.fill(globalTransactionId, (byte) 7);
+
+        for (byte[] branchQualifier : new byte[][]{new byte[0], new byte[]{1}, new byte[300]}) {
+
+            TransactionXid xid = new TransactionXid(globalTransactionId, branchQualifier);
+            TransactionContext decoded = TransactionContextCodec.decode(
+                    TransactionContextCodec.encode(new TransactionContext(xid, TransactionStatus.CANCELLING.getId())));
+
+            Assert.assertArrayEquals(globalTransactionId, decoded.getXid().getGlobalTransactionId());
+            Assert.assertArrayEquals(branchQualifier, decoded.getXid().getBranchQualifier());
+        }
+    }
+
+    @Test
+    public void testTruncatedRejected() {
+
+        TransactionContext context = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+        context.getAttachments().put("key", "value");
+
+        byte[] bytes = Base64.getUrlDecoder().decode(TransactionContextCodec.encode(context));
+
+        for (int length = 1; length < bytes.length; length++) {
+            String truncated = Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(bytes, length));
+            try {
+                TransactionContextCodec.decode(truncated);
+                Assert.fail("accepted " + length + " of " + bytes.length + " bytes");
+            } catch (SystemException e) {
+                // truncated
+            }
+        }
+    }
+
+    @Test(expected = SystemException.class)
+    public void testWrongVersionRejected() {
+
+        byte[] bytes = Base64.getUrlDecoder().decode(TransactionContextCodec.encode(
+                new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId())));
+        bytes[0] = TransactionContextCodec.FORMAT_VERSION + 1;
+
+        TransactionContextCodec.decode(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes));
+    }
+
+    @Test(expected = SystemException.class)
+    public void testInvalidBase64Rejected() {
+        TransactionContextCodec.decode("not base64!");
+    }
+
+    /**
+     * 旧版本服务消费方以JSON格式传递TransactionContext
+     */
+    @Test
+    public void testEditorReadsLegacyJson() {
+
+        TransactionContext context = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, JSON.toJSONString(context));
+
+        TransactionContext decoded = new DubboTransactionContextEditor().get(null, null, null);
+
+        Assert.assertEquals(context.getXid(), decoded.getXid());
+        Assert.assertEquals(context.getStatus(), decoded.getStatus());
+    }
+
+    /**
+     * 默认以JSON格式写入，旧版本服务提供方可以解析
+     */
+    @Test
+    public void testEditorWritesJsonByDefault() {
+
+        TransactionContext context = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+
+        DubboTransactionContextEditor editor = new DubboTransactionContextEditor();
+        editor.set(context, null, null, null);
+
+        String attachment = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
+
+        Assert.assertEquals('{', attachment.charAt(0));
+        Assert.assertEquals(context.getXid(), editor.get(null, null, null).getXid());
+    }
+
+    @Test
+    public void testEditorWritesBinaryWhenEnabled() {
+
+        TransactionContext context = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+
+        DubboTransactionContextEditor editor = new DubboTransactionContextEditor();
+        editor.setBinaryEncoding(true);
+        editor.set(context, null, null, null);
+
+        String attachment = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
+
+        Assert.assertEquals(TransactionContextCodec.encode(context), attachment);
+        Assert.assertEquals(context.getXid(), editor.get(null, null, null).getXid());
+    }
+
+    /**
+     * 同一个attachment值只解析一次，值变化后重新解析
+     */
+    @Test
+    public void testEditorCachesDecodedContext() {
+
+        DubboTransactionContextEditor editor = new DubboTransactionContextEditor();
+
+        editor.set(new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId()), null, null, null);
+
+        TransactionContext first = editor.get(null, null, null);
+        Assert.assertSame(first, editor.get(null, null, null));
+
+        TransactionContext other = new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId());
+        editor.set(other, null, null, null);
+
+        TransactionContext second = editor.get(null, null, null);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(other.getXid(), second.getXid());
+    }
+}
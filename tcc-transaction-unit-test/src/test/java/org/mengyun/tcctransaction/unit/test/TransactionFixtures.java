@@ -0,0 +1,75 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+/**
+ * 各测试共用的事务和参与者
+ */
+final class TransactionFixtures {
+
+    private TransactionFixtures() {
+    }
+
+    /**
+     * 每个key一个参与者的根事务，见{@link #newParticipant(Transaction, Class, String)}
+     *
+     * @param targetClass
+     * @param keys
+     * @return
+     */
+    static Transaction newTransaction(Class<?> targetClass, String... keys) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        for (String key : keys) {
+            transaction.enlistParticipant(newParticipant(transaction, targetClass, key));
+        }
+
+        return transaction;
+    }
+
+    /**
+     * confirm(TransactionContext, String)和cancel(TransactionContext, String)，TransactionContext作为第一个参数传递
+     *
+     * @param transaction
+     * @param targetClass
+     * @param key
+     * @return
+     */
+    static Participant newParticipant(Transaction transaction, Class<?> targetClass, String key) {
+        return newParticipant(transaction, targetClass, new Class[]{TransactionContext.class, String.class}, new Object[]{null, key});
+    }
+
+    /**
+     * confirm和cancel共用同一个参数数组，使用DefaultTransactionContextEditor
+     *
+     * @param transaction
+     * @param targetClass
+     * @param parameterTypes
+     * @param args
+     * @return
+     */
+    static Participant newParticipant(Transaction transaction, Class<?> targetClass, Class[] parameterTypes, Object[] args) {
+        return new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(targetClass, "confirm", parameterTypes, args),
+                new InvocationContext(targetClass, "cancel", parameterTypes, args),
+                Compensable.DefaultTransactionContextEditor.class);
+    }
+
+    /**
+     * 没有confirm和cancel方法的参与者，只用于存储的读写
+     *
+     * @param transaction
+     * @return
+     */
+    static Participant newParticipant(Transaction transaction) {
+        return new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(), new InvocationContext(), null);
+    }
+}
@@ -0,0 +1,218 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * TransactionManager登记参与者时的异步写入(asyncEnlist)与合并写入(coalesceEnlist)
+ */
+public class TransactionManagerEnlistTest {
+
+    private RecordingTransactionRepository repository;
+
+    private TransactionManager transactionManager;
+
+    private Transaction transaction;
+
+    @Before
+    public void setUp() {
+        repository = new RecordingTransactionRepository();
+        transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+    }
+
+    @After
+    public void tearDown() {
+        if (transaction != null && transactionManager.getCurrentTransaction() == transaction) {
+            transactionManager.cleanAfterCompletion(transaction);
+        }
+    }
+
+    /**
+     * 登记参与者时只提交写入，等待发生在awaitPendingWrite，提交前写入已经完成
+     */
+    @Test
+    public void testAsyncEnlistAwaitedBeforeCommit() {
+
+        transactionManager.setAsyncEnlist(true);
+        transaction = transactionManager.begin();
+
+        transactionManager.enlistParticipant(newParticipant());
+
+        Assert.assertEquals(1, repository.asyncUpdates.get());
+        Assert.assertEquals(Collections.singletonList("create:TRYING:0"), repository.writes);
+
+        repository.writeGate.complete(true);
+        transactionManager.awaitPendingWrite();
+
+        Assert.assertEquals(1, repository.stored(transaction).getParticipants().size());
+
+        transactionManager.commit(false);
+
+        Assert.assertEquals(Arrays.asList(
+                "create:TRYING:0", "update:TRYING:1", "update:CONFIRMING:1", "delete"), repository.writes);
+    }
+
+    /**
+     * 异步写入失败时，在下一次登记参与者前抛出与同步写入相同的异常
+     */
+    @Test
+    public void testAsyncEnlistFailureSurfacesAtNextEnlist() {
+
+        transactionManager.setAsyncEnlist(true);
+        transaction = transactionManager.begin();
+
+        transactionManager.enlistParticipant(newParticipant());
+        repository.writeGate.complete(false);
+
+        try {
+            transactionManager.enlistParticipant(newParticipant());
+            Assert.fail();
+        } catch (TransactionIOException e) {
+            // 上一次登记的写入失败
+        }
+
+        Assert.assertEquals(1, transaction.getParticipants().size());
+
+        // 写入失败已经抛出，之后不再重复抛出
+        transactionManager.awaitPendingWrite();
+    }
+
+    /**
+     * 没有开启asyncEnlist时，登记参与者同步写入
+     */
+    @Test
+    public void testSyncEnlist() {
+
+        transaction = transactionManager.begin();
+        transactionManager.enlistParticipant(newParticipant());
+
+        Assert.assertEquals(0, repository.asyncUpdates.get());
+        Assert.assertEquals(Arrays.asList("create:TRYING:0", "update:TRYING:1"), repository.writes);
+    }
+
+    /**
+     * 根事务的创建与第一个参与者(根方法自身)的登记合并为一次写入，在根方法的try执行前落库
+     */
+    @Test
+    public void testCoalesceEnlist() {
+
+        transactionManager.setCoalesceEnlist(true);
+        transaction = transactionManager.begin();
+
+        Assert.assertTrue(repository.writes.isEmpty());
+        Assert.assertNull(repository.stored(transaction));
+
+        transactionManager.enlistParticipant(newParticipant());
+
+        Assert.assertEquals(Collections.singletonList("create:TRYING:1"), repository.writes);
+        Assert.assertEquals(1, repository.stored(transaction).getParticipants().size());
+
+        transactionManager.enlistParticipant(newParticipant());
+        transactionManager.commit(false);
+
+        Assert.assertEquals(Arrays.asList(
+                "create:TRYING:1", "update:TRYING:2", "update:CONFIRMING:2", "delete"), repository.writes);
+    }
+
+    /**
+     * 根方法已登记时，回滚前存储中已有TRYING状态的事务，宕机后恢复任务会调用根方法的cancel
+     */
+    @Test
+    public void testCoalesceEnlistRollback() {
+
+        transactionManager.setCoalesceEnlist(true);
+        transaction = transactionManager.begin();
+
+        transactionManager.enlistParticipant(newParticipant());
+        transactionManager.rollback(false);
+
+        Assert.assertEquals(Arrays.asList("create:TRYING:1", "update:CANCELLING:1", "delete"), repository.writes);
+    }
+
+    /**
+     * 没有参与者时，提交时直接以CONFIRMING状态创建事务
+     */
+    @Test
+    public void testCoalesceEnlistWithoutParticipant() {
+
+        transactionManager.setCoalesceEnlist(true);
+        transaction = transactionManager.begin();
+
+        transactionManager.commit(false);
+
+        Assert.assertEquals(Arrays.asList("create:CONFIRMING:0", "delete"), repository.writes);
+    }
+
+    private Participant newParticipant() {
+        return new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                new InvocationContext(), new InvocationContext(), null);
+    }
+
+    /**
+     * 按顺序记录实际执行的写入，异步更新在writeGate完成后才执行
+     */
+    private static class RecordingTransactionRepository extends InMemoryTransactionRepository {
+
+        private final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+
+        private final AtomicInteger asyncUpdates = new AtomicInteger();
+
+        private final CompletableFuture<Boolean> writeGate = new CompletableFuture<Boolean>();
+
+        @Override
+        protected int doCreate(Transaction transaction) {
+            writes.add("create:" + transaction.getStatus() + ":" + transaction.getParticipants().size());
+            return super.doCreate(transaction);
+        }
+
+        @Override
+        protected int doUpdate(Transaction transaction) {
+            writes.add("update:" + transaction.getStatus() + ":" + transaction.getParticipants().size());
+            return super.doUpdate(transaction);
+        }
+
+        @Override
+        protected int doDelete(Transaction transaction) {
+            writes.add("delete");
+            return super.doDelete(transaction);
+        }
+
+        @Override
+        protected CompletableFuture<Integer> doUpdateAsync(final Transaction transaction) {
+
+            asyncUpdates.incrementAndGet();
+
+            return writeGate.thenApply(new Function<Boolean, Integer>() {
+                @Override
+                public Integer apply(Boolean succeeded) {
+                    if (!succeeded) {
+                        throw new TransactionIOException("write failed");
+                    }
+                    return doUpdate(transaction);
+                }
+            });
+        }
+
+        private Transaction stored(Transaction transaction) {
+            return doFindOne(transaction.getXid());
+        }
+    }
+}
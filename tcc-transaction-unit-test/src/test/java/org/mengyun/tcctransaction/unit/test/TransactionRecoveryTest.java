@@ -0,0 +1,408 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.recover.RecoverProgress;
+import org.mengyun.tcctransaction.recover.TransactionRecovery;
+import org.mengyun.tcctransaction.repository.InMemoryTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TransactionConfigurator;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异常事务恢复：分页并行恢复、恢复进度统计、按目标类限流，以及线程数小于等于1时的逐个恢复
+ */
+public class TransactionRecoveryTest {
+
+    private RecordingTransactionRepository repository;
+
+    private DefaultRecoverConfig recoverConfig;
+
+    private TransactionRecovery transactionRecovery;
+
+    private long lastUpdateTime;
+
+    @Before
+    public void setUp() {
+
+        repository = new RecordingTransactionRepository();
+
+        recoverConfig = new DefaultRecoverConfig();
+        recoverConfig.setRecoverDuration(1);
+        recoverConfig.setMaxRetryCount(3);
+
+        transactionRecovery = new TransactionRecovery();
+        transactionRecovery.setTransactionConfigurator(new TransactionConfigurator() {
+            @Override
+            public TransactionManager getTransactionManager() {
+                return null;
+            }
+
+            @Override
+            public TransactionRepository getTransactionRepository() {
+                return repository;
+            }
+
+            @Override
+            public RecoverConfig getRecoverConfig() {
+                return recoverConfig;
+            }
+        });
+
+        lastUpdateTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+
+        Target.reset();
+    }
+
+    @After
+    public void tearDown() {
+        Target.reset();
+    }
+
+    /**
+     * 一页内的事务并行恢复，整页完成后才加载下一页
+     */
+    @Test
+    public void testParallelPageRecoveredBeforeNextPageLoaded() {
+
+        recoverConfig.setRecoverThreadPoolSize(4);
+        recoverConfig.setRecoverPageSize(2);
+
+        createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "a");
+        createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "b");
+        createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "c");
+        createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "d");
+
+        // 同一页的两个事务都到达屏障才能返回，逐个恢复时会超时失败
+        Target.barrier = new CyclicBarrier(2);
+        Target.repository = repository;
+
+        transactionRecovery.startRecover();
+
+        Assert.assertEquals(2, repository.pageLoads.get());
+        Assert.assertEquals(Integer.valueOf(1), Target.pageLoadsOnCall.get("confirm:a"));
+        Assert.assertEquals(Integer.valueOf(1), Target.pageLoadsOnCall.get("confirm:b"));
+        Assert.assertEquals(Integer.valueOf(2), Target.pageLoadsOnCall.get("confirm:c"));
+        Assert.assertEquals(Integer.valueOf(2), Target.pageLoadsOnCall.get("confirm:d"));
+
+        for (String thread : Target.threads) {
+            Assert.assertTrue(thread, thread.startsWith("tcc-recover-"));
+        }
+
+        RecoverProgress progress = transactionRecovery.getProgress();
+        Assert.assertEquals(4, progress.getLoadedCount());
+        Assert.assertEquals(4, progress.getRecoveredCount());
+        Assert.assertEquals(0, progress.getInFlightCount());
+        Assert.assertTrue(repository.findAllUnmodifiedSince(new Date()).isEmpty());
+    }
+
+    @Test
+    public void testProgressCounts() {
+
+        recoverConfig.setRecoverThreadPoolSize(4);
+        recoverConfig.setRecoverPageSize(2);
+
+        createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "a");
+        createTransaction(TransactionType.ROOT, TransactionStatus.CANCELLING, Target.class, "b");
+
+        // 失败的事务保留在存储中等待下一轮恢复
+        Transaction failing = createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "c");
+        Target.failing.add("c");
+
+        // 超过最大重试次数
+        Transaction exhausted = newTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "d");
+        exhausted.resetRetriedCount(recoverConfig.getMaxRetryCount() + 1);
+        create(exhausted);
+
+        // 刚创建不久的分支事务由根事务负责恢复
+        create(newTransaction(TransactionType.BRANCH, TransactionStatus.CONFIRMING, Target.class, "e"));
+
+        transactionRecovery.startRecover();
+
+        RecoverProgress progress = transactionRecovery.getProgress();
+
+        Assert.assertFalse(progress.isRunning());
+        Assert.assertEquals(5, progress.getLoadedCount());
+        Assert.assertEquals(2, progress.getRecoveredCount());
+        Assert.assertEquals(1, progress.getFailedCount());
+        Assert.assertEquals(2, progress.getSkippedCount());
+        Assert.assertEquals(0, progress.getInFlightCount());
+        Assert.assertTrue(progress.getLastFinishTime() >= progress.getStartTime());
+
+        Assert.assertEquals(1, Target.calls("confirm:a"));
+        Assert.assertEquals(1, Target.calls("cancel:b"));
+        Assert.assertEquals(0, Target.calls("confirm:d"));
+        Assert.assertEquals(0, Target.calls("confirm:e"));
+
+        Assert.assertNotNull(repository.findByXid((TransactionXid) failing.getXid()));
+        Assert.assertNull(repository.findByXid((TransactionXid) newTransactionXid("a")));
+    }
+
+    /**
+     * 每个目标类各自一个限流器，不同目标类之间互不影响
+     */
+    @Test
+    public void testRateLimitPerTarget() {
+
+        recoverConfig.setRecoverThreadPoolSize(1);
+        recoverConfig.setRecoverRateLimitPerTarget(5);
+
+        for (int i = 0; i < 3; i++) {
+            createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "a" + i);
+            createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, OtherTarget.class, "b" + i);
+        }
+
+        long startTime = System.currentTimeMillis();
+        transactionRecovery.startRecover();
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        Assert.assertEquals(6, transactionRecovery.getProgress().getRecoveredCount());
+
+        // 每个目标类3次，每秒5次，至少等待400ms；所有目标类共用一个限流器时至少等待1000ms
+        Assert.assertTrue(String.valueOf(elapsed), elapsed >= 350);
+        Assert.assertTrue(String.valueOf(elapsed), elapsed < 900);
+    }
+
+    /**
+     * 已经confirm的参与者不会被调用，也不占用限流许可
+     */
+    @Test
+    public void testTerminatedParticipantsTakeNoPermits() {
+
+        recoverConfig.setRecoverThreadPoolSize(1);
+        recoverConfig.setRecoverRateLimitPerTarget(2);
+
+        for (int i = 0; i < 6; i++) {
+            Transaction transaction = newTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "a" + i);
+            transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+            create(transaction);
+        }
+
+        long startTime = System.currentTimeMillis();
+        transactionRecovery.startRecover();
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        Assert.assertEquals(6, transactionRecovery.getProgress().getRecoveredCount());
+        Assert.assertTrue(Target.threads.isEmpty());
+
+        // 每个事务各占一个许可时，每秒2次至少等待2500ms
+        Assert.assertTrue(String.valueOf(elapsed), elapsed < 1000);
+    }
+
+    /**
+     * 只实现了并行恢复之前的方法的RecoverConfig，按默认值逐页逐个恢复且不限流
+     */
+    @Test
+    public void testRecoverConfigDefaults() {
+
+        final RecoverConfig legacyConfig = new RecoverConfig() {
+            @Override
+            public int getMaxRetryCount() {
+                return 3;
+            }
+
+            @Override
+            public int getRecoverDuration() {
+                return 1;
+            }
+
+            @Override
+            public String getCronExpression() {
+                return "0 */1 * * * ?";
+            }
+
+            @Override
+            public Set<Class<? extends Exception>> getDelayCancelExceptions() {
+                return Collections.emptySet();
+            }
+
+            @Override
+            public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayRecoverExceptions) {
+            }
+
+            @Override
+            public int getAsyncTerminateThreadCorePoolSize() {
+                return 1;
+            }
+
+            @Override
+            public int getAsyncTerminateThreadMaxPoolSize() {
+                return 1;
+            }
+
+            @Override
+            public int getAsyncTerminateThreadWorkQueueSize() {
+                return 1;
+            }
+        };
+
+        Assert.assertEquals(200, legacyConfig.getRecoverPageSize());
+        Assert.assertEquals(1, legacyConfig.getRecoverThreadPoolSize());
+        Assert.assertEquals(0d, legacyConfig.getRecoverRateLimitPerTarget(), 0d);
+
+        // DefaultRecoverConfig同样默认逐个恢复
+        Assert.assertEquals(1, new DefaultRecoverConfig().getRecoverThreadPoolSize());
+
+        transactionRecovery.setTransactionConfigurator(new TransactionConfigurator() {
+            @Override
+            public TransactionManager getTransactionManager() {
+                return null;
+            }
+
+            @Override
+            public TransactionRepository getTransactionRepository() {
+                return repository;
+            }
+
+            @Override
+            public RecoverConfig getRecoverConfig() {
+                return legacyConfig;
+            }
+        });
+
+        createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "a");
+        createTransaction(TransactionType.ROOT, TransactionStatus.CANCELLING, Target.class, "b");
+
+        transactionRecovery.startRecover();
+
+        Assert.assertEquals(2, transactionRecovery.getProgress().getRecoveredCount());
+        Assert.assertEquals(Collections.singleton(Thread.currentThread().getName()), Target.threads);
+    }
+
+    /**
+     * 线程数小于等于1时在调度线程中逐个恢复
+     */
+    @Test
+    public void testSequentialWhenPoolSizeNotGreaterThanOne() {
+
+        for (int poolSize : new int[]{0, 1}) {
+
+            recoverConfig.setRecoverThreadPoolSize(poolSize);
+
+            createTransaction(TransactionType.ROOT, TransactionStatus.CONFIRMING, Target.class, "a" + poolSize);
+            createTransaction(TransactionType.ROOT, TransactionStatus.CANCELLING, Target.class, "b" + poolSize);
+
+            transactionRecovery.startRecover();
+
+            Assert.assertEquals(2, transactionRecovery.getProgress().getRecoveredCount());
+            Assert.assertEquals(Collections.singleton(Thread.currentThread().getName()), Target.threads);
+        }
+    }
+
+    private Transaction createTransaction(TransactionType transactionType, TransactionStatus status, Class targetClass, String key) {
+        Transaction transaction = newTransaction(transactionType, status, targetClass, key);
+        create(transaction);
+        return transaction;
+    }
+
+    private void create(Transaction transaction) {
+        // 按创建顺序排列，并且早于恢复间隔
+        transaction.setLastUpdateTime(new Date(lastUpdateTime++));
+        repository.create(transaction);
+    }
+
+    private static Transaction newTransaction(TransactionType transactionType, TransactionStatus status, Class targetClass, String key) {
+
+        Transaction transaction = new Transaction(newTransactionXid(key), transactionType, new Date());
+        transaction.changeStatus(status);
+
+        transaction.enlistParticipant(TransactionFixtures.newParticipant(transaction, targetClass, key));
+
+        return transaction;
+    }
+
+    private static TransactionXid newTransactionXid(String key) {
+        return new TransactionXid(Arrays.copyOf(key.getBytes(), 16), new byte[0]);
+    }
+
+    /**
+     * 记录分页加载的次数
+     */
+    private static class RecordingTransactionRepository extends InMemoryTransactionRepository {
+
+        private final AtomicInteger pageLoads = new AtomicInteger();
+
+        @Override
+        protected Page<Transaction> doFindAllUnmodifiedSince(Date date, String offset, int pageSize) {
+            pageLoads.incrementAndGet();
+            return super.doFindAllUnmodifiedSince(date, offset, pageSize);
+        }
+    }
+
+    public static class Target {
+
+        private static final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private static final ConcurrentMap<String, Integer> pageLoadsOnCall = new ConcurrentHashMap<String, Integer>();
+
+        private static final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+
+        private static final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+        private static volatile CyclicBarrier barrier;
+
+        private static volatile RecordingTransactionRepository repository;
+
+        public void confirm(TransactionContext transactionContext, String key) throws Exception {
+            invoke("confirm:" + key, key);
+        }
+
+        public void cancel(TransactionContext transactionContext, String key) throws Exception {
+            invoke("cancel:" + key, key);
+        }
+
+        private static void invoke(String call, String key) throws Exception {
+
+            calls.putIfAbsent(call, new AtomicInteger());
+            calls.get(call).incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+
+            if (repository != null) {
+                pageLoadsOnCall.put(call, repository.pageLoads.get());
+            }
+
+            if (barrier != null) {
+                barrier.await(5, TimeUnit.SECONDS);
+            }
+
+            if (failing.contains(key)) {
+                throw new IllegalStateException(call + " failed");
+            }
+        }
+
+        private static int calls(String call) {
+            AtomicInteger count = calls.get(call);
+            return count == null ? 0 : count.get();
+        }
+
+        private static void reset() {
+            calls.clear();
+            pageLoadsOnCall.clear();
+            failing.clear();
+            threads.clear();
+            barrier = null;
+            repository = null;
+        }
+    }
+
+    public static class OtherTarget extends Target {
+    }
+}
@@ -0,0 +1,255 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionRepository;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.FileSystemTransactionRepository;
+import org.mengyun.tcctransaction.repository.Page;
+import org.mengyun.tcctransaction.repository.RedisTransactionRepository;
+import org.mengyun.tcctransaction.repository.WriteAheadLogTransactionRepository;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 各事务日志存储分页扫描异常事务：结果不重复、不遗漏，offset可以接着上一页继续扫描
+ */
+public class TransactionRepositoryPagingTest {
+
+    private static final int EXPIRED = 230;
+
+    private static final int FRESH = 40;
+
+    private static final int PAGE_SIZE = 32;
+
+    private File rootPath;
+
+    private Date threshold;
+
+    @Before
+    public void setUp() throws IOException {
+        rootPath = File.createTempFile("tcc-paging", "");
+        rootPath.delete();
+        threshold = new Date(System.currentTimeMillis() - 60 * 1000L);
+    }
+
+    @After
+    public void tearDown() {
+        delete(rootPath);
+    }
+
+    @Test
+    public void testDefaultMethodReturnsSinglePage() {
+
+        final List<Transaction> all = Arrays.asList(new Transaction(TransactionType.ROOT), new Transaction(TransactionType.ROOT));
+
+        TransactionRepository repository = new TransactionRepository() {
+            @Override
+            public int create(Transaction transaction) {
+                return 1;
+            }
+
+            @Override
+            public int update(Transaction transaction) {
+                return 1;
+            }
+
+            @Override
+            public int delete(Transaction transaction) {
+                return 1;
+            }
+
+            @Override
+            public Transaction findByXid(TransactionXid xid) {
+                return null;
+            }
+
+            @Override
+            public List<Transaction> findAllUnmodifiedSince(Date date) {
+                return all;
+            }
+        };
+
+        Page<Transaction> page = repository.findAllUnmodifiedSince(threshold, null, 1);
+
+        Assert.assertSame(all, page.getData());
+        Assert.assertFalse(page.hasNext());
+    }
+
+    @Test
+    public void testFileSystemPaging() {
+
+        FileSystemTransactionRepository repository = new FileSystemTransactionRepository();
+        repository.setRootPath(rootPath.getPath());
+
+        Set<TransactionXid> expected = createTransactions(repository);
+
+        FileSystemTransactionRepository reader = new FileSystemTransactionRepository();
+        reader.setRootPath(rootPath.getPath());
+
+        // 文件模式按文件名翻页，过滤在页内进行，页数由文件总数决定
+        Assert.assertEquals(expected, scan(reader, (EXPIRED + FRESH + PAGE_SIZE - 1) / PAGE_SIZE));
+    }
+
+    @Test
+    public void testMappedStoragePaging() {
+
+        FileSystemTransactionRepository repository = new FileSystemTransactionRepository();
+        repository.setRootPath(rootPath.getPath());
+        repository.setMappedStorage(true);
+        repository.setSegmentSize(256 * 1024);
+        repository.setIndexCapacity(1024);
+
+        Set<TransactionXid> expected = createTransactions(repository);
+
+        // 按索引槽位翻页，每页正好pageSize条，最后一页结束时返回null
+        Assert.assertEquals(expected, scan(repository, (EXPIRED + PAGE_SIZE - 1) / PAGE_SIZE));
+    }
+
+    @Test
+    public void testWriteAheadLogPaging() {
+
+        WriteAheadLogTransactionRepository repository = new WriteAheadLogTransactionRepository();
+        repository.setRootPath(rootPath.getPath());
+
+        try {
+            Set<TransactionXid> expected = createTransactions(repository);
+
+            List<Transaction> firstPage = repository.findAllUnmodifiedSince(threshold, null, PAGE_SIZE).getData();
+
+            // 堆选出的每页按(最后更新时间, xid)有序
+            for (int i = 1; i < firstPage.size(); i++) {
+                Assert.assertTrue(firstPage.get(i - 1).getLastUpdateTime().compareTo(firstPage.get(i).getLastUpdateTime()) <= 0);
+            }
+
+            Assert.assertEquals(expected, scan(repository, (EXPIRED + PAGE_SIZE - 1) / PAGE_SIZE));
+
+            // 上一页最后一条之后被删除，offset仍能继续
+            Page<Transaction> page = repository.findAllUnmodifiedSince(threshold, null, PAGE_SIZE);
+            repository.delete(page.getData().get(PAGE_SIZE - 1));
+            Page<Transaction> next = repository.findAllUnmodifiedSince(threshold, page.getNextOffset(), PAGE_SIZE);
+            Assert.assertEquals(PAGE_SIZE, next.getData().size());
+            Assert.assertTrue(next.getData().get(0).getLastUpdateTime().compareTo(page.getData().get(PAGE_SIZE - 1).getLastUpdateTime()) >= 0);
+            Assert.assertNotEquals(page.getData().get(PAGE_SIZE - 1).getXid(), next.getData().get(0).getXid());
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testRedisScanPaging() throws IOException {
+
+        FakeRedisServer server = new FakeRedisServer();
+        JedisPool jedisPool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+
+        try {
+            RedisTransactionRepository repository = new RedisTransactionRepository();
+            repository.setKeyPrefix("TCC:UT:");
+            repository.setJedisPool(jedisPool);
+
+            Set<TransactionXid> expected = new HashSet<TransactionXid>();
+            KryoPoolSerializer serializer = new KryoPoolSerializer();
+            Jedis jedis = jedisPool.getResource();
+
+            try {
+                for (int i = 0; i < EXPIRED + FRESH; i++) {
+                    Transaction transaction = newTransaction(i, expected);
+                    jedis.hmset(RedisHelper.getRedisKey("TCC:UT:", transaction.getXid()), ExpandTransactionSerializer.serialize(serializer, transaction));
+                }
+
+                // 其他前缀的key不会被扫描到
+                jedis.hmset("OTHER:1".getBytes(), Collections.singletonMap("LAST_UPDATE_TIME".getBytes(), "2000-01-01 00:00:00".getBytes()));
+            } finally {
+                jedis.close();
+            }
+
+            // SCAN按游标翻页，COUNT只是提示值，页数由key的总数决定
+            Assert.assertEquals(expected, scan(repository, -1));
+
+            // 不支持SCAN时退回到一次性查询
+            repository.setSupportScan(false);
+            Page<Transaction> page = repository.findAllUnmodifiedSince(threshold, null, PAGE_SIZE);
+            Assert.assertFalse(page.hasNext());
+            Assert.assertEquals(EXPIRED, page.getData().size());
+        } finally {
+            jedisPool.destroy();
+            server.close();
+        }
+    }
+
+    private Set<TransactionXid> createTransactions(TransactionRepository repository) {
+
+        Set<TransactionXid> expected = new HashSet<TransactionXid>();
+
+        for (int i = 0; i < EXPIRED + FRESH; i++) {
+            repository.create(newTransaction(i, expected));
+        }
+
+        return expected;
+    }
+
+    private Transaction newTransaction(int i, Set<TransactionXid> expected) {
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        if (i < EXPIRED) {
+            // 每5个事务共用一个更新时间，Redis中只保存到秒
+            transaction.setLastUpdateTime(new Date(threshold.getTime() - 3600 * 1000L + (i / 5) * 1000L));
+            expected.add((TransactionXid) transaction.getXid());
+        }
+
+        return transaction;
+    }
+
+    /**
+     * 从首页扫描到nextOffset为null，pages不小于0时同时校验页数
+     */
+    private Set<TransactionXid> scan(TransactionRepository repository, int pages) {
+
+        Set<TransactionXid> scanned = new HashSet<TransactionXid>();
+        String offset = null;
+        int count = 0;
+
+        do {
+            Page<Transaction> page = repository.findAllUnmodifiedSince(threshold, offset, PAGE_SIZE);
+
+            for (Transaction transaction : page.getData()) {
+                Assert.assertTrue(transaction.getLastUpdateTime().before(threshold));
+                Assert.assertTrue(scanned.add((TransactionXid) transaction.getXid()));
+            }
+
+            offset = page.getNextOffset();
+            count++;
+        } while (offset != null);
+
+        if (pages >= 0) {
+            Assert.assertEquals(pages, count);
+        }
+
+        return scanned;
+    }
+
+    private static void delete(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,150 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * 文件存储的记录格式：头部字段不经过序列化器，事务内容只序列化一次，以及以前以Map包装写入的记录的读取
+ */
+public class TransactionSerializerTest {
+
+    /**
+     * 魔数、版本、状态、类型、重试次数、创建时间、更新时间、版本号、两个ID的长度
+     */
+    private static final int FIXED_HEADER_LENGTH = 43;
+
+    @Test
+    public void testEnvelopeRoundTrip() {
+
+        for (ObjectSerializer serializer : new ObjectSerializer[]{
+                new KryoPoolSerializer(0), new CompactTransactionSerializer(), new JdkSerializationSerializer()}) {
+
+            Transaction transaction = newTransaction();
+            transaction.changeStatus(TransactionStatus.CONFIRMING);
+            transaction.resetRetriedCount(2);
+            transaction.setVersion(7);
+
+            byte[] content = serializer.serialize(transaction);
+            byte[] bytes = TransactionSerializer.serialize(serializer, transaction);
+
+            Assert.assertEquals('T', bytes[0]);
+            Assert.assertEquals('E', bytes[1]);
+            Assert.assertEquals(1, bytes[2]);
+
+            // 事务内容只序列化一次，原样放在头部字段和ID之后
+            TransactionXid xid = (TransactionXid) transaction.getXid();
+            int headerLength = FIXED_HEADER_LENGTH + xid.getGlobalTransactionId().length + xid.getBranchQualifier().length;
+            Assert.assertEquals(headerLength + content.length, bytes.length);
+
+            Transaction found = TransactionSerializer.deserialize(serializer, bytes);
+
+            Assert.assertEquals(transaction.getXid(), found.getXid());
+            Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+            Assert.assertEquals(2, found.getRetriedCount());
+            Assert.assertEquals(7L, found.getVersion());
+            Assert.assertEquals(transaction.getLastUpdateTime(), found.getLastUpdateTime());
+            Assert.assertEquals(1, found.getParticipants().size());
+        }
+    }
+
+    @Test(expected = SystemException.class)
+    public void testWrongVersionRejected() {
+
+        KryoPoolSerializer serializer = new KryoPoolSerializer(0);
+
+        byte[] bytes = TransactionSerializer.serialize(serializer, newTransaction());
+        bytes[2] = 2;
+
+        TransactionSerializer.deserialize(serializer, bytes);
+    }
+
+    /**
+     * 以前由KryoPoolSerializer以Map包装写入的记录，当时的Participant还没有状态字段
+     */
+    @Test
+    public void testLegacyKryoRecord() {
+
+        Transaction transaction = newTransaction();
+
+        Kryo kryo = new Kryo();
+        kryo.setReferences(true);
+        kryo.setRegistrationRequired(false);
+        ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy()).setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+
+        FieldSerializer<Participant> legacyParticipantSerializer = new FieldSerializer<Participant>(kryo, Participant.class);
+        legacyParticipantSerializer.removeField("status");
+        kryo.addDefaultSerializer(Participant.class, legacyParticipantSerializer);
+
+        Output content = new Output(4096, -1);
+        kryo.writeClassAndObject(content, transaction);
+
+        Output output = new Output(4096, -1);
+        kryo.writeClassAndObject(output, legacyMap(transaction, content.toBytes()));
+
+        assertLegacyRecordRead(new KryoPoolSerializer(0), transaction, output.toBytes());
+    }
+
+    @Test
+    public void testLegacyJdkRecord() {
+
+        JdkSerializationSerializer serializer = new JdkSerializationSerializer();
+        Transaction transaction = newTransaction();
+
+        byte[] bytes = SerializationUtils.serialize(legacyMap(transaction, serializer.serialize(transaction)));
+
+        assertLegacyRecordRead(serializer, transaction, bytes);
+    }
+
+    private static void assertLegacyRecordRead(ObjectSerializer serializer, Transaction transaction, byte[] bytes) {
+
+        Transaction found = TransactionSerializer.deserialize(serializer, bytes);
+
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(3, found.getRetriedCount());
+        Assert.assertEquals(4L, found.getVersion());
+        Assert.assertEquals(new Date(1000L), found.getLastUpdateTime());
+        Assert.assertEquals("confirm", found.getParticipants().get(0).getConfirmInvocationContext().getMethodName());
+    }
+
+    /**
+     * 与以前的TransactionSerializer.serialize写入的Map相同
+     */
+    private static HashMap<String, Object> legacyMap(Transaction transaction, byte[] content) {
+
+        HashMap<String, Object> map = new HashMap<String, Object>();
+
+        map.put("GLOBAL_TX_ID", transaction.getXid().getGlobalTransactionId());
+        map.put("BRANCH_QUALIFIER", transaction.getXid().getBranchQualifier());
+        map.put("STATUS", transaction.getStatus().getId());
+        map.put("TRANSACTION_TYPE", transaction.getTransactionType().getId());
+        map.put("RETRIED_COUNT", 3);
+        map.put("CREATE_TIME", transaction.getCreateTime());
+        map.put("LAST_UPDATE_TIME", new Date(1000L));
+        map.put("VERSION", 4L);
+        map.put("CONTENT", content);
+
+        return map;
+    }
+
+    private static Transaction newTransaction() {
+        return TransactionFixtures.newTransaction(TransactionSerializerTest.class, "key");
+    }
+}
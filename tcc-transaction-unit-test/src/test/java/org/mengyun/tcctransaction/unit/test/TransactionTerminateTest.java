@@ -0,0 +1,247 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 参与者confirm/cancel的并行执行、已完成参与者的跳过，以及参与者状态的持久化
+ */
+public class TransactionTerminateTest {
+
+    private ExecutorService executorService;
+
+    @Before
+    public void setUp() {
+        executorService = Executors.newFixedThreadPool(4);
+        Target.reset();
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        Target.reset();
+    }
+
+    @Test
+    public void testParallelCommit() {
+
+        Transaction transaction = newTransaction("a", "b", "c", "d");
+
+        // 四个参与者都到达屏障才能返回，串行执行时会超时失败
+        Target.barrier = new CyclicBarrier(4);
+
+        transaction.commit(executorService);
+
+        for (Participant participant : transaction.getParticipants()) {
+            Assert.assertEquals(ParticipantStatus.CONFIRMED, participant.getStatus());
+        }
+
+        Assert.assertEquals(1, Target.calls("confirm:a"));
+        Assert.assertEquals(1, Target.calls("confirm:d"));
+        Assert.assertEquals(4, Target.threads.size());
+    }
+
+    /**
+     * 部分参与者失败时等待全部完成，抛出第一个异常，重试时只调用未完成的参与者
+     */
+    @Test
+    public void testParallelRollbackRetriesOnlyFailedParticipants() {
+
+        Transaction transaction = newTransaction("a", "b", "c");
+        Target.failing.add("b");
+        Target.failing.add("c");
+
+        try {
+            transaction.rollback(executorService);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals(1, e.getSuppressed().length);
+        }
+
+        Assert.assertEquals(ParticipantStatus.CANCELLED, transaction.getParticipants().get(0).getStatus());
+        Assert.assertEquals(ParticipantStatus.TRYING, transaction.getParticipants().get(1).getStatus());
+        Assert.assertEquals(ParticipantStatus.TRYING, transaction.getParticipants().get(2).getStatus());
+
+        Target.failing.clear();
+        transaction.rollback(executorService);
+
+        Assert.assertEquals(1, Target.calls("cancel:a"));
+        Assert.assertEquals(2, Target.calls("cancel:b"));
+        Assert.assertEquals(2, Target.calls("cancel:c"));
+
+        for (Participant participant : transaction.getParticipants()) {
+            Assert.assertEquals(ParticipantStatus.CANCELLED, participant.getStatus());
+        }
+    }
+
+    @Test
+    public void testSequentialTerminateSkipsCompletedParticipants() {
+
+        Transaction transaction = newTransaction("a", "b");
+        transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+
+        transaction.commit();
+
+        Assert.assertEquals(0, Target.calls("confirm:a"));
+        Assert.assertEquals(1, Target.calls("confirm:b"));
+
+        transaction = newTransaction("c", "d");
+        transaction.getParticipants().get(1).setStatus(ParticipantStatus.CANCELLED);
+
+        transaction.rollback();
+
+        Assert.assertEquals(1, Target.calls("cancel:c"));
+        Assert.assertEquals(0, Target.calls("cancel:d"));
+    }
+
+    /**
+     * 线程池拒绝的任务由当前线程执行
+     */
+    @Test
+    public void testRejectedTasksRunByCallingThread() {
+
+        executorService.shutdown();
+
+        Transaction transaction = newTransaction("a", "b", "c");
+        transaction.commit(executorService);
+
+        Assert.assertEquals(Collections.singleton(Thread.currentThread().getName()), Target.threads);
+
+        for (Participant participant : transaction.getParticipants()) {
+            Assert.assertEquals(ParticipantStatus.CONFIRMED, participant.getStatus());
+        }
+    }
+
+    @Test
+    public void testParticipantStatusPersisted() {
+
+        Transaction transaction = newTransaction("a", "b");
+        transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+
+        KryoPoolSerializer serializer = new KryoPoolSerializer(0);
+
+        Transaction found = serializer.deserialize(serializer.serialize(transaction));
+        Assert.assertEquals(ParticipantStatus.CONFIRMED, found.getParticipants().get(0).getStatus());
+        Assert.assertEquals(ParticipantStatus.TRYING, found.getParticipants().get(1).getStatus());
+
+        Transaction copy = serializer.clone(transaction);
+        Assert.assertEquals(ParticipantStatus.CONFIRMED, copy.getParticipants().get(0).getStatus());
+    }
+
+    /**
+     * 参与者加入状态字段之前由Kryo写入的记录，读取后参与者状态为TRYING
+     */
+    @Test
+    public void testLegacyKryoRecord() {
+
+        Transaction transaction = newTransaction("a", "b");
+        transaction.getParticipants().get(0).setStatus(ParticipantStatus.CONFIRMED);
+
+        Kryo kryo = new Kryo();
+        kryo.setReferences(true);
+        kryo.setRegistrationRequired(false);
+        ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy()).setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+
+        // 旧版本Participant的字段布局
+        FieldSerializer<Participant> legacyParticipantSerializer = new FieldSerializer<Participant>(kryo, Participant.class);
+        legacyParticipantSerializer.removeField("status");
+        kryo.addDefaultSerializer(Participant.class, legacyParticipantSerializer);
+
+        Output output = new Output(4096, -1);
+        kryo.writeClassAndObject(output, transaction);
+
+        Transaction found = new KryoPoolSerializer(0).deserialize(output.toBytes());
+
+        Assert.assertEquals(transaction.getXid(), found.getXid());
+        Assert.assertEquals(2, found.getParticipants().size());
+        Assert.assertEquals(transaction.getParticipants().get(1).getXid(), found.getParticipants().get(1).getXid());
+        Assert.assertEquals("confirm", found.getParticipants().get(1).getConfirmInvocationContext().getMethodName());
+
+        for (Participant participant : found.getParticipants()) {
+            Assert.assertEquals(ParticipantStatus.TRYING, participant.getStatus());
+        }
+    }
+
+    /**
+     * JDK反序列化旧记录时status为null，按TRYING处理
+     */
+    @Test
+    public void testLegacyJdkRecord() {
+
+        Transaction transaction = newTransaction("a");
+        transaction.getParticipants().get(0).setStatus(null);
+
+        JdkSerializationSerializer serializer = new JdkSerializationSerializer();
+        Transaction found = serializer.deserialize(serializer.serialize(transaction));
+
+        Assert.assertEquals(ParticipantStatus.TRYING, found.getParticipants().get(0).getStatus());
+    }
+
+    private static Transaction newTransaction(String... keys) {
+        return TransactionFixtures.newTransaction(Target.class, keys);
+    }
+
+    public static class Target {
+
+        private static final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private static final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+
+        private static final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+        private static volatile CyclicBarrier barrier;
+
+        public void confirm(TransactionContext transactionContext, String key) throws Exception {
+            invoke("confirm:" + key, key);
+        }
+
+        public void cancel(TransactionContext transactionContext, String key) throws Exception {
+            invoke("cancel:" + key, key);
+        }
+
+        private static void invoke(String call, String key) throws Exception {
+
+            calls.putIfAbsent(call, new AtomicInteger());
+            calls.get(call).incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+
+            if (barrier != null) {
+                barrier.await(5, TimeUnit.SECONDS);
+            }
+
+            if (failing.contains(key)) {
+                throw new IllegalStateException(call + " failed");
+            }
+        }
+
+        private static int calls(String call) {
+            AtomicInteger count = calls.get(call);
+            return count == null ? 0 : count.get();
+        }
+
+        private static void reset() {
+            calls.clear();
+            failing.clear();
+            threads.clear();
+            barrier = null;
+        }
+    }
+}
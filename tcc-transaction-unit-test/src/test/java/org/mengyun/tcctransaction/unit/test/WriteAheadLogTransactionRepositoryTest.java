@@ -0,0 +1,377 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.OptimisticLockException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.repository.WriteAheadLogTransactionRepository;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WriteAheadLogTransactionRepository的重放、压缩、关闭与并发写入
+ */
+public class WriteAheadLogTransactionRepositoryTest {
+
+    private File rootPath;
+
+    private final List<WriteAheadLogTransactionRepository> repositories = new ArrayList<WriteAheadLogTransactionRepository>();
+
+    @Before
+    public void setUp() throws IOException {
+        rootPath = File.createTempFile("tcc-wal", "");
+        rootPath.delete();
+    }
+
+    @After
+    public void tearDown() {
+
+        for (WriteAheadLogTransactionRepository repository : repositories) {
+            repository.close();
+        }
+
+        File[] files = rootPath.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        rootPath.delete();
+    }
+
+    @Test
+    public void testReopenAfterTruncatedTail() throws IOException {
+
+        WriteAheadLogTransactionRepository repository = newRepository();
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        for (int i = 0; i < 20; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            transactions.add(transaction);
+        }
+
+        repository.close();
+
+        // 模拟写入最后一条记录时宕机，日志段尾部只有半条记录
+        File last = segmentFiles()[segmentFiles().length - 1];
+        long length = last.length();
+        RandomAccessFile file = new RandomAccessFile(last, "rw");
+        try {
+            file.setLength(length - 5);
+        } finally {
+            file.close();
+        }
+
+        WriteAheadLogTransactionRepository reopened = newRepository();
+
+        for (int i = 0; i < transactions.size() - 1; i++) {
+            Assert.assertNotNull(reopened.findByXid((TransactionXid) transactions.get(i).getXid()));
+        }
+
+        Transaction lost = transactions.get(transactions.size() - 1);
+        Assert.assertNull(reopened.findByXid((TransactionXid) lost.getXid()));
+
+        // 截断后可以继续追加，再次重放时新旧记录都在
+        Assert.assertEquals(1, reopened.create(lost));
+        reopened.close();
+
+        WriteAheadLogTransactionRepository again = newRepository();
+
+        for (Transaction transaction : transactions) {
+            Assert.assertNotNull(again.findByXid((TransactionXid) transaction.getXid()));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+
+        WriteAheadLogTransactionRepository repository = newRepository();
+        repository.setSegmentSize(8 * 1024);
+        repository.setCompactInterval(1);
+
+        List<Transaction> live = new ArrayList<Transaction>();
+        List<Transaction> deleted = new ArrayList<Transaction>();
+
+        for (int i = 0; i < 400; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            (i % 10 == 0 ? live : deleted).add(transaction);
+        }
+
+        for (Transaction transaction : deleted) {
+            repository.delete(transaction);
+        }
+
+        for (Transaction transaction : live) {
+            transaction.changeStatus(TransactionStatus.CONFIRMING);
+            repository.update(transaction);
+        }
+
+        int before = segmentFiles().length;
+        long deadline = System.currentTimeMillis() + 20 * 1000L;
+
+        while (segmentFiles().length > before / 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(200);
+        }
+
+        Assert.assertTrue("segments before:" + before + ", after:" + segmentFiles().length, segmentFiles().length <= before / 4);
+
+        // 压缩过程中和压缩之后都能读到搬迁后的记录
+        for (Transaction transaction : live) {
+            Transaction found = repository.findByXid((TransactionXid) transaction.getXid());
+            Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+        }
+
+        repository.close();
+
+        WriteAheadLogTransactionRepository reopened = newRepository();
+
+        for (Transaction transaction : live) {
+            Transaction found = reopened.findByXid((TransactionXid) transaction.getXid());
+            Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+            Assert.assertEquals(2L, found.getVersion());
+        }
+
+        for (Transaction transaction : deleted) {
+            Assert.assertNull(reopened.findByXid((TransactionXid) transaction.getXid()));
+        }
+    }
+
+    @Test
+    public void testConcurrentCreateAndUpdate() throws Exception {
+
+        final WriteAheadLogTransactionRepository repository = newRepository();
+        final int threads = 8;
+        final int perThread = 100;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Transaction>>> futures = new ArrayList<Future<List<Transaction>>>();
+
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<List<Transaction>>() {
+                @Override
+                public List<Transaction> call() {
+                    List<Transaction> transactions = new ArrayList<Transaction>();
+                    for (int j = 0; j < perThread; j++) {
+                        Transaction transaction = new Transaction(TransactionType.ROOT);
+                        repository.create(transaction);
+                        transaction.changeStatus(TransactionStatus.CONFIRMING);
+                        repository.update(transaction);
+                        transactions.add(transaction);
+                    }
+                    return transactions;
+                }
+            }));
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+
+        try {
+            for (Future<List<Transaction>> future : futures) {
+                transactions.addAll(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // 并发提交的记录合并fsync
+        Assert.assertTrue(repository.getFsyncCount() < threads * perThread * 2);
+
+        repository.close();
+
+        WriteAheadLogTransactionRepository reopened = newRepository();
+
+        for (Transaction transaction : transactions) {
+            Transaction found = reopened.findByXid((TransactionXid) transaction.getXid());
+            Assert.assertEquals(TransactionStatus.CONFIRMING, found.getStatus());
+            Assert.assertEquals(2L, found.getVersion());
+        }
+    }
+
+    /**
+     * 多个线程持有同一版本同时更新，只有一个成功
+     */
+    @Test
+    public void testConcurrentUpdateSameVersion() throws Exception {
+
+        WriteAheadLogTransactionRepository repository = newRepository();
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+
+        KryoPoolSerializer serializer = new KryoPoolSerializer();
+        final int nodes = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger conflicted = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int i = 0; i < nodes; i++) {
+
+            // 每个线程持有独立的事务副本，版本号相同
+            final WriteAheadLogTransactionRepository writer = repository;
+            final Transaction copy = (Transaction) serializer.deserialize(serializer.serialize(transaction));
+
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    copy.changeStatus(TransactionStatus.CONFIRMING);
+                    try {
+                        writer.update(copy);
+                        succeeded.incrementAndGet();
+                    } catch (OptimisticLockException e) {
+                        conflicted.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(1, succeeded.get());
+        Assert.assertEquals(nodes - 1, conflicted.get());
+    }
+
+    /**
+     * 关闭时写完已提交的记录，之后的写入直接失败
+     */
+    @Test
+    public void testCloseDrainsQueue() throws Exception {
+
+        WriteAheadLogTransactionRepository repository = newRepository();
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+
+        for (int i = 0; i < 500; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            futures.add(repository.createAsync(transaction));
+            transactions.add(transaction);
+        }
+
+        repository.close();
+
+        for (CompletableFuture<Integer> future : futures) {
+            Assert.assertEquals(1, future.get(5, TimeUnit.SECONDS).intValue());
+        }
+
+        try {
+            repository.create(new Transaction(TransactionType.ROOT));
+            Assert.fail();
+        } catch (TransactionIOException e) {
+            // closed
+        }
+
+        WriteAheadLogTransactionRepository reopened = newRepository();
+
+        for (Transaction transaction : transactions) {
+            Assert.assertNotNull(reopened.findByXid((TransactionXid) transaction.getXid()));
+        }
+    }
+
+    /**
+     * 批次中途切换日志段后写入失败：已告知成功的记录重启后都在，已告知失败的记录重启后都不在
+     */
+    @Test
+    public void testWriteFailureAfterRollInBatch() throws Exception {
+
+        WriteAheadLogTransactionRepository repository = newRepository();
+        repository.setSegmentSize(4 * 1024);
+
+        Transaction first = new Transaction(TransactionType.ROOT);
+        repository.create(first);
+
+        // 下一个日志段是命名管道，切换成功但按位置写入失败(ESPIPE)
+        File next = new File(rootPath, String.format("%020d.log", segmentFiles().length + 1));
+        Assume.assumeTrue(mkfifo(next));
+
+        Map<Transaction, CompletableFuture<Integer>> futures = new LinkedHashMap<Transaction, CompletableFuture<Integer>>();
+
+        for (int i = 0; i < 100; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            futures.put(transaction, repository.createAsync(transaction));
+        }
+
+        Set<Transaction> succeeded = new HashSet<Transaction>();
+
+        for (Map.Entry<Transaction, CompletableFuture<Integer>> entry : futures.entrySet()) {
+            try {
+                Assert.assertEquals(1, entry.getValue().get(5, TimeUnit.SECONDS).intValue());
+                succeeded.add(entry.getKey());
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TransactionIOException);
+            }
+        }
+
+        Assert.assertFalse(succeeded.isEmpty());
+        Assert.assertTrue(succeeded.size() < futures.size());
+
+        repository.close();
+        Assert.assertTrue(next.delete());
+
+        WriteAheadLogTransactionRepository reopened = newRepository();
+
+        Assert.assertNotNull(reopened.findByXid((TransactionXid) first.getXid()));
+
+        for (Transaction transaction : futures.keySet()) {
+            Transaction found = reopened.findByXid((TransactionXid) transaction.getXid());
+            Assert.assertEquals(succeeded.contains(transaction), found != null);
+        }
+    }
+
+    private WriteAheadLogTransactionRepository newRepository() {
+        WriteAheadLogTransactionRepository repository = new WriteAheadLogTransactionRepository();
+        repository.setRootPath(rootPath.getPath());
+        repositories.add(repository);
+        return repository;
+    }
+
+    private static boolean mkfifo(File file) throws InterruptedException {
+        try {
+            return new ProcessBuilder("mkfifo", file.getPath()).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private File[] segmentFiles() {
+
+        File[] files = rootPath.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,96 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.TimeBasedXidGenerator;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * TimeBasedXidGenerator多线程下不重复，同一线程内按时间有序
+ */
+public class XidGeneratorTest {
+
+    @Test
+    public void testUniqueAcrossThreads() throws Exception {
+
+        final TimeBasedXidGenerator generator = new TimeBasedXidGenerator(7);
+        final int threads = 8;
+        final int perThread = 50000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<ByteBuffer>>> futures = new ArrayList<Future<List<ByteBuffer>>>();
+
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<List<ByteBuffer>>() {
+                @Override
+                public List<ByteBuffer> call() {
+                    List<ByteBuffer> ids = new ArrayList<ByteBuffer>(perThread);
+                    for (int j = 0; j < perThread; j++) {
+                        ids.add(ByteBuffer.wrap(generator.generate()));
+                    }
+                    return ids;
+                }
+            }));
+        }
+
+        Set<ByteBuffer> ids = new HashSet<ByteBuffer>();
+
+        try {
+            for (Future<List<ByteBuffer>> future : futures) {
+
+                long lastTime = 0;
+
+                for (ByteBuffer id : future.get()) {
+                    Assert.assertTrue(ids.add(id));
+                    Assert.assertEquals(16, id.remaining());
+                    Assert.assertEquals(7, id.getLong(0) & 0xFFFF);
+
+                    long time = id.getLong(0) >>> 16;
+                    Assert.assertTrue(time >= lastTime);
+                    lastTime = time;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(threads * perThread, ids.size());
+    }
+
+    @Test
+    public void testBranchSharesGlobalTransactionId() {
+
+        TransactionXid root = new TransactionXid();
+        TransactionXid branch = new TransactionXid(root.getGlobalTransactionId());
+
+        Assert.assertArrayEquals(root.getGlobalTransactionId(), branch.getGlobalTransactionId());
+        Assert.assertFalse(Arrays.equals(root.getBranchQualifier(), branch.getBranchQualifier()));
+        Assert.assertNotEquals(root, branch);
+    }
+
+    /**
+     * 按业务唯一标识创建的xid各自持有全局ID的副本，修改一个不影响其他xid
+     */
+    @Test
+    public void testUniqueIdentityDoesNotShareGlobalTransactionId() {
+
+        TransactionXid first = new TransactionXid("order-1");
+        TransactionXid second = new TransactionXid("order-2");
+
+        Assert.assertNotSame(first.getGlobalTransactionId(), second.getGlobalTransactionId());
+
+        first.getGlobalTransactionId()[0] = 'X';
+
+        Assert.assertEquals("UniqueIdentity:order-2", second.toString());
+        Assert.assertEquals("UniqueIdentity:order-2", new TransactionXid("order-2").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNodeId() {
+        new TimeBasedXidGenerator(1 << 16);
+    }
+}